@@ -46,12 +46,11 @@ import org.transitclock.utils.Time;
  * Uses AVL based data of arrival/departure times and matches from the database
  * to update the expected travel and stop times.
  * <p>
- * NOTE: This could probably be made less resource/memory intensive by
- * processing a days worth of data at a time. Another possibility would be to
- * try to process the data while it is being read in instead of reading it all
- * in at the beginning. But that would likely be quite difficult to implement.
- * Processing one day of data at a time would likely be far simpler and
- * therefore a better choice.
+ * NOTE: If transitclock.traveltimes.incremental is set then the data is
+ * processed a day at a time and the results for each day are stored so that
+ * subsequent runs only need to process the days that are new. If
+ * transitclock.traveltimes.streaming is set then the data is processed while
+ * it is being read in instead of reading it all in at the beginning.
  * 
  * @author SkiBu Smith
  * 
@@ -311,8 +310,12 @@ public class UpdateTravelTimes {
 		// Read in historic data from db and put it into maps so that it can
 		// be processed.
 		TravelTimesProcessor processor = new TravelTimesProcessor();
-		processor.readAndProcessHistoricData(agencyId, specialDaysOfWeek,
-				beginTime, endTime);
+		if (TravelTimesProcessor.isIncremental())
+			processor.readAndProcessHistoricDataIncrementally(agencyId,
+					specialDaysOfWeek, beginTime, endTime);
+		else
+			processor.readAndProcessHistoricData(agencyId, specialDaysOfWeek,
+					beginTime, endTime);
 
 		if (processor.isEmpty()) {
 		  logger.info("Exiting...");
@@ -16,6 +16,7 @@
  */
 package org.transitclock.avl;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -27,6 +28,9 @@ import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.configData.AgencyConfig;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.logging.Markers;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.Time;
 import org.transitclock.utils.threading.NamedThreadFactory;
 
@@ -81,6 +85,12 @@ public class AvlExecutor {
 
 	private static boolean emailSentDueToQueueFull = false;
 	
+	// Set by the rejected handler so that processAvlReport() can tell whether
+	// the AVL report was accepted. Works since the handler is called by the
+	// thread that is adding the AVL report to the executor.
+	private static final ThreadLocal<Boolean> rejected = 
+			new ThreadLocal<Boolean>();
+	
 	/********************** Member Functions **************************/
 
 	/**
@@ -115,6 +125,9 @@ public class AvlExecutor {
 		BlockingQueue<Runnable> workQueue = new AvlQueue(maxAVLQueueSize);
 		NamedThreadFactory avlClientThreadFactory =
 				new NamedThreadFactory("avlClient");
+		final Counter rejectedCounter = MetricsRegistry.getInstance().counter(
+				"transitclock_avl_rejected_total",
+				"Number of AVL reports rejected because the AVL queue was full");
 		// Called when queue fills up
 		RejectedExecutionHandler rejectedHandler = new RejectedExecutionHandler() {
 			@Override
@@ -123,6 +136,8 @@ public class AvlExecutor {
 						+ AgencyConfig.getAgencyId() + ". The work "
 						+ "queue with capacity " + maxAVLQueueSize 
 						+ " must be full. " + ((AvlClient) arg0).getAvlReport();
+				rejectedCounter.increment();
+				rejected.set(Boolean.TRUE);
 				// If first one then send out an e-mail message since this can 
 				// be a serious issue indicating that system is locked up. This
 				// actually happened once when couldn't read from db due to a
@@ -140,6 +155,33 @@ public class AvlExecutor {
 						keepAliveTime, TimeUnit.HOURS, workQueue,
 						avlClientThreadFactory,
 						rejectedHandler);
+
+		registerMetrics();
+	}
+
+	/**
+	 * Registers gauges for the size of the AVL queue and for how many threads
+	 * are processing AVL reports.
+	 */
+	private void registerMetrics() {
+		final ThreadPoolExecutor executor = avlClientExecutor;
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.gauge("transitclock_avl_queue_size",
+				"Number of AVL reports waiting to be processed",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return executor.getQueue().size();
+					}
+				});
+		registry.gauge("transitclock_avl_active_threads",
+				"Number of threads currently processing AVL reports",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return executor.getActiveCount();
+					}
+				});
 	}
 	
 	/**
@@ -178,14 +220,49 @@ public class AvlExecutor {
 	 * @param useTestExecutor
 	 *            So can optional specify that should use a different test
 	 *            executor for testing out the queuing
+	 * @return true if the AVL report was accepted, false if it was rejected
+	 *         because the queue is full
 	 */
-	public void processAvlReport(AvlReport newAvlReport,
+	public boolean processAvlReport(AvlReport newAvlReport,
 			boolean... useTestExecutor) {
 		boolean testing = useTestExecutor.length > 0 && useTestExecutor[0];
 		Runnable avlClient = !testing ? 
 				new AvlClient(newAvlReport) : new AvlClientTester(newAvlReport);
 
-		avlClientExecutor.execute(avlClient);		
+		rejected.remove();
+		avlClientExecutor.execute(avlClient);
+		return rejected.get() == null;
+	}
+
+	/**
+	 * Processes a batch of AVL reports, such as ones pushed to the server
+	 * via the API. Same as calling processAvlReport() for each one but lets
+	 * the caller know which ones were accepted.
+	 * 
+	 * @param avlReports
+	 *            The AVL reports to be processed
+	 * @return For each AVL report, true if it was accepted and false if it
+	 *         was rejected because the queue is full
+	 */
+	public boolean[] processAvlReports(List<AvlReport> avlReports) {
+		boolean[] accepted = new boolean[avlReports.size()];
+		for (int i=0; i<accepted.length; ++i)
+			accepted[i] = processAvlReport(avlReports.get(i));
+		return accepted;
+	}
+
+	/**
+	 * Returns how much of the capacity of the AVL queue is being used. For
+	 * AVL feeds that can apply back-pressure to their source when the
+	 * queue is filling up.
+	 * 
+	 * @return a value between 0.0 and 1.0
+	 */
+	public double getQueueLevel() {
+		BlockingQueue<Runnable> queue = avlClientExecutor.getQueue();
+		int size = queue.size();
+		int totalCapacity = size + queue.remainingCapacity();
+		return totalCapacity > 0 ? (double) size / totalCapacity : 0.0;
 	}
 
 	/**
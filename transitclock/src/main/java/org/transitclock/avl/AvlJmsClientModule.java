@@ -17,11 +17,17 @@
  
 package org.transitclock.avl;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.ObjectMessage;
 import javax.naming.NamingException;
 
 import org.slf4j.Logger;
@@ -113,6 +119,21 @@ public class AvlJmsClientModule extends Module {
 				avlClientThreadFactory);
 		avlClientExecutor = new BoundedExecutor(executor, maxAVLQueueSize);
 	}
+	
+	/**
+	 * Constructor for when the message consumer has already been created,
+	 * such as for testing with an embedded JMS server. 
+	 * 
+	 * @param agencyId
+	 * @param msgConsumer
+	 * @throws NamingException
+	 * @throws JMSException
+	 */
+	AvlJmsClientModule(String agencyId, MessageConsumer msgConsumer) 
+			throws JMSException, NamingException {
+		this(agencyId);
+		this.msgConsumer = msgConsumer;
+	}
 		
 	/**
 	 * Returns the name of the JMS topic to be used for the AVL feed.
@@ -180,6 +201,33 @@ public class AvlJmsClientModule extends Module {
 		}
 	}
 	
+	/**
+	 * Reads the next message from the JMS topic, blocking until one is
+	 * available. The message is either a single serialized AvlReport or a
+	 * batch of AVL reports encoded by AvlReportBatch, depending on
+	 * transitclock.avl.jmsBatchSize for the AVL feed module. Since the
+	 * session uses AUTO_ACKNOWLEDGE a batch is acknowledged as a whole.
+	 * 
+	 * @return the AVL reports in the message
+	 * @throws JMSException
+	 * @throws IOException
+	 *             If the batch could not be decoded
+	 */
+	List<AvlReport> receiveAvlReports() 
+			throws JMSException, IOException {
+		Message message = msgConsumer.receive();
+		if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			byte[] data = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(data);
+			return AvlReportBatch.decode(data);
+		}
+		
+		AvlReport avlReport = 
+				(AvlReport) ((ObjectMessage) message).getObject();
+		return Collections.singletonList(avlReport);
+	}
+
 	/**
 	 * Infinite loop that actually processes the AVL data
 	 * by reading it from the JMS topic. Intended to only be
@@ -189,21 +237,25 @@ public class AvlJmsClientModule extends Module {
 		// Loop forever processing AVL data
 		while (true) {
 			try {
-				// Read in AVL report from JMS. Block until an AVL report is available.
+				// Read in AVL reports from JMS. Block until AVL data is available.
 				logger.debug("Thread={} About to read AVL data from JMS topic",
 						Thread.currentThread().getName());
-				AvlReport avlReport = 
-						(AvlReport) JMSWrapper.receiveObjectMessage(msgConsumer);
+				List<AvlReport> avlReports = receiveAvlReports();
 				
-				// Log the AVL report				
-				logger.debug("Thread={} Processing AVL report: {}",
-						Thread.currentThread().getName(), avlReport);
-
-				// Have another thread actually process the AVL data
-				// using the AvlClient class. This way can use multiple
-				// threads to simultaneously process the data.
-				Runnable avlClient = new AvlClient(avlReport);
-				avlClientExecutor.execute(avlClient);								
+				for (AvlReport avlReport : avlReports) {
+					// Log the AVL report				
+					logger.debug("Thread={} Processing AVL report: {}",
+							Thread.currentThread().getName(), avlReport);
+	
+					// Have another thread actually process the AVL data
+					// using the AvlClient class. This way can use multiple
+					// threads to simultaneously process the data.
+					Runnable avlClient = new AvlClient(avlReport);
+					avlClientExecutor.execute(avlClient);
+				}
+			} catch (IOException e) {
+				logger.error("AVL Client received a batch of AVL reports that "
+						+ "could not be decoded. {}", e.getMessage());
 			} catch (JMSException e) {
 				// This kind of exception can happen when there is a problem
 				// with JMS such as "Consumer is closed". When this happens
@@ -16,16 +16,29 @@
  */
 package org.transitclock.avl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.JMSException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.configData.AvlConfig;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.ipc.jms.JMSWrapper;
 import org.transitclock.ipc.jms.RestartableMessageProducer;
 import org.transitclock.modules.Module;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 
 /**
@@ -39,6 +52,38 @@ public abstract class AvlModule extends Module {
 	// For writing the AVL data to the JMS topic
 	protected RestartableMessageProducer jmsMsgProducer = null; 
 
+	// For batching AVL reports sent via JMS. Created when first needed.
+	private BlockingQueue<AvlReport> jmsBatchQueue = null;
+
+	// So that when the batch queue is full the dropped AVL reports are
+	// logged only every DROPPED_LOG_INTERVAL_MSEC instead of individually
+	private int droppedSinceLogged = 0;
+	private long lastDroppedLogTime = 0;
+	private static final long DROPPED_LOG_INTERVAL_MSEC = 10 * Time.MS_PER_SEC;
+	
+	private static final Counter droppedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_jms_batch_dropped_total",
+					"Number of AVL reports dropped because the queue for "
+					+ "sending them to JMS in batches was full");
+
+	private static IntegerConfigValue jmsBatchSize =
+			new IntegerConfigValue("transitclock.avl.jmsBatchSize",
+					1,
+					"Maximum number of AVL reports to send in a single JMS "
+					+ "message. If greater than 1 then the AVL reports are "
+					+ "sent in a compact binary format by a separate thread, "
+					+ "which greatly reduces the overhead for high volume "
+					+ "feeds. If 1 then each AVL report is sent as a separate "
+					+ "serialized object.");
+
+	private static IntegerConfigValue jmsBatchLingerMsec =
+			new IntegerConfigValue("transitclock.avl.jmsBatchLingerMsec",
+					50,
+					"When batching AVL reports sent via JMS, how long to wait "
+					+ "for additional AVL reports to fill up a batch before "
+					+ "sending it.");
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(AvlModule.class);	
 
@@ -79,6 +124,12 @@ public abstract class AvlModule extends Module {
 	 * each AVL report. Can use JMS or bypass it, depending on how configured.
 	 */
 	protected void processAvlReport(AvlReport avlReport) {
+		// Record when the report was received, unless the feed module 
+		// already did so when it read in the data
+		if (!PipelineLatencyMonitor.isStamped(avlReport,
+				PipelineStage.FEED_RECEIPT))
+			PipelineLatencyMonitor.stamp(avlReport, PipelineStage.FEED_RECEIPT);
+		
 		if (AvlConfig.shouldUseJms()) {
 			processAvlReportUsingJms(avlReport);
 		} else {
@@ -103,6 +154,13 @@ public abstract class AvlModule extends Module {
 	 * @param avlReport
 	 */
 	private void processAvlReportUsingJms(AvlReport avlReport) {
+		// If batching then let the batch thread send it
+		if (jmsBatchSize.getValue() > 1) {
+			if (!getJmsBatchQueue().offer(avlReport))
+				avlReportDropped(avlReport);
+			return;
+		}
+		
 		// Make sure the JMS stuff setup successfully
 		initializeJmsIfNeedTo();
 		if (jmsMsgProducer == null) {
@@ -119,6 +177,112 @@ public abstract class AvlModule extends Module {
 		}		
 	}
 
+	/**
+	 * Counts an AVL report that was dropped because the batch queue was full.
+	 * A feed that gets ahead of JMS drops many reports in a burst so the
+	 * count is logged at most every DROPPED_LOG_INTERVAL_MSEC instead of
+	 * logging each report.
+	 * 
+	 * @param avlReport
+	 *            the report that was dropped
+	 */
+	private synchronized void avlReportDropped(AvlReport avlReport) {
+		droppedCounter.increment();
+		++droppedSinceLogged;
+		
+		long now = System.currentTimeMillis();
+		if (now - lastDroppedLogTime >= DROPPED_LOG_INTERVAL_MSEC) {
+			logger.error("Queue for sending AVL reports to JMS is full so "
+					+ "dropped {} AVL reports since last logged. Most recent "
+					+ "one dropped was {}", droppedSinceLogged, avlReport);
+			droppedSinceLogged = 0;
+			lastDroppedLogTime = now;
+		}
+	}
+	
+	/**
+	 * Returns the queue of AVL reports to be sent to JMS in batches. Starts
+	 * the thread that sends the batches if not already started.
+	 * 
+	 * @return the queue
+	 */
+	private synchronized BlockingQueue<AvlReport> getJmsBatchQueue() {
+		if (jmsBatchQueue == null) {
+			jmsBatchQueue = new LinkedBlockingQueue<AvlReport>(
+					100 * jmsBatchSize.getValue());
+			new NamedThreadFactory("avlJmsBatch").newThread(new Runnable() {
+				@Override
+				public void run() {
+					sendJmsBatches();
+				}
+			}).start();
+		}
+		return jmsBatchQueue;
+	}
+
+	/**
+	 * Runs forever, sending AVL reports from the batch queue to JMS. A batch
+	 * is sent when it is full or when jmsBatchLingerMsec has elapsed since the
+	 * first AVL report in the batch was queued. Since only this thread
+	 * writes the batches to JMS the message producer is created here.
+	 */
+	private void sendJmsBatches() {
+		int batchSize = jmsBatchSize.getValue();
+		long lingerNanos = 
+				TimeUnit.MILLISECONDS.toNanos(jmsBatchLingerMsec.getValue());
+		List<AvlReport> batch = new ArrayList<AvlReport>(batchSize);
+		
+		while (true) {
+			try {
+				// Wait for the first AVL report of the batch and then for
+				// more until the batch is full or the linger time is up
+				batch.add(jmsBatchQueue.take());
+				long deadline = System.nanoTime() + lingerNanos;
+				while (batch.size() < batchSize) {
+					jmsBatchQueue.drainTo(batch, batchSize - batch.size());
+					long remainingNanos = deadline - System.nanoTime();
+					if (batch.size() >= batchSize || remainingNanos <= 0)
+						break;
+					AvlReport avlReport = jmsBatchQueue.poll(remainingNanos,
+							TimeUnit.NANOSECONDS);
+					if (avlReport == null)
+						break;
+					batch.add(avlReport);
+				}
+				
+				sendJmsBatch(batch);
+			} catch (InterruptedException e) {
+				logger.error("Thread sending AVL batches to JMS interrupted", 
+						e);
+				return;
+			} catch (Exception e) {
+				logger.error("Problem sending batch of {} AVL reports to the "
+						+ "JMS topic", batch.size(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Sends the batch of AVL reports to the JMS topic as a single message
+	 * 
+	 * @param batch
+	 * @throws Exception
+	 */
+	private void sendJmsBatch(List<AvlReport> batch) throws Exception {
+		// Make sure the JMS stuff setup successfully
+		initializeJmsIfNeedTo();
+		if (jmsMsgProducer == null) {
+			logger.error("Cannot write {} AvlReports to JMS because JMS tools "
+					+ "were not initialized successfully.", batch.size());
+			return;
+		}
+		
+		jmsMsgProducer.sendBytesMessage(AvlReportBatch.encode(batch));
+		logger.debug("Sent batch of {} AVL reports to JMS", batch.size());
+	}
+
 	/**
 	 * Instead of writing AVL report to JMS topic this method directly processes
 	 * it. By doing this one can bypass the need for a JMS server. Uses a thread
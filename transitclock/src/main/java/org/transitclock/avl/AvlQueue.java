@@ -24,6 +24,10 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.db.structs.AvlReport;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 
 /**
  * A queue of AvlClient runnables that can be used with a ThreadPoolExecutor.
@@ -50,6 +54,12 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 	ConcurrentMap<String, AvlReport> avlDataPerVehicleMap =
 			new ConcurrentHashMap<String, AvlReport>();
 
+	private static final Counter obsoleteCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_obsolete_total",
+					"Number of AVL reports dropped from the AVL queue because "
+					+ "there was a newer one for the vehicle");
+
 	private static final long serialVersionUID = 6587642826604552096L;
 
 	private static final Logger logger = LoggerFactory
@@ -79,6 +89,20 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 		
 		AvlReport avlReport = ((AvlClient) runnable).getAvlReport();
 		avlDataPerVehicleMap.put(avlReport.getVehicleId(), avlReport);
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.QUEUE_ENQUEUE);
+	}
+
+	/**
+	 * Records for latency monitoring that the AVL report has been taken from
+	 * the queue.
+	 * 
+	 * @param runnable
+	 *            the AvlClient, or null if nothing was taken from the queue
+	 */
+	private void stampDequeued(Runnable runnable) {
+		if (runnable instanceof AvlClient)
+			PipelineLatencyMonitor.stamp(((AvlClient) runnable).getAvlReport(),
+					PipelineStage.QUEUE_DEQUEUE);
 	}
 
 	/**
@@ -103,6 +127,7 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 						&& avlReportFromQueue.getTime() < lastAvlReportForVehicle
 								.getTime();
 		if (obsolete) {
+			obsoleteCounter.increment();
 			logger.debug("AVL report from queue is obsolete (there is a newer "
 					+ "one for the vehicle). Therefore ignoring this report so "
 					+ "can move on to next valid report for another vehicle. "
@@ -179,7 +204,8 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 		Runnable runnable;
 		do {
 			runnable = super.poll();
-		} while (isObsolete(runnable));
+		} while (runnable != null && isObsolete(runnable));
+		stampDequeued(runnable);
 		return runnable;
 	}
 
@@ -197,6 +223,7 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 			runnable = super.poll(timeout, unit);
 		} while (runnable != null && isObsolete(runnable));
 
+		stampDequeued(runnable);
 		if (runnable != null) {
 			logger.debug("poll(t,u) in AvlQueue returned {}",
 					((AvlClient) runnable).getAvlReport());
@@ -215,6 +242,7 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 		do {
 			runnable = super.take();
 		} while (isObsolete(runnable));
+		stampDequeued(runnable);
 		return runnable;
 	}
 }
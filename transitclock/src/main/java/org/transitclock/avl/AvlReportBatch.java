@@ -0,0 +1,83 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.transitclock.db.structs.AvlReport;
+
+/**
+ * For sending multiple AVL reports in a single JMS message. The AVL reports
+ * are encoded using AvlReport.writeCompact() which is much more compact and
+ * faster than Java serialization. The format is a version byte, the number
+ * of AVL reports, and then each AVL report.
+ */
+public class AvlReportBatch {
+
+	// So that format can be changed in the future
+	private static final int VERSION = 1;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Encodes the AVL reports so that they can be sent as a single message
+	 * 
+	 * @param avlReports
+	 * @return the encoded AVL reports
+	 * @throws IOException
+	 */
+	public static byte[] encode(List<AvlReport> avlReports) throws IOException {
+		ByteArrayOutputStream bytes = 
+				new ByteArrayOutputStream(64 + avlReports.size() * 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(VERSION);
+		out.writeInt(avlReports.size());
+		for (AvlReport avlReport : avlReports)
+			avlReport.writeCompact(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes AVL reports that were encoded using encode()
+	 * 
+	 * @param data
+	 * @return the AVL reports
+	 * @throws IOException
+	 *             If the data is not valid
+	 */
+	public static List<AvlReport> decode(byte[] data) throws IOException {
+		DataInputStream in = 
+				new DataInputStream(new ByteArrayInputStream(data));
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unknown AVL report batch version " 
+					+ version);
+		
+		int numReports = in.readInt();
+		List<AvlReport> avlReports = new ArrayList<AvlReport>(numReports);
+		for (int i=0; i<numReports; ++i)
+			avlReports.add(AvlReport.readCompact(in));
+		return avlReports;
+	}
+}
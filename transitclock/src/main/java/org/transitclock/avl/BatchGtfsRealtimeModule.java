@@ -31,6 +31,7 @@ import org.transitclock.core.AvlProcessor;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.db.structs.Location;
 import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReader;
+import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReaderBase;
 import org.transitclock.modules.Module;
 import org.transitclock.utils.Time;
 
@@ -139,17 +140,20 @@ public class BatchGtfsRealtimeModule extends Module {
 			debugZhengzhou();
 		}
 		
-		// Process the VehiclePosition reports from the GTFS-realtime files
+		// Process the VehiclePosition reports from the GTFS-realtime files.
+		// Each report is processed as it is read so that the whole batch
+		// doesn't need to be in memory.
 		for (String uri : getGtfsRealtimeURIs()) {
-			Collection<AvlReport> avlReports =
-					GtfsRtVehiclePositionsReader.getAvlReports(uri);
-			for (AvlReport avlReport : avlReports) {
-				// Update the Core SystemTime to use this AVL time
-				Core.getInstance().setSystemTime(avlReport.getTime());
+			new GtfsRtVehiclePositionsReaderBase(uri) {
+				@Override
+				protected void handleAvlReport(AvlReport avlReport) {
+					// Update the Core SystemTime to use this AVL time
+					Core.getInstance().setSystemTime(avlReport.getTime());
 
-				// Actually process the AvlReport
-				AvlProcessor.getInstance().processAvlReport(avlReport);
-			}
+					// Actually process the AvlReport
+					AvlProcessor.getInstance().processAvlReport(avlReport);
+				}
+			}.process();
 		}
 		
 		// Done processing the batch data. Wait a bit more to make sure system
@@ -17,13 +17,15 @@
 package org.transitclock.avl;
 
 import java.io.InputStream;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.StringConfigValue;
 import org.transitclock.db.structs.AvlReport;
-import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReader;
+import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReaderBase;
 import org.transitclock.modules.Module;
 
 import java.util.Collection;
@@ -58,6 +60,18 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
 					"file:///C:/Users/Mike/gtfsRealtimeData",
 					"The URI of the GTFS-realtime feed to use.");
 
+	private static BooleanConfigValue skipUnchanged =
+			new BooleanConfigValue("transitclock.avl.gtfsRealtimeSkipUnchanged",
+					false,
+					"If true then vehicles in the GTFS-realtime feed whose "
+					+ "timestamp hasn't advanced since the feed was previously "
+					+ "read are not processed.");
+
+	// A reader for each URL so that it can keep track of the vehicle
+	// timestamps between polls
+	private final Map<String, GtfsRtVehiclePositionsReaderBase> readers =
+			new HashMap<String, GtfsRtVehiclePositionsReaderBase>();
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -70,6 +84,28 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
     useCompression = false;
 	}
 
+	/**
+	 * Returns the reader for the URL. The reader processes each AVL report
+	 * as it is read instead of first reading them all into a list.
+	 * 
+	 * @param urlStr
+	 * @return the reader
+	 */
+	private GtfsRtVehiclePositionsReaderBase getReader(String urlStr) {
+		GtfsRtVehiclePositionsReaderBase reader = readers.get(urlStr);
+		if (reader == null) {
+			reader = new GtfsRtVehiclePositionsReaderBase(urlStr,
+					skipUnchanged.getValue()) {
+				@Override
+				protected void handleAvlReport(AvlReport avlReport) {
+					processAvlReport(avlReport);
+				}
+			};
+			readers.put(urlStr, reader);
+		}
+		return reader;
+	}
+
 	/**
 	 * Reads and processes the data. Called by AvlModule.run().
 	 * Reading GTFS-realtime doesn't use InputSteram so overriding
@@ -84,13 +120,8 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
 	  for (String urlStr : urls) {
   	  try {
     	  logger.info("reading {}", urlStr);
-    		List<AvlReport> avlReports = GtfsRtVehiclePositionsReader
-    				.getAvlReports(urlStr);
-    		logger.info("read complete");
-    		for (AvlReport avlReport : avlReports) {
-    			processAvlReport(avlReport);
-    		}
-    		logger.info("processed {} reports for feed {}", avlReports.size(), urlStr);
+    		getReader(urlStr).process();
+    		logger.info("processed reports for feed {}", urlStr);
   	  } catch (Exception any) {
   	    logger.error("issues processing feed {}:{}", urlStr, any, any);
   	  }
@@ -0,0 +1,431 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.applications.Core;
+import org.transitclock.config.DoubleConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.config.StringConfigValue;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.Location;
+import org.transitclock.utils.Geo;
+import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.LatencyHistogram;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+/**
+ * For capacity testing. Plays back historic AVL data like PlaybackModule but
+ * at transitclock.avl.load.speedMultiplier times normal speed and with each
+ * vehicle cloned transitclock.avl.load.fleetMultiplier times. This way one
+ * can determine whether the core can handle a larger fleet, or a higher AVL
+ * reporting rate, before it actually happens.
+ * <p>
+ * The AVL data is read from the database configured for the core, for all
+ * vehicles unless transitclock.avl.playbackVehicleId is set, between
+ * transitclock.avl.playbackStartTime and transitclock.avl.playbackEndTime.
+ * If transitclock.avl.load.csvFileName is set then the AVL data is instead
+ * read from that CSV file, which means the test can be run against an
+ * embedded HSQLDB that only contains the GTFS data. The clones are given
+ * vehicle IDs with a "-L" suffix and a source of "Load" so that they don't
+ * conflict with the original AVL data and aren't read back in again. Each
+ * clone is offset in time by a fixed random amount and each of its reports
+ * is offset spatially by a random amount so that the clones don't all match
+ * identically.
+ * <p>
+ * The reports are processed by a pool of transitclock.avl.load.numThreads
+ * threads. The queue of reports waiting to be processed is unbounded so that
+ * if the core cannot keep up the backlog can be seen instead of reports being
+ * dropped. Statistics are logged periodically and when the playback is done:
+ * the throughput, the depth of the AVL and db queues, and percentiles of the
+ * latency between when a report was dispatched and when it was done being
+ * processed, which includes generating the predictions.
+ * <p>
+ * Since AVL reports are processed concurrently the system time is set to
+ * the time of the most recently dispatched report.
+ */
+public class LoadPlaybackModule extends PlaybackModule {
+
+	// Source of the cloned AVL reports so can ignore them when reading in
+	// data from the db
+	private static final String LOAD_SOURCE = "Load";
+
+	// For making the playback repeatable
+	private final Random random = new Random(42);
+
+	// The fixed time offset of each clone
+	private final long[] cloneTimeOffsetsMsec;
+
+	private final ThreadPoolExecutor executor;
+
+	// Latency in microseconds from dispatching an AVL report to being done
+	// processing it
+	private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+	private final AtomicLong processedCount = new AtomicLong();
+
+	// For reporting queue depths
+	private int maxAvlQueueSize = 0;
+	private int maxDbQueueSize = 0;
+
+	// For mapping the AVL time to wall clock time
+	private long firstAvlTime = -1;
+	private long playbackStartNanos;
+	private long lastDispatchedAvlTime = -1;
+
+	/*********** Configurable Parameters for this module ***********/
+	private static DoubleConfigValue speedMultiplier =
+			new DoubleConfigValue("transitclock.avl.load.speedMultiplier",
+					10.0,
+					"How many times faster than real time to play back the "
+					+ "AVL data. If 0.0 then the AVL data is played back as "
+					+ "fast as it can be dispatched.");
+
+	private static IntegerConfigValue fleetMultiplier =
+			new IntegerConfigValue("transitclock.avl.load.fleetMultiplier",
+					2,
+					"How many clones of each vehicle to play back. A value of "
+					+ "2 simulates twice the fleet.");
+
+	private static DoubleConfigValue jitterMeters =
+			new DoubleConfigValue("transitclock.avl.load.jitterMeters",
+					10.0,
+					"Maximum distance in meters that the location of each "
+					+ "cloned AVL report is randomly offset by.");
+
+	private static IntegerConfigValue jitterSecs =
+			new IntegerConfigValue("transitclock.avl.load.jitterSecs",
+					30,
+					"Maximum number of seconds that each clone of a vehicle "
+					+ "is randomly offset in time by.");
+
+	private static IntegerConfigValue numThreads =
+			new IntegerConfigValue("transitclock.avl.load.numThreads",
+					4,
+					"Number of threads used to process the AVL reports.");
+
+	private static IntegerConfigValue statusIntervalSecs =
+			new IntegerConfigValue("transitclock.avl.load.statusIntervalSecs",
+					60,
+					"How frequently, in wall clock seconds, the load "
+					+ "statistics are logged while playing back.");
+
+	private static StringConfigValue csvFileName =
+			new StringConfigValue("transitclock.avl.load.csvFileName",
+					"",
+					"If set then AVL data is read from this CSV file, in the "
+					+ "format used by BatchCsvAvlFeedModule, instead of from "
+					+ "the database.");
+
+	/********************* Logging **************************/
+	private static final Logger logger =
+			LoggerFactory.getLogger(LoadPlaybackModule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public LoadPlaybackModule(String agencyId) {
+		super(agencyId);
+
+		int clones = Math.max(1, fleetMultiplier.getValue());
+		cloneTimeOffsetsMsec = new long[clones];
+		for (int i=0; i<clones; ++i) {
+			cloneTimeOffsetsMsec[i] = (long) (random.nextDouble()
+					* jitterSecs.getValue() * Time.MS_PER_SEC);
+		}
+
+		executor = new ThreadPoolExecutor(numThreads.getValue(),
+				numThreads.getValue(), 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory("loadPlayback"));
+	}
+
+	/**
+	 * Creates a clone of the AVL report for the specified clone index, with
+	 * the time offset for the clone and the location randomly offset.
+	 *
+	 * @param avlReport
+	 * @param cloneIndex
+	 * @return the cloned AVL report
+	 */
+	private AvlReport createClone(AvlReport avlReport, int cloneIndex) {
+		double distance = random.nextDouble() * jitterMeters.getValue();
+		double angle = random.nextDouble() * 2 * Math.PI;
+		Location location = Geo.offset(avlReport.getLocation(),
+				distance * Math.cos(angle), distance * Math.sin(angle));
+
+		AvlReport clone = new AvlReport(
+				avlReport.getVehicleId() + "-L" + cloneIndex,
+				avlReport.getTime() + cloneTimeOffsetsMsec[cloneIndex],
+				location, avlReport.getSpeed(), avlReport.getHeading(),
+				LOAD_SOURCE);
+		if (avlReport.getAssignmentId() != null) {
+			clone.setAssignment(avlReport.getAssignmentId(),
+					avlReport.getAssignmentType());
+		}
+		return clone;
+	}
+
+	/**
+	 * Creates the clones for a batch of AVL reports, in time order. Reports
+	 * that are themselves clones from a previous run are ignored.
+	 *
+	 * @param avlReports
+	 * @return the cloned AVL reports
+	 */
+	private List<AvlReport> createClones(List<AvlReport> avlReports) {
+		List<AvlReport> clones = new ArrayList<AvlReport>(
+				avlReports.size() * cloneTimeOffsetsMsec.length);
+		for (AvlReport avlReport : avlReports) {
+			if (LOAD_SOURCE.equals(avlReport.getSource()))
+				continue;
+			for (int i=0; i<cloneTimeOffsetsMsec.length; ++i)
+				clones.add(createClone(avlReport, i));
+		}
+
+		Collections.sort(clones, new Comparator<AvlReport>() {
+			@Override
+			public int compare(AvlReport r1, AvlReport r2) {
+				return Long.compare(r1.getTime(), r2.getTime());
+			}
+		});
+		return clones;
+	}
+
+	/**
+	 * Sleeps until it is time to dispatch the AVL report according to the
+	 * speed multiplier. Gaps in the AVL data longer than
+	 * transitclock.avl.playbackSkipIntervalMinutes are skipped over.
+	 *
+	 * @param avlReport
+	 */
+	private void waitUntilDispatchTime(AvlReport avlReport) {
+		long avlTime = avlReport.getTime();
+		if (firstAvlTime < 0) {
+			firstAvlTime = avlTime;
+			playbackStartNanos = System.nanoTime();
+		} else if (avlTime - lastDispatchedAvlTime >
+				playbackSkipIntervalMinutes.getValue() * Time.MS_PER_MIN) {
+			// Skip the gap by moving the start forward by its length
+			firstAvlTime += avlTime - lastDispatchedAvlTime;
+		}
+		lastDispatchedAvlTime = Math.max(lastDispatchedAvlTime, avlTime);
+
+		double speed = speedMultiplier.getValue();
+		if (speed <= 0.0)
+			return;
+
+		long dispatchNanos = playbackStartNanos
+				+ (long) ((avlTime - firstAvlTime) * 1000000L / speed);
+		long sleepMsec = (dispatchNanos - System.nanoTime()) / 1000000L;
+		if (sleepMsec > 0)
+			Time.sleep(sleepMsec);
+	}
+
+	/**
+	 * Queues the AVL report to be processed by the executor, recording the
+	 * latency once it has been processed.
+	 *
+	 * @param avlReport
+	 */
+	private void dispatch(final AvlReport avlReport) {
+		final long dispatchNanos = System.nanoTime();
+		Core.getInstance().setSystemTime(lastDispatchedAvlTime);
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// AvlClient filters the reports and catches exceptions the
+				// same way as when processing a real AVL feed
+				new AvlClient(avlReport).run();
+				latencyHistogram.record(
+						(System.nanoTime() - dispatchNanos) / 1000L);
+				processedCount.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Keeps track of max queue sizes and logs the statistics if it has been
+	 * long enough since they were last logged.
+	 *
+	 * @param statusTimer
+	 * @param force
+	 *            If true then logs the statistics regardless of how long it
+	 *            has been
+	 */
+	private void updateStatus(IntervalTimer statusTimer, boolean force) {
+		int avlQueueSize = executor.getQueue().size();
+		int dbQueueSize = Core.getInstance().getDbLogger().queueSize();
+		maxAvlQueueSize = Math.max(maxAvlQueueSize, avlQueueSize);
+		maxDbQueueSize = Math.max(maxDbQueueSize, dbQueueSize);
+
+		if (force || statusTimer.elapsedMsec() >=
+				statusIntervalSecs.getValue() * Time.MS_PER_SEC) {
+			logger.info("Load playback status: processed={} avlQueueSize={} "
+					+ "dbQueueSize={} latencyMsec p50={} p99={} for avlTime={}",
+					processedCount.get(), avlQueueSize, dbQueueSize,
+					latencyHistogram.getValueAtPercentile(50.0) / 1000,
+					latencyHistogram.getValueAtPercentile(99.0) / 1000,
+					Time.dateTimeStr(lastDispatchedAvlTime));
+			statusTimer.resetTimer();
+		}
+	}
+
+	/**
+	 * Reads in all the AVL data from the CSV file, limited to the playback
+	 * time range.
+	 *
+	 * @return the AVL reports, in time order
+	 */
+	private List<AvlReport> getAvlReportsFromCsv() {
+		long endTime = playbackEndTimeStr.getValue().isEmpty() ?
+				Long.MAX_VALUE :
+				parsePlaybackEndTime(playbackEndTimeStr.getValue());
+
+		List<AvlReport> avlReports = new ArrayList<AvlReport>();
+		for (AvlReport avlReport :
+				new AvlCsvReader(csvFileName.getValue()).get()) {
+			if (avlReport.getTime() >= dbReadBeginTime
+					&& avlReport.getTime() < endTime)
+				avlReports.add(avlReport);
+		}
+		return avlReports;
+	}
+
+	/**
+	 * @return true if there is still AVL data to read from the database
+	 */
+	private boolean moreDataInDb() {
+		return dbReadBeginTime < System.currentTimeMillis()
+				&& (playbackEndTimeStr.getValue().length() == 0
+						|| dbReadBeginTime < parsePlaybackEndTime(
+								playbackEndTimeStr.getValue()));
+	}
+
+	/**
+	 * Dispatches the clones of a batch of AVL reports
+	 *
+	 * @param avlReports
+	 * @param statusTimer
+	 */
+	private void playBack(List<AvlReport> avlReports,
+			IntervalTimer statusTimer) {
+		for (AvlReport clone : createClones(avlReports)) {
+			waitUntilDispatchTime(clone);
+			dispatch(clone);
+			updateStatus(statusTimer, false);
+		}
+	}
+
+	/**
+	 * Logs the final statistics for the playback
+	 *
+	 * @param playbackMsec
+	 *            How long it took to process all of the AVL reports
+	 */
+	private void logResults(long playbackMsec) {
+		long processed = processedCount.get();
+		double avlSecs = (lastDispatchedAvlTime - firstAvlTime)
+				/ (double) Time.MS_PER_SEC;
+		logger.info("Load playback done. fleetMultiplier={} "
+				+ "speedMultiplier={} numThreads={} "
+				+ "processed {} AVL reports covering {} secs of AVL data in "
+				+ "{} secs. Throughput={} reports/sec. "
+				+ "maxAvlQueueSize={} maxDbQueueSize={}. "
+				+ "Latency msec: mean={} p50={} p90={} p99={} p99.9={} max={}",
+				cloneTimeOffsetsMsec.length, speedMultiplier.getValue(),
+				numThreads.getValue(), processed,
+				Geo.oneDigitFormat(avlSecs),
+				Time.secondsStr(playbackMsec),
+				Geo.oneDigitFormat(
+						processed * Time.MS_PER_SEC / (double) playbackMsec),
+				maxAvlQueueSize, maxDbQueueSize,
+				Geo.oneDigitFormat(latencyHistogram.getMean() / 1000.0),
+				latencyHistogram.getValueAtPercentile(50.0) / 1000,
+				latencyHistogram.getValueAtPercentile(90.0) / 1000,
+				latencyHistogram.getValueAtPercentile(99.0) / 1000,
+				latencyHistogram.getValueAtPercentile(99.9) / 1000,
+				latencyHistogram.getMax() / 1000);
+	}
+
+	/* Reads AVL data from db or CSV file and plays back the clones
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			Thread.sleep(playbackStartDelayMinutes.getValue()*Time.MS_PER_MIN);
+		} catch (InterruptedException e) {
+
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		IntervalTimer statusTimer = new IntervalTimer();
+
+		if (!csvFileName.getValue().isEmpty()) {
+			playBack(getAvlReportsFromCsv(), statusTimer);
+		} else {
+			while (moreDataInDb()) {
+				List<AvlReport> avlReports = getBatchOfAvlReportsFromDb();
+				if (avlReports != null)
+					playBack(avlReports, statusTimer);
+			}
+		}
+
+		// Wait for all of the AVL reports to be processed
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+				updateStatus(statusTimer, false);
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while waiting for AVL reports to be "
+					+ "processed", e);
+		}
+		long playbackMsec = timer.elapsedMsec();
+		updateStatus(statusTimer, true);
+		logResults(playbackMsec);
+
+		// Wait for database queue to be emptied before exiting.
+		while (Core.getInstance().getDbLogger().queueSize() > 0) {
+			updateStatus(statusTimer, false);
+			Time.sleep(Time.MS_PER_SEC);
+		}
+		logger.info("Load playback db queue drained {} secs after AVL "
+				+ "processing finished. maxDbQueueSize={}. Exiting.",
+				Time.secondsStr(timer.elapsedMsec() - playbackMsec),
+				maxDbQueueSize);
+
+		System.exit(0);
+	}
+
+}
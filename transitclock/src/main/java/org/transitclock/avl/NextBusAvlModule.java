@@ -16,10 +16,16 @@
  */
 package org.transitclock.avl;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.slf4j.Logger;
@@ -94,6 +100,58 @@ public class NextBusAvlModule extends XmlPollingAvlModule {
 	// then can end up with some really old reports.
 	private long previousTime = System.currentTimeMillis() - 1*Time.MS_PER_MIN;
 	
+	private static final XMLInputFactory xmlInputFactory = 
+			XMLInputFactory.newInstance();
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	}
+	
+	/**
+	 * The attributes of a vehicle element that are used. Kept as strings so
+	 * they only need to be parsed if an AvlReport is actually created.
+	 */
+	private static class VehicleElement {
+		private final String id;
+		private final String lat;
+		private final String lon;
+		private final String secsSinceReport;
+		private final String speedKmHr;
+		private final String heading;
+		private final String block;
+		private final String tripTag;
+		private final String leadingVehicleId;
+		private final String driverId;
+		private final String passengerCount;
+		
+		private VehicleElement(XMLStreamReader reader) {
+			id = reader.getAttributeValue(null, "id");
+			lat = reader.getAttributeValue(null, "lat");
+			lon = reader.getAttributeValue(null, "lon");
+			secsSinceReport = reader.getAttributeValue(null, "secsSinceReport");
+			speedKmHr = reader.getAttributeValue(null, "speedKmHr");
+			heading = reader.getAttributeValue(null, "heading");
+			block = reader.getAttributeValue(null, "block");
+			tripTag = reader.getAttributeValue(null, "tripTag");
+			leadingVehicleId = reader.getAttributeValue(null, "leadingVehicleId");
+			driverId = reader.getAttributeValue(null, "driverId");
+			passengerCount = reader.getAttributeValue(null, "passengerCount");
+		}
+		
+		private VehicleElement(Element vehicle) {
+			id = vehicle.getAttributeValue("id");
+			lat = vehicle.getAttributeValue("lat");
+			lon = vehicle.getAttributeValue("lon");
+			secsSinceReport = vehicle.getAttributeValue("secsSinceReport");
+			speedKmHr = vehicle.getAttributeValue("speedKmHr");
+			heading = vehicle.getAttributeValue("heading");
+			block = vehicle.getAttributeValue("block");
+			tripTag = vehicle.getAttributeValue("tripTag");
+			leadingVehicleId = vehicle.getAttributeValue("leadingVehicleId");
+			driverId = vehicle.getAttributeValue("driverId");
+			passengerCount = vehicle.getAttributeValue("passengerCount");
+		}
+	}
+	
 	private static final Logger logger = 
 			LoggerFactory.getLogger(NextBusAvlModule.class);	
 
@@ -124,8 +182,56 @@ public class NextBusAvlModule extends XmlPollingAvlModule {
 	}
 
 	/**
-	 * Extracts the AVL data from the XML document.
-	 * Uses JDOM to parse the XML because it makes the Java code much simpler.
+	 * Reads in the XML using a StAX stream reader instead of building a JDOM
+	 * document since the vehicleLocations response can be large for big
+	 * agencies and only the attributes of the vehicle elements are needed.
+	 * 
+	 * @param in
+	 *            The input stream containing the AVL data
+	 * @return Collection of AvlReports
+	 * @throws XMLStreamException
+	 * @throws NumberFormatException
+	 */
+	@Override
+	protected Collection<AvlReport> processData(InputStream in)
+			throws XMLStreamException, NumberFormatException {
+		logger.info("Extracting data from xml stream");
+
+		// The lastTime element comes after the vehicle elements but is needed
+		// to determine the GPS times. Therefore just the attributes are kept
+		// until the end of the document.
+		List<VehicleElement> vehicles = new ArrayList<VehicleElement>();
+		
+		XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				
+				String name = reader.getLocalName();
+				if ("vehicle".equals(name)) {
+					vehicles.add(new VehicleElement(reader));
+				} else if ("lastTime".equals(name)) {
+					setPreviousTime(reader.getAttributeValue(null, "time"));
+				} else if ("Error".equals(name)) {
+					logger.error("While processing AVL data in "
+							+ "NextBusAvlModule: {}", 
+							reader.getElementText().trim());
+					return new ArrayList<AvlReport>();
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		return createAvlReports(vehicles);
+	}
+	
+	/**
+	 * Extracts the AVL data from the XML document. Not used when reading the
+	 * feed since processData() is overridden to stream the XML, but kept so
+	 * that an already parsed document can be processed.
+	 * 
 	 * @param doc
 	 * @return Collection of AvlReports
 	 * @throws NumberFormatException
@@ -146,27 +252,49 @@ public class NextBusAvlModule extends XmlPollingAvlModule {
 			return new ArrayList<AvlReport>();
 		}
 
-		// Handle getting last time. This is the system time of the server.
-		// This means it can be used to along with secsSinceReport to determine
-		// the epoch time when the GPS report was generated.
+		// Handle getting last time
 		Element lastTime = rootNode.getChild("lastTime");
-		if (lastTime != null) {
-			String lastTimeStr = lastTime.getAttributeValue("time");
-			// Store previous time so that it can be used in the URL
-			// the next time the feed is polled.
-			previousTime = Long.parseLong(lastTimeStr);
-			logger.debug("PreviousTime={}", Time.dateTimeStr(previousTime));
-		}
+		if (lastTime != null)
+			setPreviousTime(lastTime.getAttributeValue("time"));
 
+		// Handle getting vehicle location data
+		List<VehicleElement> vehicles = new ArrayList<VehicleElement>();
+		for (Element vehicle : rootNode.getChildren("vehicle"))
+			vehicles.add(new VehicleElement(vehicle));
+		
+		return createAvlReports(vehicles);
+	}
+	
+	/**
+	 * Handles getting last time. This is the system time of the server.
+	 * This means it can be used to along with secsSinceReport to determine
+	 * the epoch time when the GPS report was generated.
+	 * 
+	 * @param lastTimeStr
+	 */
+	private void setPreviousTime(String lastTimeStr) {
+		// Store previous time so that it can be used in the URL
+		// the next time the feed is polled.
+		previousTime = Long.parseLong(lastTimeStr);
+		logger.debug("PreviousTime={}", Time.dateTimeStr(previousTime));
+	}
+	
+	/**
+	 * Creates the AvlReports for the vehicles. Vehicles whose GPS time hasn't
+	 * changed since the previous poll are skipped.
+	 * 
+	 * @param vehicles
+	 * @return Collection of AvlReports
+	 * @throws NumberFormatException
+	 */
+	private Collection<AvlReport> createAvlReports(List<VehicleElement> vehicles)
+			throws NumberFormatException {
 		// The return value for the method
-		Collection<AvlReport> avlReportsReadIn = new ArrayList<AvlReport>();
+		Collection<AvlReport> avlReportsReadIn =
+				new ArrayList<AvlReport>(vehicles.size());
 		
-		// Handle getting vehicle location data
-		List<Element> vehicles = rootNode.getChildren("vehicle");
-		for (Element vehicle : vehicles) {
-			String vehicleId = vehicle.getAttributeValue("id");
-			float lat = Float.parseFloat(vehicle.getAttributeValue("lat"));
-			float lon = Float.parseFloat(vehicle.getAttributeValue("lon"));
+		for (VehicleElement vehicle : vehicles) {
+			String vehicleId = vehicle.id;
 			
 			// Determine GPS time. Use the previousTime read from the feed
 			// because it indicates what the secsSinceReport is relative to. This
@@ -174,23 +302,28 @@ public class NextBusAvlModule extends XmlPollingAvlModule {
 			// the NextBus server clock is off. Therefore the time is adjusted 
 			// by apiClockSkewMsecs parameter to make sure that GPS times are
 			// not in the future.
-			int secsSinceReport = 
-					Integer.parseInt(vehicle.getAttributeValue("secsSinceReport"));
+			int secsSinceReport = Integer.parseInt(vehicle.secsSinceReport);
 			long gpsEpochTime =
 					previousTime - secsSinceReport * 1000
 							- apiClockSkewMsecs.getValue();
 			
+			// If vehicle hasn't reported since last poll then skip it
+			if (!isNewReport(vehicleId, gpsEpochTime))
+				continue;
+			
+			float lat = Float.parseFloat(vehicle.lat);
+			float lon = Float.parseFloat(vehicle.lon);
+			
 			// Handle the speed
 			float speed = Float.NaN;
-			String speedStr = vehicle.getAttributeValue("speedKmHr");
-			if (speedStr != null)
-				speed = Geo.converKmPerHrToMetersPerSecond(Float.parseFloat(speedStr)); 
+			if (vehicle.speedKmHr != null)
+				speed = Geo.converKmPerHrToMetersPerSecond(
+						Float.parseFloat(vehicle.speedKmHr)); 
 
 			// Handle heading
 			float heading = Float.NaN;
-			String headingStr = vehicle.getAttributeValue("heading");
-			if (headingStr != null) {
-				heading = Float.parseFloat(headingStr);
+			if (vehicle.heading != null) {
+				heading = Float.parseFloat(vehicle.heading);
 				// Heading less than 0 means it is invalid
 				if (heading < 0)
 					heading = Float.NaN;
@@ -198,24 +331,23 @@ public class NextBusAvlModule extends XmlPollingAvlModule {
 			
 			// Get block ID. Since for some feeds the block ID from the feed
 			// doesn't match the GTFS data need to process the block ID.
-			String blockId = processBlockId(vehicle.getAttributeValue("block"));
+			String blockId = processBlockId(vehicle.block);
 			
-			String tripId = vehicle.getAttributeValue("tripTag");
+			String tripId = vehicle.tripTag;
 			
 			// Determine if part of consist
-			String leadingVehicleId = vehicle.getAttributeValue("leadingVehicleId");
+			String leadingVehicleId = vehicle.leadingVehicleId;
 			
 			// Get driver ID. Be consistent about using null if not set 
 			// instead of empty string
-			String driverId = vehicle.getAttributeValue("driverId");
+			String driverId = vehicle.driverId;
 			if (driverId != null && driverId.length() == 0)
 				driverId = null;
 			
 			// Get passenger count
 			Integer passengerCount = null;
-			String passengerCountStr = vehicle.getAttributeValue("passengerCount");
-			if (passengerCountStr != null) {
-				passengerCount = Integer.parseInt(passengerCountStr);
+			if (vehicle.passengerCount != null) {
+				passengerCount = Integer.parseInt(vehicle.passengerCount);
 				if (passengerCount < 0)
 					passengerCount = 0;
 			}
@@ -18,13 +18,19 @@
 package org.transitclock.avl;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.codec.binary.Base64;
@@ -37,6 +43,10 @@ import org.transitclock.configData.AgencyConfig;
 import org.transitclock.configData.AvlConfig;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.logging.Markers;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.Time;
 
@@ -48,6 +58,14 @@ import org.transitclock.utils.Time;
  * it outputs the data to the appropriate JMS topic so that it can be read from
  * an AvlClient. If not in JMS mode then uses a BoundedExecutor with multiple
  * threads to directly call AvlClient.run().
+ * <p>
+ * To reduce the work done when a feed hasn't changed a conditional GET is
+ * done using the ETag and Last-Modified headers from the previous response,
+ * and data identical to the data read the previous time is not processed.
+ * Subclasses can call isNewReport() to skip vehicles whose GPS time hasn't
+ * changed before creating an AvlReport for them. The ETag, Last-Modified,
+ * digest, and GPS times are only remembered once the data has been processed
+ * successfully so that data that failed to be processed is read again.
  *
  * @author Michael Smith (michael@transitclock.org)
  *
@@ -75,11 +93,61 @@ public abstract class PollUrlAvlModule extends AvlModule {
 					+ "so that predictions and such are generated. But if "
 					+ "debugging then can set this param to false.");
 	
+	private static BooleanConfigValue conditionalGet =
+			new BooleanConfigValue("transitclock.avl.conditionalGet",
+					true,
+					"If true then the ETag and Last-Modified headers "
+					+ "returned by the AVL feed are sent as If-None-Match and "
+					+ "If-Modified-Since the next time the same URL is polled "
+					+ "so that the feed doesn't need to return the data if it "
+					+ "hasn't changed.");
+
+	private static BooleanConfigValue skipUnchangedData =
+			new BooleanConfigValue("transitclock.avl.skipUnchangedData",
+					true,
+					"If true then the data read from the AVL feed is not "
+					+ "parsed or processed if it is identical to the data "
+					+ "read the previous time the feed was polled.");
+
 	// Usually want to use compression when reading data but for some AVL
 	// feeds might be binary where don't want additional compression. A
 	// superclass can override this value.
 	protected boolean useCompression = true;
-	
+
+	// For conditional GET. Only used if polling the same URL as last time.
+	private String previousUrl = null;
+	private String previousETag = null;
+	private String previousLastModified = null;
+
+	// Digest of the data previously read so unchanged data can be skipped
+	private byte[] previousDigest = null;
+
+	// GPS time of the last report read for each vehicle in the previous
+	// successfully processed poll, keyed on vehicle ID. Only contains the
+	// vehicles in that poll so that vehicles no longer in the feed are
+	// dropped.
+	private Map<String, Long> previousGpsTimes = new HashMap<String, Long>();
+
+	// GPS times for the vehicles in the poll currently being processed
+	private Map<String, Long> currentGpsTimes = new HashMap<String, Long>();
+
+	private static final Counter notModifiedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_poll_not_modified_total",
+					"Number of times the AVL feed returned 304 Not Modified");
+
+	private static final Counter unchangedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_poll_unchanged_total",
+					"Number of times the AVL feed returned data identical to "
+					+ "the previous poll");
+
+	private static final Counter unchangedReportsCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_poll_unchanged_reports_total",
+					"Number of vehicle reports skipped because the GPS time "
+					+ "was the same as the previous poll");
+
 	private static final Logger logger = LoggerFactory
 			.getLogger(PollUrlAvlModule.class);
 
@@ -128,6 +196,31 @@ public abstract class PollUrlAvlModule extends AvlModule {
 	protected abstract Collection<AvlReport> processData(InputStream in)
 			throws Exception;
 	
+	/**
+	 * For skipping reports from the feed that haven't changed since the feed
+	 * was last polled. Many feeds return the latest report for every vehicle
+	 * even if the vehicle hasn't reported since. Such reports would be thrown
+	 * away by AvlClient anyways, so by calling this before creating the
+	 * AvlReport the subclass can avoid the work.
+	 * <p>
+	 * Not thread safe since only called by the thread polling the feed.
+	 * 
+	 * @param vehicleId
+	 * @param gpsTime
+	 *            Epoch time in msec of the report
+	 * @return true if the GPS time is different from the one for the vehicle
+	 *         the previous time the feed was polled
+	 */
+	protected boolean isNewReport(String vehicleId, long gpsTime) {
+		currentGpsTimes.put(vehicleId, gpsTime);
+		Long previousGpsTime = previousGpsTimes.get(vehicleId);
+		if (previousGpsTime != null && previousGpsTime == gpsTime) {
+			unchangedReportsCounter.increment();
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Converts the input stream into a JSON string. Useful for when processing
 	 * a JSON feed.
@@ -204,9 +297,33 @@ public abstract class PollUrlAvlModule extends AvlModule {
 		// Set any additional AVL feed specific request headers
 		setRequestHeaders(con);
 		
+		// If polling the same URL as last time then only want the data if
+		// it has changed
+		boolean sameUrl = fullUrl.equals(previousUrl);
+		if (conditionalGet.getValue() && sameUrl) {
+			if (previousETag != null)
+				con.setRequestProperty("If-None-Match", previousETag);
+			if (previousLastModified != null)
+				con.setRequestProperty("If-Modified-Since",
+						previousLastModified);
+		}
+		
+		if (con instanceof HttpURLConnection
+				&& ((HttpURLConnection) con).getResponseCode() 
+					== HttpURLConnection.HTTP_NOT_MODIFIED) {
+			logger.info("AVL feed not modified since previous poll so "
+					+ "nothing to process");
+			notModifiedCounter.increment();
+			con.getInputStream().close();
+			return;
+		}
+		String eTag = con.getHeaderField("ETag");
+		String lastModified = con.getHeaderField("Last-Modified");
+		
 		// Create appropriate input stream depending on whether content is 
 		// compressed or not
 		InputStream in = con.getInputStream();
+		long receiptNanos = System.nanoTime();
 		if ("gzip".equals(con.getContentEncoding())) {
 		    in = new GZIPInputStream(in);
 		    logger.debug("Returned data is compressed");
@@ -218,17 +335,66 @@ public abstract class PollUrlAvlModule extends AvlModule {
 		logger.debug("Time to access inputstream {} msec", 
 				timer.elapsedMsec());
 				
+		// If the data is the same as last time then don't need to parse it.
+		// Reading the raw bytes is much cheaper than parsing them.
+		byte[] digest = null;
+		if (skipUnchangedData.getValue()) {
+			byte[] data = readFully(in);
+			in.close();
+			digest = MessageDigest.getInstance("MD5").digest(data);
+			if (sameUrl && MessageDigest.isEqual(digest, previousDigest)) {
+				logger.info("AVL feed returned same {} bytes as previous "
+						+ "poll so nothing to process", data.length);
+				unchangedCounter.increment();
+				return;
+			}
+			in = new ByteArrayInputStream(data);
+		}
+		
 		// Call the abstract method to actually process the data
 		timer.resetTimer();
+		currentGpsTimes.clear();
 		Collection<AvlReport> avlReportsReadIn = processData(in);		
 		in.close();
 		logger.debug("Time to parse document {} msec", timer.elapsedMsec());
 		
+		// Data was processed successfully so remember it for the next poll.
+		// If processing failed then the data will be read and processed
+		// again instead of being considered unchanged.
+		previousUrl = fullUrl;
+		previousETag = eTag;
+		previousLastModified = lastModified;
+		previousDigest = digest;
+		Map<String, Long> gpsTimes = previousGpsTimes;
+		previousGpsTimes = currentGpsTimes;
+		currentGpsTimes = gpsTimes;
+		
+		// So that parsing is included in the pipeline latency
+		for (AvlReport avlReport : avlReportsReadIn)
+			PipelineLatencyMonitor.stamp(avlReport, PipelineStage.FEED_RECEIPT,
+					receiptNanos);
+		
 		// Process all the reports read in
 		if (shouldProcessAvl.getValue())
 			processAvlReports(avlReportsReadIn);
 	}
 	
+	/**
+	 * Reads the entire contents of the input stream
+	 * 
+	 * @param in
+	 * @return the bytes read
+	 * @throws IOException
+	 */
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = in.read(buffer)) != -1)
+			out.write(buffer, 0, length);
+		return out.toByteArray();
+	}
+	
 	/** 
 	 * Does all of the work for the class. Runs forever and reads in 
 	 * AVL data from feed and processes it.
@@ -123,6 +123,12 @@ public class TranslocAvlModule extends PollUrlAvlModule {
 				if (vehicleData.isNull("location"))
 					continue;
 				
+				// If vehicle hasn't reported since last poll then skip it
+				String gpsTimeStr = vehicleData.getString("last_updated_on");
+				Date gpsTime = translocTimeFormat.parse(gpsTimeStr);
+				if (!isNewReport(vehicleId, gpsTime.getTime()))
+					continue;
+				
 				// Get the location
 				JSONObject location = vehicleData.getJSONObject("location");
 				double lat = location.getDouble("lat");
@@ -138,9 +144,6 @@ public class TranslocAvlModule extends PollUrlAvlModule {
 				// not find documentation on the units for speed.
 				float speed = (float) vehicleData.getDouble("speed") * Geo.KPH_TO_MPS;
 
-				String gpsTimeStr = vehicleData.getString("last_updated_on");
-				Date gpsTime = translocTimeFormat.parse(gpsTimeStr);
-				
 				if (logger.isDebugEnabled()) {
 					// Following elements not actually needed but are parsed in 
 					// case needed for debugging
@@ -1,5 +1,6 @@
 package org.transitclock.avl.calAmp;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
@@ -8,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.avl.AvlModule;
 import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.utils.Time;
 
 public class CalAmpAvlModule extends AvlModule {
 
@@ -16,6 +18,25 @@ public class CalAmpAvlModule extends AvlModule {
 			"The port number for the UDP socket connection for the "
 					+ "CalAmp GPS tracker feed.");
 
+	private static IntegerConfigValue calAmpReceiverThreads =
+			new IntegerConfigValue("transitclock.avl.calAmpReceiverThreads",
+					0,
+					"Number of threads receiving CalAmp UDP packets. If "
+					+ "greater than 0 then a DatagramChannel read by this "
+					+ "many threads is used, with packets parsed directly "
+					+ "from reusable buffers. Useful for high packet rates. "
+					+ "If 0 then a single thread reads from a "
+					+ "DatagramSocket.");
+
+	private static IntegerConfigValue calAmpReceiveBufferBytes =
+			new IntegerConfigValue("transitclock.avl.calAmpReceiveBufferBytes",
+					4 * 1024 * 1024,
+					"Size of the socket receive buffer when "
+					+ "transitclock.avl.calAmpReceiverThreads is greater "
+					+ "than 0. A larger buffer means that packets are not "
+					+ "dropped by the kernel during bursts. If 0 then the "
+					+ "OS default is used.");
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(CalAmpAvlModule.class);
 
@@ -55,6 +76,32 @@ public class CalAmpAvlModule extends AvlModule {
 		}		
 	}
 	
+	/**
+	 * Receives the packets using a CalAmpUdpReceiver with multiple threads.
+	 * If the channel is closed due to an error then it is reopened.
+	 */
+	private void runReceiver() {
+		CalAmpUdpReceiver receiver =
+				new CalAmpUdpReceiver(calAmpFeedPort.getValue(),
+						calAmpReceiverThreads.getValue(),
+						calAmpReceiveBufferBytes.getValue());
+		while (true) {
+			try {
+				receiver.run();
+			} catch (IOException e) {
+				logger.error("Exception occurred opening DatagramChannel "
+						+ "on port {}. {}", calAmpFeedPort.getValue(),
+						e.getMessage(), e);
+				System.exit(-1);
+			} catch (Exception e) {
+				logger.error("Unexpected exception {}", e.getMessage(), e);
+			}
+
+			// Don't reopen channel right away in case the problem persists
+			Time.sleep(Time.MS_PER_SEC);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
 	 */
@@ -64,6 +111,11 @@ public class CalAmpAvlModule extends AvlModule {
 		logger.info("Started module {} for agencyId={}", getClass().getName(),
 				getAgencyId());
 
+		if (calAmpReceiverThreads.getValue() > 0) {
+			runReceiver();
+			return;
+		}
+
 		while (true) {
 			logger.info("Starting DatagramSocket on port {}",
 					calAmpFeedPort.getValue());
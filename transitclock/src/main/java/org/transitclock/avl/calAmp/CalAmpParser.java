@@ -0,0 +1,204 @@
+/*
+ * This file is part of Transitime.org
+ * 
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.calAmp;
+
+import java.nio.ByteBuffer;
+
+import org.transitclock.core.dataCache.VehicleDataCache;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.VehicleConfig;
+import org.transitclock.utils.Geo;
+import org.transitclock.utils.Time;
+
+/**
+ * Parses CalAmp LM Direct messages directly from a ByteBuffer into an
+ * AvlReport. Unlike Report.parseReport() no intermediate OptionsHeader,
+ * MessageHeader, or MiniEventReport objects are created and the fields are
+ * read with absolute gets so that the buffer doesn't need to be copied or
+ * wrapped. Used by the CalAmpUdpReceiver for when handling high packet
+ * rates.
+ * <p>
+ * The message layout is the same as what is handled by OptionsHeader,
+ * MessageHeader, and MiniEventReport.
+ */
+public class CalAmpParser {
+
+	// Options header seems to be indicated by this byte
+	private final static byte OPTIONS_BYTE = (byte) 0x83;
+
+	private static final byte MINI_EVENT_REPORT_MESSAGE = 10;
+
+	// Service type, message type, and 2 byte sequence number
+	private static final int MESSAGE_HEADER_LENGTH = 4;
+
+	// Time, lat, lon, heading, speed, fix status, comm state, inputs, and
+	// event code
+	private static final int MINI_EVENT_REPORT_LENGTH = 4+4+4+2+1+1+1+1+1;
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Thrown when a message is truncated or otherwise cannot be parsed
+	 */
+	public static class MalformedMessageException extends Exception {
+		private static final long serialVersionUID = 4137390587744231541L;
+
+		private MalformedMessageException(String message) {
+			super(message);
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since all methods are static
+	 */
+	private CalAmpParser() {
+	}
+
+	/**
+	 * Makes sure that the message has the specified number of bytes
+	 * starting at offset.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @param part
+	 *            For the exception message
+	 * @throws MalformedMessageException
+	 */
+	private static void checkLength(ByteBuffer buffer, int offset, int length,
+			String part) throws MalformedMessageException {
+		if (offset + length > buffer.limit())
+			throw new MalformedMessageException("Message of " + buffer.limit()
+					+ " bytes is too short for " + part + " at offset "
+					+ offset);
+	}
+
+	/**
+	 * Parses a message from the buffer, which should have position 0 and
+	 * limit set to the length of the message. The position of the buffer is
+	 * not changed.
+	 *
+	 * @param buffer
+	 *            Contains the message
+	 * @return The AvlReport, or null if the message is not a mini event
+	 *         report with a valid GPS fix
+	 * @throws MalformedMessageException
+	 *             If the message is truncated
+	 */
+	public static AvlReport parse(ByteBuffer buffer)
+			throws MalformedMessageException {
+		return parse(buffer, true);
+	}
+
+	/**
+	 * Same as parse(ByteBuffer) but the VehicleConfig lookup of the vehicle
+	 * ID can be skipped, in which case the mobile ID is used as the vehicle
+	 * ID. For testing without a database.
+	 *
+	 * @param buffer
+	 *            Contains the message
+	 * @param useVehicleConfigs
+	 *            If true then the vehicle ID is determined from the
+	 *            VehicleConfig with the mobile ID as the tracker ID
+	 * @return The AvlReport, or null if the message is not a mini event
+	 *         report with a valid GPS fix
+	 * @throws MalformedMessageException
+	 *             If the message is truncated
+	 */
+	static AvlReport parse(ByteBuffer buffer, boolean useVehicleConfigs)
+			throws MalformedMessageException {
+		int offset = 0;
+
+		// Read the mobile ID from the options header, if there is one
+		String mobileId = null;
+		checkLength(buffer, offset, 1, "options header");
+		if (buffer.get(offset) == OPTIONS_BYTE) {
+			++offset;
+			checkLength(buffer, offset, 1, "mobile ID length");
+			int mobileIdLength = buffer.get(offset++);
+			if (mobileIdLength < 0)
+				throw new MalformedMessageException(
+						"Negative mobile ID length " + mobileIdLength);
+			// Mobile ID, mobile ID type length, and mobile ID type
+			checkLength(buffer, offset, mobileIdLength + 2, "mobile ID");
+			char[] hex = new char[mobileIdLength * 2];
+			for (int i=0; i<mobileIdLength; ++i) {
+				int b = buffer.get(offset++) & 0xFF;
+				hex[2*i] = HEX_DIGITS[b >>> 4];
+				hex[2*i+1] = HEX_DIGITS[b & 0x0F];
+			}
+			mobileId = new String(hex);
+			// Skip the mobile ID type length and the mobile ID type
+			offset += 2;
+		}
+
+		// Message header. Only mini event reports are handled
+		checkLength(buffer, offset, MESSAGE_HEADER_LENGTH, "message header");
+		byte messageType = buffer.get(offset + 1);
+		offset += MESSAGE_HEADER_LENGTH;
+		if (messageType != MINI_EVENT_REPORT_MESSAGE)
+			return null;
+
+		// Mini event report
+		checkLength(buffer, offset, MINI_EVENT_REPORT_LENGTH,
+				"mini event report");
+		long epochTime = (buffer.getInt(offset) & 0xFFFFFFFFL) * Time.MS_PER_SEC;
+		double lat = buffer.getInt(offset + 4) / 10000000.0;
+		double lon = buffer.getInt(offset + 8) / 10000000.0;
+		short heading = buffer.getShort(offset + 12);
+		int speedKph = buffer.get(offset + 14) & 0xFF;
+		byte fixStatus = buffer.get(offset + 15);
+
+		// If any of the Invalid Time, Invalid Fix, Last Known, or Historic
+		// bits are set then the fix is not valid
+		if ((fixStatus & 0xF0) != 0)
+			return null;
+
+		// Messages without an options header don't identify the vehicle
+		if (mobileId == null)
+			return null;
+
+		// Determine the vehicle ID by looking for VehicleConfig that has the
+		// corresponding tracker ID. If no such vehicle then use the
+		// mobile/tracker ID as the vehicle ID.
+		VehicleConfig vehicleConfig = !useVehicleConfigs ? null
+				: VehicleDataCache.getInstance().getVehicleConfigByTrackerId(
+						mobileId);
+		String vehicleId =
+				vehicleConfig != null ? vehicleConfig.getId() : mobileId;
+
+		return new AvlReport(vehicleId, epochTime, lat, lon,
+				speedKph * Geo.KPH_TO_MPS, heading, "CalAmp");
+	}
+
+	/**
+	 * Returns the message in hexadecimal, for logging
+	 *
+	 * @param buffer
+	 * @return the message as hex
+	 */
+	public static String toHex(ByteBuffer buffer) {
+		StringBuilder sb = new StringBuilder(buffer.limit() * 2);
+		for (int i=0; i<buffer.limit(); ++i) {
+			int b = buffer.get(i) & 0xFF;
+			sb.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0x0F]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of Transitime.org
+ * 
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.calAmp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.avl.AvlExecutor;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+/**
+ * Receives CalAmp UDP packets using a DatagramChannel that is read by a pool
+ * of receiver threads. Each thread has its own direct ByteBuffer that is
+ * reused for every packet so no memory is allocated per packet for
+ * receiving, and the packets are parsed directly from the buffer into an
+ * AvlReport using CalAmpParser. Having multiple threads means that a
+ * packet can be received while others are being parsed and queued, so
+ * that packets are not dropped by the kernel when the socket receive buffer
+ * fills up at peak reporting rates.
+ * <p>
+ * Counts the packets that are received, parsed, dropped because they are
+ * not a valid GPS report, and malformed.
+ */
+public class CalAmpUdpReceiver {
+
+	private final int port;
+	private final int numThreads;
+	private final int receiveBufferBytes;
+
+	private final Counter receivedCounter;
+	private final Counter parsedCounter;
+	private final Counter droppedCounter;
+	private final Counter malformedCounter;
+
+	// Larger than any CalAmp message. If a packet fills the whole buffer
+	// then it was truncated.
+	private static final int MAX_PACKET_SIZE = 1024;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(CalAmpUdpReceiver.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param port
+	 *            UDP port to listen on
+	 * @param numThreads
+	 *            Number of receiver threads
+	 * @param receiveBufferBytes
+	 *            Size of the socket receive buffer. If 0 then the OS default
+	 *            is used.
+	 */
+	public CalAmpUdpReceiver(int port, int numThreads, int receiveBufferBytes) {
+		this.port = port;
+		this.numThreads = Math.max(numThreads, 1);
+		this.receiveBufferBytes = receiveBufferBytes;
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		receivedCounter = registry.counter(
+				"transitclock_calamp_packets_received_total",
+				"Number of CalAmp UDP packets received");
+		parsedCounter = registry.counter(
+				"transitclock_calamp_packets_parsed_total",
+				"Number of CalAmp UDP packets converted to AVL reports");
+		droppedCounter = registry.counter(
+				"transitclock_calamp_packets_dropped_total",
+				"Number of CalAmp UDP packets ignored because they were not "
+				+ "a mini event report with a valid GPS fix");
+		malformedCounter = registry.counter(
+				"transitclock_calamp_packets_malformed_total",
+				"Number of CalAmp UDP packets that were truncated or could "
+				+ "not be parsed");
+	}
+
+	/**
+	 * Opens the channel and starts the receiver threads. Blocks until the
+	 * channel is closed due to an error, at which point the caller can call
+	 * run() again to reopen the channel.
+	 *
+	 * @throws IOException
+	 *             If the channel could not be opened
+	 */
+	public void run() throws IOException {
+		final DatagramChannel channel = DatagramChannel.open();
+		try {
+			if (receiveBufferBytes > 0)
+				channel.setOption(StandardSocketOptions.SO_RCVBUF,
+						receiveBufferBytes);
+			channel.bind(new InetSocketAddress(port));
+			logger.info("Receiving CalAmp packets on port {} using {} "
+					+ "threads. Socket receive buffer is {} bytes.", port,
+					numThreads,
+					channel.getOption(StandardSocketOptions.SO_RCVBUF));
+
+			final CountDownLatch done = new CountDownLatch(numThreads);
+			NamedThreadFactory threadFactory =
+					new NamedThreadFactory("calAmpReceiver");
+			for (int i=0; i<numThreads; ++i) {
+				threadFactory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							receive(channel);
+						} finally {
+							done.countDown();
+						}
+					}
+				}).start();
+			}
+
+			// Wait until all the receiver threads have exited
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Receives and processes packets until the channel is closed or there
+	 * is an IOException. An IOException closes the channel so that the
+	 * other receiver threads exit as well and the channel is reopened. Any
+	 * other exception when processing a packet is logged and the packet is
+	 * skipped so that a bad packet doesn't stop the receiver thread.
+	 *
+	 * @param channel
+	 */
+	private void receive(DatagramChannel channel) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		try {
+			while (true) {
+				buffer.clear();
+				channel.receive(buffer);
+				long receiptNanos = System.nanoTime();
+				receivedCounter.increment();
+				buffer.flip();
+
+				try {
+					processPacket(buffer, receiptNanos);
+				} catch (Exception e) {
+					malformedCounter.increment();
+					logger.error("Exception processing CalAmp packet {}. {}",
+							CalAmpParser.toHex(buffer), e.getMessage(), e);
+				}
+			}
+		} catch (ClosedChannelException e) {
+			// Another receiver thread closed the channel
+		} catch (IOException e) {
+			logger.error("Exception receiving CalAmp packet on port {}. {}",
+					port, e.getMessage(), e);
+			try {
+				channel.close();
+			} catch (IOException e2) {
+				logger.error("Exception closing channel", e2);
+			}
+		}
+	}
+
+	/**
+	 * Parses the packet and processes the resulting AvlReport
+	 *
+	 * @param buffer
+	 *            Contains the packet, with limit set to its length
+	 * @param receiptNanos
+	 *            When the packet was received
+	 */
+	private void processPacket(ByteBuffer buffer, long receiptNanos) {
+		if (logger.isDebugEnabled())
+			logger.debug("Message={}", CalAmpParser.toHex(buffer));
+
+		if (buffer.limit() == buffer.capacity()) {
+			malformedCounter.increment();
+			logger.error("CalAmp packet was truncated to {} bytes",
+					buffer.capacity());
+			return;
+		}
+
+		AvlReport avlReport;
+		try {
+			avlReport = CalAmpParser.parse(buffer);
+		} catch (CalAmpParser.MalformedMessageException e) {
+			malformedCounter.increment();
+			logger.error("Malformed CalAmp message {}. {}",
+					CalAmpParser.toHex(buffer), e.getMessage());
+			return;
+		}
+
+		if (avlReport == null) {
+			droppedCounter.increment();
+			logger.debug("Not a mini event report with a valid GPS fix so "
+					+ "ignoring.");
+			return;
+		}
+		parsedCounter.increment();
+
+		try {
+			PipelineLatencyMonitor.stamp(avlReport, PipelineStage.FEED_RECEIPT,
+					receiptNanos);
+
+			// Use AvlExecutor to actually process the data using a thread
+			// executor, same as for MiniEventReport.process()
+			AvlExecutor.getInstance().processAvlReport(avlReport);
+		} catch (Exception e) {
+			logger.error("Exception processing {}", avlReport, e);
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.socket;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.avl.AvlExecutor;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.AvlReport.AssignmentType;
+import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReaderBase;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+
+/**
+ * A connection from a device or gateway to the AvlSocketServerModule.
+ * Reads data from the socket into a buffer and decodes the complete frames
+ * in it, leaving any partial frame in the buffer until the rest of it is
+ * read. Each frame is converted to an AvlReport that is processed by the
+ * AvlExecutor.
+ * <p>
+ * Only accessed by the AvlSocketReader thread that the connection is
+ * assigned to, except for the statistics which are also read when the
+ * metrics are output.
+ */
+class AvlSocketConnection {
+
+	/**
+	 * How AVL reports are framed on the connection
+	 */
+	enum Format {
+		// One JSON object per line, with the same members as for the
+		// pushAvl API command: v, t, lat, lon, and optionally s, h,
+		// assignmentId, and assignmentType
+		JSON_LINES,
+
+		// 4 byte big-endian length followed by a GTFS-realtime
+		// VehiclePosition
+		PROTOBUF
+	}
+
+	private final SocketChannel channel;
+	private final Format format;
+	private final String name;
+	private final ByteBuffer buffer;
+
+	private volatile long lastReadTime;
+
+	// Statistics
+	private final AtomicLong reportsReceived = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private long reportsAtLastRate = 0;
+	private long bytesAtLastRate = 0;
+	private volatile double reportsPerSec = 0.0;
+	private volatile double bytesPerSec = 0.0;
+
+	private static final int LENGTH_PREFIX_BYTES = 4;
+
+	private static final String AVL_SOURCE = "Socket";
+
+	private static final Counter reportsCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_socket_reports_total",
+					"Number of AVL reports received via the AVL socket server");
+	private static final Counter malformedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_socket_malformed_total",
+					"Number of frames received via the AVL socket server that "
+					+ "could not be parsed");
+	private static final Counter droppedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_socket_dropped_total",
+					"Number of frames received via the AVL socket server that "
+					+ "did not have a vehicle ID or position");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(AvlSocketConnection.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param channel
+	 *            The non-blocking channel for the connection
+	 * @param format
+	 *            How the AVL reports are framed
+	 * @param maxFrameBytes
+	 *            Largest frame that can be read
+	 * @throws IOException
+	 */
+	AvlSocketConnection(SocketChannel channel, Format format,
+			int maxFrameBytes) throws IOException {
+		this.channel = channel;
+		this.format = format;
+		SocketAddress remoteAddress = channel.getRemoteAddress();
+		String address = remoteAddress != null ? remoteAddress.toString() : "";
+		this.name = address.startsWith("/") ? address.substring(1) : address;
+		this.buffer = ByteBuffer.allocate(maxFrameBytes
+				+ (format == Format.PROTOBUF ? LENGTH_PREFIX_BYTES : 0));
+		this.lastReadTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads the available data from the socket and processes the complete
+	 * frames.
+	 *
+	 * @return false if the connection should be closed because the client
+	 *         closed it or because the data cannot be framed
+	 * @throws IOException
+	 */
+	boolean read() throws IOException {
+		int numBytes = channel.read(buffer);
+		if (numBytes < 0) {
+			logger.info("AVL socket connection {} closed by client", name);
+			return false;
+		}
+		if (numBytes == 0)
+			return true;
+
+		long receiptNanos = System.nanoTime();
+		lastReadTime = System.currentTimeMillis();
+		bytesReceived.addAndGet(numBytes);
+
+		buffer.flip();
+		boolean ok = format == Format.JSON_LINES ?
+				decodeJsonLines(receiptNanos) :
+				decodeProtobufFrames(receiptNanos);
+		buffer.compact();
+
+		// If the buffer is full then the frame is too large to ever be read
+		if (ok && !buffer.hasRemaining()) {
+			malformedCounter.increment();
+			logger.error("Frame on AVL socket connection {} is larger than "
+					+ "the maximum of {} bytes so closing connection", name,
+					buffer.capacity());
+			return false;
+		}
+		return ok;
+	}
+
+	/**
+	 * Processes each complete line in the buffer. Leaves the buffer position
+	 * at the start of the first incomplete line.
+	 *
+	 * @param receiptNanos
+	 * @return true since lines can always be framed
+	 */
+	private boolean decodeJsonLines(long receiptNanos) {
+		byte[] bytes = buffer.array();
+		int start = buffer.position();
+		for (int i=start; i<buffer.limit(); ++i) {
+			if (bytes[i] == '\n') {
+				String line = new String(bytes, start, i - start,
+						StandardCharsets.UTF_8).trim();
+				if (!line.isEmpty())
+					processJsonLine(line, receiptNanos);
+				start = i + 1;
+			}
+		}
+		buffer.position(start);
+		return true;
+	}
+
+	/**
+	 * Processes each complete length-prefixed frame in the buffer. Leaves
+	 * the buffer position at the start of the first incomplete frame.
+	 *
+	 * @param receiptNanos
+	 * @return false if a frame has an invalid length
+	 */
+	private boolean decodeProtobufFrames(long receiptNanos) {
+		while (buffer.remaining() >= LENGTH_PREFIX_BYTES) {
+			int length = buffer.getInt(buffer.position());
+			if (length < 0 || length > buffer.capacity() - LENGTH_PREFIX_BYTES) {
+				malformedCounter.increment();
+				logger.error("Invalid frame length {} on AVL socket "
+						+ "connection {} so closing connection", length, name);
+				return false;
+			}
+			if (buffer.remaining() < LENGTH_PREFIX_BYTES + length)
+				break;
+
+			int start = buffer.position() + LENGTH_PREFIX_BYTES;
+			processProtobufFrame(start, length, receiptNanos);
+			buffer.position(start + length);
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a line of JSON into an AvlReport and processes it
+	 *
+	 * @param line
+	 * @param receiptNanos
+	 */
+	private void processJsonLine(String line, long receiptNanos) {
+		AvlReport avlReport;
+		try {
+			JSONObject avlJsonObj = new JSONObject(line);
+			String vehicleId = avlJsonObj.getString("v");
+			long time = avlJsonObj.getLong("t");
+			double lat = avlJsonObj.getDouble("lat");
+			double lon = avlJsonObj.getDouble("lon");
+			float speed = avlJsonObj.has("s") ?
+					(float) avlJsonObj.getDouble("s") : Float.NaN;
+			float heading = avlJsonObj.has("h") ?
+					(float) avlJsonObj.getDouble("h") : Float.NaN;
+
+			avlReport = new AvlReport(vehicleId, time, lat, lon, speed,
+					heading, AVL_SOURCE);
+
+			// Handle assignment info if there is any
+			if (avlJsonObj.has("assignmentId")) {
+				String assignmentId = avlJsonObj.getString("assignmentId");
+				AssignmentType assignmentType = AssignmentType.BLOCK_ID;
+				if (avlJsonObj.has("assignmentType")) {
+					String assignmentTypeStr =
+							avlJsonObj.getString("assignmentType");
+					if (assignmentTypeStr.equals("ROUTE_ID"))
+						assignmentType = AssignmentType.ROUTE_ID;
+					else if (assignmentTypeStr.equals("TRIP_ID"))
+						assignmentType = AssignmentType.TRIP_ID;
+					else if (assignmentTypeStr.equals("TRIP_SHORT_NAME"))
+						assignmentType = AssignmentType.TRIP_SHORT_NAME;
+				}
+				avlReport.setAssignment(assignmentId, assignmentType);
+			}
+		} catch (JSONException e) {
+			malformedCounter.increment();
+			logger.error("Malformed JSON on AVL socket connection {}. {} "
+					+ "line={}", name, e.getMessage(), line);
+			return;
+		}
+
+		processAvlReport(avlReport, receiptNanos);
+	}
+
+	/**
+	 * Converts a VehiclePosition frame into an AvlReport and processes it
+	 *
+	 * @param start
+	 *            Position of the frame in the buffer
+	 * @param length
+	 *            Length of the frame
+	 * @param receiptNanos
+	 */
+	private void processProtobufFrame(int start, int length,
+			long receiptNanos) {
+		VehiclePosition vehiclePosition;
+		try {
+			vehiclePosition = VehiclePosition.parseFrom(
+					CodedInputStream.newInstance(buffer.array(),
+							buffer.arrayOffset() + start, length));
+		} catch (IOException e) {
+			malformedCounter.increment();
+			logger.error("Malformed VehiclePosition on AVL socket connection "
+					+ "{}. {}", name, e.getMessage());
+			return;
+		}
+
+		AvlReport avlReport = GtfsRtVehiclePositionsReaderBase
+				.createAvlReport(vehiclePosition, AVL_SOURCE);
+		if (avlReport == null) {
+			droppedCounter.increment();
+			logger.debug("VehiclePosition on AVL socket connection {} has no "
+					+ "vehicle ID or position so ignoring it", name);
+			return;
+		}
+
+		processAvlReport(avlReport, receiptNanos);
+	}
+
+	/**
+	 * Has the AvlExecutor process the AVL report
+	 *
+	 * @param avlReport
+	 * @param receiptNanos
+	 */
+	private void processAvlReport(AvlReport avlReport, long receiptNanos) {
+		reportsReceived.incrementAndGet();
+		reportsCounter.increment();
+		logger.debug("Received on AVL socket connection {} {}", name,
+				avlReport);
+
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.FEED_RECEIPT,
+				receiptNanos);
+		AvlExecutor.getInstance().processAvlReport(avlReport);
+	}
+
+	/**
+	 * Determines the rates since the last time this was called
+	 *
+	 * @param intervalSecs
+	 *            Time since last called
+	 */
+	synchronized void updateRates(double intervalSecs) {
+		long reports = reportsReceived.get();
+		long bytes = bytesReceived.get();
+		reportsPerSec = (reports - reportsAtLastRate) / intervalSecs;
+		bytesPerSec = (bytes - bytesAtLastRate) / intervalSecs;
+		reportsAtLastRate = reports;
+		bytesAtLastRate = bytes;
+	}
+
+	/**
+	 * Closes the socket
+	 */
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error("Exception closing AVL socket connection {}", name,
+					e);
+		}
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the remote address, for logging and metrics
+	 */
+	String getName() {
+		return name;
+	}
+
+	long getLastReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * For when reading resumes after being paused so that the time paused
+	 * doesn't count as idle time
+	 *
+	 * @param time
+	 */
+	void resetLastReadTime(long time) {
+		lastReadTime = time;
+	}
+
+	long getReportsReceived() {
+		return reportsReceived.get();
+	}
+
+	double getReportsPerSec() {
+		return reportsPerSec;
+	}
+
+	double getBytesPerSec() {
+		return bytesPerSec;
+	}
+
+	@Override
+	public String toString() {
+		return "AvlSocketConnection ["
+				+ "name=" + name
+				+ ", format=" + format
+				+ ", reportsReceived=" + reportsReceived
+				+ ", reportsPerSec=" + reportsPerSec
+				+ ", bytesPerSec=" + bytesPerSec
+				+ "]";
+	}
+}
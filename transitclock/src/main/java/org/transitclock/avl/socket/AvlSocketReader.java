@@ -0,0 +1,241 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.socket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.avl.AvlExecutor;
+import org.transitclock.utils.Time;
+
+/**
+ * Reads from a set of AVL socket connections using a Selector. Each reader
+ * runs in its own thread so that the connections are spread across
+ * multiple cores.
+ * <p>
+ * Applies back-pressure when the AVL queue is filling up: once the queue
+ * reaches the high water level the reader stops reading from its sockets
+ * until the queue has drained to the low water level. Since the data is
+ * then not read from the sockets the TCP windows fill up and the devices
+ * or gateways have to slow down instead of the AVL queue rejecting
+ * reports.
+ */
+class AvlSocketReader implements Runnable {
+
+	private final AvlSocketServerModule server;
+	private final Selector selector;
+
+	// Connections accepted by the server that still need to be registered
+	// with the selector. Registering has to be done by the reader thread
+	// since register() blocks while select() is in progress.
+	private final Queue<AvlSocketConnection> newConnections =
+			new ConcurrentLinkedQueue<AvlSocketConnection>();
+
+	// True if not reading because the AVL queue is too full
+	private boolean paused = false;
+
+	private long lastIdleCheckTime = System.currentTimeMillis();
+
+	// How long select() can block so that back-pressure and idle
+	// connections are checked regularly
+	private static final long SELECT_TIMEOUT_MSEC = 100;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(AvlSocketReader.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param server
+	 *            For configuration and for being notified when connections
+	 *            are closed
+	 * @throws IOException
+	 */
+	AvlSocketReader(AvlSocketServerModule server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Hands a new connection to this reader. Can be called from any thread.
+	 *
+	 * @param connection
+	 */
+	void addConnection(AvlSocketConnection connection) {
+		newConnections.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * @return true if currently not reading due to back-pressure
+	 */
+	boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Registers the new connections with the selector
+	 */
+	private void registerNewConnections() {
+		AvlSocketConnection connection;
+		while ((connection = newConnections.poll()) != null) {
+			try {
+				connection.getChannel().register(selector,
+						paused ? 0 : SelectionKey.OP_READ, connection);
+			} catch (ClosedChannelException e) {
+				server.connectionClosed(connection);
+			}
+		}
+	}
+
+	/**
+	 * Stops reading from the sockets if the AVL queue is too full, and
+	 * resumes once it has drained enough.
+	 */
+	private void updateBackPressure() {
+		double level = AvlExecutor.getInstance().getQueueLevel();
+		if (!paused && level >= server.getQueueHighWater()) {
+			paused = true;
+			server.backPressureApplied();
+			logger.warn("AVL queue is at {}% capacity so pausing reading "
+					+ "from {} AVL socket connections",
+					String.format("%.1f", level * 100),
+					selector.keys().size());
+			setInterestOps(0);
+		} else if (paused && level <= server.getQueueLowWater()) {
+			paused = false;
+			logger.info("AVL queue is at {}% capacity so resuming reading "
+					+ "from AVL socket connections",
+					String.format("%.1f", level * 100));
+			setInterestOps(SelectionKey.OP_READ);
+			
+			// The connections weren't read while paused so restart their
+			// idle clocks. Otherwise any connection paused for longer than
+			// the idle timeout would be closed right away.
+			long now = System.currentTimeMillis();
+			for (SelectionKey key : selector.keys()) {
+				if (key.isValid())
+					((AvlSocketConnection) key.attachment())
+							.resetLastReadTime(now);
+			}
+		}
+	}
+
+	private void setInterestOps(int ops) {
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid())
+				key.interestOps(ops);
+		}
+	}
+
+	/**
+	 * Closes the connection and cancels its key
+	 *
+	 * @param key
+	 */
+	private void close(SelectionKey key) {
+		key.cancel();
+		AvlSocketConnection connection = (AvlSocketConnection) key.attachment();
+		connection.close();
+		server.connectionClosed(connection);
+	}
+
+	/**
+	 * Reads from the connections that have data available
+	 */
+	private void readSelectedConnections() {
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+		while (iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			if (!key.isValid() || !key.isReadable())
+				continue;
+
+			AvlSocketConnection connection =
+					(AvlSocketConnection) key.attachment();
+			try {
+				if (!connection.read())
+					close(key);
+			} catch (IOException e) {
+				logger.info("Exception reading from AVL socket connection "
+						+ "{} so closing it. {}", connection.getName(),
+						e.getMessage());
+				close(key);
+			} catch (RuntimeException e) {
+				logger.error("Exception processing data from AVL socket "
+						+ "connection {} so closing it", connection.getName(),
+						e);
+				close(key);
+			}
+		}
+	}
+
+	/**
+	 * Once a second closes the connections that haven't had data for the
+	 * idle timeout. Not done while paused since then the connections are
+	 * idle because they are not being read. The idle time is restarted
+	 * when reading resumes.
+	 */
+	private void closeIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (paused || now - lastIdleCheckTime < Time.MS_PER_SEC)
+			return;
+		lastIdleCheckTime = now;
+
+		long idleTimeoutMsec = server.getIdleTimeoutMsec();
+		if (idleTimeoutMsec <= 0)
+			return;
+		for (SelectionKey key : selector.keys()) {
+			if (!key.isValid())
+				continue;
+			AvlSocketConnection connection =
+					(AvlSocketConnection) key.attachment();
+			if (now - connection.getLastReadTime() > idleTimeoutMsec) {
+				logger.info("AVL socket connection {} has been idle for more "
+						+ "than {} msec so closing it", connection.getName(),
+						idleTimeoutMsec);
+				close(key);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				registerNewConnections();
+				updateBackPressure();
+				selector.select(SELECT_TIMEOUT_MSEC);
+				readSelectedConnections();
+				closeIdleConnections();
+			} catch (Exception e) {
+				logger.error("Unexpected exception in AVL socket reader", e);
+				Time.sleep(SELECT_TIMEOUT_MSEC);
+			}
+		}
+	}
+}
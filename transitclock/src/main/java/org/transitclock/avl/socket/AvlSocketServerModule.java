@@ -0,0 +1,387 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.DoubleConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.modules.Module;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.Timer;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+/**
+ * An AVL feed module that accepts TCP connections from many devices or
+ * gateways that push AVL data, instead of polling for it. Two formats are
+ * supported, each on its own port:
+ * <ul>
+ * <li>Line-delimited JSON on transitclock.avl.socket.jsonPort. Each line is
+ * a JSON object with the same members as for the pushAvl API command, e.g.
+ * {"v":"1234","t":1466000000000,"lat":37.79,"lon":-122.40,"s":5.2,"h":90}
+ * </li>
+ * <li>Length-prefixed GTFS-realtime VehiclePosition protobuf frames on
+ * transitclock.avl.socket.protobufPort. Each frame is a 4 byte big-endian
+ * length followed by the serialized VehiclePosition.</li>
+ * </ul>
+ * The connections are accepted by the module thread and then read with
+ * non-blocking IO by a set of AvlSocketReader threads. The AVL reports are
+ * processed by the AvlExecutor. When the AVL queue fills up the readers stop
+ * reading from the sockets so that back-pressure is applied to the clients.
+ * <p>
+ * The rate of AVL reports and bytes for each connection is available as
+ * metrics and is logged every transitclock.avl.socket.rateIntervalSecs.
+ */
+public class AvlSocketServerModule extends Module {
+
+	private final Set<AvlSocketConnection> connections =
+			ConcurrentHashMap.newKeySet();
+
+	private AvlSocketReader[] readers;
+	private int nextReader = 0;
+
+	private final Counter acceptedCounter;
+	private final Counter rejectedCounter;
+	private final Counter backPressureCounter;
+
+	/*********** Configurable Parameters for this module ***********/
+	private static IntegerConfigValue jsonPort =
+			new IntegerConfigValue("transitclock.avl.socket.jsonPort",
+					4444,
+					"Port for AVL socket connections that send line-delimited "
+					+ "JSON. If 0 then JSON is not accepted.");
+
+	private static IntegerConfigValue protobufPort =
+			new IntegerConfigValue("transitclock.avl.socket.protobufPort",
+					4445,
+					"Port for AVL socket connections that send "
+					+ "length-prefixed GTFS-realtime VehiclePosition frames. "
+					+ "If 0 then protobuf is not accepted.");
+
+	private static IntegerConfigValue numReaderThreads =
+			new IntegerConfigValue("transitclock.avl.socket.numReaderThreads",
+					2,
+					"Number of threads reading from the AVL socket "
+					+ "connections.");
+
+	private static IntegerConfigValue maxConnections =
+			new IntegerConfigValue("transitclock.avl.socket.maxConnections",
+					5000,
+					"Maximum number of simultaneous AVL socket connections. "
+					+ "Additional connections are closed right away.");
+
+	private static IntegerConfigValue maxFrameBytes =
+			new IntegerConfigValue("transitclock.avl.socket.maxFrameBytes",
+					16 * 1024,
+					"Largest JSON line or protobuf frame that can be read. "
+					+ "Connections that send a larger one are closed.");
+
+	private static DoubleConfigValue queueHighWater =
+			new DoubleConfigValue("transitclock.avl.socket.queueHighWater",
+					0.8,
+					"When the AVL queue reaches this fraction of its capacity "
+					+ "then stop reading from the AVL sockets so that "
+					+ "back-pressure is applied to the clients.");
+
+	private static DoubleConfigValue queueLowWater =
+			new DoubleConfigValue("transitclock.avl.socket.queueLowWater",
+					0.5,
+					"Once reading from the AVL sockets has been stopped "
+					+ "because of back-pressure, resume reading when the AVL "
+					+ "queue has drained to this fraction of its capacity.");
+
+	private static IntegerConfigValue idleTimeoutSecs =
+			new IntegerConfigValue("transitclock.avl.socket.idleTimeoutSecs",
+					600,
+					"AVL socket connections that haven't sent data for this "
+					+ "long are closed. If 0 then idle connections are not "
+					+ "closed.");
+
+	private static IntegerConfigValue rateIntervalSecs =
+			new IntegerConfigValue("transitclock.avl.socket.rateIntervalSecs",
+					60,
+					"How frequently the rate of AVL reports for each AVL "
+					+ "socket connection is determined and logged.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(AvlSocketServerModule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public AvlSocketServerModule(String agencyId) {
+		super(agencyId);
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		acceptedCounter = registry.counter(
+				"transitclock_avl_socket_connections_accepted_total",
+				"Number of AVL socket connections accepted");
+		rejectedCounter = registry.counter(
+				"transitclock_avl_socket_connections_rejected_total",
+				"Number of AVL socket connections closed right away because "
+				+ "there were already the maximum number of connections");
+		backPressureCounter = registry.counter(
+				"transitclock_avl_socket_back_pressure_total",
+				"Number of times reading from AVL sockets was paused because "
+				+ "the AVL queue was too full");
+		registry.gauge("transitclock_avl_socket_connections",
+				"Number of open AVL socket connections",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return connections.size();
+					}
+				});
+		registry.gauge("transitclock_avl_socket_paused_readers",
+				"Number of AVL socket readers not reading due to "
+				+ "back-pressure",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						int paused = 0;
+						if (readers != null) {
+							for (AvlSocketReader reader : readers)
+								if (reader.isPaused())
+									++paused;
+						}
+						return paused;
+					}
+				});
+	}
+
+	double getQueueHighWater() {
+		return queueHighWater.getValue();
+	}
+
+	double getQueueLowWater() {
+		return queueLowWater.getValue();
+	}
+
+	long getIdleTimeoutMsec() {
+		return idleTimeoutSecs.getValue() * Time.MS_PER_SEC;
+	}
+
+	/**
+	 * Called by a reader when it stops reading due to back-pressure
+	 */
+	void backPressureApplied() {
+		backPressureCounter.increment();
+	}
+
+	/**
+	 * Registers the rate metrics for a new connection
+	 *
+	 * @param connection
+	 */
+	private void connectionOpened(final AvlSocketConnection connection) {
+		connections.add(connection);
+		acceptedCounter.increment();
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.gauge("transitclock_avl_socket_connection_reports_per_second",
+				"Rate of AVL reports for an AVL socket connection",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return connection.getReportsPerSec();
+					}
+				}, "connection", connection.getName());
+		registry.gauge("transitclock_avl_socket_connection_bytes_per_second",
+				"Rate of bytes for an AVL socket connection",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return connection.getBytesPerSec();
+					}
+				}, "connection", connection.getName());
+		logger.info("Accepted {} AVL socket connection from {}. There are "
+				+ "now {} connections.", connection.getFormat(),
+				connection.getName(), connections.size());
+	}
+
+	/**
+	 * Called by a reader when a connection has been closed so that its
+	 * metrics are removed.
+	 *
+	 * @param connection
+	 */
+	void connectionClosed(AvlSocketConnection connection) {
+		if (!connections.remove(connection))
+			return;
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.remove("transitclock_avl_socket_connection_reports_per_second",
+				"connection", connection.getName());
+		registry.remove("transitclock_avl_socket_connection_bytes_per_second",
+				"connection", connection.getName());
+		logger.info("Closed AVL socket connection {} after {} AVL reports. "
+				+ "There are now {} connections.", connection.getName(),
+				connection.getReportsReceived(), connections.size());
+	}
+
+	/**
+	 * Determines and logs the rates for each connection
+	 */
+	private void updateRates() {
+		double intervalSecs = rateIntervalSecs.getValue();
+		double totalReportsPerSec = 0.0;
+		for (AvlSocketConnection connection : connections) {
+			connection.updateRates(intervalSecs);
+			totalReportsPerSec += connection.getReportsPerSec();
+			logger.debug("{}", connection);
+		}
+		logger.info("{} AVL socket connections are sending {} AVL reports "
+				+ "per second", connections.size(),
+				String.format("%.1f", totalReportsPerSec));
+	}
+
+	/**
+	 * Opens a non-blocking server socket for the port and registers it
+	 * with the selector for accepting connections.
+	 *
+	 * @param selector
+	 * @param port
+	 * @param format
+	 * @throws IOException
+	 */
+	private void listen(Selector selector, int port,
+			AvlSocketConnection.Format format) throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT, format);
+		logger.info("Accepting {} AVL socket connections on port {}", format,
+				port);
+	}
+
+	/**
+	 * Accepts a connection and hands it to a reader
+	 *
+	 * @param key
+	 *            The key of the server socket
+	 * @throws IOException
+	 */
+	private void accept(SelectionKey key) throws IOException {
+		ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+
+		if (connections.size() >= maxConnections.getValue()) {
+			rejectedCounter.increment();
+			logger.error("Already have the maximum of {} AVL socket "
+					+ "connections so closing new connection from {}",
+					maxConnections.getValue(), channel.getRemoteAddress());
+			channel.close();
+			return;
+		}
+
+		channel.configureBlocking(false);
+		AvlSocketConnection connection = new AvlSocketConnection(channel,
+				(AvlSocketConnection.Format) key.attachment(),
+				maxFrameBytes.getValue());
+		connectionOpened(connection);
+
+		// Spread the connections across the readers
+		readers[nextReader].addConnection(connection);
+		nextReader = (nextReader + 1) % readers.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Started module {} for agencyId={}", getClass().getName(),
+				getAgencyId());
+
+		Selector selector;
+		try {
+			selector = Selector.open();
+			if (jsonPort.getValue() > 0)
+				listen(selector, jsonPort.getValue(),
+						AvlSocketConnection.Format.JSON_LINES);
+			if (protobufPort.getValue() > 0)
+				listen(selector, protobufPort.getValue(),
+						AvlSocketConnection.Format.PROTOBUF);
+
+			// Start the readers
+			int numReaders = Math.max(numReaderThreads.getValue(), 1);
+			AvlSocketReader[] newReaders = new AvlSocketReader[numReaders];
+			NamedThreadFactory threadFactory =
+					new NamedThreadFactory("avlSocketReader");
+			for (int i=0; i<numReaders; ++i) {
+				newReaders[i] = new AvlSocketReader(this);
+				threadFactory.newThread(newReaders[i]).start();
+			}
+			readers = newReaders;
+		} catch (IOException e) {
+			logger.error("Could not start AVL socket server. {}",
+					e.getMessage(), e);
+			return;
+		}
+
+		int intervalSecs = rateIntervalSecs.getValue();
+		if (intervalSecs > 0) {
+			Timer.get().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						updateRates();
+					} catch (Exception e) {
+						logger.error("Exception updating AVL socket rates", e);
+					}
+				}
+			}, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+		}
+
+		// Accept connections
+		while (true) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> iterator =
+						selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (key.isValid() && key.isAcceptable())
+						accept(key);
+				}
+			} catch (Exception e) {
+				logger.error("Exception accepting AVL socket connection. {}",
+						e.getMessage(), e);
+				Time.sleep(Time.MS_PER_SEC);
+			}
+		}
+	}
+}
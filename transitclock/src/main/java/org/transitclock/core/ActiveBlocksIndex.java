@@ -0,0 +1,369 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.db.structs.Block;
+import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.MapKey;
+import org.transitclock.utils.Time;
+
+/**
+ * Index of the blocks by their start and end times so that the blocks that
+ * are active, or are about to start, for a service ID can be determined
+ * without having to look at every single block. Built once when the
+ * configuration is read in and never modified afterwards, so it can be
+ * safely accessed by multiple threads.
+ * <p>
+ * For each service ID, and for each service ID/route ID combination, the
+ * blocks are kept in an array sorted by start time plus an array of time
+ * buckets. Each bucket lists the blocks whose start to end time interval
+ * overlaps the bucket. Queries that only depend on the start time use a
+ * binary search of the sorted array. Queries that depend on the end time
+ * only look at the buckets that overlap the time being queried.
+ * <p>
+ * All times are in seconds into the day of the service day, the same as
+ * Block.getStartTime() and Block.getEndTime(). The caller is responsible for
+ * adjusting the time when looking at service IDs for the previous or next
+ * day.
+ */
+public class ActiveBlocksIndex {
+
+	// Keyed on service ID
+	private final Map<String, BlockTimes> blockTimesByService =
+			new HashMap<String, BlockTimes>();
+
+	// Keyed on service ID and route ID
+	private final Map<RouteServiceKey, BlockTimes> blockTimesByRoute =
+			new HashMap<RouteServiceKey, BlockTimes>();
+
+	private static IntegerConfigValue bucketSizeSecs =
+			new IntegerConfigValue(
+					"transitclock.core.activeBlocksIndexBucketSizeSecs",
+					15 * 60,
+					"Size in seconds of the time buckets used to index the "
+					+ "blocks by their start and end times. Smaller buckets "
+					+ "mean fewer blocks are examined when determining the "
+					+ "active blocks but use more memory.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(ActiveBlocksIndex.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the index for the blocks. Should be called when the
+	 * configuration data is read in.
+	 *
+	 * @param blocks
+	 *            All the blocks for the configuration
+	 */
+	public ActiveBlocksIndex(Collection<Block> blocks) {
+		IntervalTimer timer = new IntervalTimer();
+
+		// Group the blocks by service ID and by service ID/route ID
+		Map<String, List<Block>> blocksByService =
+				new HashMap<String, List<Block>>();
+		Map<RouteServiceKey, List<Block>> blocksByRoute =
+				new HashMap<RouteServiceKey, List<Block>>();
+		for (Block block : blocks) {
+			addToMap(blocksByService, block.getServiceId(), block);
+			for (String routeId : block.getRouteIds()) {
+				addToMap(blocksByRoute,
+						new RouteServiceKey(block.getServiceId(), routeId),
+						block);
+			}
+		}
+
+		// Create the sorted arrays and buckets for each group
+		int bucketSize = Math.max(bucketSizeSecs.getValue(), 1);
+		for (Map.Entry<String, List<Block>> entry : blocksByService.entrySet()) {
+			blockTimesByService.put(entry.getKey(),
+					new BlockTimes(entry.getValue(), bucketSize));
+		}
+		for (Map.Entry<RouteServiceKey, List<Block>> entry :
+				blocksByRoute.entrySet()) {
+			blockTimesByRoute.put(entry.getKey(),
+					new BlockTimes(entry.getValue(), bucketSize));
+		}
+
+		logger.debug("Creating ActiveBlocksIndex for {} blocks, {} service "
+				+ "IDs, and {} service/route combinations took {} msec",
+				blocks.size(), blockTimesByService.size(),
+				blockTimesByRoute.size(), timer.elapsedMsec());
+	}
+
+	/**
+	 * Adds block to the list in the map for the specified key, creating the
+	 * list if necessary.
+	 *
+	 * @param map
+	 * @param key
+	 * @param block
+	 */
+	private static <K> void addToMap(Map<K, List<Block>> map, K key,
+			Block block) {
+		List<Block> blocksForKey = map.get(key);
+		if (blocksForKey == null) {
+			blocksForKey = new ArrayList<Block>();
+			map.put(key, blocksForKey);
+		}
+		blocksForKey.add(block);
+	}
+
+	/**
+	 * Adds to activeBlocks the blocks for the service ID, and optionally
+	 * route ID, that are active at the specified time. Uses the same
+	 * definition of active as Block.isActive(), but only for a single service
+	 * day. Blocks are added in no particular order.
+	 *
+	 * @param serviceId
+	 *            Service ID of the blocks
+	 * @param routeId
+	 *            Route ID of the blocks. If null then blocks for all routes
+	 *            are added.
+	 * @param secsInDay
+	 *            The time, in seconds into the service day, to determine the
+	 *            active blocks for. Adjust by a day when looking at the service
+	 *            IDs for the previous or next day.
+	 * @param allowableBeforeTimeSecs
+	 *            How much before the block start time the block is considered
+	 *            to be active
+	 * @param allowableAfterStartTimeSecs
+	 *            If set to value greater than or equal to zero then block
+	 *            considered active only if within this number of seconds after
+	 *            the start time. If less then zero then block considered active
+	 *            up to the block end time.
+	 * @param activeBlocks
+	 *            The active blocks are added to this collection
+	 */
+	public void addActiveBlocks(String serviceId, String routeId,
+			int secsInDay, int allowableBeforeTimeSecs,
+			int allowableAfterStartTimeSecs, Collection<Block> activeBlocks) {
+		BlockTimes blockTimes = getBlockTimes(serviceId, routeId);
+		if (blockTimes == null)
+			return;
+
+		if (allowableAfterStartTimeSecs >= 0) {
+			// Only the start time matters so use binary search
+			blockTimes.addBlocksStartingBetween(
+					secsInDay - allowableAfterStartTimeSecs,
+					secsInDay + allowableBeforeTimeSecs, activeBlocks);
+		} else {
+			// Active up to the end time so use the buckets
+			blockTimes.addBlocksOverlapping(secsInDay,
+					secsInDay + allowableBeforeTimeSecs, activeBlocks);
+		}
+	}
+
+	/**
+	 * Adds to aboutToStartBlocks the blocks for the service ID that will
+	 * start within beforeStartTimeSecs of the specified time. Uses the same
+	 * definition as Block.isBeforeStartTime() and therefore also includes
+	 * blocks that start soon after midnight when the time is just before
+	 * midnight.
+	 *
+	 * @param serviceId
+	 *            Service ID of the blocks
+	 * @param secsInDay
+	 *            The time, in seconds into the day
+	 * @param beforeStartTimeSecs
+	 *            How much before the block start time the block is considered
+	 *            to be about to start
+	 * @param aboutToStartBlocks
+	 *            The blocks about to start are added to this collection
+	 */
+	public void addBlocksAboutToStart(String serviceId, int secsInDay,
+			int beforeStartTimeSecs, Collection<Block> aboutToStartBlocks) {
+		BlockTimes blockTimes = getBlockTimes(serviceId, null);
+		if (blockTimes == null)
+			return;
+
+		blockTimes.addBlocksStartingBetween(secsInDay,
+				secsInDay + beforeStartTimeSecs, aboutToStartBlocks);
+		blockTimes.addBlocksStartingBetween(secsInDay - Time.SEC_PER_DAY,
+				secsInDay - Time.SEC_PER_DAY + beforeStartTimeSecs,
+				aboutToStartBlocks);
+	}
+
+	/**
+	 * Returns the BlockTimes for the service ID and route ID.
+	 *
+	 * @param serviceId
+	 * @param routeId
+	 *            If null then returns BlockTimes for all routes
+	 * @return The BlockTimes, or null if there are no such blocks
+	 */
+	private BlockTimes getBlockTimes(String serviceId, String routeId) {
+		if (routeId == null)
+			return blockTimesByService.get(serviceId);
+		else
+			return blockTimesByRoute.get(new RouteServiceKey(serviceId,
+					routeId));
+	}
+
+	/**
+	 * Key for blockTimesByRoute map
+	 */
+	private static class RouteServiceKey extends MapKey {
+		private RouteServiceKey(String serviceId, String routeId) {
+			super(serviceId, routeId);
+		}
+
+		@Override
+		public String toString() {
+			return "RouteServiceKey [" + "serviceId=" + o1 + ", routeId="
+					+ o2 + "]";
+		}
+	}
+
+	/**
+	 * The start and end time index for a group of blocks.
+	 */
+	private static class BlockTimes {
+		// Blocks sorted by start time, along with the corresponding start
+		// times so that can binary search without dereferencing the blocks
+		private final Block[] blocksByStartTime;
+		private final int[] startTimes;
+
+		// Buckets of blocks whose start to end time overlaps the bucket.
+		// Bucket i covers times firstBucketTime + i*bucketSize up to
+		// firstBucketTime + (i+1)*bucketSize.
+		private final Block[][] buckets;
+		private final int firstBucketTime;
+		private final int bucketSize;
+
+		private BlockTimes(List<Block> blocks, int bucketSize) {
+			this.bucketSize = bucketSize;
+
+			// Create the arrays sorted by start time
+			List<Block> sortedBlocks = new ArrayList<Block>(blocks);
+			Collections.sort(sortedBlocks, new Comparator<Block>() {
+				@Override
+				public int compare(Block b1, Block b2) {
+					return Integer.compare(b1.getStartTime(),
+							b2.getStartTime());
+				}
+			});
+			blocksByStartTime =
+					sortedBlocks.toArray(new Block[sortedBlocks.size()]);
+			startTimes = new int[blocksByStartTime.length];
+			int lastEndTime = Integer.MIN_VALUE;
+			for (int i = 0; i < blocksByStartTime.length; ++i) {
+				startTimes[i] = blocksByStartTime[i].getStartTime();
+				lastEndTime = Math.max(lastEndTime,
+						blocksByStartTime[i].getEndTime());
+			}
+
+			// Create the buckets. Blocks are added in start time order so
+			// each bucket is also sorted by start time.
+			firstBucketTime = startTimes.length > 0 ? startTimes[0] : 0;
+			int numBuckets = startTimes.length > 0 ?
+					bucket(Math.max(lastEndTime, firstBucketTime)) + 1 : 0;
+			List<List<Block>> bucketLists =
+					new ArrayList<List<Block>>(numBuckets);
+			for (int i = 0; i < numBuckets; ++i)
+				bucketLists.add(new ArrayList<Block>());
+			for (Block block : blocksByStartTime) {
+				int lastBucket =
+						bucket(Math.max(block.getEndTime(), block.getStartTime()));
+				for (int i = bucket(block.getStartTime()); i <= lastBucket; ++i)
+					bucketLists.get(i).add(block);
+			}
+			buckets = new Block[numBuckets][];
+			for (int i = 0; i < numBuckets; ++i) {
+				List<Block> bucketList = bucketLists.get(i);
+				buckets[i] = bucketList.toArray(new Block[bucketList.size()]);
+			}
+		}
+
+		/**
+		 * Returns index of bucket that contains the time. Can be outside of
+		 * the range of the buckets array.
+		 */
+		private int bucket(int time) {
+			return (int) Math.floor((time - firstBucketTime)
+					/ (double) bucketSize);
+		}
+
+		/**
+		 * Adds blocks whose start time is greater than earliestStartTime
+		 * and less than latestStartTime.
+		 */
+		private void addBlocksStartingBetween(int earliestStartTime,
+				int latestStartTime, Collection<Block> results) {
+			// Binary search for first block with start time after
+			// earliestStartTime
+			int low = 0;
+			int high = startTimes.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (startTimes[mid] <= earliestStartTime)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+
+			for (int i = low;
+					i < startTimes.length && startTimes[i] < latestStartTime;
+					++i) {
+				results.add(blocksByStartTime[i]);
+			}
+		}
+
+		/**
+		 * Adds blocks where time > startTime - allowableBeforeTimeSecs and
+		 * time < endTime. This is the same as the block's start to end
+		 * time overlapping time to latestStartTime, where latestStartTime is
+		 * time + allowableBeforeTimeSecs.
+		 */
+		private void addBlocksOverlapping(int time, int latestStartTime,
+				Collection<Block> results) {
+			int firstBucket = Math.max(bucket(time), 0);
+			int lastBucket = Math.min(bucket(latestStartTime),
+					buckets.length - 1);
+			for (int i = firstBucket; i <= lastBucket; ++i) {
+				for (Block block : buckets[i]) {
+					// Buckets are sorted by start time so rest of blocks in
+					// the bucket start too late
+					if (block.getStartTime() >= latestStartTime)
+						break;
+
+					// Since a block can be in several buckets only handle
+					// it for the first bucket being looked at that it is in
+					if (i != firstBucket
+							&& bucket(block.getStartTime()) != i)
+						continue;
+
+					if (time < block.getEndTime())
+						results.add(block);
+				}
+			}
+		}
+	}
+}
@@ -341,6 +341,8 @@ public class ArrivalDepartureGeneratorDefaultImpl
 	}
 	private void updateCache(VehicleState vehicleState, ArrivalDeparture arrivalDeparture)
 	{
+		// So that predictions generated incrementally pick up the new data
+		PredictionChain.stopUpdated(arrivalDeparture.getStopId());
 								
 		
 		if(TripDataHistoryCacheFactory.getInstance()!=null)
@@ -512,6 +514,10 @@ public class ArrivalDepartureGeneratorDefaultImpl
 		// Generate prediction accuracy info as appropriate
 		PredictionAccuracyModule.handleArrivalDeparture(arrivalDeparture);
 
+		// Update the hourly schedule adherence rollups
+		if (SchedAdhRollups.isEnabled())
+			SchedAdhRollups.getInstance().add(arrivalDeparture);
+
 
 	}
 
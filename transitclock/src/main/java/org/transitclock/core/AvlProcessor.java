@@ -48,6 +48,11 @@ import org.transitclock.db.structs.VehicleEvent;
 import org.transitclock.db.structs.AvlReport.AssignmentType;
 import org.transitclock.logging.Markers;
 import org.transitclock.monitoring.CloudwatchService;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.StringUtils;
@@ -138,6 +143,19 @@ public class AvlProcessor {
 
 
 	
+	/************************** Metrics *******************************/
+
+	private static final Counter avlReportsProcessed =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_processed_total",
+					"Number of AVL reports processed");
+
+	private static final Histogram avlProcessingTime =
+			MetricsRegistry.getInstance().histogram(
+					"transitclock_avl_processing_seconds",
+					"How long matching an AVL report and generating the "
+					+ "resulting predictions and arrivals/departures takes");
+
 	/************************** Logging *******************************/
 
 	private static final Logger logger = LoggerFactory
@@ -444,6 +462,8 @@ public class AvlProcessor {
 		// Find possible spatial matches
 		List<SpatialMatch> spatialMatches = SpatialMatcher
 				.getSpatialMatches(vehicleState);
+		PipelineLatencyMonitor.stamp(vehicleState.getAvlReport(),
+				PipelineStage.SPATIAL_MATCH);
 		logger.debug("For vehicleId={} found the following {} spatial "
 				+ "matches: {}", vehicleState.getVehicleId(),
 				spatialMatches.size(), spatialMatches);
@@ -451,6 +471,8 @@ public class AvlProcessor {
 		// Find best temporal match of the spatial matches
 		TemporalMatch bestTemporalMatch = TemporalMatcher.getInstance()
 				.getBestTemporalMatch(vehicleState, spatialMatches);
+		PipelineLatencyMonitor.stamp(vehicleState.getAvlReport(),
+				PipelineStage.TEMPORAL_MATCH);
 				
 		// Log this as info since matching is a significant milestone
 		logger.info("For vehicleId={} the best match is {}",
@@ -730,11 +752,13 @@ public class AvlProcessor {
 					allPotentialSpatialMatchesForRoute.add(spatialMatch);
 			}
 		} // End of going through each block to determine spatial matches
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.SPATIAL_MATCH);
 
 		// For the spatial matches get the best temporal match
 		TemporalMatch bestMatch = TemporalMatcher.getInstance()
 				.getBestTemporalMatchComparedToSchedule(avlReport,
 						allPotentialSpatialMatchesForRoute);
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.TEMPORAL_MATCH);
 		logger.debug("For vehicleId={} best temporal match is {}",
 				avlReport.getVehicleId(), bestMatch);
 
@@ -782,6 +806,7 @@ public class AvlProcessor {
 		List<SpatialMatch> spatialMatches =
 				SpatialMatcher.getSpatialMatches(vehicleState.getAvlReport(),
 						block, potentialTrips, MatchingType.STANDARD_MATCHING);
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.SPATIAL_MATCH);
 		logger.debug("For vehicleId={} and blockId={} spatial matches={}",
 				avlReport.getVehicleId(), block.getId(), spatialMatches);
 
@@ -789,6 +814,7 @@ public class AvlProcessor {
 		TemporalMatch bestMatch = TemporalMatcher.getInstance()
 				.getBestTemporalMatchComparedToSchedule(avlReport,
 						spatialMatches);
+		PipelineLatencyMonitor.stamp(avlReport, PipelineStage.TEMPORAL_MATCH);
 		logger.debug("Best temporal match for vehicleId={} is {}",
 				avlReport.getVehicleId(), bestMatch);
 
@@ -1476,6 +1502,8 @@ public class AvlProcessor {
 			org.transitclock.db.structs.VehicleState dbVehicleState =
 					new org.transitclock.db.structs.VehicleState(vehicleState);
 			Core.getInstance().getDbLogger().add(dbVehicleState);
+			PipelineLatencyMonitor.stamp(avlReport,
+					PipelineStage.DB_LOGGER_ENQUEUE);
 		} // End of synchronizing on vehicleState }
 	}
 
@@ -1568,6 +1596,7 @@ public class AvlProcessor {
 	 */
 	public void processAvlReport(AvlReport avlReport) {
 		IntervalTimer timer = new IntervalTimer(); 
+		long startNanos = System.nanoTime();
 
 		// Handle special case where want to not use assignment from AVL
 		// report, most likely because want to test automatic assignment
@@ -1617,6 +1646,8 @@ public class AvlProcessor {
 
 		// Do the low level work of matching vehicle and then generating results
 		lowLevelProcessAvlReport(avlReport, false);
+		avlProcessingTime.recordSince(startNanos);
+		avlReportsProcessed.increment();
 		logger.debug("Processing AVL report took {}msec", timer);
         CloudwatchService.getInstance().saveMetric("PredictionProcessingTimeInMillis", Double.valueOf(timer.elapsedMsec()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
         CloudwatchService.getInstance().saveMetric("PredictionTotalLatencyInMillis", Double.valueOf((System.currentTimeMillis() - avlReport.getTime())), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
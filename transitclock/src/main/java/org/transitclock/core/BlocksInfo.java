@@ -19,15 +19,16 @@ package org.transitclock.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
 import org.transitclock.applications.Core;
 import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.db.structs.Block;
-import org.transitclock.gtfs.DbConfig;
 import org.transitclock.utils.Time;
 
 /**
@@ -68,18 +69,14 @@ public class BlocksInfo {
 		Date now = core.getSystemDate();
 		Collection<String> currentServiceIds = 
 				core.getServiceUtils().getServiceIds(now);
+		int secsInDay = core.getTime().getSecondsIntoDay(now);
 	
-		// For each service ID ...
+		// For each service ID add the blocks that are about to start. Uses
+		// the index instead of looking at every block for the service.
+		ActiveBlocksIndex index = core.getDbConfig().getActiveBlocksIndex();
 		for (String serviceId : currentServiceIds) {
-			DbConfig dbConfig = core.getDbConfig();
-			Collection<Block> blocks = dbConfig.getBlocks(serviceId);
-			
-			// If the block is about to be or currently active then
-			// add it to the list to be returned
-			for (Block block : blocks) {
-				if (block.isBeforeStartTime(now, beforeStartTimeSecs))
-					aboutToStartBlocks.add(block);
-			}
+			index.addBlocksAboutToStart(serviceId, secsInDay,
+					beforeStartTimeSecs, aboutToStartBlocks);
 		}
 		
 		// Done!
@@ -130,19 +127,19 @@ public class BlocksInfo {
 		// Determine which service IDs are currently active
 		Set<String> serviceIds = new HashSet<String>();
 		long now = core.getSystemTime();
-		List<String> currentServiceIds = 
-				core.getServiceUtils().getServiceIdsForDay(now);
+		ServiceUtils serviceUtils = core.getServiceUtils();
+		List<String> currentServiceIds = serviceUtils.getServiceIdsForDay(now);
+		List<String> previousDayServiceIds =
+				serviceUtils.getServiceIdsForDay(now - Time.DAY_IN_MSECS);
+		List<String> nextDayServiceIds =
+				serviceUtils.getServiceIdsForDay(now + Time.DAY_IN_MSECS);
 		serviceIds.addAll(currentServiceIds);
 		
 		// If current time is just a couple of hours after midnight then need
 		// to also look at service IDs for previous day as well since a block
 		// from the previous day might still be running after midnight.
-		int secsInDayForAvlReport = 
-				Core.getInstance().getTime().getSecondsIntoDay(now);
+		int secsInDayForAvlReport = core.getTime().getSecondsIntoDay(now);
 		if (secsInDayForAvlReport < 4 * Time.HOUR_IN_SECS) {
-			List<String> previousDayServiceIds =
-					core.getServiceUtils().getServiceIdsForDay(
-							now - Time.DAY_IN_MSECS);
 			serviceIds.addAll(previousDayServiceIds);
 		}
 
@@ -150,47 +147,51 @@ public class BlocksInfo {
 		// service IDs from the next day since a block might start soon after
 		// midnight.
 		if (secsInDayForAvlReport > Time.DAY_IN_SECS - allowableBeforeTimeSecs) {
-			List<String> nextDayServiceIds =
-					core.getServiceUtils().getServiceIdsForDay(
-							now + Time.DAY_IN_MSECS);
 			serviceIds.addAll(nextDayServiceIds);
 		}
 		
-		// For each service ID ...
+		// Determine which routes to look at. A null route means all routes.
+		Collection<String> routeIdsToCheck = 
+				routeIds != null && !routeIds.isEmpty() ? 
+						routeIds : Collections.<String> singletonList(null);
+		
+		// Since a block can be found for multiple routes or for multiple
+		// service days need to make sure it is only added once. Using 
+		// identity since Block.hashCode() would lazy load the trips.
+		Set<Block> activeBlocksSet = Collections.newSetFromMap(
+				new IdentityHashMap<Block, Boolean>());
+		
+		// For each service ID use the index to determine the blocks that are
+		// active. Like Block.isActive() a block is considered for the
+		// previous or next day if the service ID is valid for that day, with
+		// the time adjusted accordingly.
+		ActiveBlocksIndex index = core.getDbConfig().getActiveBlocksIndex();
 		for (String serviceId : serviceIds) {
-			DbConfig dbConfig = core.getDbConfig();
-			Collection<Block> blocks = dbConfig.getBlocks(serviceId);
-			
-			// If the block is about to be or currently active then
-			// add it to the list to be returned
-			for (Block block : blocks) {
-				// If this is a block to ignore then simply continue to the 
-				// next one
-				if (blockIdsToIgnore != null
-						&& blockIdsToIgnore.contains(block.getId()))
-					continue;
-				
-				// Determine if block is for specified route. If routeIds is
-				// null then interested in all routes
-				boolean forSpecifiedRoute = true;
-				if (routeIds != null && !routeIds.isEmpty()) {
-					forSpecifiedRoute = false;
-					for (String routeId : routeIds) {
-						if (block.getRouteIds().contains(routeId)) {
-							forSpecifiedRoute = true;
-							break;
-						}
-					}
-				}
-				
-				// If block currently active and is for specified route then
-				// add it to the list
-				if (block.isActive(now, allowableBeforeTimeSecs,
-						allowableAfterStartTimeSecs) && forSpecifiedRoute)
-					activeBlocks.add(block);
+			for (String routeId : routeIdsToCheck) {
+				if (currentServiceIds.contains(serviceId))
+					index.addActiveBlocks(serviceId, routeId,
+							secsInDayForAvlReport, allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, activeBlocksSet);
+				if (previousDayServiceIds.contains(serviceId))
+					index.addActiveBlocks(serviceId, routeId,
+							secsInDayForAvlReport + Time.DAY_IN_SECS,
+							allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, activeBlocksSet);
+				if (nextDayServiceIds.contains(serviceId))
+					index.addActiveBlocks(serviceId, routeId,
+							secsInDayForAvlReport - Time.DAY_IN_SECS,
+							allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, activeBlocksSet);
 			}
 		}
 		
+		// Filter out the blocks to ignore
+		for (Block block : activeBlocksSet) {
+			if (blockIdsToIgnore == null
+					|| !blockIdsToIgnore.contains(block.getId()))
+				activeBlocks.add(block);
+		}
+		
 		// Done!
 		return activeBlocks;
 	}
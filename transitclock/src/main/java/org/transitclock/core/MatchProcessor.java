@@ -17,6 +17,8 @@
 package org.transitclock.core;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,11 +27,17 @@ import org.transitclock.configData.CoreConfig;
 import org.transitclock.core.dataCache.HoldingTimeCache;
 import org.transitclock.core.dataCache.PredictionDataCache;
 import org.transitclock.core.holdingmethod.HoldingTimeGeneratorFactory;
+import org.transitclock.db.structs.AvlReport;
 import org.transitclock.db.structs.Headway;
 import org.transitclock.db.structs.HoldingTime;
 import org.transitclock.db.structs.Match;
 import org.transitclock.db.structs.Prediction;
 import org.transitclock.ipc.data.IpcPrediction;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.Time;
 
 /**
@@ -44,6 +52,17 @@ public class MatchProcessor {
 	// Singleton class
 	private static MatchProcessor singleton = new MatchProcessor();
 
+	// How long each generator takes, keyed by the generator class. Instance
+	// members since the singleton is created before static members are
+	// initialized.
+	private final ConcurrentMap<Class<?>, Histogram> generatorTimes =
+			new ConcurrentHashMap<Class<?>, Histogram>();
+
+	private final Counter predictionsGenerated =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_predictions_generated_total",
+					"Number of predictions generated");
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(MatchProcessor.class);
 
@@ -55,6 +74,27 @@ public class MatchProcessor {
 	private MatchProcessor() {
 	}
 
+	/**
+	 * Returns the histogram for timing the generator. The generators are
+	 * configurable so the metrics are labeled by the generator class.
+	 * 
+	 * @param generator
+	 * @return the histogram for the generator
+	 */
+	private Histogram getGeneratorTime(Object generator) {
+		Class<?> generatorClass = generator.getClass();
+		Histogram histogram = generatorTimes.get(generatorClass);
+		if (histogram == null) {
+			histogram = MetricsRegistry.getInstance().histogram(
+					"transitclock_generator_seconds",
+					"How long generating predictions, headways, and "
+					+ "arrivals/departures for a match takes",
+					"generator", generatorClass.getSimpleName());
+			generatorTimes.put(generatorClass, histogram);
+		}
+		return histogram;
+	}
+
 	/**
 	 * Returns singleton MatchProcessor
 	 * 
@@ -72,12 +112,36 @@ public class MatchProcessor {
 	 * @param vehicleState
 	 */
 	private void processPredictions(VehicleState vehicleState) {
+		List<IpcPrediction> newPredictions = generatePredictions(vehicleState,
+				PipelineStage.PREDICTION_GENERATION);
+		updatePredictions(vehicleState, vehicleState.getAvlReport(),
+				newPredictions, PipelineStage.PREDICTION_CACHE_UPDATE);
+	}
+	
+	/**
+	 * Generates the new predictions for the vehicle based on the new match
+	 * stored in the vehicle state and stores them in the database. Is
+	 * called by the PredictionExecutor with a copy of the vehicle state if
+	 * predictions are generated asynchronously.
+	 * 
+	 * @param vehicleState
+	 * @param stage
+	 *            The pipeline stage to record the generation time as
+	 * @return the new predictions
+	 */
+	List<IpcPrediction> generatePredictions(VehicleState vehicleState,
+			PipelineStage stage) {
 		logger.debug("Processing predictions for vehicleId={}",
 				vehicleState.getVehicleId());
 
 		// Generate the new predictions for the vehicle
-		List<IpcPrediction> newPredictions = 
-				PredictionGeneratorFactory.getInstance().generate(vehicleState);
+		PredictionGenerator generator = PredictionGeneratorFactory.getInstance();
+		long startNanos = System.nanoTime();
+		List<IpcPrediction> newPredictions = generator.generate(vehicleState);
+		getGeneratorTime(generator).recordSince(startNanos);
+		if (newPredictions != null)
+			predictionsGenerated.add(newPredictions.size());
+		PipelineLatencyMonitor.stamp(vehicleState.getAvlReport(), stage);
 
 		// Store the predictions in database if so configured
 		if (CoreConfig.getMaxPredictionsTimeForDbSecs() > 0) {
@@ -97,18 +161,33 @@ public class MatchProcessor {
 				}
 			}
 		}
-
+		
+		return newPredictions;
+	}
+	
+	/**
+	 * Updates the predictions cache and the vehicle state to use the new
+	 * predictions for the vehicle. Must be called while synchronized on the
+	 * vehicle state.
+	 * 
+	 * @param vehicleState
+	 * @param avlReport
+	 *            The AVL report that the predictions were generated for
+	 * @param newPredictions
+	 * @param stage
+	 *            The pipeline stage to record the cache update time as
+	 */
+	void updatePredictions(VehicleState vehicleState, AvlReport avlReport,
+			List<IpcPrediction> newPredictions, PipelineStage stage) {
 		// Update the predictions cache to use the new predictions for the
 		// vehicle
 		List<IpcPrediction> oldPredictions = vehicleState.getPredictions();
 		PredictionDataCache.getInstance().updatePredictions(oldPredictions,
 				newPredictions);
+		PipelineLatencyMonitor.stamp(avlReport, stage);
 
 		// Update predictions for vehicle
 		vehicleState.setPredictions(newPredictions);
-		
-		
-		
 	}
 
 	/**
@@ -121,7 +200,10 @@ public class MatchProcessor {
 		logger.debug("Processing headways for vehicleId={}",
 				vehicleState.getVehicleId());
 
-		Headway headway = HeadwayGeneratorFactory.getInstance().generate(vehicleState);						
+		HeadwayGenerator generator = HeadwayGeneratorFactory.getInstance();
+		long startNanos = System.nanoTime();
+		Headway headway = generator.generate(vehicleState);						
+		getGeneratorTime(generator).recordSince(startNanos);
 				
 		if(headway!=null)		
 		{							
@@ -140,7 +222,13 @@ public class MatchProcessor {
 		logger.debug("Processing arrivals/departures for vehicleId={}",
 				vehicleState.getVehicleId());
 		
-		ArrivalDepartureGeneratorFactory.getInstance().generate(vehicleState);
+		ArrivalDepartureGenerator generator =
+				ArrivalDepartureGeneratorFactory.getInstance();
+		long startNanos = System.nanoTime();
+		generator.generate(vehicleState);
+		getGeneratorTime(generator).recordSince(startNanos);
+		PipelineLatencyMonitor.stamp(vehicleState.getAvlReport(),
+				PipelineStage.ARRIVAL_DEPARTURE_GENERATION);
 	}
 	
 	/**
@@ -195,9 +283,16 @@ public class MatchProcessor {
 		logger.debug("Processing results for match for {}", vehicleState);
 
 		// Process predictions, headways, arrivals/departures, and and spatial
-		// matches. If don't need matches then don't store them
+		// matches. If don't need matches then don't store them. Predictions
+		// can be generated asynchronously since they only depend on the
+		// latest match.
 		if (!CoreConfig.onlyNeedArrivalDepartures()) {
-			processPredictions(vehicleState);
+			PredictionExecutor predictionExecutor = 
+					PredictionExecutor.getInstance();
+			if (predictionExecutor.isAsync())
+				predictionExecutor.generatePredictions(vehicleState);
+			else
+				processPredictions(vehicleState);
 			processHeadways(vehicleState);
 			processSpatialMatch(vehicleState);
 		}
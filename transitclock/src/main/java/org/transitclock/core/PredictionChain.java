@@ -0,0 +1,186 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.transitclock.db.structs.Block;
+
+/**
+ * The chain of expected travel and stop times for the stop paths ahead of a
+ * vehicle, as computed the last time predictions were generated for it.
+ * Between consecutive AVL reports usually only the time from the match to
+ * the end of the current stop path changes, so when predictions are
+ * generated incrementally the downstream durations are taken from here
+ * instead of querying the Kalman, historical average and dwell time caches
+ * again. Since the durations are relative the prediction times are simply
+ * re-based on the new AVL time.
+ * <p>
+ * A duration is recomputed when the vehicle gets a different block, when
+ * it is older than the configured max age, or when a new arrival or
+ * departure has been generated for the stop of the stop path since the
+ * duration was computed, since that is the data the prediction caches are
+ * updated with.
+ * <p>
+ * Not thread safe. Only accessed while generating predictions for the
+ * vehicle, which is either done while synchronized on the VehicleState or,
+ * when predictions are generated asynchronously, by only one
+ * PredictionExecutor thread at a time.
+ */
+class PredictionChain {
+
+	// Incremented each time an arrival/departure is generated so can tell
+	// whether a duration was computed before or after new data for a stop
+	private static final AtomicLong generationCounter = new AtomicLong();
+
+	// Keyed by stopId. The generation of the latest arrival/departure
+	private static final ConcurrentMap<String, Long> stopGenerations =
+			new ConcurrentHashMap<String, Long>();
+
+	private static class Duration {
+		private final long durationMsec;
+		private final long avlTime;
+		private final long generation;
+
+		private Duration(long durationMsec, long avlTime, long generation) {
+			this.durationMsec = durationMsec;
+			this.avlTime = avlTime;
+			this.generation = generation;
+		}
+	}
+
+	// The block the durations are for
+	private Block block;
+
+	// Keyed by trip index, stop path index and whether it is a stop time
+	private final Map<Long, Duration> durations = new HashMap<Long, Duration>();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * To be called when an arrival or departure is generated for a stop so
+	 * that cached durations for stop paths ending at that stop are
+	 * recomputed.
+	 * 
+	 * @param stopId
+	 */
+	static void stopUpdated(String stopId) {
+		stopGenerations.put(stopId, generationCounter.incrementAndGet());
+	}
+
+	/**
+	 * Returns the current generation. Should be read before a duration is
+	 * computed so that arrivals/departures generated while the duration is
+	 * being computed invalidate it.
+	 * 
+	 * @return the current generation
+	 */
+	static long currentGeneration() {
+		return generationCounter.get();
+	}
+
+	/**
+	 * Prepares the chain for generating predictions starting at the
+	 * specified indices. Clears the chain if the block changed and discards
+	 * the durations for stop paths the vehicle has already passed or that
+	 * are older than maxAgeMsec.
+	 * 
+	 * @param indices
+	 *            Where the vehicle currently is
+	 * @param avlTime
+	 *            Time of the AVL report predictions are being generated for
+	 * @param maxAgeMsec
+	 *            How long a duration can be reused for
+	 */
+	void prepare(Indices indices, long avlTime, long maxAgeMsec) {
+		if (indices.getBlock() != block) {
+			block = indices.getBlock();
+			durations.clear();
+			return;
+		}
+
+		long currentKey = key(indices.getTripIndex(),
+				indices.getStopPathIndex(), false);
+		Iterator<Map.Entry<Long, Duration>> iterator =
+				durations.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, Duration> entry = iterator.next();
+			long age = avlTime - entry.getValue().avlTime;
+			if (entry.getKey() < currentKey || age > maxAgeMsec || age < 0)
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the cached duration for the stop path specified by indices,
+	 * or null if it needs to be computed.
+	 * 
+	 * @param indices
+	 * @param stopTime
+	 *            True for the stop time, false for the travel time
+	 * @return the duration in msec, or null
+	 */
+	Long get(Indices indices, boolean stopTime) {
+		Duration duration = durations.get(key(indices.getTripIndex(),
+				indices.getStopPathIndex(), stopTime));
+		if (duration == null)
+			return null;
+
+		Long stopGeneration =
+				stopGenerations.get(indices.getStopPath().getStopId());
+		if (stopGeneration != null && stopGeneration > duration.generation)
+			return null;
+
+		return duration.durationMsec;
+	}
+
+	/**
+	 * Stores a newly computed duration for the stop path specified by
+	 * indices.
+	 * 
+	 * @param indices
+	 * @param stopTime
+	 *            True for the stop time, false for the travel time
+	 * @param durationMsec
+	 * @param avlTime
+	 *            Time of the AVL report the duration was computed for
+	 * @param generation
+	 *            The generation from currentGeneration() read before the
+	 *            duration was computed
+	 */
+	void put(Indices indices, boolean stopTime, long durationMsec,
+			long avlTime, long generation) {
+		durations.put(
+				key(indices.getTripIndex(), indices.getStopPathIndex(),
+						stopTime),
+				new Duration(durationMsec, avlTime, generation));
+	}
+
+	/**
+	 * Key that orders the durations by where they are in the block
+	 */
+	private static long key(int tripIndex, int stopPathIndex,
+			boolean stopTime) {
+		return ((long) tripIndex << 32) | ((long) stopPathIndex << 1)
+				| (stopTime ? 1 : 0);
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.db.structs.HoldingTime;
+import org.transitclock.ipc.data.IpcPrediction;
+import org.transitclock.monitoring.PipelineStage;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.Timer;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+/**
+ * For generating predictions in separate threads from the AVL processing so
+ * that the cost of generating predictions for long blocks, especially with
+ * the Kalman filter, doesn't limit how quickly AVL reports can be matched.
+ * <p>
+ * Only the latest match for a vehicle matters for predictions. Therefore if
+ * a vehicle is matched again before its predictions have been generated the
+ * requests are coalesced and the predictions are generated once, using the
+ * latest match. The prediction thread copies the VehicleState while
+ * synchronized on it and then generates the predictions from the copy, so
+ * the AVL thread isn't blocked while the predictions are generated.
+ * Predictions for a vehicle are generated by one thread at a time, in the
+ * order that the copies were made.
+ * <p>
+ * To bound how stale predictions can get if the prediction threads fall
+ * behind, a timer checks the outstanding requests. If the oldest
+ * outstanding request for a vehicle is older than
+ * transitclock.core.maxPredictionStalenessMsec then the predictions are
+ * generated by the timer thread instead.
+ * <p>
+ * The prediction generation and prediction cache update are timed as the
+ * async pipeline stages, measured from when the AVL report was matched, so
+ * they include the time waiting for a prediction thread.
+ */
+public class PredictionExecutor {
+
+	// An outstanding request to generate predictions for a vehicle
+	private static class Request {
+		private final VehicleState vehicleState;
+		// System.nanoTime() of the oldest coalesced request
+		private final long requestNanos;
+
+		private Request(VehicleState vehicleState, long requestNanos) {
+			this.vehicleState = vehicleState;
+			this.requestNanos = requestNanos;
+		}
+	}
+
+	// The outstanding request for each vehicle. Keyed on vehicle ID.
+	private final ConcurrentMap<String, Request> pending =
+			new ConcurrentHashMap<String, Request>();
+
+	// For generating predictions for a vehicle by only one thread at a
+	// time. Keyed on vehicle ID.
+	private final ConcurrentMap<String, Object> generationLocks =
+			new ConcurrentHashMap<String, Object>();
+
+	private final ExecutorService executor;
+
+	private final long maxStalenessNanos;
+
+	private final Counter coalescedCounter;
+	private final Counter staleCounter;
+	private final Histogram waitTime;
+
+	/*********** Configurable Parameters for this module ***********/
+	private static BooleanConfigValue asyncPredictions =
+			new BooleanConfigValue("transitclock.core.asyncPredictions",
+					false,
+					"If true then predictions are generated by separate "
+					+ "threads instead of by the thread processing the AVL "
+					+ "report. Useful for large agencies with long blocks "
+					+ "where generating predictions is much of the cost of "
+					+ "processing an AVL report.");
+
+	private static IntegerConfigValue numPredictionThreads =
+			new IntegerConfigValue("transitclock.core.numPredictionThreads",
+					2,
+					"When transitclock.core.asyncPredictions is true, how "
+					+ "many threads generate predictions.");
+
+	private static IntegerConfigValue maxPredictionStalenessMsec =
+			new IntegerConfigValue(
+					"transitclock.core.maxPredictionStalenessMsec",
+					10 * Time.MS_PER_SEC,
+					"When transitclock.core.asyncPredictions is true, if "
+					+ "predictions for a vehicle have been waiting for a "
+					+ "prediction thread for longer than this then they are "
+					+ "generated by a separate timer thread instead so that "
+					+ "predictions don't get too stale.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(PredictionExecutor.class);
+
+	// Created after the config values since the constructor uses them
+	private static final PredictionExecutor singleton =
+			new PredictionExecutor();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private because singleton class
+	 */
+	private PredictionExecutor() {
+		this(asyncPredictions.getValue() ? 
+				Math.max(numPredictionThreads.getValue(), 1) : 0,
+				maxPredictionStalenessMsec.getValue());
+	}
+
+	/**
+	 * For creating a PredictionExecutor with a specific configuration, such
+	 * as for testing.
+	 * 
+	 * @param numThreads
+	 *            Number of prediction threads. If 0 then predictions are
+	 *            generated synchronously.
+	 * @param maxStalenessMsec
+	 *            How long a request can wait for a prediction thread before
+	 *            the predictions are generated by the timer thread
+	 */
+	PredictionExecutor(int numThreads, long maxStalenessMsec) {
+		maxStalenessNanos = maxStalenessMsec * Time.NSEC_PER_MSEC;
+		if (numThreads > 0) {
+			logger.info("Generating predictions asynchronously using {} "
+					+ "threads", numThreads);
+			executor = Executors.newFixedThreadPool(numThreads,
+					new NamedThreadFactory("prediction"));
+			
+			// Check for stale requests often enough that a request doesn't
+			// wait much longer than the max staleness
+			long periodMsec = Math.max(maxStalenessMsec / 4, 1);
+			ScheduledExecutorService timer = Timer.get();
+			timer.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						processStale();
+					} catch (Exception e) {
+						logger.error("Exception generating stale predictions",
+								e);
+					}
+				}
+			}, periodMsec, periodMsec, TimeUnit.MILLISECONDS);
+		} else {
+			executor = null;
+		}
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		coalescedCounter = registry.counter(
+				"transitclock_predictions_coalesced_total",
+				"Number of matches whose predictions were superseded by a "
+				+ "later match before they were generated");
+		staleCounter = registry.counter(
+				"transitclock_predictions_stale_total",
+				"Number of times predictions were generated by the timer "
+				+ "thread because the prediction threads were too far behind");
+		waitTime = registry.histogram(
+				"transitclock_predictions_wait_seconds",
+				"How long a vehicle waited for its predictions to be "
+				+ "generated");
+		registry.gauge("transitclock_predictions_pending",
+				"Number of vehicles waiting for predictions to be generated",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return pending.size();
+					}
+				});
+	}
+
+	/**
+	 * Returns singleton instance
+	 * 
+	 * @return the PredictionExecutor
+	 */
+	public static PredictionExecutor getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * @return true if predictions are generated by separate threads
+	 */
+	public boolean isAsync() {
+		return executor != null;
+	}
+
+	/**
+	 * Requests that predictions be generated for the vehicle based on its
+	 * latest match. Should be called while synchronized on the vehicle state.
+	 * If predictions for the vehicle are already waiting to be generated then
+	 * nothing more needs to be done since they will use the latest match.
+	 * 
+	 * @param vehicleState
+	 */
+	void generatePredictions(VehicleState vehicleState) {
+		final String vehicleId = vehicleState.getVehicleId();
+		Request request = new Request(vehicleState, System.nanoTime());
+		if (pending.putIfAbsent(vehicleId, request) != null) {
+			// Predictions already waiting to be generated for the vehicle
+			coalescedCounter.increment();
+			return;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// If already handled by the timer thread then done
+				Request request = pending.remove(vehicleId);
+				if (request != null)
+					process(request);
+			}
+		});
+	}
+
+	/**
+	 * Called by the timer thread. Generates the predictions for vehicles
+	 * that have been waiting for a prediction thread for too long.
+	 */
+	private void processStale() {
+		long nowNanos = System.nanoTime();
+		for (Map.Entry<String, Request> entry : pending.entrySet()) {
+			Request request = entry.getValue();
+			long waitNanos = nowNanos - request.requestNanos;
+			if (waitNanos <= maxStalenessNanos)
+				continue;
+			
+			// Since removed from pending the queued task won't generate
+			// them again
+			if (!pending.remove(entry.getKey(), request))
+				continue;
+			staleCounter.increment();
+			logger.warn("Predictions for vehicleId={} have been waiting {} "
+					+ "msec for a prediction thread so generating them in the "
+					+ "timer thread.", entry.getKey(), 
+					waitNanos / Time.NSEC_PER_MSEC);
+			process(request);
+		}
+	}
+
+	/**
+	 * Generates the predictions for a request that was removed from
+	 * pending. Predictions for a vehicle are generated by only one thread at
+	 * a time so that they are applied in the order the vehicle state was
+	 * copied.
+	 * 
+	 * @param request
+	 */
+	private void process(Request request) {
+		VehicleState vehicleState = request.vehicleState;
+		String vehicleId = vehicleState.getVehicleId();
+		Object lock = generationLocks.get(vehicleId);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = generationLocks.putIfAbsent(vehicleId, newLock);
+			if (lock == null)
+				lock = newLock;
+		}
+		
+		try {
+			synchronized (lock) {
+				waitTime.recordSince(request.requestNanos);
+				generate(vehicleState);
+			}
+		} catch (Exception e) {
+			logger.error("Exception generating predictions for vehicleId={}",
+					vehicleId, e);
+		}
+	}
+
+	/**
+	 * Generates the predictions for the vehicle using its current match.
+	 * The vehicle state is copied while synchronized on it and the
+	 * predictions are then generated from the copy without holding the
+	 * lock. Only the prediction cache update and the results are done while
+	 * synchronized on the vehicle state again.
+	 * 
+	 * @param vehicleState
+	 */
+	void generate(VehicleState vehicleState) {
+		VehicleState snapshot;
+		synchronized (vehicleState) {
+			// Vehicle might have become unpredictable while waiting
+			if (!vehicleState.isPredictable() 
+					|| !vehicleState.lastMatchIsValid()) {
+				logger.debug("Not generating predictions for vehicleId={} "
+						+ "since no longer predictable", 
+						vehicleState.getVehicleId());
+				return;
+			}
+			snapshot = new VehicleState(vehicleState);
+		}
+		
+		HoldingTime holdingTime = snapshot.getHoldingTime();
+		MatchProcessor matchProcessor = MatchProcessor.getInstance();
+		List<IpcPrediction> newPredictions = 
+				matchProcessor.generatePredictions(snapshot,
+						PipelineStage.ASYNC_PREDICTION_GENERATION);
+		
+		synchronized (vehicleState) {
+			vehicleState.copyPredictionResults(snapshot, holdingTime);
+			matchProcessor.updatePredictions(vehicleState, 
+					snapshot.getAvlReport(), newPredictions,
+					PipelineStage.ASYNC_PREDICTION_CACHE_UPDATE);
+		}
+	}
+}
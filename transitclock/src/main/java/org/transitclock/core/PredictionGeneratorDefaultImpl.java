@@ -120,6 +120,31 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 					false,
 					"Add holding time to prediction.");
 	
+	private static BooleanConfigValue incrementalPredictions =
+			new BooleanConfigValue("transitclock.core.incrementalPredictions",
+					false,
+					"If true then the travel and stop times for the stop paths "
+					+ "ahead of a vehicle are remembered and reused when the "
+					+ "next AVL report for the vehicle is processed instead "
+					+ "of being determined again for every stop path. Only "
+					+ "the time to the end of the current stop path is "
+					+ "always recomputed. A travel or stop time is "
+					+ "recomputed if an arrival or departure was generated "
+					+ "for the stop since, or if it is older than "
+					+ "transitclock.core.incrementalPredictionsMaxAgeSecs. "
+					+ "Note that stop path predictions are then only stored "
+					+ "when they are recomputed.");
+
+	private static IntegerConfigValue incrementalPredictionsMaxAgeSecs =
+			new IntegerConfigValue(
+					"transitclock.core.incrementalPredictionsMaxAgeSecs",
+					120,
+					"When transitclock.core.incrementalPredictions is true, "
+					+ "the maximum age of a travel or stop time before it is "
+					+ "recomputed. Limits how long predictions miss changes "
+					+ "to the prediction caches that are not due to new "
+					+ "arrivals/departures, such as time of day.");
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(PredictionGeneratorDefaultImpl.class);
 
@@ -193,8 +218,8 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 		} else {
 			
 			// Generate a departure time
-						int expectedStopTimeMsec = 
-								(int) getStopTimeForPath(indices, avlReport, vehicleState);
+			int expectedStopTimeMsec = 
+					(int) stopTimeForPath(indices, avlReport, vehicleState);
 			// If at a wait stop then need to handle specially...
 			if (indices.isWaitStop()) {
 				
@@ -375,6 +400,15 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 		// first stop.
 		
 		long predictionTime = avlTime + expectedTravelTimeFromMatchToEndOfStopPath(avlReport, match);
+
+		// If generating predictions incrementally then the durations for
+		// the stop paths ahead are reused from the previous AVL report
+		// where still valid. The prediction times are re-based on avlTime
+		// since they are accumulated from it below.
+		if (incrementalPredictions.getValue())
+			vehicleState.getPredictionChain().prepare(indices, avlTime,
+					incrementalPredictionsMaxAgeSecs.getValue()
+							* Time.MS_PER_SEC);
 		
 		// Determine if vehicle is so late that predictions for subsequent 
 		// trips should be marked as uncertain given that another vehicle
@@ -521,7 +555,7 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 			predictionTime = predictionForStop.getActualPredictionTime();			
 			if (predictionForStop.isArrival())
 			{					
-				predictionTime += getStopTimeForPath(indices, avlReport, vehicleState);
+				predictionTime += stopTimeForPath(indices, avlReport, vehicleState);
 				/* TODO this is where we should take account of holding time */
 				if(useHoldingTimeInPrediction.getValue() && HoldingTimeGeneratorFactory.getInstance()!=null)
 				{
@@ -550,7 +584,7 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 			// Add in travel time for the next path to get to predicted 
 			// arrival time of this stop
 			if (!lastStopOfNonSchedBasedTrip && isCircuitRoute) {
-				predictionTime += getTravelTimeForPath(indices, avlReport, vehicleState);
+				predictionTime += travelTimeForPath(indices, avlReport, vehicleState);
 			}					
 		}
 		
@@ -565,6 +599,50 @@ public class PredictionGeneratorDefaultImpl extends PredictionGenerator implemen
 	}
 	
 
+	/**
+	 * Returns the travel time for the stop path specified by indices. If
+	 * generating predictions incrementally then uses the travel time from
+	 * the vehicle's PredictionChain if still valid. Otherwise calls
+	 * getTravelTimeForPath().
+	 */
+	private long travelTimeForPath(Indices indices, AvlReport avlReport,
+			VehicleState vehicleState) {
+		if (!incrementalPredictions.getValue())
+			return getTravelTimeForPath(indices, avlReport, vehicleState);
+
+		PredictionChain chain = vehicleState.getPredictionChain();
+		Long travelTime = chain.get(indices, false);
+		if (travelTime == null) {
+			long generation = PredictionChain.currentGeneration();
+			travelTime = getTravelTimeForPath(indices, avlReport, vehicleState);
+			chain.put(indices, false, travelTime, avlReport.getTime(),
+					generation);
+		}
+		return travelTime;
+	}
+
+	/**
+	 * Returns the stop time for the stop path specified by indices. If
+	 * generating predictions incrementally then uses the stop time from
+	 * the vehicle's PredictionChain if still valid. Otherwise calls
+	 * getStopTimeForPath().
+	 */
+	private long stopTimeForPath(Indices indices, AvlReport avlReport,
+			VehicleState vehicleState) {
+		if (!incrementalPredictions.getValue())
+			return getStopTimeForPath(indices, avlReport, vehicleState);
+
+		PredictionChain chain = vehicleState.getPredictionChain();
+		Long stopTime = chain.get(indices, true);
+		if (stopTime == null) {
+			long generation = PredictionChain.currentGeneration();
+			stopTime = getStopTimeForPath(indices, avlReport, vehicleState);
+			chain.put(indices, true, stopTime, avlReport.getTime(),
+					generation);
+		}
+		return stopTime;
+	}
+
 	public long getTravelTimeForPath(Indices indices, AvlReport avlReport, VehicleState vehicleState)
 	{
 		//logger.debug("Using transiTime default algorithm for travel time prediction : " + indices + " Value: "+indices.getTravelTimeForPath());
@@ -0,0 +1,398 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.core;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.applications.Core;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.configData.AgencyConfig;
+import org.transitclock.db.hibernate.HibernateUtils;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.Block;
+import org.transitclock.db.structs.ScheduleAdherenceRollup;
+import org.transitclock.db.structs.ScheduleTime;
+import org.transitclock.utils.HistogramUtils;
+import org.transitclock.utils.Time;
+
+/**
+ * Maintains hourly rollups of schedule adherence as the ArrivalDeparture
+ * objects are generated. The rollups are accumulated in memory and once an
+ * hour is complete they are written to the database as
+ * ScheduleAdherenceRollup objects so that the schedule adherence reports can
+ * read the rollups instead of aggregating all of the ArrivalDeparture rows.
+ * <p>
+ * Since there isn't a separate thread the completed hours are written out
+ * when subsequent arrivals/departures are added. When the application shuts
+ * down the remaining rollups, including the ones for the current hour, are
+ * written directly to the database.
+ */
+public class SchedAdhRollups {
+
+	// Accumulated histograms of schedule adherence in seconds, keyed on
+	// the dimensions of the rollup
+	private final Map<RollupKey, SortedMap<Integer, Integer>> histograms =
+			new HashMap<RollupKey, SortedMap<Integer, Integer>>();
+
+	// System time when flush() was last called
+	private long lastFlushTime = 0;
+
+	// So that the shutdown hook is only added once, when the rollups are
+	// first used
+	private boolean shutdownHookAdded = false;
+
+	private static final SchedAdhRollups singleton = new SchedAdhRollups();
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(SchedAdhRollups.class);
+
+	/********************** Config Params **************************/
+
+	private static final BooleanConfigValue rollupsEnabled =
+			new BooleanConfigValue("transitclock.core.schedAdhRollups",
+					false,
+					"If true then hourly rollups of schedule adherence are "
+					+ "maintained in the ScheduleAdherenceRollups table so "
+					+ "that schedule adherence reports can be generated "
+					+ "quickly for long time ranges.");
+
+	public static boolean isEnabled() {
+		return rollupsEnabled.getValue();
+	}
+
+	private static final IntegerConfigValue flushDelayMinutes =
+			new IntegerConfigValue(
+					"transitclock.core.schedAdhRollupFlushDelayMinutes",
+					15,
+					"How long after the end of an hour to wait before writing "
+					+ "the schedule adherence rollups for the hour to the "
+					+ "database. Allows for arrivals/departures that are "
+					+ "determined late to still be included. Data that "
+					+ "arrives even later is written as an additional rollup "
+					+ "row.");
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * Key for the rollups
+	 */
+	private static class RollupKey {
+		private final long serviceDate;
+		private final long hourStart;
+		private final int hourOfDay;
+		private final String routeId;
+		private final String routeShortName;
+		private final String directionId;
+		private final String stopId;
+		private final Integer stopOrder;
+		private final boolean isArrival;
+
+		private RollupKey(ArrivalDeparture arrDep) {
+			this.serviceDate = getServiceDate(arrDep);
+
+			// Hours are determined using the default time zone, which is
+			// set to the agency time zone, so that they are correct even
+			// for time zones that are not offset by a whole hour
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(arrDep.getDate());
+			calendar.set(Calendar.MILLISECOND, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			this.hourStart = calendar.getTimeInMillis();
+			this.hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
+
+			this.routeId = arrDep.getRouteId();
+			this.routeShortName = arrDep.getRouteShortName();
+			this.directionId = arrDep.getDirectionId();
+			this.stopId = arrDep.getStopId();
+			this.stopOrder = arrDep.getStopOrder();
+			this.isArrival = arrDep.isArrival();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(serviceDate, hourStart, routeId,
+					routeShortName, directionId, stopId, stopOrder, isArrival);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RollupKey))
+				return false;
+			RollupKey other = (RollupKey) obj;
+			return serviceDate == other.serviceDate
+					&& hourStart == other.hourStart
+					&& isArrival == other.isArrival
+					&& Objects.equals(routeId, other.routeId)
+					&& Objects.equals(routeShortName, other.routeShortName)
+					&& Objects.equals(directionId, other.directionId)
+					&& Objects.equals(stopId, other.stopId)
+					&& Objects.equals(stopOrder, other.stopOrder);
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private to enforce only access to this singleton
+	 * class being via getInstance()
+	 */
+	private SchedAdhRollups() {
+	}
+
+	/**
+	 * @return the singleton
+	 */
+	public static SchedAdhRollups getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Determines the service date of the trip for the arrival/departure. The
+	 * schedule time of the stop is in seconds into the service day, which can
+	 * be more than 24 hours for trips that go past midnight, so the service
+	 * day is found by going back that amount from the scheduled time. Noon
+	 * is used as the reference so that daylight savings time changes don't
+	 * matter. If the block isn't available then the day of the
+	 * arrival/departure is used.
+	 * 
+	 * @param arrDep
+	 *            Must have a scheduled time
+	 * @return the epoch time of the start of the service day
+	 */
+	private static long getServiceDate(ArrivalDeparture arrDep) {
+		Block block = arrDep.getBlock();
+		if (block != null) {
+			ScheduleTime scheduleTime = block.getScheduleTime(
+					arrDep.getTripIndex(), arrDep.getStopPathIndex());
+			Integer secsIntoDay = scheduleTime == null ? null
+					: (arrDep.isArrival() ? scheduleTime.getArrivalTime()
+							: scheduleTime.getDepartureTime());
+			if (secsIntoDay != null) {
+				long noon = arrDep.getScheduledTime()
+						- (secsIntoDay - Time.SEC_PER_DAY / 2) * Time.MS_PER_SEC;
+				return Time.getStartOfDay(new Date(noon));
+			}
+		}
+
+		return Time.getStartOfDay(arrDep.getDate());
+	}
+
+	/**
+	 * Adds the schedule adherence of the arrival/departure to the rollups.
+	 * Does nothing if there is no schedule time for the arrival/departure.
+	 * Also writes out the rollups for completed hours if haven't done so
+	 * within the last minute.
+	 *
+	 * @param arrDep
+	 */
+	public void add(ArrivalDeparture arrDep) {
+		if (arrDep.getScheduledDate() == null)
+			return;
+
+		int adherenceSecs =
+				(int) ((arrDep.getTime() - arrDep.getScheduledTime()) / 1000);
+		RollupKey key = new RollupKey(arrDep);
+		long now = Core.getInstance().getSystemTime();
+		boolean flushNeeded;
+		synchronized (this) {
+			if (!shutdownHookAdded) {
+				addShutdownHook();
+				shutdownHookAdded = true;
+			}
+
+			SortedMap<Integer, Integer> histogram = histograms.get(key);
+			if (histogram == null) {
+				histogram = new TreeMap<Integer, Integer>();
+				histograms.put(key, histogram);
+			}
+			HistogramUtils.add(histogram, adherenceSecs);
+
+			flushNeeded = now - lastFlushTime > Time.MS_PER_MIN;
+			if (flushNeeded)
+				lastFlushTime = now;
+		}
+
+		if (flushNeeded)
+			flush(now);
+	}
+
+	/**
+	 * Writes the rollups for hours that ended at least
+	 * transitclock.core.schedAdhRollupFlushDelayMinutes ago to the database
+	 * and removes them from memory.
+	 *
+	 * @param now
+	 *            The current system time
+	 * @return Number of rollup rows queued to be written
+	 */
+	public int flush(long now) {
+		long latestHourStart = now
+				- flushDelayMinutes.getValue() * Time.MS_PER_MIN
+				- Time.MS_PER_HOUR;
+		List<ScheduleAdherenceRollup> rollups = removeRollups(latestHourStart);
+
+		for (ScheduleAdherenceRollup rollup : rollups) {
+			logger.debug("Storing schedule adherence rollup to db. {}",
+					rollup);
+			Core.getInstance().getDbLogger().add(rollup);
+		}
+		if (!rollups.isEmpty())
+			logger.info("Queued {} schedule adherence rollups to be "
+					+ "written to db.", rollups.size());
+		return rollups.size();
+	}
+
+	/**
+	 * Returns the start of the earliest hour whose rollups might not yet have
+	 * been written to the database because the hour hasn't ended or because
+	 * transitclock.core.schedAdhRollupFlushDelayMinutes hasn't yet elapsed
+	 * since it ended. Reports that use the rollups need to use the
+	 * ArrivalDeparture rows for the time from then on.
+	 * 
+	 * @param now
+	 *            The current system time
+	 * @param timeZone
+	 *            Time zone of the agency, for determining the hours
+	 * @return epoch time of the start of the hour
+	 */
+	public static long getFirstUnwrittenHour(long now, TimeZone timeZone) {
+		Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(
+				now - flushDelayMinutes.getValue() * Time.MS_PER_MIN);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Removes the rollups for hours that start at or before latestHourStart
+	 * from memory.
+	 * 
+	 * @param latestHourStart
+	 * @return the ScheduleAdherenceRollup objects for the removed rollups
+	 */
+	private synchronized List<ScheduleAdherenceRollup> removeRollups(
+			long latestHourStart) {
+		List<ScheduleAdherenceRollup> rollups =
+				new ArrayList<ScheduleAdherenceRollup>();
+		Iterator<Map.Entry<RollupKey, SortedMap<Integer, Integer>>> iter =
+				histograms.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<RollupKey, SortedMap<Integer, Integer>> entry =
+					iter.next();
+			if (entry.getKey().hourStart > latestHourStart)
+				continue;
+			createRollups(entry.getKey(), entry.getValue(), rollups);
+			iter.remove();
+		}
+		return rollups;
+	}
+
+	/**
+	 * Adds a shutdown hook that writes out the rollups that are still in
+	 * memory so that the data for the current hour isn't lost. They are
+	 * written directly instead of via the db logger since the db logger
+	 * queue might not be processed once the application is shutting down.
+	 */
+	private void addShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				writeRemainingRollups();
+			}
+		}, "schedAdhRollupsShutdown"));
+	}
+
+	/**
+	 * Writes all of the rollups still in memory, including the ones for the
+	 * current hour, to the database. Since the rows are additive any data
+	 * for the hour generated after a restart is simply written as another
+	 * rollup row.
+	 */
+	private void writeRemainingRollups() {
+		List<ScheduleAdherenceRollup> rollups = removeRollups(Long.MAX_VALUE);
+		if (rollups.isEmpty())
+			return;
+
+		Session session = HibernateUtils.getSession(AgencyConfig.getAgencyId());
+		Transaction tx = session.beginTransaction();
+		try {
+			for (ScheduleAdherenceRollup rollup : rollups)
+				session.save(rollup);
+			tx.commit();
+			logger.info("Wrote {} schedule adherence rollups to db while "
+					+ "shutting down.", rollups.size());
+		} catch (HibernateException e) {
+			tx.rollback();
+			logger.error("Error writing {} schedule adherence rollups to db "
+					+ "while shutting down.", rollups.size(), e);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Creates the ScheduleAdherenceRollup objects for the histogram. Usually
+	 * there is just a single one but if the histogram is too long to be
+	 * stored in a single row it is split up.
+	 *
+	 * @param key
+	 * @param histogram
+	 * @param rollups
+	 *            The resulting rollups are added to this list
+	 */
+	private static void createRollups(RollupKey key,
+			SortedMap<Integer, Integer> histogram,
+			List<ScheduleAdherenceRollup> rollups) {
+		for (SortedMap<Integer, Integer> histogramForRow :
+				HistogramUtils.split(histogram))
+			rollups.add(createRollup(key, histogramForRow));
+	}
+
+	private static ScheduleAdherenceRollup createRollup(RollupKey key,
+			SortedMap<Integer, Integer> histogram) {
+		long sumAdherenceSecs = 0;
+		for (Map.Entry<Integer, Integer> entry : histogram.entrySet())
+			sumAdherenceSecs += (long) entry.getKey() * entry.getValue();
+		return new ScheduleAdherenceRollup(new Date(key.serviceDate),
+				new Date(key.hourStart), key.hourOfDay, key.routeId,
+				key.routeShortName, key.directionId, key.stopId, 
+				key.stopOrder, key.isArrival,
+				HistogramUtils.getCount(histogram), sumAdherenceSecs,
+				HistogramUtils.format(histogram));
+	}
+}
@@ -18,23 +18,25 @@ package org.transitclock.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.transitclock.applications.Core;
 import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.db.structs.Agency;
 import org.transitclock.db.structs.Calendar;
 import org.transitclock.db.structs.CalendarDate;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.Timer;
 
 /**
  * For working with service types, such as determining serviceId or
@@ -49,6 +51,16 @@ public class ServiceUtils {
 	
 	private final DbConfig dbConfig;
 	
+	// The precomputed service IDs for a window of days around now. Replaced
+	// as a whole at midnight or when the config rev changes so that it can be
+	// read without locking. Times outside the window, such as for playback
+	// or historic queries, are computed per call instead of replacing the
+	// table so that alternating dates don't keep rebuilding it.
+	private volatile ServiceCalendarTable serviceCalendarTable = null;
+	
+	// For moving the window of the serviceCalendarTable at midnight
+	private final ScheduledThreadPoolExecutor midnightTimer;
+	
 	private static IntegerConfigValue minutesIntoMorningToIncludePreviousServiceIds =
 			new IntegerConfigValue(
 					"transitclock.service.minutesIntoMorningToIncludePreviousServiceIds",
@@ -59,6 +71,20 @@ public class ServiceUtils {
 					+ "service IDs since that confuses things. Therefore just "
 					+ "include them if before this time of the day, in minutes.");
 
+	private static IntegerConfigValue serviceCalendarPastDays =
+			new IntegerConfigValue(
+					"transitclock.service.calendarTablePastDays",
+					7,
+					"Number of days before the current day that service IDs "
+					+ "are precomputed for.");
+
+	private static IntegerConfigValue serviceCalendarFutureDays =
+			new IntegerConfigValue(
+					"transitclock.service.calendarTableFutureDays",
+					7,
+					"Number of days after the current day that service IDs "
+					+ "are precomputed for.");
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(ServiceUtils.class);
 
@@ -79,6 +105,184 @@ public class ServiceUtils {
 						: new GregorianCalendar();
 
 		this.dbConfig = dbConfig;
+		
+		// Precompute the service IDs for the days around now and move the
+		// window every midnight
+		this.serviceCalendarTable =
+				createServiceCalendarTable(System.currentTimeMillis());
+		this.midnightTimer = Timer.getShared();
+		scheduleMidnightRefresh();
+	}
+
+	/**
+	 * Schedules the serviceCalendarTable to be recreated right after the next
+	 * midnight in the agency's timezone. Reschedules itself each time so that
+	 * daylight savings time changes are handled.
+	 */
+	private void scheduleMidnightRefresh() {
+		long now = System.currentTimeMillis();
+		GregorianCalendar nextMidnight = 
+				new GregorianCalendar(calendar.getTimeZone());
+		nextMidnight.setTimeInMillis(
+				Time.getStartOfDay(new Date(now), calendar.getTimeZone()));
+		nextMidnight.add(java.util.Calendar.DAY_OF_MONTH, 1);
+		long delayMsec = nextMidnight.getTimeInMillis() - now;
+		
+		midnightTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serviceCalendarTable = createServiceCalendarTable(
+							System.currentTimeMillis());
+				} catch (Exception e) {
+					logger.error("Exception when refreshing service calendar "
+							+ "table", e);
+				} finally {
+					scheduleMidnightRefresh();
+				}
+			}
+		}, delayMsec, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Service IDs and day of week for each day in a window of days. Immutable
+	 * so that it can be shared between threads without locking.
+	 */
+	private static class ServiceCalendarTable {
+		// Config rev that the table was created for 
+		private final int configRev;
+		
+		// Start of each day in the window, plus the start of the day after
+		// the window. Days are not always 24 hours due to daylight savings.
+		private final long[] dayStarts;
+		
+		// For each day, the first time that is after the 
+		// minutesIntoMorningToIncludePreviousServiceIds time of day
+		private final long[] previousDayCutoffs;
+		
+		private final int[] daysOfWeek;
+		private final List<String>[] serviceIdsForDay;
+		
+		// Service IDs for the day combined with those of the previous day
+		private final Collection<String>[] serviceIdsWithPreviousDay;
+		
+		@SuppressWarnings("unchecked")
+		private ServiceCalendarTable(int configRev, int numberDays) {
+			this.configRev = configRev;
+			this.dayStarts = new long[numberDays + 1];
+			this.previousDayCutoffs = new long[numberDays];
+			this.daysOfWeek = new int[numberDays];
+			this.serviceIdsForDay = new List[numberDays];
+			this.serviceIdsWithPreviousDay = new Collection[numberDays];
+		}
+		
+		/**
+		 * Returns index of day that contains the epoch time, or -1 if time
+		 * not within the window. Days are usually exactly 24 hours so the
+		 * estimate only needs to be adjusted on daylight savings days.
+		 * 
+		 * @param epochTime
+		 * @return index of day or -1
+		 */
+		private int dayIndex(long epochTime) {
+			int numberDays = daysOfWeek.length;
+			if (epochTime < dayStarts[0] || epochTime >= dayStarts[numberDays])
+				return -1;
+			
+			int index = (int) ((epochTime - dayStarts[0]) / Time.DAY_IN_MSECS);
+			if (index >= numberDays)
+				index = numberDays - 1;
+			while (epochTime < dayStarts[index])
+				--index;
+			while (epochTime >= dayStarts[index + 1])
+				++index;
+			return index;
+		}
+	}
+	
+	/**
+	 * Precomputes the service IDs and day of week for the days in a window
+	 * around the specified time.
+	 * 
+	 * @param epochTime
+	 *            The time that the window is to be centered on
+	 * @return the new ServiceCalendarTable
+	 */
+	private ServiceCalendarTable createServiceCalendarTable(long epochTime) {
+		int pastDays = Math.max(serviceCalendarPastDays.getValue(), 1);
+		int futureDays = Math.max(serviceCalendarFutureDays.getValue(), 1);
+		int numberDays = pastDays + 1 + futureDays;
+		ServiceCalendarTable table = 
+				new ServiceCalendarTable(dbConfig.getConfigRev(), numberDays);
+		
+		TimeZone timeZone = calendar.getTimeZone();
+		GregorianCalendar dayCalendar = new GregorianCalendar(timeZone);
+		int cutoffMins = 
+				minutesIntoMorningToIncludePreviousServiceIds.getValue();
+		List<String> previousDayServiceIds = null;
+		for (int i = -1; i <= numberDays; ++i) {
+			// Determine start of the day
+			dayCalendar.setTimeInMillis(
+					Time.getStartOfDay(new Date(epochTime), timeZone));
+			dayCalendar.add(java.util.Calendar.DAY_OF_MONTH, i - pastDays);
+			long dayStart = dayCalendar.getTimeInMillis();
+			
+			// The day after the window only needs its start time
+			if (i == numberDays) {
+				table.dayStarts[i] = dayStart;
+				break;
+			}
+			
+			List<String> serviceIds = Collections.unmodifiableList(
+					getServiceIdsForDayNoCache(new Date(dayStart)));
+
+			// The day before the window is only needed for the service IDs
+			// of the previous day
+			if (i >= 0) {
+				table.dayStarts[i] = dayStart;
+				table.daysOfWeek[i] = 
+						dayCalendar.get(java.util.Calendar.DAY_OF_WEEK);
+				table.serviceIdsForDay[i] = serviceIds;
+
+				Set<String> set = new HashSet<String>(serviceIds);
+				set.addAll(previousDayServiceIds);
+				table.serviceIdsWithPreviousDay[i] = 
+						Collections.unmodifiableSet(set);
+				
+				dayCalendar.set(java.util.Calendar.HOUR_OF_DAY, 
+						cutoffMins / Time.HOUR_IN_MINS);
+				dayCalendar.set(java.util.Calendar.MINUTE, 
+						cutoffMins % Time.HOUR_IN_MINS);
+				dayCalendar.set(java.util.Calendar.SECOND, 1);
+				table.previousDayCutoffs[i] = dayCalendar.getTimeInMillis();
+			}
+			previousDayServiceIds = serviceIds;
+		}
+		
+		logger.debug("Created service calendar table for configRev={} for "
+				+ "{} days starting {}", table.configRev, numberDays,
+				new Date(table.dayStarts[0]));
+		
+		return table;
+	}
+	
+	/**
+	 * Returns the ServiceCalendarTable to use for the specified time. If the
+	 * config rev has changed then a new table centered on the current time is
+	 * created. If the time is not within the window of the table, such as
+	 * when in playback mode, then null is returned so that the caller can
+	 * compute the service IDs for just that time.
+	 * 
+	 * @param epochTime
+	 * @return table that contains the epoch time, or null if not in window
+	 */
+	private ServiceCalendarTable getServiceCalendarTable(long epochTime) {
+		ServiceCalendarTable table = serviceCalendarTable;
+		if (table.configRev != dbConfig.getConfigRev()) {
+			table = createServiceCalendarTable(System.currentTimeMillis());
+			serviceCalendarTable = table;
+		}
+		return table.dayIndex(epochTime) >= 0 ? table : null;
 	}
 
 	/**
@@ -89,6 +293,15 @@ public class ServiceUtils {
 	 * @return Day of the week
 	 */
 	public int getDayOfWeek(Date epochTime) {
+		// Use precomputed value if available. Won't be when the table is
+		// first being created.
+		ServiceCalendarTable table = serviceCalendarTable;
+		if (table != null) {
+			int dayIndex = table.dayIndex(epochTime.getTime());
+			if (dayIndex >= 0)
+				return table.daysOfWeek[dayIndex];
+		}
+		
 		synchronized (calendar) {
 			calendar.setTime(epochTime);
 			return calendar.get(java.util.Calendar.DAY_OF_WEEK);			
@@ -168,34 +381,21 @@ public class ServiceUtils {
 		return activeCalendarList;
 	}
 	
-	Map<Date, List<String>> serviceIdsForDate = new HashMap<Date, List<String>>();
 	/**
-	 * Caching version fo getServiceIdsForDay.  Assumes epochTime can be distilled to
-	 * a serviceDate.  Note that boundary conditions may exist where serviceDate guess is wrong.
-	 * 
-	 * TODO as is this cache will grow without bounds, but the data should be small
+	 * Determines list of current service IDs for the specified time. These
+	 * service IDs designate which block assignments are currently active.
+	 * <p>
+	 * Uses the precomputed service calendar table so is quick. 
 	 * 
+	 * @param epochTime
+	 *            The current time that determining service IDs for
+	 * @return Unmodifiable list of service IDs that are active for the
+	 *         specified time.
 	 */
 	public List<String> getServiceIdsForDay(Date epochTime) {
-		Date serviceDate = getStartOfDay(epochTime);
-		if (serviceIdsForDate.containsKey(serviceDate)) {
-			return serviceIdsForDate.get(serviceDate);
-		}
-		List<String> serviceIds = getServiceIdsForDayNoCache(serviceDate);
-		serviceIdsForDate.put(serviceDate, serviceIds);
-		return serviceIds;
+		return getServiceIdsForDay(epochTime.getTime());
 	}
 	
-	private Date getStartOfDay(Date epochTime) {
-		java.util.Calendar c = java.util.Calendar.getInstance();
-		c.setTime(epochTime);
-		c.set(java.util.Calendar.HOUR, 0);
-		c.set(java.util.Calendar.MINUTE, 0);
-		c.set(java.util.Calendar.SECOND, 0);
-		c.set(java.util.Calendar.MILLISECOND, 0);
-		return c.getTime();
-	}
-
 	/**
 	 * Determines list of current service IDs for the specified time. These
 	 * service IDs designate which block assignments are currently active.
@@ -254,7 +454,7 @@ public class ServiceUtils {
 						epochTime, serviceIds);
 			}
 		}
-		logger.info("Finished adding calendar dates");
+		logger.debug("Finished adding calendar dates");
 
 		// Return the results
 		return serviceIds;
@@ -264,15 +464,24 @@ public class ServiceUtils {
 	 * Determines list of current service IDs for the specified time. These
 	 * service IDs designate which block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the precomputed service calendar table so is quick, unless the
+	 * time is outside of its window.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
-	 * @return List of service IDs that are active for the specified time.
+	 * @return Unmodifiable list of service IDs that are active for the
+	 *         specified time.
 	 */
 	public List<String> getServiceIdsForDay(long epochTime) {
-		return getServiceIdsForDay(new Date(epochTime));
+		ServiceCalendarTable table = getServiceCalendarTable(epochTime);
+		if (table == null) {
+			long dayStart = 
+					Time.getStartOfDay(new Date(epochTime), calendar.getTimeZone());
+			return Collections.unmodifiableList(
+					getServiceIdsForDayNoCache(new Date(dayStart)));
+		}
+		
+		return table.serviceIdsForDay[table.dayIndex(epochTime)];
 	}
 	
 	/**
@@ -283,8 +492,7 @@ public class ServiceUtils {
 	 * day. Important for late night service. These service IDs designate which
 	 * block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the precomputed service calendar table so is quick. 
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
@@ -293,18 +501,7 @@ public class ServiceUtils {
 	 *         in the morning.
 	 */
 	public Collection<String> getServiceIds(Date epochTime) {
-		List<String> serviceIdsForDay = getServiceIdsForDay(epochTime);
-		Time time = Core.getInstance().getTime();
-		if (time.getSecondsIntoDay(epochTime) > minutesIntoMorningToIncludePreviousServiceIds
-				.getValue() * Time.MIN_IN_SECS)
-			return serviceIdsForDay;
-
-		List<String> serviceIdsForPreviousDay =
-				getServiceIdsForDay(epochTime.getTime() - 1 * Time.DAY_IN_MSECS);
-
-		Set<String> set = new HashSet<String>(serviceIdsForDay);
-		set.addAll(serviceIdsForPreviousDay);
-		return set;
+		return getServiceIds(epochTime.getTime());
 	}
 	
 	/**
@@ -315,8 +512,8 @@ public class ServiceUtils {
 	 * day. Important for late night service. These service IDs designate which
 	 * block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the precomputed service calendar table so is quick, unless the
+	 * time is outside of its window.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
@@ -325,7 +522,45 @@ public class ServiceUtils {
 	 *         in the morning.
 	 */
 	public Collection<String> getServiceIds(long epochTime) {
-		return getServiceIds(new Date(epochTime));
+		ServiceCalendarTable table = getServiceCalendarTable(epochTime);
+		if (table == null)
+			return getServiceIdsNoCache(epochTime);
+		
+		int dayIndex = table.dayIndex(epochTime);
+		if (epochTime >= table.previousDayCutoffs[dayIndex])
+			return table.serviceIdsForDay[dayIndex];
+		else
+			return table.serviceIdsWithPreviousDay[dayIndex];
+	}
+	
+	/**
+	 * Determines the service IDs for a time that is not within the window of
+	 * the service calendar table. Includes the service IDs for the previous
+	 * day if it is early in the morning.
+	 * 
+	 * @param epochTime
+	 * @return List of service IDs that are active for the specified time
+	 */
+	private Collection<String> getServiceIdsNoCache(long epochTime) {
+		List<String> serviceIdsForDay = getServiceIdsForDay(epochTime);
+		
+		int secondsIntoDay;
+		synchronized (calendar) {
+			calendar.setTimeInMillis(epochTime);
+			secondsIntoDay = 
+					calendar.get(java.util.Calendar.HOUR_OF_DAY) * Time.HOUR_IN_SECS
+					+ calendar.get(java.util.Calendar.MINUTE) * Time.MIN_IN_SECS
+					+ calendar.get(java.util.Calendar.SECOND);
+		}
+		if (secondsIntoDay > minutesIntoMorningToIncludePreviousServiceIds
+				.getValue() * Time.MIN_IN_SECS)
+			return serviceIdsForDay;
+		
+		List<String> serviceIdsForPreviousDay = 
+				getServiceIdsForDay(epochTime - Time.DAY_IN_MSECS);
+		Set<String> set = new HashSet<String>(serviceIdsForDay);
+		set.addAll(serviceIdsForPreviousDay);
+		return set;
 	}
 	
 	/**
@@ -22,9 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.applications.Core;
 import org.transitclock.configData.CoreConfig;
+import org.transitclock.db.structs.CumulativeTravelTimes;
 import org.transitclock.db.structs.Location;
 import org.transitclock.db.structs.ScheduleTime;
-import org.transitclock.db.structs.TravelTimesForStopPath;
+import org.transitclock.db.structs.Trip;
 import org.transitclock.utils.Time;
 
 /**
@@ -142,7 +143,21 @@ public class TravelTimes {
 	 */
 	private static int adjustTravelTimeForWaitStop(int timeOfDaySecs, 
 			int travelTimeMsec, Indices indices) {
-		ScheduleTime scheduleTime = indices.getScheduleTime();
+		return adjustTravelTimeForWaitStop(timeOfDaySecs, travelTimeMsec,
+				indices.getScheduleTime());
+	}
+
+	/**
+	 * If at a waitStop then the travel time should be adjusted to this amount.
+	 * 
+	 * @param timeOfDaySecs
+	 * @param travelTimeMsec
+	 * @param scheduleTime
+	 *            Schedule time for the wait stop. Can be null.
+	 * @return
+	 */
+	private static int adjustTravelTimeForWaitStop(int timeOfDaySecs, 
+			int travelTimeMsec, ScheduleTime scheduleTime) {
 		if (scheduleTime != null) {
 			Integer scheduledDepartureTime = scheduleTime.getDepartureTime();
 			if (scheduledDepartureTime != null) {
@@ -228,18 +243,15 @@ public class TravelTimes {
 	 * @param match
 	 * @return TimeTravelInfo containing information on the match
 	 */
-	private TimeTravelInfo travelTimeInfoForPartialPath(SpatialMatch match) {
-		// Get the travel times for this stop path
-		TravelTimesForStopPath travelTimesForStopPath = 
-				match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
-		
+	private TimeTravelInfo travelTimeInfoForPartialPath(SpatialMatch match,
+			CumulativeTravelTimes cumulativeTravelTimes) {
 		// Use a segment length of the StopPath length divided by number of
 		// travel times. This way even if the paths change a bit can still
 		// use the old travel times.
 		double stopPathLength =
 				match.getStopPath().getLength();
-		int numTravelTimeSegmentsInPath = 
-				travelTimesForStopPath.getNumberTravelTimeSegments();
+		int numTravelTimeSegmentsInPath = cumulativeTravelTimes
+				.getNumberTravelTimeSegments(match.getStopPathIndex());
 		double travelTimeSegmentLength = 
 				stopPathLength / numTravelTimeSegmentsInPath;
 
@@ -278,32 +290,32 @@ public class TravelTimes {
 	 * @return Expected travel time in msec
 	 */
 	public int expectedTravelTimeFromMatchToEndOfStopPath(SpatialMatch match) {
-	  StringBuffer sb = new StringBuffer();
-		// Get the travel times for this stop path
-		TravelTimesForStopPath travelTimesForStopPath = 
-				match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
-		
+		// Get the cumulative travel times for the trip
+		CumulativeTravelTimes cumulativeTravelTimes = 
+				match.getTrip().getCumulativeTravelTimes();
+		int stopPathIndex = match.getStopPathIndex();
 		
 		// Determine how match corresponds to travel time segments
-		TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match);
+		TimeTravelInfo timeTravelInfo = 
+				travelTimeInfoForPartialPath(match, cumulativeTravelTimes);
 
 		// Determine travel time to go from the match to the end of the 
 		// current travel time segment.
-		int travelTimeForPartialSegment = travelTimesForStopPath
-				.getTravelTimeSegmentMsec(timeTravelInfo.indexOfPartialSegment);
+		int travelTimeForPartialSegment = cumulativeTravelTimes
+				.getTravelTimeSegmentMsec(stopPathIndex, 
+						timeTravelInfo.indexOfPartialSegment);
 		int travelTimeRemainingInPartialSegment = (int) (travelTimeForPartialSegment * 
 				(1-timeTravelInfo.fractionCompleted));
-		sb.append("partial=" +travelTimeRemainingInPartialSegment);
-		// Sum up the travel times for the remaining full travel time segments 
+
+		// Add the travel times for the remaining full travel time segments 
 		// in the path.
-		int travelTimeMsec = travelTimeRemainingInPartialSegment;
-		for (int i=timeTravelInfo.indexOfPartialSegment+1; 
-				i<travelTimesForStopPath.getNumberTravelTimeSegments(); 
-				++i) {
-		  sb.append(" seg+=" + travelTimesForStopPath.getTravelTimeSegmentMsec(i));
-			travelTimeMsec += travelTimesForStopPath.getTravelTimeSegmentMsec(i);
-		}
-		logger.debug("travelTime={}:{}", Time.elapsedTimeStr(travelTimeMsec), sb.toString());
+		int travelTimeMsec = travelTimeRemainingInPartialSegment
+				+ cumulativeTravelTimes.getStopPathTravelTimeMsec(stopPathIndex)
+				- cumulativeTravelTimes.getTimeToSegmentMsec(stopPathIndex,
+						timeTravelInfo.indexOfPartialSegment + 1);
+		logger.debug("travelTime={}:partial={}", 
+				Time.elapsedTimeStr(travelTimeMsec), 
+				travelTimeRemainingInPartialSegment);
 		return travelTimeMsec; 
 	}
 	
@@ -317,24 +329,24 @@ public class TravelTimes {
 	 * @return Expected travel time in msec
 	 */
 	public int expectedTravelTimeFromBeginningOfStopPathToMatch(SpatialMatch match) {
-		// Get the travel times for this stop path
-		TravelTimesForStopPath travelTimesForStopPath = 
-				match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
+		// Get the cumulative travel times for the trip
+		CumulativeTravelTimes cumulativeTravelTimes = 
+				match.getTrip().getCumulativeTravelTimes();
+		int stopPathIndex = match.getStopPathIndex();
 
 		// Determine how match corresponds to travel time segments
-		TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match);
+		TimeTravelInfo timeTravelInfo = 
+				travelTimeInfoForPartialPath(match, cumulativeTravelTimes);
 		
-		// Sum up the travel times for the full travel time segments up to but
-		// not including the segment that the match is on.
-		int travelTimeMsec = 0;
-		for (int i=0; i<timeTravelInfo.indexOfPartialSegment; ++i) {
-			travelTimeMsec += travelTimesForStopPath.getTravelTimeSegmentMsec(i);
-		}
+		// Travel time for the full travel time segments up to but not 
+		// including the segment that the match is on.
+		int travelTimeMsec = cumulativeTravelTimes.getTimeToSegmentMsec(
+				stopPathIndex, timeTravelInfo.indexOfPartialSegment);
 
 		// Determine travel time to go from the the beginning of the 
 		// current travel time segment to the match.
 		int travelTimeForPartialSegment = 
-				travelTimesForStopPath.getTravelTimeSegmentMsec(
+				cumulativeTravelTimes.getTravelTimeSegmentMsec(stopPathIndex,
 						timeTravelInfo.indexOfPartialSegment);
 		int travelTimeInPartialSegmentToMatch = (int) (travelTimeForPartialSegment * 
 				timeTravelInfo.fractionCompleted);
@@ -352,9 +364,8 @@ public class TravelTimes {
 	 * @return Expected travel time in msec
 	 */
 	public int expectedTravelTimeForStopPath(Indices indices) {
-		TravelTimesForStopPath travelTimesForPath = 
-				indices.getTrip().getTravelTimesForStopPath(indices.getStopPathIndex());
-		return travelTimesForPath.getStopPathTravelTimeMsec();
+		return indices.getTrip().getCumulativeTravelTimes()
+				.getStopPathTravelTimeMsec(indices.getStopPathIndex());
 	}
 
 	/**
@@ -366,9 +377,8 @@ public class TravelTimes {
 	 * @return Stop time in msec
 	 */
 	public int expectedStopTimeForStopPath(Indices indices) {
-		TravelTimesForStopPath travelTimesForPath = 
-				indices.getTrip().getTravelTimesForStopPath(indices.getStopPathIndex());
-		return travelTimesForPath.getStopTimeMsec();
+		return indices.getTrip().getCumulativeTravelTimes()
+				.getStopTimeMsec(indices.getStopPathIndex());
 	}
 	
 	/**
@@ -411,6 +421,19 @@ public class TravelTimes {
 			}
 		}
 		
+		// Most of the time both matches are on different stop paths of the
+		// same trip. For that case the cumulative travel times for the trip
+		// can be used instead of going through each stop path in between.
+		if (!indices.getBlock().isNoSchedule()
+				&& indices.getTripIndex() == endIndices.getTripIndex()
+				&& indices.getStopPathIndex() < endIndices.getStopPathIndex()) {
+			int travelTimeMsec = expectedTravelTimeWithinTrip(timeOfDaySecs,
+					match1, match2);
+			logger.debug("For vehicleId={} returning total travel time={} "
+					+ "msec within trip. {}", vehicleId, travelTimeMsec, match2);
+			return travelTimeMsec;
+		}
+		
 		// Start with travel time from beginning location to end of first 
 		// stop path.
 		int travelTimeMsec = 
@@ -517,6 +540,55 @@ public class TravelTimes {
 		return travelTimeMsec;
 	}
 	
+	/**
+	 * Determines expected travel time in msec between two matches on
+	 * different stop paths of the same trip of a schedule based block. Gives
+	 * the same result as going through each stop path in between, but uses
+	 * the cumulative travel times for the trip so only needs to go through
+	 * the wait stops, if any.
+	 * 
+	 * @param timeOfDaySecs
+	 *            so can take layovers into account
+	 * @param match1
+	 * @param match2
+	 *            On a later stop path of the same trip as match1
+	 * @return travel time in msec between matches
+	 */
+	private int expectedTravelTimeWithinTrip(int timeOfDaySecs,
+			SpatialMatch match1, SpatialMatch match2) {
+		Trip trip = match1.getTrip();
+		CumulativeTravelTimes cumulativeTravelTimes = 
+				trip.getCumulativeTravelTimes();
+		int stopPathIndex1 = match1.getStopPathIndex();
+		int stopPathIndex2 = match2.getStopPathIndex();
+		
+		// Travel time from match1 to the end of its stop path plus the stop 
+		// time there
+		int travelTimeMsec = expectedTravelTimeFromMatchToEndOfStopPath(match1)
+				+ cumulativeTravelTimes.getStopTimeMsec(stopPathIndex1);
+		int reachedStopPathIndex = stopPathIndex1 + 1;
+		
+		// At each wait stop before match2 the travel time is adjusted for the
+		// scheduled departure time
+		int waitStopIndex = 
+				cumulativeTravelTimes.getNextWaitStopIndex(stopPathIndex1);
+		while (waitStopIndex >= 0 && waitStopIndex < stopPathIndex2) {
+			travelTimeMsec += cumulativeTravelTimes.getTimeBetweenStopPathsMsec(
+					reachedStopPathIndex, waitStopIndex + 1);
+			reachedStopPathIndex = waitStopIndex + 1;
+			travelTimeMsec = adjustTravelTimeForWaitStop(timeOfDaySecs,
+					travelTimeMsec, trip.getScheduleTime(waitStopIndex));
+			waitStopIndex = 
+					cumulativeTravelTimes.getNextWaitStopIndex(reachedStopPathIndex);
+		}
+		
+		// Add the stop paths up to match2 and then the partial stop path
+		travelTimeMsec += cumulativeTravelTimes.getTimeBetweenStopPathsMsec(
+				reachedStopPathIndex, stopPathIndex2);
+		travelTimeMsec += expectedTravelTimeFromBeginningOfStopPathToMatch(match2);
+		return travelTimeMsec;
+	}
+	
 	/**
 	 * Determines expected travel time in msec between the two matches based on
 	 * the travel times from the database. Same as other
@@ -21,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
@@ -101,6 +102,9 @@ public class VehicleState {
 	//Used for schedPred AVL. Identify if trip is canceled.
 	private boolean isCanceled;
 
+	// For generating predictions incrementally. Created when first needed.
+	private PredictionChain predictionChain = null;
+
 
 	public Headway getHeadway() {
 		return headway;
@@ -120,6 +124,19 @@ public class VehicleState {
 	public Integer getTripCounter() {
 		return tripCounter;
 	}
+
+	/**
+	 * Returns the travel and stop times computed for the stop paths ahead
+	 * of the vehicle the last time predictions were generated. Used when
+	 * generating predictions incrementally.
+	 * 
+	 * @return the PredictionChain for the vehicle, never null
+	 */
+	PredictionChain getPredictionChain() {
+		if (predictionChain == null)
+			predictionChain = new PredictionChain();
+		return predictionChain;
+	}
 	public void incrementTripCounter() {
 		tripCounter=tripCounter+1;
 	}
@@ -133,6 +150,69 @@ public class VehicleState {
 		this.vehicleId = vehicleId;
 	}
 
+	/**
+	 * Copies the vehicle state so that predictions can be generated from
+	 * the copy without holding the lock on the vehicle state while the AVL
+	 * processing continues to modify it. Must be called while synchronized
+	 * on toCopy. The histories are copied but the objects in them are
+	 * shared. The PredictionChain is shared too so that it is kept up to
+	 * date, which means that predictions for a vehicle must only be
+	 * generated by one thread at a time.
+	 *
+	 * @param toCopy
+	 */
+	VehicleState(VehicleState toCopy) {
+		this.vehicleId = toCopy.vehicleId;
+		this.block = toCopy.block;
+		this.assignmentMethod = toCopy.assignmentMethod;
+		this.assignmentId = toCopy.assignmentId;
+		this.assignmentTime = toCopy.assignmentTime;
+		this.predictable = toCopy.predictable;
+		this.temporalMatchHistory =
+				new LinkedList<TemporalMatch>(toCopy.temporalMatchHistory);
+		this.avlReportHistory =
+				new LinkedList<AvlReport>(toCopy.avlReportHistory);
+		this.predictions = toCopy.predictions;
+		this.realTimeSchedAdh = toCopy.realTimeSchedAdh;
+		this.tripStartTimesMap =
+				new HashMap<Integer, Long>(toCopy.tripStartTimesMap);
+		this.numberOfBadMatches = toCopy.numberOfBadMatches;
+		this.arrivalToStoreToDb = toCopy.arrivalToStoreToDb;
+		this.lastArrivalTime = toCopy.lastArrivalTime;
+		this.previousBlockBeforeUnassigned =
+				toCopy.previousBlockBeforeUnassigned;
+		this.unassignedTime = toCopy.unassignedTime;
+		this.badAssignmentsInARow = toCopy.badAssignmentsInARow;
+		this.isDelayed = toCopy.isDelayed;
+		this.tripCounter = toCopy.tripCounter;
+		this.headway = toCopy.headway;
+		this.holdingTime = toCopy.holdingTime;
+		this.isCanceled = toCopy.isCanceled;
+		this.predictionChain = toCopy.getPredictionChain();
+	}
+
+	/**
+	 * Copies what generating predictions changed in a copy of the vehicle
+	 * state, created by VehicleState(VehicleState), back into this vehicle
+	 * state. These are the trip start times of frequency based trips and
+	 * the holding time. Must be called while synchronized on this vehicle
+	 * state.
+	 *
+	 * @param copy
+	 *            The copy that predictions were generated from
+	 * @param copiedHoldingTime
+	 *            The holding time of the copy before the predictions were
+	 *            generated, so that can tell if it was changed
+	 */
+	void copyPredictionResults(VehicleState copy,
+			HoldingTime copiedHoldingTime) {
+		for (Map.Entry<Integer, Long> entry :
+				copy.tripStartTimesMap.entrySet())
+			putTripStartTime(entry.getKey(), entry.getValue());
+		if (copy.holdingTime != copiedHoldingTime)
+			this.holdingTime = copy.holdingTime;
+	}
+
 	/**
 	 * Sets the block assignment for vehicle. Also, this is how it is specified
 	 * whether a vehicle is predictable or not.
@@ -22,6 +22,8 @@ public class DwellTimeModelCacheFactory {
 			{
 				singleton = ClassInstantiator.instantiate(className.getValue(), 
 						DwellTimeModelCacheInterface.class);
+				if (singleton != null)
+					singleton = new InstrumentedDwellTimeModelCache(singleton);
 			}
 		}
 		
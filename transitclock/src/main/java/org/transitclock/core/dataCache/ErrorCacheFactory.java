@@ -20,6 +20,8 @@ public class ErrorCacheFactory {
 		if (singleton == null) {
 			singleton = ClassInstantiator.instantiate(className.getValue(), 
 					ErrorCache.class);
+			if (singleton != null)
+				singleton = new InstrumentedErrorCache(singleton);
 		}
 		
 		return singleton;
@@ -6,6 +6,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.db.structs.HoldingTime;
+import org.transitclock.monitoring.metrics.CacheMetrics;
 
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
@@ -24,6 +25,7 @@ public class HoldingTimeCache {
 			.getLogger(HoldingTimeCache.class);
 	final URL xmlConfigUrl = getClass().getResource("/ehcache.xml");
 	private Cache<HoldingTimeCacheKey, HoldingTime>  cache = null;
+	private final CacheMetrics metrics = new CacheMetrics("holdingTime");
 	/**
 	 * Gets the singleton instance of this class.
 	 * 
@@ -56,7 +58,8 @@ public class HoldingTimeCache {
 
 	public HoldingTime getHoldingTime(HoldingTimeCacheKey key)
 	{
-		return cache.get(key);
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.get(key), startNanos);
 		
 			
 	}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core.dataCache;
+
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.Headway;
+import org.transitclock.monitoring.metrics.CacheMetrics;
+
+/**
+ * Wraps the configured DwellTimeModelCacheInterface so that hits, misses,
+ * and lookup times are recorded as metrics, no matter which cache
+ * implementation is used.
+ */
+class InstrumentedDwellTimeModelCache implements DwellTimeModelCacheInterface {
+
+	private final DwellTimeModelCacheInterface cache;
+
+	private final CacheMetrics metrics = new CacheMetrics("dwellTimeModel");
+
+	/********************** Member Functions **************************/
+
+	InstrumentedDwellTimeModelCache(DwellTimeModelCacheInterface cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public void addSample(ArrivalDeparture event, Headway headway,
+			long dwellTime) {
+		cache.addSample(event, headway, dwellTime);
+	}
+
+	@Override
+	public void addSample(ArrivalDeparture departure) {
+		cache.addSample(departure);
+	}
+
+	@Override
+	public Long predictDwellTime(StopPathCacheKey cacheKey, Headway headway) {
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.predictDwellTime(cacheKey, headway),
+				startNanos);
+	}
+}
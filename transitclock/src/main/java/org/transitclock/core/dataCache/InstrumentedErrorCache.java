@@ -0,0 +1,66 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core.dataCache;
+
+import java.util.List;
+
+import org.transitclock.core.Indices;
+import org.transitclock.monitoring.metrics.CacheMetrics;
+
+/**
+ * Wraps the configured ErrorCache so that hits, misses, and lookup times
+ * are recorded as metrics, no matter which cache implementation is used.
+ */
+class InstrumentedErrorCache implements ErrorCache {
+
+	private final ErrorCache cache;
+
+	private final CacheMetrics metrics = new CacheMetrics("error");
+
+	/********************** Member Functions **************************/
+
+	InstrumentedErrorCache(ErrorCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public KalmanError getErrorValue(Indices indices) {
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.getErrorValue(indices), startNanos);
+	}
+
+	@Override
+	public KalmanError getErrorValue(KalmanErrorCacheKey key) {
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.getErrorValue(key), startNanos);
+	}
+
+	@Override
+	public void putErrorValue(Indices indices, Double value) {
+		cache.putErrorValue(indices, value);
+	}
+
+	@Override
+	public void putErrorValue(KalmanErrorCacheKey key, Double value) {
+		cache.putErrorValue(key, value);
+	}
+
+	@Override
+	public List<KalmanErrorCacheKey> getKeys() {
+		return cache.getKeys();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core.dataCache;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.ipc.data.IpcArrivalDeparture;
+import org.transitclock.monitoring.metrics.CacheMetrics;
+
+/**
+ * Wraps the configured StopArrivalDepartureCacheInterface so that hits,
+ * misses, and lookup times are recorded as metrics, no matter which cache
+ * implementation is used.
+ */
+class InstrumentedStopArrivalDepartureCache
+		extends StopArrivalDepartureCacheInterface {
+
+	private final StopArrivalDepartureCacheInterface cache;
+
+	private final CacheMetrics metrics =
+			new CacheMetrics("stopArrivalDeparture");
+
+	/********************** Member Functions **************************/
+
+	InstrumentedStopArrivalDepartureCache(
+			StopArrivalDepartureCacheInterface cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public List<IpcArrivalDeparture> getStopHistory(
+			StopArrivalDepartureCacheKey key) {
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.getStopHistory(key), startNanos);
+	}
+
+	@Override
+	public StopArrivalDepartureCacheKey putArrivalDeparture(
+			ArrivalDeparture arrivalDeparture) {
+		return cache.putArrivalDeparture(arrivalDeparture);
+	}
+
+	/**
+	 * Delegates so that an implementation that overrides how the cache is
+	 * populated is still used.
+	 */
+	@Override
+	public void populateCacheFromDb(Session session, Date startDate,
+			Date endDate) {
+		cache.populateCacheFromDb(session, startDate, endDate);
+	}
+}
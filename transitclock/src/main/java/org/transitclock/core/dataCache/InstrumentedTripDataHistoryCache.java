@@ -0,0 +1,79 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core.dataCache;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.ipc.data.IpcArrivalDeparture;
+import org.transitclock.monitoring.metrics.CacheMetrics;
+
+/**
+ * Wraps the configured TripDataHistoryCacheInterface so that hits, misses,
+ * and lookup times are recorded as metrics, no matter which cache
+ * implementation is used.
+ */
+class InstrumentedTripDataHistoryCache implements TripDataHistoryCacheInterface {
+
+	private final TripDataHistoryCacheInterface cache;
+
+	private final CacheMetrics metrics = new CacheMetrics("tripDataHistory");
+
+	/********************** Member Functions **************************/
+
+	InstrumentedTripDataHistoryCache(TripDataHistoryCacheInterface cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public List<IpcArrivalDeparture> getTripHistory(TripKey tripKey) {
+		long startNanos = System.nanoTime();
+		return metrics.record(cache.getTripHistory(tripKey), startNanos);
+	}
+
+	@Override
+	public TripKey putArrivalDeparture(ArrivalDeparture arrivalDeparture) {
+		return cache.putArrivalDeparture(arrivalDeparture);
+	}
+
+	@Override
+	public void populateCacheFromDb(Session session, Date startDate,
+			Date endDate) {
+		cache.populateCacheFromDb(session, startDate, endDate);
+	}
+
+	@Override
+	public IpcArrivalDeparture findPreviousArrivalEvent(
+			List<IpcArrivalDeparture> arrivalDepartures,
+			IpcArrivalDeparture current) {
+		return cache.findPreviousArrivalEvent(arrivalDepartures, current);
+	}
+
+	@Override
+	public IpcArrivalDeparture findPreviousDepartureEvent(
+			List<IpcArrivalDeparture> arrivalDepartures,
+			IpcArrivalDeparture current) {
+		return cache.findPreviousDepartureEvent(arrivalDepartures, current);
+	}
+
+	@Override
+	public List<TripKey> getKeys() {
+		return cache.getKeys();
+	}
+}
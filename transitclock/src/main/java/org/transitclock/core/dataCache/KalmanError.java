@@ -19,6 +19,19 @@ public class KalmanError implements Serializable {
 		setError(error);
 	}
 
+	/**
+	 * For recreating an error value, such as when reading it from a
+	 * snapshot, where the number of updates is already known.
+	 * 
+	 * @param error
+	 * @param updates
+	 */
+	public KalmanError(Double error, Integer updates) {
+		super();
+		this.error = error;
+		this.updates = updates;
+	}
+
 	public KalmanError() {
 		super();
 		// TODO Auto-generated constructor stub
@@ -37,6 +37,10 @@ import org.transitclock.gtfs.DbConfig;
 import org.transitclock.ipc.data.IpcPrediction;
 import org.transitclock.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitclock.ipc.interfaces.PredictionsInterface.RouteStop;
+import org.transitclock.monitoring.metrics.CacheMetrics;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.MapKey;
 import org.transitclock.utils.Time;
 
@@ -91,11 +95,35 @@ public class PredictionDataCache {
 		predictionsMap =
 			new ConcurrentHashMap<MapKey, List<IpcPredictionsForRouteStopDest>>(1000);
 	
+	// Instance members instead of static since the singleton is created
+	// before the other static members are initialized
+	private final CacheMetrics getMetrics = new CacheMetrics("prediction");
+	private final Histogram updateTime;
+	
 	private static final Logger logger = 
 			LoggerFactory.getLogger(PredictionDataCache.class);
 
 	/********************** Member Functions **************************/
 	
+	/**
+	 * Constructor declared private because singleton class
+	 */
+	private PredictionDataCache() {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		updateTime = registry.histogram(
+				"transitclock_prediction_cache_update_seconds",
+				"How long updating the prediction cache for a vehicle takes");
+		registry.gauge("transitclock_prediction_cache_route_stops",
+				"Number of route/stops that the prediction cache has "
+				+ "predictions for",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return predictionsMap.size();
+					}
+				});
+	}
+	
 	/**
 	 * Returns singleton object for this class. It will use the regular
 	 * SystemCurrentTime class for determining the time and whether any 
@@ -142,6 +170,7 @@ public class PredictionDataCache {
 	public List<IpcPredictionsForRouteStopDest> getPredictions(
 			String routeIdOrShortName, String directionId, String stopIdOrCode,
 			int maxPredictionsPerStop, double distanceToStop) {
+		long startNanos = System.nanoTime();
 		DbConfig dbConfig = Core.getInstance().getDbConfig();
 		
 		// Determine the routeShortName so can be used for maps in
@@ -303,6 +332,8 @@ public class PredictionDataCache {
 			}
 		}
 		
+		getMetrics.record(hasDestinationWithPredictions, startNanos);
+		
 		// Return the safe cloned predictions
 		return clonedPredictions;
 	}
@@ -484,6 +515,8 @@ public class PredictionDataCache {
 	 */
 	public void updatePredictions(List<IpcPrediction> oldPredictionsForVehicle,
 			List<IpcPrediction> newPredictionsForVehicle) {
+		long startNanos = System.nanoTime();
+		
 		// Handle null being passed in for newPredictionsForVehicle
 		if (newPredictionsForVehicle == null)
 			newPredictionsForVehicle = new ArrayList<IpcPrediction>();
@@ -535,6 +568,8 @@ public class PredictionDataCache {
 				}
 			}
 		}
+		
+		updateTime.recordSince(startNanos);
 	}
 	
 	/**
@@ -20,6 +20,8 @@ public class StopArrivalDepartureCacheFactory {
 		if (singleton == null) {
 			singleton = ClassInstantiator.instantiate(className.getValue(), 
 					StopArrivalDepartureCacheInterface.class);
+			if (singleton != null)
+				singleton = new InstrumentedStopArrivalDepartureCache(singleton);
 		}
 		
 		return singleton;
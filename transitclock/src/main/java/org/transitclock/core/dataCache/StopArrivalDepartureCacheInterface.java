@@ -3,10 +3,8 @@ package org.transitclock.core.dataCache;
 import java.util.Date;
 import java.util.List;
 
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
+import org.transitclock.db.archive.ColumnarArchive;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.ipc.data.IpcArrivalDeparture;
 
@@ -17,10 +15,8 @@ public abstract class StopArrivalDepartureCacheInterface {
 	abstract  public StopArrivalDepartureCacheKey putArrivalDeparture(ArrivalDeparture arrivalDeparture);
 
 	public void populateCacheFromDb(Session session, Date startDate, Date endDate) {
-		Criteria criteria = session.createCriteria(ArrivalDeparture.class);
-
-		@SuppressWarnings("unchecked")
-		List<ArrivalDeparture> results = criteria.add(Restrictions.between("time", startDate, endDate)).addOrder(Order.asc("time")).list();				
+		List<ArrivalDeparture> results =
+				ColumnarArchive.getArrivalsDepartures(session, startDate, endDate);
 
 		for (ArrivalDeparture result : results) {
 			this.putArrivalDeparture(result);
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import org.transitclock.core.Indices;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.db.structs.PredictionForStopPath;
+import org.transitclock.monitoring.metrics.CacheMetrics;
 
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
@@ -25,6 +26,7 @@ public class StopPathPredictionCache {
 			.getLogger(StopPathPredictionCache.class);
 	
 	private Cache<StopPathCacheKey, StopPredictions> cache = null;
+	private final CacheMetrics metrics = new CacheMetrics("stopPathPrediction");
 	final URL xmlConfigUrl = getClass().getResource("/ehcache.xml");
 	public static StopPathPredictionCache getInstance() {
 		return singleton;
@@ -46,8 +48,8 @@ public class StopPathPredictionCache {
 	}
 	@SuppressWarnings("unchecked")
 	synchronized public List<PredictionForStopPath> getPredictions(StopPathCacheKey key) {		
-						
-		StopPredictions result = cache.get(key);
+		long startNanos = System.nanoTime();
+		StopPredictions result = metrics.record(cache.get(key), startNanos);
 		logCache(logger);
 		if(result==null)
 			return null;
@@ -20,6 +20,8 @@ public class TripDataHistoryCacheFactory {
 		if (singleton == null) {
 			singleton = ClassInstantiator.instantiate(className.getValue(), 
 					TripDataHistoryCacheInterface.class);
+			if (singleton != null)
+				singleton = new InstrumentedTripDataHistoryCache(singleton);
 		}
 		
 		return singleton;
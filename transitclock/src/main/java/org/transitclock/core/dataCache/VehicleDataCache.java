@@ -37,6 +37,8 @@ import org.transitclock.db.structs.AvlReport;
 import org.transitclock.db.structs.Route;
 import org.transitclock.db.structs.VehicleConfig;
 import org.transitclock.ipc.data.IpcVehicleComplete;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.ConcurrentHashMapNullKeyOk;
 import org.transitclock.utils.Time;
 
@@ -110,6 +112,23 @@ public class VehicleDataCache {
      * class being getInstance()
      */
     private VehicleDataCache() {
+    	MetricsRegistry registry = MetricsRegistry.getInstance();
+    	registry.gauge("transitclock_vehicle_cache_vehicles",
+    			"Number of vehicles in the vehicle data cache",
+    			new Gauge() {
+    				@Override
+    				public double getValue() {
+    					return vehiclesMap.size();
+    				}
+    			});
+    	registry.gauge("transitclock_vehicle_cache_configs",
+    			"Number of vehicle configs in the vehicle data cache",
+    			new Gauge() {
+    				@Override
+    				public double getValue() {
+    					return vehicleConfigsMap.size();
+    				}
+    			});
     }
 
     /**
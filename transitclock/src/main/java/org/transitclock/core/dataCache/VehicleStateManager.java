@@ -21,6 +21,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.transitclock.core.VehicleState;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 
 /**
  * For keeping track of vehicle state. This is used by the main predictor code,
@@ -50,6 +52,14 @@ public class VehicleStateManager {
 	 * getInstance() should be used to get the VehicleStateManager.
 	 */
 	private VehicleStateManager() {	
+		MetricsRegistry.getInstance().gauge("transitclock_vehicle_states",
+				"Number of vehicles that the core is keeping state for",
+				new Gauge() {
+					@Override
+					public double getValue() {
+						return vehicleMap.size();
+					}
+				});
 	}
 	
 	/**
@@ -15,9 +15,6 @@ import org.ehcache.CacheManager;
 import org.ehcache.Status;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.xml.XmlConfiguration;
-import org.hibernate.Criteria;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +29,7 @@ import org.transitclock.core.dataCache.StopArrivalDepartureCacheKey;
 import org.transitclock.core.dataCache.StopEvents;
 import org.transitclock.core.dataCache.TripEvents;
 import org.transitclock.core.dataCache.TripKey;
+import org.transitclock.db.archive.ColumnarArchive;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.ipc.data.IpcArrivalDeparture;
 import org.transitclock.utils.Time;
@@ -146,10 +144,8 @@ public class StopArrivalDepartureCache extends StopArrivalDepartureCacheInterfac
 	}
 
 	public void populateCacheFromDb(Session session, Date startDate, Date endDate) {
-		Criteria criteria = session.createCriteria(ArrivalDeparture.class);
-
-		@SuppressWarnings("unchecked")
-		List<ArrivalDeparture> results = criteria.add(Restrictions.between("time", startDate, endDate)).addOrder(Order.asc("time")).list();	
+		List<ArrivalDeparture> results =
+				ColumnarArchive.getArrivalsDepartures(session, startDate, endDate);
 
 		for (ArrivalDeparture result : results) {
 			StopArrivalDepartureCacheFactory.getInstance().putArrivalDeparture(result);
@@ -15,9 +15,7 @@ import org.ehcache.CacheManager;
 
 
 import org.apache.commons.lang3.time.DateUtils;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.criterion.Restrictions;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
@@ -28,11 +26,13 @@ import org.transitclock.core.Indices;
 import org.transitclock.core.VehicleState;
 import org.transitclock.core.dataCache.*;
 import org.transitclock.core.dataCache.ehcache.scheduled.TripDataHistoryCache;
+import org.transitclock.db.archive.ColumnarArchive;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.db.structs.Trip;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.gtfs.GtfsData;
 import org.transitclock.ipc.data.IpcArrivalDeparture;
+import org.transitclock.monitoring.metrics.CacheMetrics;
 /**
  * @author Sean Óg Crudden
  * This class is to hold the historical average for frequency based services. It puts them in buckets that represent increments of time. The start time of the trip is used to decide which 
@@ -79,6 +79,8 @@ public class FrequencyBasedHistoricalAverageCache {
 	
 	
 	private final ConcurrentHashMap<StopPathKey, TreeMap<Long, HistoricalAverage>> m = new ConcurrentHashMap<StopPathKey,TreeMap<Long, HistoricalAverage>>();
+	
+	private final CacheMetrics metrics = new CacheMetrics("frequencyBasedHistoricalAverage");
 		
 	/**
 	 * Gets the singleton instance of this class.
@@ -113,7 +115,11 @@ public class FrequencyBasedHistoricalAverageCache {
 		
 		return totalsString+"\nDetails\n"+m.toString();
 	}
-	synchronized public HistoricalAverage getAverage(StopPathCacheKey key) {
+	public HistoricalAverage getAverage(StopPathCacheKey key) {
+		long startNanos = System.nanoTime();
+		return metrics.record(lookupAverage(key), startNanos);
+	}
+	synchronized private HistoricalAverage lookupAverage(StopPathCacheKey key) {
 		
 		logger.debug("Looking for average for : {} in FrequencyBasedHistoricalAverageCache cache.", key);
 		TreeMap<Long, HistoricalAverage> result = m.get(new StopPathKey(key));
@@ -291,10 +297,8 @@ public class FrequencyBasedHistoricalAverageCache {
 	}
 	public void populateCacheFromDb(Session session, Date startDate, Date endDate) throws Exception 
 	{
-		Criteria criteria =session.createCriteria(ArrivalDeparture.class);				
-		
-		@SuppressWarnings("unchecked")
-		List<ArrivalDeparture> results=criteria.add(Restrictions.between("time", startDate, endDate)).list();
+		List<ArrivalDeparture> results =
+				ColumnarArchive.getArrivalsDepartures(session, startDate, endDate);
 		Collections.sort(results, new ArrivalDepartureComparator());
 		for(ArrivalDeparture result : results)
 		{								
@@ -0,0 +1,484 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core.dataCache.inmemory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.config.StringConfigValue;
+import org.transitclock.core.Indices;
+import org.transitclock.core.dataCache.ErrorCache;
+import org.transitclock.core.dataCache.KalmanError;
+import org.transitclock.core.dataCache.KalmanErrorCacheKey;
+import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.Timer;
+
+/**
+ * An in-process ErrorCache that avoids creating KalmanErrorCacheKey and
+ * KalmanError objects for every stop path of every prediction. The trip ID
+ * is mapped to an int and packed together with the stop path index into a
+ * primitive long key. The keys and error values are stored in open addressing
+ * hash tables of primitive arrays. The tables are striped so that updates
+ * from different threads seldom contend for the same lock.
+ * <p>
+ * Since the data is only in memory it can optionally be written to a
+ * snapshot file periodically. The snapshot is read back in at startup so
+ * that the error values are not lost on a restart.
+ * <p>
+ * Use by setting transitclock.core.cache.errorCacheClass to
+ * org.transitclock.core.dataCache.inmemory.KalmanErrorCache
+ */
+public class KalmanErrorCache implements ErrorCache {
+
+	// Must be a power of 2
+	private static final int NUM_SEGMENTS = 32;
+
+	// Linear probing works well as long as the tables are not too full
+	private static final float MAX_LOAD_FACTOR = 0.5f;
+
+	private static final int SNAPSHOT_MAGIC_NUMBER = 0x4B455243;
+
+	// Version 2 writes the trip IDs after the values
+	private static final int SNAPSHOT_VERSION = 2;
+
+	private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+	// For mapping trip IDs to the int that is used in the key, and back
+	private final ConcurrentHashMap<String, Integer> tripIdIndices =
+			new ConcurrentHashMap<String, Integer>();
+	private final List<String> tripIds = new ArrayList<String>();
+
+	private static StringConfigValue snapshotFile =
+			new StringConfigValue(
+					"transitclock.core.cache.errorCacheSnapshotFile",
+					null,
+					"For the in-memory Kalman error cache. Name of the file "
+					+ "that the error values are periodically written to and "
+					+ "read from at startup. If not set then the values are "
+					+ "not persisted.");
+
+	private static IntegerConfigValue snapshotIntervalSecs =
+			new IntegerConfigValue(
+					"transitclock.core.cache.errorCacheSnapshotIntervalSecs",
+					300,
+					"For the in-memory Kalman error cache. How frequently "
+					+ "the error values are written to the snapshot file.");
+
+	private static IntegerConfigValue initialCapacity =
+			new IntegerConfigValue(
+					"transitclock.core.cache.errorCacheInitialCapacity",
+					100000,
+					"For the in-memory Kalman error cache. Number of trip "
+					+ "stop paths that the cache is initially sized for. It "
+					+ "grows as needed.");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(KalmanErrorCache.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * An open addressing hash table for part of the key space. Key 0 means
+	 * that the slot is empty, which works since trip index 0 is stored as 1
+	 * in the key.
+	 */
+	private static class Segment {
+		private long[] keys;
+		private double[] errors;
+		private int[] updates;
+		private int size;
+
+		private Segment(int capacity) {
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			errors = new double[capacity];
+			updates = new int[capacity];
+			size = 0;
+		}
+
+		/**
+		 * @return the slot for the key, or the empty slot where it belongs
+		 */
+		private int findSlot(long key, int hash) {
+			int mask = keys.length - 1;
+			int slot = hash & mask;
+			while (keys[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		/**
+		 * Stores the error value. Like KalmanError.setError() the number of
+		 * updates is only incremented if the value actually changes.
+		 */
+		private void put(long key, int hash, double error) {
+			int slot = findSlot(key, hash);
+			if (keys[slot] == 0) {
+				keys[slot] = key;
+				errors[slot] = error;
+				updates[slot] = 0;
+				if (++size > keys.length * MAX_LOAD_FACTOR)
+					grow();
+			} else if (Double.compare(errors[slot], error) != 0) {
+				errors[slot] = error;
+				++updates[slot];
+			}
+		}
+
+		/**
+		 * For putting a value read from a snapshot
+		 */
+		private void put(long key, int hash, double error, int numUpdates) {
+			int slot = findSlot(key, hash);
+			if (keys[slot] == 0 && ++size > keys.length * MAX_LOAD_FACTOR) {
+				keys[slot] = key;
+				grow();
+				slot = findSlot(key, hash);
+			}
+			keys[slot] = key;
+			errors[slot] = error;
+			updates[slot] = numUpdates;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			double[] oldErrors = errors;
+			int[] oldUpdates = updates;
+			int oldSize = size;
+
+			allocate(oldKeys.length * 2);
+			for (int i=0; i<oldKeys.length; ++i) {
+				if (oldKeys[i] != 0) {
+					int slot = findSlot(oldKeys[i], hash(oldKeys[i]));
+					keys[slot] = oldKeys[i];
+					errors[slot] = oldErrors[i];
+					updates[slot] = oldUpdates[i];
+				}
+			}
+			size = oldSize;
+		}
+	}
+
+	public KalmanErrorCache() {
+		int segmentCapacity = Integer.highestOneBit(Math.max(16,
+				(int) (initialCapacity.getValue() / NUM_SEGMENTS
+						/ MAX_LOAD_FACTOR)) * 2 - 1);
+		for (int i=0; i<NUM_SEGMENTS; ++i)
+			segments[i] = new Segment(segmentCapacity);
+
+		if (snapshotFile.getValue() != null) {
+			readSnapshot();
+
+			int intervalSecs = snapshotIntervalSecs.getValue();
+			Timer.getShared().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writeSnapshot();
+					} catch (Exception e) {
+						logger.error("Exception writing Kalman error cache "
+								+ "snapshot to {}", snapshotFile.getValue(), e);
+					}
+				}
+			}, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Spreads the bits of the key so that both the segment and the slot
+	 * within the segment are well distributed.
+	 */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private Segment segmentFor(int hash) {
+		// Use the high bits for the segment since the low bits are used
+		// for the slot within the segment
+		return segments[(hash >>> 27) & (NUM_SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns the index for the trip ID, creating one if it doesn't yet
+	 * exist.
+	 */
+	private int getTripIndex(String tripId) {
+		Integer index = tripIdIndices.get(tripId);
+		if (index != null)
+			return index;
+
+		synchronized (tripIds) {
+			index = tripIdIndices.get(tripId);
+			if (index == null) {
+				index = tripIds.size();
+				tripIds.add(tripId);
+				tripIdIndices.put(tripId, index);
+			}
+			return index;
+		}
+	}
+
+	private String getTripId(int tripIndex) {
+		synchronized (tripIds) {
+			return tripIds.get(tripIndex);
+		}
+	}
+
+	private static long packKey(int tripIndex, int stopPathIndex) {
+		return ((long) (tripIndex + 1) << 32) | (stopPathIndex & 0xFFFFFFFFL);
+	}
+
+	private KalmanErrorCacheKey unpackKey(long key) {
+		return new KalmanErrorCacheKey(getTripId((int) (key >>> 32) - 1),
+				(int) key);
+	}
+
+	private KalmanError get(String tripId, int stopPathIndex) {
+		Integer tripIndex = tripIdIndices.get(tripId);
+		if (tripIndex == null)
+			return null;
+
+		long key = packKey(tripIndex, stopPathIndex);
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			int slot = segment.findSlot(key, hash);
+			if (segment.keys[slot] == 0)
+				return null;
+			return new KalmanError(segment.errors[slot],
+					segment.updates[slot]);
+		}
+	}
+
+	private void put(String tripId, int stopPathIndex, double error) {
+		long key = packKey(getTripIndex(tripId), stopPathIndex);
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			segment.put(key, hash, error);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.core.dataCache.ErrorCache#getErrorValue(org.transitclock.core.Indices)
+	 */
+	@Override
+	public KalmanError getErrorValue(Indices indices) {
+		return get(indices.getBlock().getTrip(indices.getTripIndex()).getId(),
+				indices.getStopPathIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.core.dataCache.ErrorCache#getErrorValue(org.transitclock.core.dataCache.KalmanErrorCacheKey)
+	 */
+	@Override
+	public KalmanError getErrorValue(KalmanErrorCacheKey key) {
+		return get(key.getTripId(), key.getStopPathIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.core.dataCache.ErrorCache#putErrorValue(org.transitclock.core.Indices, java.lang.Double)
+	 */
+	@Override
+	public void putErrorValue(Indices indices, Double value) {
+		put(indices.getBlock().getTrip(indices.getTripIndex()).getId(),
+				indices.getStopPathIndex(), value);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.core.dataCache.ErrorCache#putErrorValue(org.transitclock.core.dataCache.KalmanErrorCacheKey, java.lang.Double)
+	 */
+	@Override
+	public void putErrorValue(KalmanErrorCacheKey key, Double value) {
+		put(key.getTripId(), key.getStopPathIndex(), value);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.core.dataCache.ErrorCache#getKeys()
+	 */
+	@Override
+	public List<KalmanErrorCacheKey> getKeys() {
+		List<KalmanErrorCacheKey> keys = new ArrayList<KalmanErrorCacheKey>();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (long key : segment.keys) {
+					if (key != 0)
+						keys.add(unpackKey(key));
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Writes all of the error values to the snapshot file. Writes to a
+	 * temporary file first and then renames it so that a partially written
+	 * snapshot is never read in. Each segment is only locked while it is
+	 * being copied.
+	 * <p>
+	 * The trip IDs are copied after all of the segments. Trip indices are
+	 * only ever appended, so the copy then contains the trip ID of every key
+	 * that was written, even if new trips were added while the segments were
+	 * being written.
+	 *
+	 * @throws IOException
+	 */
+	public void writeSnapshot() throws IOException {
+		IntervalTimer timer = new IntervalTimer();
+		File file = new File(snapshotFile.getValue());
+		File tmpFile = new File(file.getPath() + ".tmp");
+
+		int numValues = 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(SNAPSHOT_MAGIC_NUMBER);
+			out.writeInt(SNAPSHOT_VERSION);
+
+			for (Segment segment : segments) {
+				long[] keys;
+				double[] errors;
+				int[] updates;
+				int size;
+				synchronized (segment) {
+					keys = segment.keys.clone();
+					errors = segment.errors.clone();
+					updates = segment.updates.clone();
+					size = segment.size;
+				}
+				out.writeInt(size);
+				for (int i=0; i<keys.length; ++i) {
+					if (keys[i] != 0) {
+						out.writeLong(keys[i]);
+						out.writeDouble(errors[i]);
+						out.writeInt(updates[i]);
+					}
+				}
+				numValues += size;
+			}
+
+			// Trip IDs last so that they cover all of the keys written
+			List<String> tripIdsCopy;
+			synchronized (tripIds) {
+				tripIdsCopy = new ArrayList<String>(tripIds);
+			}
+			out.writeInt(tripIdsCopy.size());
+			for (String tripId : tripIdsCopy)
+				out.writeUTF(tripId);
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not delete old snapshot " + file);
+		if (!tmpFile.renameTo(file))
+			throw new IOException("Could not rename " + tmpFile + " to "
+					+ file);
+
+		logger.info("Wrote {} Kalman error values to {}. Took {} msec.",
+				numValues, file, timer.elapsedMsec());
+	}
+
+	/**
+	 * Reads in the snapshot file, if there is one. Since the trip indices
+	 * are assigned in the same order the keys can be used as is, even though
+	 * the trip IDs are read in after the values.
+	 */
+	private void readSnapshot() {
+		File file = new File(snapshotFile.getValue());
+		if (!file.exists()) {
+			logger.info("No Kalman error cache snapshot file {} so starting "
+					+ "with empty cache.", file);
+			return;
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		int numValues = 0;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != SNAPSHOT_MAGIC_NUMBER
+						|| in.readInt() != SNAPSHOT_VERSION) {
+					logger.error("Kalman error cache snapshot file {} is not "
+							+ "in the expected format so ignoring it.", file);
+					return;
+				}
+
+				for (int s=0; s<NUM_SEGMENTS; ++s) {
+					int size = in.readInt();
+					for (int i=0; i<size; ++i) {
+						long key = in.readLong();
+						double error = in.readDouble();
+						int updates = in.readInt();
+						int hash = hash(key);
+						Segment segment = segmentFor(hash);
+						synchronized (segment) {
+							segment.put(key, hash, error, updates);
+						}
+						++numValues;
+					}
+				}
+
+				int numTripIds = in.readInt();
+				for (int i=0; i<numTripIds; ++i)
+					getTripIndex(in.readUTF());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// The values might have been read in without the trip IDs that
+			// their keys refer to, so start with an empty cache instead
+			logger.error("Exception reading Kalman error cache snapshot "
+					+ "file {} so starting with empty cache.", file, e);
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					segment.allocate(segment.keys.length);
+				}
+			}
+			synchronized (tripIds) {
+				tripIds.clear();
+				tripIdIndices.clear();
+			}
+			numValues = 0;
+		}
+
+		logger.info("Read {} Kalman error values from {}. Took {} msec.",
+				numValues, file, timer.elapsedMsec());
+	}
+}
@@ -12,9 +12,7 @@ import org.ehcache.Status;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.xml.XmlConfiguration;
 import org.apache.commons.lang3.time.DateUtils;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.applications.Core;
@@ -29,10 +27,12 @@ import org.transitclock.core.dataCache.TripKey;
 import org.transitclock.core.dataCache.ehcache.CacheManagerFactory;
 import org.transitclock.core.dataCache.ehcache.scheduled.TripDataHistoryCache;
 import org.transitclock.core.dataCache.frequency.FrequencyBasedHistoricalAverageCache;
+import org.transitclock.db.archive.ColumnarArchive;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.db.structs.Trip;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.ipc.data.IpcArrivalDeparture;
+import org.transitclock.monitoring.metrics.CacheMetrics;
 /**
  * @author Sean Óg Crudden
  * 
@@ -44,6 +44,7 @@ public class ScheduleBasedHistoricalAverageCache {
 			.getLogger(ScheduleBasedHistoricalAverageCache.class);
 	final URL xmlConfigUrl = getClass().getResource("/ehcache.xml");
 	private Cache<StopPathCacheKey, HistoricalAverage> cache = null;
+	private final CacheMetrics metrics = new CacheMetrics("scheduleBasedHistoricalAverage");
 	/**
 	 * Gets the singleton instance of this class.
 	 * 
@@ -70,9 +71,9 @@ public class ScheduleBasedHistoricalAverageCache {
 	}
 	
 	synchronized public HistoricalAverage getAverage(StopPathCacheKey key) {		
-						
+		 long startNanos = System.nanoTime();
 		 HistoricalAverage result = cache.get(key);
-		 return result;			
+		 return metrics.record(result, startNanos);			
 	}
 	synchronized public void putAverage(StopPathCacheKey key, HistoricalAverage average) {
 			
@@ -172,10 +173,8 @@ public class ScheduleBasedHistoricalAverageCache {
 	}
 	public void populateCacheFromDb(Session session, Date startDate, Date endDate) throws Exception 
 	{
-		Criteria criteria =session.createCriteria(ArrivalDeparture.class);				
-		
-		@SuppressWarnings("unchecked")
-		List<ArrivalDeparture> results=criteria.add(Restrictions.between("time", startDate, endDate)).list();
+		List<ArrivalDeparture> results =
+				ColumnarArchive.getArrivalsDepartures(session, startDate, endDate);
 		
 		Collections.sort(results, new ArrivalDepartureComparator());
 						
@@ -0,0 +1,320 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.core.predAccuracy;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.applications.Core;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.configData.AgencyConfig;
+import org.transitclock.db.hibernate.HibernateUtils;
+import org.transitclock.db.structs.PredictionAccuracy;
+import org.transitclock.db.structs.PredictionAccuracyRollup;
+import org.transitclock.utils.HistogramUtils;
+import org.transitclock.utils.Time;
+
+/**
+ * Maintains hourly rollups of prediction accuracy as the PredictionAccuracy
+ * objects are created. The rollups are accumulated in memory and once an hour
+ * is complete they are written to the database as PredictionAccuracyRollup
+ * objects. This way prediction accuracy reports can read the small number of
+ * rollup rows instead of aggregating all of the PredictionAccuracy rows.
+ * <p>
+ * Predictions that never had a corresponding arrival/departure are not
+ * included since they don't have an accuracy. When the application shuts
+ * down the remaining rollups, including the ones for the current hour, are
+ * written directly to the database.
+ */
+public class PredAccuracyRollups {
+
+	// Accumulated histograms, keyed on the dimensions of the rollup
+	private final Map<RollupKey, SortedMap<Integer, Integer>> histograms =
+			new HashMap<RollupKey, SortedMap<Integer, Integer>>();
+
+	// So that the shutdown hook is only added once, when the rollups are
+	// first used
+	private boolean shutdownHookAdded = false;
+
+	private static final PredAccuracyRollups singleton =
+			new PredAccuracyRollups();
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(PredAccuracyRollups.class);
+
+	/********************** Config Params **************************/
+
+	private static final BooleanConfigValue rollupsEnabled =
+			new BooleanConfigValue("transitclock.predAccuracy.rollups",
+					false,
+					"If true then hourly rollups of prediction accuracy are "
+					+ "maintained in the PredictionAccuracyRollups table so "
+					+ "that reports can be generated quickly for long time "
+					+ "ranges.");
+
+	public static boolean isEnabled() {
+		return rollupsEnabled.getValue();
+	}
+
+	private static final IntegerConfigValue flushDelayMinutes =
+			new IntegerConfigValue(
+					"transitclock.predAccuracy.rollupFlushDelayMinutes",
+					30,
+					"How long after the end of an hour to wait before writing "
+					+ "the prediction accuracy rollups for the hour to the "
+					+ "database. Allows for the accuracy of predictions that "
+					+ "are matched late to still be included. Accuracy data "
+					+ "that arrives even later is written as an additional "
+					+ "rollup row.");
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * Key for the rollups
+	 */
+	private static class RollupKey {
+		private final long hourStart;
+		private final String routeId;
+		private final String routeShortName;
+		private final String directionId;
+		private final String stopId;
+		private final int predLengthBucket;
+		private final String predictionSource;
+		private final Boolean affectedByWaitStop;
+
+		private RollupKey(PredictionAccuracy predAccuracy) {
+			// Hours are determined using the default time zone, which is
+			// set to the agency time zone, so that they are correct even
+			// for time zones that are not offset by a whole hour
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(predAccuracy.getArrivalDepartureTime());
+			calendar.set(Calendar.MILLISECOND, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			this.hourStart = calendar.getTimeInMillis();
+			this.routeId = predAccuracy.getRouteId();
+			this.routeShortName = predAccuracy.getRouteShortName();
+			this.directionId = predAccuracy.getDirectionId();
+			this.stopId = predAccuracy.getStopId();
+			this.predLengthBucket = PredictionAccuracyRollup
+					.getPredLengthBucket(
+							predAccuracy.getPredictionLengthMsecs());
+			this.predictionSource = predAccuracy.getPredictionSource();
+			this.affectedByWaitStop = predAccuracy.isAffectedByWaitStop();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(hourStart, routeId, routeShortName,
+					directionId, stopId, predLengthBucket, predictionSource,
+					affectedByWaitStop);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RollupKey))
+				return false;
+			RollupKey other = (RollupKey) obj;
+			return hourStart == other.hourStart
+					&& predLengthBucket == other.predLengthBucket
+					&& Objects.equals(routeId, other.routeId)
+					&& Objects.equals(routeShortName, other.routeShortName)
+					&& Objects.equals(directionId, other.directionId)
+					&& Objects.equals(stopId, other.stopId)
+					&& Objects.equals(predictionSource, other.predictionSource)
+					&& Objects.equals(affectedByWaitStop,
+							other.affectedByWaitStop);
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private to enforce only access to this singleton
+	 * class being via getInstance()
+	 */
+	private PredAccuracyRollups() {
+	}
+
+	/**
+	 * @return the singleton
+	 */
+	public static PredAccuracyRollups getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Adds the prediction accuracy to the rollups. Does nothing if there was
+	 * no corresponding arrival/departure.
+	 *
+	 * @param predAccuracy
+	 */
+	public synchronized void add(PredictionAccuracy predAccuracy) {
+		if (predAccuracy.getArrivalDepartureTime() == null)
+			return;
+
+		if (!shutdownHookAdded) {
+			addShutdownHook();
+			shutdownHookAdded = true;
+		}
+
+		RollupKey key = new RollupKey(predAccuracy);
+		SortedMap<Integer, Integer> histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = new TreeMap<Integer, Integer>();
+			histograms.put(key, histogram);
+		}
+		HistogramUtils.add(histogram,
+				predAccuracy.getPredictionAccuracyMsecs() / 1000);
+	}
+
+	/**
+	 * Writes the rollups for hours that ended at least
+	 * transitclock.predAccuracy.rollupFlushDelayMinutes ago to the database
+	 * and removes them from memory.
+	 *
+	 * @param now
+	 *            The current system time
+	 * @return Number of rollup rows queued to be written
+	 */
+	public int flush(long now) {
+		long latestHourStart = now
+				- flushDelayMinutes.getValue() * Time.MS_PER_MIN
+				- Time.MS_PER_HOUR;
+		List<PredictionAccuracyRollup> rollups = removeRollups(latestHourStart);
+
+		for (PredictionAccuracyRollup rollup : rollups) {
+			logger.debug("Storing prediction accuracy rollup to db. {}",
+					rollup);
+			Core.getInstance().getDbLogger().add(rollup);
+		}
+		if (!rollups.isEmpty())
+			logger.info("Queued {} prediction accuracy rollups to be "
+					+ "written to db.", rollups.size());
+		return rollups.size();
+	}
+
+	/**
+	 * Removes the rollups for hours that start at or before latestHourStart
+	 * from memory.
+	 * 
+	 * @param latestHourStart
+	 * @return the PredictionAccuracyRollup objects for the removed rollups
+	 */
+	private synchronized List<PredictionAccuracyRollup> removeRollups(
+			long latestHourStart) {
+		List<PredictionAccuracyRollup> rollups =
+				new ArrayList<PredictionAccuracyRollup>();
+		Iterator<Map.Entry<RollupKey, SortedMap<Integer, Integer>>> iter =
+				histograms.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<RollupKey, SortedMap<Integer, Integer>> entry =
+					iter.next();
+			if (entry.getKey().hourStart > latestHourStart)
+				continue;
+			createRollups(entry.getKey(), entry.getValue(), rollups);
+			iter.remove();
+		}
+		return rollups;
+	}
+
+	/**
+	 * Adds a shutdown hook that writes out the rollups that are still in
+	 * memory so that the accuracy data for the current hour, and for the
+	 * hours still waiting for the flush delay, isn't lost. They are written
+	 * directly instead of via the db logger since the db logger queue might
+	 * not be processed once the application is shutting down.
+	 */
+	private void addShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				writeRemainingRollups();
+			}
+		}, "predAccuracyRollupsShutdown"));
+	}
+
+	/**
+	 * Writes all of the rollups still in memory to the database. Since the
+	 * rows are additive any accuracy data for the hour generated after a
+	 * restart is simply written as another rollup row.
+	 */
+	private void writeRemainingRollups() {
+		List<PredictionAccuracyRollup> rollups = removeRollups(Long.MAX_VALUE);
+		if (rollups.isEmpty())
+			return;
+
+		Session session = HibernateUtils.getSession(AgencyConfig.getAgencyId());
+		Transaction tx = session.beginTransaction();
+		try {
+			for (PredictionAccuracyRollup rollup : rollups)
+				session.save(rollup);
+			tx.commit();
+			logger.info("Wrote {} prediction accuracy rollups to db while "
+					+ "shutting down.", rollups.size());
+		} catch (HibernateException e) {
+			tx.rollback();
+			logger.error("Error writing {} prediction accuracy rollups to db "
+					+ "while shutting down.", rollups.size(), e);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Creates the PredictionAccuracyRollup objects for the histogram. Usually
+	 * there is just a single one but if the histogram is too long to be
+	 * stored in a single row it is split up.
+	 *
+	 * @param key
+	 * @param histogram
+	 * @param rollups
+	 *            The resulting rollups are added to this list
+	 */
+	private static void createRollups(RollupKey key,
+			SortedMap<Integer, Integer> histogram,
+			List<PredictionAccuracyRollup> rollups) {
+		for (SortedMap<Integer, Integer> histogramForRow : 
+				HistogramUtils.split(histogram))
+			rollups.add(createRollup(key, histogramForRow));
+	}
+
+	private static PredictionAccuracyRollup createRollup(RollupKey key,
+			SortedMap<Integer, Integer> histogram) {
+		return new PredictionAccuracyRollup(new Date(key.hourStart),
+				key.routeId, key.routeShortName, key.directionId, key.stopId,
+				key.predLengthBucket, key.predictionSource,
+				key.affectedByWaitStop, HistogramUtils.getCount(histogram),
+				HistogramUtils.format(histogram));
+	}
+}
@@ -213,6 +213,12 @@ public class PredictionAccuracyModule extends Module {
 				// Make sure old predictions that were never matched to an
 				// arrival/departure don't stick around taking up memory.
 				clearStalePredictions();
+
+				// Write out the prediction accuracy rollups for hours that
+				// are complete
+				if (PredAccuracyRollups.isEnabled())
+					PredAccuracyRollups.getInstance().flush(
+							Core.getInstance().getSystemTime());
 				
 			} catch (Exception e) {
 
@@ -547,5 +553,9 @@ public class PredictionAccuracyModule extends Module {
 		logger.debug("Storing prediction accuracy object to db. {}",
 				predAccuracy);
 		Core.getInstance().getDbLogger().add(predAccuracy);
+		
+		// Also add it to the hourly rollups
+		if (PredAccuracyRollups.isEnabled())
+			PredAccuracyRollups.getInstance().add(predAccuracy);
 	}
 }
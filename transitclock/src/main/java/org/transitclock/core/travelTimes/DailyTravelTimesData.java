@@ -0,0 +1,420 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.core.travelTimes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.core.travelTimes.TravelTimesProcessor.ProcessedDataMapKey;
+
+/**
+ * For incrementally updating travel times. The stop times and travel times
+ * that TravelTimesProcessor determines from the historic data for a single
+ * day are written to a file for that day. Subsequent runs then only need to
+ * read in and process the arrivals/departures and matches for days that have
+ * not yet been processed. The data for the other days in the time range is
+ * simply read from the files, which is much cheaper. Files for days that
+ * have expired are deleted.
+ * <p>
+ * The per trip samples are kept, instead of just count, sum and sum of
+ * squares, because Statistics.filteredMean() iteratively filters outliers
+ * and therefore needs the actual values. When the data for multiple days is
+ * combined the number of samples per key is limited using reservoir sampling,
+ * see CombinedSamples, so that memory use is bounded.
+ * <p>
+ * The files are keyed by the config rev since the trip IDs and stop path
+ * indexes of the keys are only valid for the config rev that was active when
+ * the day was processed. When the config rev changes the files for the old
+ * rev are no longer used and are deleted.
+ */
+public class DailyTravelTimesData {
+
+	private final File directory;
+
+	// The config rev that the daily data is for
+	private final int configRev;
+
+	// Identifies the parameters used to process the historic data. If the
+	// parameters change then the daily data needs to be processed again.
+	private final String parameters;
+
+	// Increment if the file format changes
+	private static final int FILE_FORMAT_VERSION = 1;
+
+	private static final String FILE_NAME_PREFIX = "travelTimes_";
+	private static final String FILE_NAME_SUFFIX = ".dat.gz";
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(DailyTravelTimesData.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param directoryName
+	 *            Where the daily files are stored
+	 * @param configRev
+	 *            The active config rev. Files for other config revs are not
+	 *            used.
+	 * @param parameters
+	 *            Identifies the parameters used to process the historic
+	 *            data. Files created with different parameters are not used.
+	 */
+	public DailyTravelTimesData(String directoryName, int configRev,
+			String parameters) {
+		this.directory = new File(directoryName);
+		this.configRev = configRev;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Returns the name of the file for the day for the config rev. Uses the
+	 * default time zone, which should be set to the time zone of the agency.
+	 *
+	 * @param dayStart
+	 * @return the file
+	 */
+	public File getFile(Date dayStart) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+		return new File(directory, FILE_NAME_PREFIX + configRev + "_"
+				+ format.format(dayStart) + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Returns the part of the file name between the prefix and the suffix,
+	 * which is "configRev_yyyyMMdd", or null if the file is not a daily
+	 * travel times file.
+	 *
+	 * @param file
+	 * @return the name without the prefix and suffix, or null
+	 */
+	private static String getRevAndDay(File file) {
+		String name = file.getName();
+		if (!name.startsWith(FILE_NAME_PREFIX)
+				|| !name.endsWith(FILE_NAME_SUFFIX))
+			return null;
+		return name.substring(FILE_NAME_PREFIX.length(),
+				name.length() - FILE_NAME_SUFFIX.length());
+	}
+
+	/**
+	 * Returns the day that the file for the config rev is for, or null if the
+	 * file is not a daily travel times file for the config rev.
+	 *
+	 * @param file
+	 * @return day or null
+	 */
+	private Date getDay(File file) {
+		String revAndDay = getRevAndDay(file);
+		String revPrefix = configRev + "_";
+		if (revAndDay == null || !revAndDay.startsWith(revPrefix))
+			return null;
+		try {
+			return new SimpleDateFormat("yyyyMMdd").parse(
+					revAndDay.substring(revPrefix.length()));
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if there is a file for the day that was created using the
+	 * current parameters.
+	 *
+	 * @param dayStart
+	 * @return true if the data for the day is available
+	 */
+	public boolean isAvailable(Date dayStart) {
+		File file = getFile(dayStart);
+		if (!file.exists())
+			return false;
+
+		DataInputStream in = null;
+		try {
+			in = open(file);
+			return readHeader(in);
+		} catch (IOException e) {
+			logger.error("Could not read header of {}", file, e);
+			return false;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Deletes the files for days that are before the specified time and the
+	 * files for other config revs since those can no longer be used.
+	 *
+	 * @param oldestDayToKeep
+	 */
+	public void deleteExpiredDays(Date oldestDayToKeep) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files) {
+			if (getRevAndDay(file) == null)
+				continue;
+			Date day = getDay(file);
+			if (day == null || day.before(oldestDayToKeep)) {
+				logger.info("Deleting expired daily travel times file {}",
+						file);
+				if (!file.delete())
+					logger.error("Could not delete {}", file);
+			}
+		}
+	}
+
+	/**
+	 * Writes the stop times and travel times for a day to a file. The file is
+	 * written to a temporary file first and then renamed so that a partially
+	 * written file is never used.
+	 *
+	 * @param dayStart
+	 * @param stopTimesMap
+	 * @param travelTimesMap
+	 * @throws IOException
+	 */
+	public void write(Date dayStart,
+			Map<ProcessedDataMapKey, List<Integer>> stopTimesMap,
+			Map<ProcessedDataMapKey, List<List<Integer>>> travelTimesMap)
+					throws IOException {
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		File file = getFile(dayStart);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmpFile))));
+		try {
+			out.writeInt(FILE_FORMAT_VERSION);
+			out.writeUTF(parameters);
+
+			out.writeInt(stopTimesMap.size());
+			for (Map.Entry<ProcessedDataMapKey, List<Integer>> entry :
+					stopTimesMap.entrySet()) {
+				writeKey(out, entry.getKey());
+				writeInts(out, entry.getValue());
+			}
+
+			out.writeInt(travelTimesMap.size());
+			for (Map.Entry<ProcessedDataMapKey, List<List<Integer>>> entry :
+					travelTimesMap.entrySet()) {
+				writeKey(out, entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (List<Integer> travelTimesForTrip : entry.getValue())
+					writeInts(out, travelTimesForTrip);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not delete old file " + file);
+		if (!tmpFile.renameTo(file))
+			throw new IOException("Could not rename " + tmpFile + " to "
+					+ file);
+
+		logger.info("Wrote {} stop times and {} travel times to {}",
+				stopTimesMap.size(), travelTimesMap.size(), file);
+	}
+
+	/**
+	 * Reads the stop times and travel times for a day from its file and adds
+	 * them to the maps.
+	 *
+	 * @param dayStart
+	 * @param stopTimesMap
+	 * @param travelTimesMap
+	 * @throws IOException
+	 */
+	public void read(Date dayStart,
+			Map<ProcessedDataMapKey, List<Integer>> stopTimesMap,
+			Map<ProcessedDataMapKey, List<List<Integer>>> travelTimesMap)
+					throws IOException {
+		File file = getFile(dayStart);
+		DataInputStream in = open(file);
+		try {
+			if (!readHeader(in))
+				throw new IOException("File " + file + " was created with "
+						+ "different parameters");
+
+			int numStopTimes = in.readInt();
+			for (int i=0; i<numStopTimes; ++i) {
+				ProcessedDataMapKey key = readKey(in);
+				List<Integer> stopTimes = stopTimesMap.get(key);
+				if (stopTimes == null) {
+					stopTimes = new ArrayList<Integer>();
+					stopTimesMap.put(key, stopTimes);
+				}
+				stopTimes.addAll(readInts(in));
+			}
+
+			int numTravelTimes = in.readInt();
+			for (int i=0; i<numTravelTimes; ++i) {
+				ProcessedDataMapKey key = readKey(in);
+				List<List<Integer>> travelTimes = travelTimesMap.get(key);
+				if (travelTimes == null) {
+					travelTimes = new ArrayList<List<Integer>>();
+					travelTimesMap.put(key, travelTimes);
+				}
+				int numTrips = in.readInt();
+				for (int j=0; j<numTrips; ++j)
+					travelTimes.add(readInts(in));
+			}
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * For combining the samples for multiple days into a map while limiting
+	 * the number of samples per key as they are added, so that the combined
+	 * map never holds more than maxSamples per key no matter how many days
+	 * are combined. Reservoir sampling is used so that each sample has the
+	 * same chance of being kept regardless of which day it is from. The
+	 * random number generator is seeded with a constant so that the results
+	 * are repeatable when the days are added in the same order.
+	 *
+	 * @param <T>
+	 *            Type of the samples
+	 */
+	public static class CombinedSamples<T> {
+		private final Map<ProcessedDataMapKey, List<T>> map;
+		private final int maxSamples;
+		// Number of samples offered so far for each key that has more than
+		// maxSamples. Keys with fewer have offered the size of their list.
+		private final Map<ProcessedDataMapKey, Integer> numOffered =
+				new HashMap<ProcessedDataMapKey, Integer>();
+		private final Random random = new Random(0);
+
+		/**
+		 * @param map
+		 *            The map that the samples are combined into
+		 * @param maxSamples
+		 *            Maximum number of samples to keep per key
+		 */
+		public CombinedSamples(Map<ProcessedDataMapKey, List<T>> map,
+				int maxSamples) {
+			this.map = map;
+			this.maxSamples = maxSamples;
+		}
+
+		/**
+		 * Adds the samples of a day to the combined samples.
+		 *
+		 * @param samplesForDay
+		 */
+		public void addAll(Map<ProcessedDataMapKey, List<T>> samplesForDay) {
+			for (Map.Entry<ProcessedDataMapKey, List<T>> entry :
+					samplesForDay.entrySet()) {
+				ProcessedDataMapKey key = entry.getKey();
+				List<T> samples = map.get(key);
+				if (samples == null) {
+					samples = new ArrayList<T>();
+					map.put(key, samples);
+				}
+				Integer offered = numOffered.get(key);
+				int n = offered != null ? offered : samples.size();
+				for (T sample : entry.getValue()) {
+					if (samples.size() < maxSamples) {
+						samples.add(sample);
+					} else {
+						int j = random.nextInt(n+1);
+						if (j < maxSamples)
+							samples.set(j, sample);
+					}
+					++n;
+				}
+				if (n > maxSamples)
+					numOffered.put(key, n);
+			}
+		}
+	}
+
+	private static DataInputStream open(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))));
+	}
+
+	private static void close(DataInputStream in) {
+		if (in == null)
+			return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			logger.error("Exception closing file", e);
+		}
+	}
+
+	/**
+	 * @return true if the file format version and parameters match
+	 */
+	private boolean readHeader(DataInputStream in) throws IOException {
+		return in.readInt() == FILE_FORMAT_VERSION
+				&& in.readUTF().equals(parameters);
+	}
+
+	private static void writeKey(DataOutputStream out, ProcessedDataMapKey key)
+			throws IOException {
+		out.writeUTF(key.getTripId());
+		out.writeInt(key.getStopPathIndex());
+		out.writeUTF(key.getStopId());
+	}
+
+	private static ProcessedDataMapKey readKey(DataInputStream in)
+			throws IOException {
+		String tripId = in.readUTF();
+		int stopPathIndex = in.readInt();
+		String stopId = in.readUTF();
+		return new ProcessedDataMapKey(tripId, stopPathIndex, stopId);
+	}
+
+	private static void writeInts(DataOutputStream out, List<Integer> values)
+			throws IOException {
+		out.writeInt(values.size());
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	private static List<Integer> readInts(DataInputStream in)
+			throws IOException {
+		int size = in.readInt();
+		List<Integer> values = new ArrayList<Integer>(size);
+		for (int i=0; i<size; ++i)
+			values.add(in.readInt());
+		return values;
+	}
+}
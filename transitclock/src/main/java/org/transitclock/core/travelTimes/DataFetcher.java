@@ -17,18 +17,25 @@
 
 package org.transitclock.core.travelTimes;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
+import org.hibernate.HibernateException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.db.archive.ColumnarArchive;
+import org.transitclock.db.hibernate.DbCursor;
 import org.transitclock.db.structs.ActiveRevisions;
 import org.transitclock.db.structs.Agency;
 import org.transitclock.db.structs.ArrivalDeparture;
@@ -428,6 +435,13 @@ public class DataFetcher {
 	 */
 	public void readData(String agencyId, Date beginTime, 
 			Date endTime) {
+		// If days have been archived into columnar files then read those
+		// files instead of querying the db for them
+		if (ColumnarArchive.isEnabled()) {
+			readDataUsingArchive(agencyId, beginTime, endTime);
+			return;
+		}
+		
 		// Read in arrival/departure times and matches from db
 		logger.info("Reading historic data from db...");
 		matchesMap = readMatches(agencyId, beginTime, endTime);
@@ -439,6 +453,388 @@ public class DataFetcher {
 				readArrivalsDepartures(agencyId, beginTime, endTime);
 	}
 
+	/**
+	 * Like readData() but for the days that have been archived by
+	 * ArchiveDbDataModule the data is read from the columnar archive files
+	 * instead of from the db. Days that have not been archived are read from
+	 * the db as usual.
+	 * 
+	 * @param agencyId
+	 * @param beginTime
+	 * @param endTime
+	 */
+	private void readDataUsingArchive(String agencyId, Date beginTime,
+			Date endTime) {
+		IntervalTimer timer = new IntervalTimer();
+		matchesMap = new HashMap<DbDataMapKey, List<Match>>();
+		arrivalDepartureMap = 
+				new HashMap<DbDataMapKey, List<ArrivalDeparture>>();
+		
+		for (DaySegment segment : getDaySegments(beginTime, endTime)) {
+			List<Match> archivedMatches = null;
+			List<ArrivalDeparture> archivedArrDeps = null;
+			if (segment.archived) {
+				try {
+					archivedMatches = 
+							ColumnarArchive.readMatches(segment.dayStart);
+					archivedArrDeps = ColumnarArchive
+							.readArrivalsDepartures(segment.dayStart);
+				} catch (IOException e) {
+					logger.error("Could not read archive files for {} so "
+							+ "reading data from db instead. {}", 
+							segment.dayStart, e.getMessage());
+					archivedMatches = null;
+					archivedArrDeps = null;
+				}
+			}
+			
+			if (archivedMatches != null && archivedArrDeps != null) {
+				// Only want matches that are not at a stop since for that
+				// situation instead using arrivals/departures
+				for (Match match : archivedMatches) {
+					if (!match.isAtStop() && segment.contains(match.getDate()))
+						addMatchToMap(matchesMap, match);
+				}
+				for (ArrivalDeparture arrDep : archivedArrDeps) {
+					if (segment.contains(arrDep.getDate()))
+						addArrivalDepartureToMap(arrivalDepartureMap, arrDep);
+				}
+			} else {
+				// Not archived so read from db
+				mergeMaps(matchesMap, 
+						readMatches(agencyId, segment.begin, segment.end));
+				mergeMaps(arrivalDepartureMap, 
+						readArrivalsDepartures(agencyId, segment.begin, 
+								segment.end));
+			}
+		}
+		
+		logger.info("Reading historic data using archive took {} msec", 
+				timer.elapsedMsec());
+	}
+	
+	/**
+	 * The portion of the time range being read in that falls within a single
+	 * day. Used so that the days that have been archived can be read from the
+	 * columnar archive files while the other days are read from the db.
+	 */
+	private static class DaySegment {
+		// Null if the archive is not enabled
+		private final Date dayStart;
+		private final Date begin;
+		// Inclusive, since the db queries include the end time
+		private final Date end;
+		private final boolean archived;
+		
+		private DaySegment(Date dayStart, Date begin, Date end, 
+				boolean archived) {
+			this.dayStart = dayStart;
+			this.begin = begin;
+			this.end = end;
+			this.archived = archived;
+		}
+		
+		private boolean contains(Date time) {
+			return !time.before(begin) && !time.after(end);
+		}
+	}
+	
+	/**
+	 * Splits the time range into one segment per day so that archived days
+	 * can be read from the archive. If the archive is not enabled then a
+	 * single segment covering the whole time range is returned.
+	 * 
+	 * @param beginTime
+	 * @param endTime
+	 * @return the segments, in time order
+	 */
+	private static List<DaySegment> getDaySegments(Date beginTime, 
+			Date endTime) {
+		List<DaySegment> segments = new ArrayList<DaySegment>();
+		if (!ColumnarArchive.isEnabled()) {
+			segments.add(new DaySegment(null, beginTime, endTime, false));
+			return segments;
+		}
+		
+		Date dayStart = ColumnarArchive.getDayStart(beginTime);
+		while (dayStart.before(endTime)) {
+			Date nextDayStart = ColumnarArchive.getNextDayStart(dayStart);
+			Date segmentBegin = 
+					beginTime.after(dayStart) ? beginTime : dayStart;
+			// Only the last segment includes the end time. The others stop
+			// just short of the next day so rows are not read in twice.
+			Date segmentEnd = !nextDayStart.before(endTime) ? 
+					endTime : new Date(nextDayStart.getTime() - 1);
+			boolean archived = 
+					ColumnarArchive.isArchived(ColumnarArchive.MATCHES, 
+							dayStart)
+					&& ColumnarArchive.isArchived(
+							ColumnarArchive.ARRIVALS_DEPARTURES, dayStart);
+			segments.add(
+					new DaySegment(dayStart, segmentBegin, segmentEnd, archived));
+			dayStart = nextDayStart;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Adds the lists from the source map to the lists in the destination map.
+	 * Since segments are processed in order the lists stay ordered by time.
+	 */
+	private static <T> void mergeMaps(Map<DbDataMapKey, List<T>> destination,
+			Map<DbDataMapKey, List<T>> source) {
+		for (Map.Entry<DbDataMapKey, List<T>> entry : source.entrySet()) {
+			List<T> list = destination.get(entry.getKey());
+			if (list == null)
+				destination.put(entry.getKey(), entry.getValue());
+			else
+				list.addAll(entry.getValue());
+		}
+	}
+	
+	/**
+	 * For handling the historic data for a single vehicle trip when the data
+	 * is streamed using streamData().
+	 */
+	public interface TripDataHandler {
+		/**
+		 * @param arrDepList
+		 *            The arrivals/departures for the vehicle trip, ordered
+		 *            by time
+		 * @param matchesForTrip
+		 *            The matches for the vehicle trip, ordered by time. Null
+		 *            if there were no matches.
+		 */
+		void handleTrip(List<ArrivalDeparture> arrDepList,
+				List<Match> matchesForTrip);
+	}
+
+	/**
+	 * Instead of reading all of the historic data into memory at once as is
+	 * done with readData(), streams the data in time order and groups it by
+	 * vehicle trip as it goes. Since a vehicle trip is keyed by its service
+	 * day (see dayOfYear()) all of the vehicle trips of a service day are
+	 * complete once data for the next service day is read. At that point
+	 * they are passed to the handler and are no longer referenced by the
+	 * DataFetcher. This way the memory used is bounded by about a day of data
+	 * instead of by the number of days of data being processed.
+	 * <p>
+	 * Consecutive days that are in the db are read with a single query for
+	 * the arrivals/departures and a single query for the matches, each
+	 * ordered by time so that the time index is used. The rows are read
+	 * through a cursor instead of all at once. As with readData(), days that
+	 * have been archived by ArchiveDbDataModule are read from the columnar
+	 * archive files instead, once each.
+	 * <p>
+	 * The handler is called from the calling thread.
+	 * 
+	 * @param agencyId
+	 * @param beginTime
+	 * @param endTime
+	 * @param handler
+	 *            For processing the data for each vehicle trip
+	 * @return number of vehicle trips that were handled
+	 * @throws HibernateException
+	 *             if there is a problem reading the data from the db, so
+	 *             that travel times are not determined from partial data
+	 */
+	public int streamData(String agencyId, Date beginTime, Date endTime,
+			TripDataHandler handler) throws HibernateException {
+		IntervalTimer timer = new IntervalTimer();
+		VehicleTripGrouper grouper = new VehicleTripGrouper(handler);
+		
+		List<DaySegment> segments = getDaySegments(beginTime, endTime);
+		int i = 0;
+		while (i < segments.size()) {
+			DaySegment segment = segments.get(i);
+			if (segment.archived && streamArchivedDay(segment, grouper)) {
+				++i;
+				continue;
+			}
+			
+			// Read the following days that are not archived along with this
+			// one so that they are read with a single query
+			int last = i;
+			while (last + 1 < segments.size() 
+					&& !segments.get(last + 1).archived)
+				++last;
+			streamFromDb(agencyId, segment.begin, segments.get(last).end, 
+					grouper);
+			i = last + 1;
+		}
+		grouper.handOffVehicleTrips();
+
+		logger.info("Streaming {} vehicle trips of historic data took {} msec",
+				grouper.vehicleTripsCount, timer.elapsedMsec());
+		return grouper.vehicleTripsCount;
+	}
+
+	/**
+	 * Reads in the data for the archived day and passes it to the grouper in
+	 * time order.
+	 * 
+	 * @param segment
+	 * @param grouper
+	 * @return true if the data was read from the archive, false if the
+	 *         archive files could not be read so the data needs to be read
+	 *         from the db instead
+	 */
+	private boolean streamArchivedDay(DaySegment segment, 
+			VehicleTripGrouper grouper) {
+		List<Match> archivedMatches;
+		List<ArrivalDeparture> archivedArrDeps;
+		try {
+			archivedMatches = ColumnarArchive.readMatches(segment.dayStart);
+			archivedArrDeps = 
+					ColumnarArchive.readArrivalsDepartures(segment.dayStart);
+		} catch (IOException e) {
+			logger.error("Could not read archive files for {} so "
+					+ "reading data from db instead. {}", 
+					segment.dayStart, e.getMessage());
+			return false;
+		}
+		
+		// Only want matches that are not at a stop since for that
+		// situation instead using arrivals/departures
+		List<Match> matches = new ArrayList<Match>(archivedMatches.size());
+		for (Match match : archivedMatches) {
+			if (!match.isAtStop() && segment.contains(match.getDate()))
+				matches.add(match);
+		}
+		List<ArrivalDeparture> arrDeps = 
+				new ArrayList<ArrivalDeparture>(archivedArrDeps.size());
+		for (ArrivalDeparture arrDep : archivedArrDeps) {
+			if (segment.contains(arrDep.getDate()))
+				arrDeps.add(arrDep);
+		}
+		
+		// The archive files are not necessarily in time order
+		Collections.sort(matches, new Comparator<Match>() {
+			@Override
+			public int compare(Match m1, Match m2) {
+				return m1.getDate().compareTo(m2.getDate());
+			}
+		});
+		Collections.sort(arrDeps, new Comparator<ArrivalDeparture>() {
+			@Override
+			public int compare(ArrivalDeparture ad1, ArrivalDeparture ad2) {
+				return ad1.getDate().compareTo(ad2.getDate());
+			}
+		});
+		
+		mergeByTime(arrDeps.iterator(), matches.iterator(), grouper);
+		return true;
+	}
+	
+	/**
+	 * Reads in the data for the time range from the db through cursors and
+	 * passes it to the grouper in time order.
+	 * 
+	 * @param agencyId
+	 * @param beginTime
+	 * @param endTime
+	 *            Inclusive
+	 * @param grouper
+	 * @throws HibernateException
+	 */
+	private void streamFromDb(String agencyId, Date beginTime, Date endTime,
+			VehicleTripGrouper grouper) throws HibernateException {
+		logger.info("Streaming historic data from db for {} to {}", 
+				beginTime, endTime);
+		DbCursor<ArrivalDeparture> arrDeps = 
+				ArrivalDeparture.openArrivalsDeparturesCursor(agencyId, 
+						beginTime, endTime, pageSize());
+		try {
+			DbCursor<Match> matches = Match.openMatchesCursor(agencyId, 
+					beginTime, endTime, pageSize());
+			try {
+				mergeByTime(arrDeps, matches, grouper);
+			} finally {
+				matches.close();
+			}
+		} finally {
+			arrDeps.close();
+		}
+	}
+	
+	/**
+	 * Passes the arrivals/departures and matches, each ordered by time, to
+	 * the grouper as a single stream ordered by time.
+	 * 
+	 * @param arrDeps
+	 * @param matches
+	 * @param grouper
+	 */
+	private static void mergeByTime(Iterator<ArrivalDeparture> arrDeps,
+			Iterator<Match> matches, VehicleTripGrouper grouper) {
+		ArrivalDeparture arrDep = arrDeps.hasNext() ? arrDeps.next() : null;
+		Match match = matches.hasNext() ? matches.next() : null;
+		while (arrDep != null || match != null) {
+			if (match == null || (arrDep != null 
+					&& !arrDep.getDate().after(match.getDate()))) {
+				grouper.add(arrDep);
+				arrDep = arrDeps.hasNext() ? arrDeps.next() : null;
+			} else {
+				grouper.add(match);
+				match = matches.hasNext() ? matches.next() : null;
+			}
+		}
+	}
+	
+	/**
+	 * Groups the data, which is received in time order, by vehicle trip. When
+	 * data for a new service day is received all of the vehicle trips so far
+	 * are complete and are handed off to the handler.
+	 */
+	private class VehicleTripGrouper {
+		private final TripDataHandler handler;
+		private Map<DbDataMapKey, List<ArrivalDeparture>> arrDepsMap =
+				new HashMap<DbDataMapKey, List<ArrivalDeparture>>();
+		private Map<DbDataMapKey, List<Match>> matchesMap =
+				new HashMap<DbDataMapKey, List<Match>>();
+		private int currentDayOfYear = -1;
+		private int vehicleTripsCount = 0;
+		
+		private VehicleTripGrouper(TripDataHandler handler) {
+			this.handler = handler;
+		}
+		
+		private void add(ArrivalDeparture arrDep) {
+			newTime(arrDep.getDate());
+			addArrivalDepartureToMap(arrDepsMap, arrDep);
+		}
+		
+		private void add(Match match) {
+			newTime(match.getDate());
+			addMatchToMap(matchesMap, match);
+		}
+		
+		private void newTime(Date time) {
+			int day = dayOfYear(time);
+			if (day != currentDayOfYear) {
+				handOffVehicleTrips();
+				currentDayOfYear = day;
+			}
+		}
+		
+		/**
+		 * Passes each vehicle trip to the handler and then drops them
+		 */
+		private void handOffVehicleTrips() {
+			for (Map.Entry<DbDataMapKey, List<ArrivalDeparture>> entry :
+					arrDepsMap.entrySet()) {
+				handler.handleTrip(entry.getValue(),
+						matchesMap.get(entry.getKey()));
+				++vehicleTripsCount;
+			}
+			if (!arrDepsMap.isEmpty())
+				logger.info("Handed off {} vehicle trips so far", 
+						vehicleTripsCount);
+			arrDepsMap = new HashMap<DbDataMapKey, List<ArrivalDeparture>>();
+			matchesMap = new HashMap<DbDataMapKey, List<Match>>();
+		}
+	}
+
 	/**
 	 * Provides the arrival/departure data in a map. The values in the map are
 	 * Lists of ArrivalDeparture times, one list for each trip where there was
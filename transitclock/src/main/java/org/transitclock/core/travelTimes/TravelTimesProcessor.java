@@ -17,22 +17,35 @@
 
 package org.transitclock.core.travelTimes;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.Deque;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.DoubleConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.config.StringConfigValue;
 import org.transitclock.core.TemporalDifference;
 import org.transitclock.core.travelTimes.DataFetcher.DbDataMapKey;
+import org.transitclock.db.structs.ActiveRevisions;
+import org.transitclock.db.structs.Agency;
 import org.transitclock.db.structs.ArrivalDeparture;
 import org.transitclock.db.structs.Match;
 import org.transitclock.db.structs.StopPath;
@@ -44,6 +57,7 @@ import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.MapKey;
 import org.transitclock.utils.StringUtils;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 import com.amazonaws.services.importexport.model.InvalidParameterException;
 
@@ -146,6 +160,59 @@ public class TravelTimesProcessor {
 					+ "to make sure that don't get invalid travel times due to "
 					+ "bad data.");
 	
+	private static BooleanConfigValue streaming =
+			new BooleanConfigValue("transitclock.traveltimes.streaming",
+					false,
+					"If true then instead of reading all of the historic data "
+					+ "into memory at once it is streamed in time order and "
+					+ "each vehicle trip is processed by a pool of threads "
+					+ "once its service day has been read in. Bounds memory "
+					+ "use to about a day of data when processing many days "
+					+ "of data.");
+	
+	private static IntegerConfigValue streamingThreads =
+			new IntegerConfigValue("transitclock.traveltimes.streamingThreads",
+					Runtime.getRuntime().availableProcessors(),
+					"When transitclock.traveltimes.streaming is true the "
+					+ "number of threads used to process the vehicle trips.");
+	
+	/**
+	 * Whether the stop and travel times should be determined a day at a time
+	 * and stored per day so that only new days need to be read from the
+	 * database. If true then readAndProcessHistoricDataIncrementally() should
+	 * be used instead of readAndProcessHistoricData().
+	 * 
+	 * @return true if transitclock.traveltimes.incremental is set
+	 */
+	public static boolean isIncremental() {
+		return incremental.getValue();
+	}
+	private static BooleanConfigValue incremental =
+			new BooleanConfigValue("transitclock.traveltimes.incremental",
+					false,
+					"If true then the stop and travel times determined from "
+					+ "the historic data are stored per day in "
+					+ "transitclock.traveltimes.incrementalDirectory. Only "
+					+ "days that have not yet been processed are read from "
+					+ "the database, so a nightly update only needs to "
+					+ "process the latest day of data.");
+	
+	private static StringConfigValue incrementalDirectory =
+			new StringConfigValue("transitclock.traveltimes.incrementalDirectory",
+					"/usr/local/transitclock/travelTimes/",
+					"Directory where the daily stop and travel times are "
+					+ "stored when transitclock.traveltimes.incremental is "
+					+ "true.");
+	
+	private static IntegerConfigValue incrementalMaxSamples =
+			new IntegerConfigValue("transitclock.traveltimes.incrementalMaxSamples",
+					100,
+					"When transitclock.traveltimes.incremental is true the "
+					+ "maximum number of samples per trip and stop path that "
+					+ "are combined from the daily data. Reservoir sampling is "
+					+ "used to limit the samples as each day is combined so "
+					+ "that memory use is bounded.");
+	
 	// The aggregate data processed from the historic db data.
 	// ProcessedDataMapKey combines tripId and stopPathIndex in 
 	// order to combine data for a particular tripId and stopPathIndex.
@@ -195,15 +262,15 @@ public class TravelTimesProcessor {
 			super(tripId, stopPathIndex, stopId);
 		}
 		
-		private String getTripId() {
+		String getTripId() {
 			return (String) o1;
 		}
 		
-		private int getStopPathIndex() {
+		int getStopPathIndex() {
 			return (int) o2;
 		}
 
-		private String getStopId() {
+		String getStopId() {
 			return (String) o3;
 		}
 		
@@ -227,7 +294,7 @@ public class TravelTimesProcessor {
 	 * @param mapKey
 	 * @param stopTimeMsec
 	 */
-	private static void addStopTimeToMap(ProcessedDataMapKey mapKey,
+	private static synchronized void addStopTimeToMap(ProcessedDataMapKey mapKey,
 			int stopTimeMsec) {
 		List<Integer> stopTimesForStop = stopTimesMap.get(mapKey);
 		if (stopTimesForStop == null) {
@@ -243,7 +310,7 @@ public class TravelTimesProcessor {
 	 * @param mapKey
 	 * @param travelTimesForStopPath
 	 */
-	private static void addTravelTimesToMap(ProcessedDataMapKey mapKey, 
+	private static synchronized void addTravelTimesToMap(ProcessedDataMapKey mapKey, 
 			List<Integer> travelTimesForStopPath) {
 		// If there is no data then simply return
 		if (travelTimesForStopPath == null || travelTimesForStopPath.isEmpty())
@@ -319,21 +386,16 @@ public class TravelTimesProcessor {
 	 * list of matches for the stopPath directly from the map instead of getting
 	 * all the matches for the trip and then filtering them.
 	 * 
-	 * @param dataFetcher
+	 * @param matchesForTrip
+	 *            The matches for the vehicle trip. Can be null.
 	 * @param arrDep
 	 * @return List of Match objects. Never returns null.
 	 */
-	private static List<Match> getMatchesForStopPath(DataFetcher dataFetcher,
-			ArrivalDeparture arrDep) {
+	private static List<Match> getMatchesForStopPath(
+			List<Match> matchesForTrip, ArrivalDeparture arrDep) {
 		// For returning the results
 		List<Match> matchesForStopPath = new ArrayList<Match>();
 
-		// Get the matches for the entire trip since that is
-		// how the data is available
-		DbDataMapKey mapKey = dataFetcher.getKey(arrDep.getServiceId(),
-				arrDep.getDate(), arrDep.getTripId(), arrDep.getVehicleId());
-		List<Match> matchesForTrip = dataFetcher.getMatchesMap().get(mapKey);
-		
 		// If no matches were found for this trip then return empty
 		// array (don't continue since would get NPE).
 		if (matchesForTrip == null)
@@ -463,7 +525,8 @@ public class TravelTimesProcessor {
 	 * matches will include the departure time from the first stop (arrDep1), in
 	 * between matches, and the arrival time as the second stop (arrDep2).
 	 * 
-	 * @param dataFetcher
+	 * @param matchesForTrip
+	 *            The matches for the vehicle trip. Can be null.
 	 * @param arrDep1
 	 *            The departure stop
 	 * @param arrDep2
@@ -471,7 +534,7 @@ public class TravelTimesProcessor {
 	 * @return List of MatchPoints, which contain the basic Match info needed
 	 *         for determining travel times.
 	 */
-	private static List<MatchPoint> getMatchPoints(DataFetcher dataFetcher,
+	private static List<MatchPoint> getMatchPoints(List<Match> matchesForTrip,
 			ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
 		// The array to be returned
 		List<MatchPoint> matchPoints = new ArrayList<MatchPoint>();
@@ -483,7 +546,7 @@ public class TravelTimesProcessor {
 		// Stop path is long enough such that have more than one travel
 		// time segment. Get the corresponding matches
 		List<Match> matchesForStopPath = 
-				getMatchesForStopPath(dataFetcher, arrDep2);
+				getMatchesForStopPath(matchesForTrip, arrDep2);
 
 		// Add the matches that are in between the arrival and the departure.
 		for (Match match : matchesForStopPath) {
@@ -514,7 +577,8 @@ public class TravelTimesProcessor {
 	 * path, to determine the travel time for each travel time segment for this
 	 * particular trip.
 	 * 
-	 * @param dataFetcher
+	 * @param matchesForTrip
+	 *            The matches for the vehicle trip. Can be null.
 	 * @param arrDep1
 	 *            The departure stop
 	 * @param arrDep2
@@ -524,7 +588,7 @@ public class TravelTimesProcessor {
 	 *         backwards in time then null is returned.
 	 */
 	private List<Integer> determineTravelTimesForStopPath(
-			DataFetcher dataFetcher, ArrivalDeparture arrDep1,
+			List<Match> matchesForTrip, ArrivalDeparture arrDep1,
 			ArrivalDeparture arrDep2) {
 		// Determine departure time. If shouldn't use departures times
 		// for terminal departure that are earlier then schedule time
@@ -561,7 +625,7 @@ public class TravelTimesProcessor {
 		double travelTimeSegmentLength = getTravelTimeSegmentLength(arrDep2);
 
 		List<MatchPoint> matchPoints = 
-				getMatchPoints(dataFetcher, arrDep1, arrDep2);
+				getMatchPoints(matchesForTrip, arrDep1, arrDep2);
 		
 		// The times when a travel time segment vertex is crossed.
 		// Will include the departure time, the middle vertices, and
@@ -677,15 +741,15 @@ public class TravelTimesProcessor {
 	 * and stop/dwell times are put into the stopTimesMap and travelTimesMap
 	 * members for further processing.
 	 * 
-	 * @param dataFetcher
-	 *            Contains the AVL based historic data in maps
+	 * @param matchesForTrip
+	 *            The AVL based matches for the vehicle trip. Can be null.
 	 * @param arrDep1
 	 *            The first arrival/departure
 	 * @param arrDep2
 	 *            The second arrival/departure
 	 */
 	private void processDataBetweenTwoArrivalDepartures(
-			DataFetcher dataFetcher, ArrivalDeparture arrDep1,
+			List<Match> matchesForTrip, ArrivalDeparture arrDep1,
 			ArrivalDeparture arrDep2) {
 		// If schedule adherence is really far off then ignore the data
 		// point because it would skew the results.
@@ -731,7 +795,7 @@ public class TravelTimesProcessor {
 				&& arrDep2.isArrival()) {
 			// Determine the travel times and add them to the map
 			List<Integer> travelTimesForStopPath = 
-					determineTravelTimesForStopPath(dataFetcher, arrDep1, 
+					determineTravelTimesForStopPath(matchesForTrip, arrDep1, 
 							arrDep2);
 			
 			// Ignore a stop path if any segment travel time is negative. Nulls will
@@ -758,12 +822,13 @@ public class TravelTimesProcessor {
 	 * Process historic data from database for single trip. Puts resulting data
 	 * into stopTimesMap and travelTimesMap.
 	 * 
-	 * @param dataFetcher
-	 *            Contains arrival/departures and matches fetched from database
+	 * @param matchesForTrip
+	 *            The matches for the vehicle trip fetched from database. Can
+	 *            be null.
 	 * @param arrDepList
 	 *            List of ArrivalDepartures for vehicle for a trip
 	 */
-	private void aggregateTripDataIntoMaps(DataFetcher dataFetcher,
+	private void aggregateTripDataIntoMaps(List<Match> matchesForTrip,
 			List<ArrivalDeparture> arrDepList) {
 		
 		for (int i=0; i<arrDepList.size()-1; ++i) {
@@ -782,7 +847,7 @@ public class TravelTimesProcessor {
 			
 			// Deal with normal travel times
 			ArrivalDeparture arrDep2 = arrDepList.get(i+1);				
-			processDataBetweenTwoArrivalDepartures(dataFetcher, arrDep1, arrDep2);							
+			processDataBetweenTwoArrivalDepartures(matchesForTrip, arrDep1, arrDep2);							
 		}		
 	}
 		
@@ -1028,6 +1093,12 @@ public class TravelTimesProcessor {
 	 */
 	public void readAndProcessHistoricData(String projectId, 
 			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
+		if (streaming.getValue()) {
+			streamAndProcessHistoricData(projectId, specialDaysOfWeek,
+					beginTime, endTime);
+			return;
+		}
+		
 		// Read the arrivals/departures and matches into a DataFetcher
 		DataFetcher dataFetcher = new DataFetcher(projectId, specialDaysOfWeek);
 		dataFetcher.readData(projectId, beginTime, endTime);
@@ -1046,11 +1117,13 @@ public class TravelTimesProcessor {
 		// resulting data into stopTimesMap and travelTimesMap.
 		logger.info("Processing data into travel time maps...");
 		IntervalTimer intervalTimer = new IntervalTimer();
-		Collection<List<ArrivalDeparture>> arrivalDepartures =
-				dataFetcher.getArrivalDepartureMap().values();
-		for (List<ArrivalDeparture> arrDepList : arrivalDepartures) {
+		Map<DbDataMapKey, List<Match>> matchesMap = dataFetcher.getMatchesMap();
+		for (Map.Entry<DbDataMapKey, List<ArrivalDeparture>> entry : 
+				dataFetcher.getArrivalDepartureMap().entrySet()) {
+			List<ArrivalDeparture> arrDepList = entry.getValue();
 			debugLogTrip(arrDepList);
-			aggregateTripDataIntoMaps(dataFetcher, arrDepList);
+			aggregateTripDataIntoMaps(matchesMap.get(entry.getKey()),
+					arrDepList);
 		}
 		
 		// Nice to log how long things took so can see progress and bottle necks
@@ -1059,6 +1132,289 @@ public class TravelTimesProcessor {
 				intervalTimer.elapsedMsec());
 	}	
 	
+	/**
+	 * Identifies the parameters that affect how the historic data for a day
+	 * is processed into the stop times and travel times maps. If any of
+	 * these change then the daily data needs to be processed again.
+	 * 
+	 * @return string describing the parameters
+	 */
+	private static String getProcessingParameters() {
+		return "maxTravelTimeSegmentLength=" + getMaxTravelTimeSegmentLength()
+				+ " minSegmentSpeedMps=" + getMinSegmentSpeedMps()
+				+ " maxSegmentSpeedMps=" + maxSegmentSpeedMps.getValue()
+				+ " resetEarlyTerminalDepartures="
+				+ shouldResetEarlyTerminalDepartures();
+	}
+	
+	/**
+	 * Like readAndProcessHistoricData() but the stop times and travel times
+	 * are determined a day at a time and stored in a file for each day. Only
+	 * the days that have not yet been processed are read from the database.
+	 * The data for the other days is read from the daily files. This means
+	 * that a nightly update only needs to process one new day of data instead
+	 * of the entire time range. Daily files older than beginTime and files
+	 * for other config revs are deleted.
+	 * <p>
+	 * Data for a day that has not yet completed is processed but not stored
+	 * since it would be incomplete.
+	 * <p>
+	 * The days are combined one at a time and the number of samples per trip
+	 * and stop path is limited as each day is added. This way memory use is
+	 * bounded by a day of data plus the limited samples instead of by the
+	 * number of days.
+	 * 
+	 * @param projectId
+	 * @param specialDaysOfWeek
+	 * @param beginTime
+	 *            Should be the start of a day
+	 * @param endTime
+	 */
+	public void readAndProcessHistoricDataIncrementally(String projectId,
+			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
+		IntervalTimer intervalTimer = new IntervalTimer();
+		int configRev = ActiveRevisions.get(projectId).getConfigRev();
+		DailyTravelTimesData dailyData = new DailyTravelTimesData(
+				incrementalDirectory.getValue(), configRev, 
+				getProcessingParameters());
+		dailyData.deleteExpiredDays(beginTime);
+		
+		// Process and store the days that haven't yet been processed. The
+		// maps are cleared for each day so that they only contain the data
+		// for that day.
+		List<Date> storedDays = new ArrayList<Date>();
+		List<Date> incompleteDays = new ArrayList<Date>();
+		long now = System.currentTimeMillis();
+		Calendar calendar = getAgencyCalendar(projectId);
+		for (Date day = beginTime; day.before(endTime);
+				day = getNextDayStart(calendar, day)) {
+			Date nextDayStart = getNextDayStart(calendar, day);
+			Date dayEnd = nextDayStart.after(endTime) ? endTime : nextDayStart;
+			// Incomplete if the day hasn't finished yet or if the time range
+			// ends part way through the day
+			if (dayEnd.getTime() > now || dayEnd.before(nextDayStart)) {
+				incompleteDays.add(day);
+				continue;
+			}
+			
+			if (!dailyData.isAvailable(day)) {
+				logger.info("Processing historic data for {}", day);
+				clearMaps();
+				readAndProcessHistoricData(projectId, specialDaysOfWeek, day,
+						dayEnd);
+				try {
+					dailyData.write(day, stopTimesMap, travelTimesMap);
+				} catch (IOException e) {
+					logger.error("Could not store daily travel times for {}. "
+							+ "Will process the day again next time.", day, e);
+					incompleteDays.add(day);
+					continue;
+				}
+			}
+			storedDays.add(day);
+		}
+		
+		// Combine the data for all of the days. Each day is read into the
+		// cleared maps and then added to the combined samples, which limits
+		// the number of samples as it goes.
+		Map<ProcessedDataMapKey, List<Integer>> combinedStopTimes = 
+				new HashMap<ProcessedDataMapKey, List<Integer>>();
+		Map<ProcessedDataMapKey, List<List<Integer>>> combinedTravelTimes = 
+				new HashMap<ProcessedDataMapKey, List<List<Integer>>>();
+		DailyTravelTimesData.CombinedSamples<Integer> stopTimesSamples =
+				new DailyTravelTimesData.CombinedSamples<Integer>(
+						combinedStopTimes, incrementalMaxSamples.getValue());
+		DailyTravelTimesData.CombinedSamples<List<Integer>> travelTimesSamples =
+				new DailyTravelTimesData.CombinedSamples<List<Integer>>(
+						combinedTravelTimes, incrementalMaxSamples.getValue());
+		for (Date day : storedDays) {
+			clearMaps();
+			try {
+				dailyData.read(day, stopTimesMap, travelTimesMap);
+			} catch (IOException e) {
+				logger.error("Could not read daily travel times for {} so "
+						+ "processing historic data for the day instead", 
+						day, e);
+				incompleteDays.add(day);
+				continue;
+			}
+			stopTimesSamples.addAll(stopTimesMap);
+			travelTimesSamples.addAll(travelTimesMap);
+		}
+		for (Date day : incompleteDays) {
+			Date nextDayStart = getNextDayStart(calendar, day);
+			Date dayEnd = nextDayStart.after(endTime) ? endTime : nextDayStart;
+			logger.info("Processing historic data for {} without storing it",
+					day);
+			clearMaps();
+			readAndProcessHistoricData(projectId, specialDaysOfWeek, day,
+					dayEnd);
+			stopTimesSamples.addAll(stopTimesMap);
+			travelTimesSamples.addAll(travelTimesMap);
+		}
+		clearMaps();
+		stopTimesMap.putAll(combinedStopTimes);
+		travelTimesMap.putAll(combinedTravelTimes);
+		
+		isEmpty = stopTimesMap.isEmpty() && travelTimesMap.isEmpty();
+		
+		logger.info("Incrementally processing historic data for {} stored "
+				+ "days and {} other days took {} msec.", storedDays.size(),
+				incompleteDays.size(), intervalTimer.elapsedMsec());
+	}
+	
+	/**
+	 * Returns a calendar for the time zone of the agency so that days can be
+	 * stepped through properly. If the time zone cannot be read from the db
+	 * then the default time zone is used.
+	 * 
+	 * @param projectId
+	 * @return calendar for the agency time zone
+	 */
+	private static Calendar getAgencyCalendar(String projectId) {
+		TimeZone timezone = Agency.getTimeZoneFromDb(projectId);
+		if (timezone == null) {
+			logger.error("Could not read time zone for agency {} so using "
+					+ "default time zone {}", projectId, 
+					TimeZone.getDefault().getID());
+			timezone = TimeZone.getDefault();
+		}
+		return new GregorianCalendar(timezone);
+	}
+	
+	/**
+	 * Returns the start of the following day. Uses the calendar instead of
+	 * adding Time.MS_PER_DAY so that days when switching to or from daylight
+	 * savings time, which are 23 or 25 hours long, are handled properly.
+	 * 
+	 * @param calendar
+	 *            In the time zone of the agency
+	 * @param dayStart
+	 * @return start of the next day
+	 */
+	private static Date getNextDayStart(Calendar calendar, Date dayStart) {
+		calendar.setTime(dayStart);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTime();
+	}
+	
+	/**
+	 * Clears the stop times and travel times maps.
+	 */
+	private static synchronized void clearMaps() {
+		stopTimesMap.clear();
+		travelTimesMap.clear();
+	}
+	
+	/**
+	 * For processing the data for a vehicle trip in a separate thread.
+	 */
+	private class TripDataProcessor implements Runnable {
+		private final List<ArrivalDeparture> arrDepList;
+		private final List<Match> matchesForTrip;
+		
+		private TripDataProcessor(List<ArrivalDeparture> arrDepList,
+				List<Match> matchesForTrip) {
+			this.arrDepList = arrDepList;
+			this.matchesForTrip = matchesForTrip;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				debugLogTrip(arrDepList);
+				aggregateTripDataIntoMaps(matchesForTrip, arrDepList);
+			} catch (Exception e) {
+				logger.error("Exception processing historic data for trip "
+						+ "with arrivals/departures {}", arrDepList, e);
+			}
+		}
+	}
+	
+	/**
+	 * Waits for the oldest of the outstanding tasks to complete.
+	 * 
+	 * @param futures
+	 */
+	private static void waitForOldest(Deque<Future<?>> futures) {
+		try {
+			futures.removeFirst().get();
+		} catch (InterruptedException | ExecutionException e) {
+			logger.error("Exception waiting for trip to be processed", e);
+		}
+	}
+	
+	/**
+	 * Like readAndProcessHistoricData() but instead of reading all of the
+	 * historic data into memory at once it is streamed in time order. Each
+	 * vehicle trip is processed by a pool of threads as soon as its service
+	 * day has been read in. The number of outstanding vehicle trips is
+	 * limited so that memory use is bounded by about a day of data instead
+	 * of by the amount of historic data. The results are put into the same
+	 * stopTimesMap and travelTimesMap so the further processing is the same.
+	 * <p>
+	 * If there is a problem reading the data from the db the
+	 * HibernateException is propagated since travel times determined from
+	 * partial data should not be written.
+	 * 
+	 * @param projectId
+	 * @param specialDaysOfWeek
+	 * @param beginTime
+	 * @param endTime
+	 */
+	private void streamAndProcessHistoricData(String projectId,
+			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
+		// Exit here if no matches are present since no further work can be
+		// done
+		Long matchesCount = Match.getMatchesCountFromDb(projectId, beginTime,
+				endTime, "AND atStop = false");
+		if (matchesCount == null || matchesCount == 0) {
+			logger.error("No Matches:  Nothing to do!");
+			isEmpty = true;
+			reportStatus(0, 0, 0, 0);
+			return;
+		}
+		isEmpty = false;
+		
+		logger.info("Streaming and processing data into travel time maps "
+				+ "using {} threads...", streamingThreads.getValue());
+		IntervalTimer intervalTimer = new IntervalTimer();
+		
+		final int numberThreads = streamingThreads.getValue();
+		final int maxOutstanding = numberThreads * 50;
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				numberThreads, new NamedThreadFactory("travelTimesProcessor"));
+		final Deque<Future<?>> futures = new ArrayDeque<Future<?>>();
+		try {
+			DataFetcher dataFetcher =
+					new DataFetcher(projectId, specialDaysOfWeek);
+			dataFetcher.streamData(projectId, beginTime, endTime,
+					new DataFetcher.TripDataHandler() {
+						@Override
+						public void handleTrip(
+								List<ArrivalDeparture> arrDepList,
+								List<Match> matchesForTrip) {
+							if (futures.size() >= maxOutstanding)
+								waitForOldest(futures);
+							futures.addLast(executor.submit(
+									new TripDataProcessor(arrDepList,
+											matchesForTrip)));
+						}
+					});
+			
+			// Wait for the remaining vehicle trips to be processed
+			while (!futures.isEmpty())
+				waitForOldest(futures);
+		} finally {
+			executor.shutdown();
+		}
+		
+		// Nice to log how long things took so can see progress and bottle necks
+		logger.info("Streaming and processing data from db into the travel "
+				+ "times and stop times map took {} msec.", 
+				intervalTimer.elapsedMsec());
+	}
+	
 	 public Long updateMetrics(Session session, int travelTimesRev) {
 	   Long count = Trip.countTravelTimesForTrips(session, travelTimesRev);
 	   cloudwatchService.saveMetric("PredictionLatestTravelTimeRev", travelTimesRev*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
@@ -0,0 +1,674 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.StringConfigValue;
+import org.transitclock.db.structs.Arrival;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.AvlReport.AssignmentType;
+import org.transitclock.db.structs.Departure;
+import org.transitclock.db.structs.Match;
+import org.transitclock.utils.IntervalTimer;
+
+/**
+ * Archive of historic AVL reports, arrivals/departures, and matches. The data
+ * for each table for a day is written to a separate gzipped columnar file
+ * (see ColumnarEncoding). The files are far smaller than the corresponding
+ * database tables and can be read in far faster than querying the database,
+ * which is important for processing travel times and for warming up the
+ * caches at startup.
+ * <p>
+ * Days are determined using the default time zone, which should be set to
+ * the time zone of the agency.
+ */
+public class ColumnarArchive {
+
+	public static final String AVL_REPORTS = "AvlReports";
+	public static final String ARRIVALS_DEPARTURES = "ArrivalsDepartures";
+	public static final String MATCHES = "Matches";
+
+	// Start of each file, so can tell if file is valid
+	private static final int MAGIC_NUMBER = 0x7C01A7C0;
+
+	// Increment if the file format changes
+	private static final int FILE_FORMAT_VERSION = 1;
+
+	private static final String FILE_NAME_SUFFIX = ".col.gz";
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(ColumnarArchive.class);
+
+	/********************** Config Params **************************/
+
+	private static final StringConfigValue archiveDirectory =
+			new StringConfigValue("transitclock.archive.directory",
+					null,
+					"Directory where the columnar archive files for historic "
+					+ "AVL reports, arrivals/departures, and matches are "
+					+ "stored. If set then when reading historic data, such "
+					+ "as for processing travel times or for populating the "
+					+ "caches, the archive files are used for the days that "
+					+ "have been archived. Null means the archive is not "
+					+ "used.");
+
+	/**
+	 * @return true if transitclock.archive.directory is set
+	 */
+	public static boolean isEnabled() {
+		return archiveDirectory.getValue() != null
+				&& !archiveDirectory.getValue().isEmpty();
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Returns the start of the day that the time is in
+	 *
+	 * @param time
+	 * @return start of the day
+	 */
+	public static Date getDayStart(Date time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(time);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Returns the start of the next day. Uses a Calendar so that days when
+	 * switching to or from daylight savings time are handled properly.
+	 *
+	 * @param dayStart
+	 * @return start of the following day
+	 */
+	public static Date getNextDayStart(Date dayStart) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(dayStart);
+		calendar.add(Calendar.DAY_OF_YEAR, 1);
+		return calendar.getTime();
+	}
+
+	private static File getFile(String table, Date dayStart) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+		return new File(archiveDirectory.getValue(),
+				table + "_" + format.format(dayStart) + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * @param table
+	 *            AVL_REPORTS, ARRIVALS_DEPARTURES, or MATCHES
+	 * @param dayStart
+	 * @return true if the data for the table for the day has been archived
+	 */
+	public static boolean isArchived(String table, Date dayStart) {
+		return isEnabled() && getFile(table, dayStart).exists();
+	}
+
+	/**
+	 * Opens a temporary file for writing the data for a table for a day and
+	 * writes the header.
+	 */
+	private static DataOutputStream create(File tmpFile, int numRows)
+			throws IOException {
+		File directory = tmpFile.getParentFile();
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmpFile))));
+		out.writeInt(MAGIC_NUMBER);
+		out.writeInt(FILE_FORMAT_VERSION);
+		out.writeInt(numRows);
+		return out;
+	}
+
+	/**
+	 * Closes the temporary file and renames it so that a partially written
+	 * file is never used.
+	 */
+	private static void commit(DataOutputStream out, File tmpFile, File file,
+			int numRows) throws IOException {
+		out.close();
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not delete old file " + file);
+		if (!tmpFile.renameTo(file))
+			throw new IOException("Could not rename " + tmpFile + " to "
+					+ file);
+		logger.info("Archived {} rows to {} which is {} bytes", numRows,
+				file, file.length());
+	}
+
+	/**
+	 * Opens the file and reads the header.
+	 *
+	 * @return the stream, positioned at the first column
+	 */
+	private static DataInputStream open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))));
+		if (in.readInt() != MAGIC_NUMBER
+				|| in.readInt() != FILE_FORMAT_VERSION) {
+			in.close();
+			throw new IOException("File " + file + " is not a valid archive "
+					+ "file");
+		}
+		return in;
+	}
+
+	private static long toTime(Date date) {
+		return date.getTime();
+	}
+
+	private static Date toDate(Long time) {
+		return time == null ? null : new Date(time);
+	}
+
+	/**
+	 * Writes the arrivals/departures for a day to the archive.
+	 *
+	 * @param dayStart
+	 * @param arrDeps
+	 * @throws IOException
+	 */
+	public static void writeArrivalsDepartures(Date dayStart,
+			List<ArrivalDeparture> arrDeps) throws IOException {
+		List<ArrivalDeparture> rows = new ArrayList<ArrivalDeparture>(arrDeps);
+		Collections.sort(rows, new Comparator<ArrivalDeparture>() {
+			@Override
+			public int compare(ArrivalDeparture a1, ArrivalDeparture a2) {
+				return Long.compare(a1.getTime(), a2.getTime());
+			}
+		});
+
+		int n = rows.size();
+		long[] times = new long[n];
+		Long[] avlTimes = new Long[n];
+		Long[] scheduledTimes = new Long[n];
+		Long[] freqStartTimes = new Long[n];
+		String[] vehicleIds = new String[n];
+		String[] stopIds = new String[n];
+		String[] tripIds = new String[n];
+		String[] blockIds = new String[n];
+		String[] routeIds = new String[n];
+		String[] routeShortNames = new String[n];
+		String[] serviceIds = new String[n];
+		String[] directionIds = new String[n];
+		int[] gtfsStopSeqs = new int[n];
+		int[] configRevs = new int[n];
+		int[] tripIndices = new int[n];
+		int[] stopPathIndices = new int[n];
+		int[] stopOrders = new int[n];
+		boolean[] isArrivals = new boolean[n];
+		float[] stopPathLengths = new float[n];
+		for (int i=0; i<n; ++i) {
+			ArrivalDeparture arrDep = rows.get(i);
+			times[i] = arrDep.getTime();
+			avlTimes[i] = arrDep.getAvlTime() == null ?
+					null : toTime(arrDep.getAvlTime());
+			scheduledTimes[i] = arrDep.getScheduledDate() == null ?
+					null : toTime(arrDep.getScheduledDate());
+			freqStartTimes[i] = arrDep.getFreqStartTime() == null ?
+					null : toTime(arrDep.getFreqStartTime());
+			vehicleIds[i] = arrDep.getVehicleId();
+			stopIds[i] = arrDep.getStopId();
+			tripIds[i] = arrDep.getTripId();
+			blockIds[i] = arrDep.getBlockId();
+			routeIds[i] = arrDep.getRouteId();
+			routeShortNames[i] = arrDep.getRouteShortName();
+			serviceIds[i] = arrDep.getServiceId();
+			directionIds[i] = arrDep.getDirectionId();
+			gtfsStopSeqs[i] = arrDep.getGtfsStopSequence();
+			configRevs[i] = arrDep.getConfigRev();
+			tripIndices[i] = arrDep.getTripIndex();
+			stopPathIndices[i] = arrDep.getStopPathIndex();
+			// Null stop order stored as -1
+			stopOrders[i] = arrDep.getStopOrder() == null ?
+					-1 : arrDep.getStopOrder();
+			isArrivals[i] = arrDep.isArrival();
+			stopPathLengths[i] = arrDep.getStopPathLength();
+		}
+
+		File file = getFile(ARRIVALS_DEPARTURES, dayStart);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = create(tmpFile, n);
+		try {
+			ColumnarEncoding.writeTimes(out, times);
+			ColumnarEncoding.writeRelativeTimes(out, avlTimes, times);
+			ColumnarEncoding.writeRelativeTimes(out, scheduledTimes, times);
+			ColumnarEncoding.writeRelativeTimes(out, freqStartTimes, times);
+			ColumnarEncoding.writeStrings(out, vehicleIds);
+			ColumnarEncoding.writeStrings(out, stopIds);
+			ColumnarEncoding.writeStrings(out, tripIds);
+			ColumnarEncoding.writeStrings(out, blockIds);
+			ColumnarEncoding.writeStrings(out, routeIds);
+			ColumnarEncoding.writeStrings(out, routeShortNames);
+			ColumnarEncoding.writeStrings(out, serviceIds);
+			ColumnarEncoding.writeStrings(out, directionIds);
+			ColumnarEncoding.writeInts(out, gtfsStopSeqs);
+			ColumnarEncoding.writeInts(out, configRevs);
+			ColumnarEncoding.writeInts(out, tripIndices);
+			ColumnarEncoding.writeInts(out, stopPathIndices);
+			ColumnarEncoding.writeInts(out, stopOrders);
+			ColumnarEncoding.writeBooleans(out, isArrivals);
+			ColumnarEncoding.writeFloats(out, stopPathLengths);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		commit(out, tmpFile, file, n);
+	}
+
+	/**
+	 * Reads the archived arrivals/departures for a day. They are ordered by
+	 * time.
+	 *
+	 * @param dayStart
+	 * @return the arrivals/departures
+	 * @throws IOException
+	 */
+	public static List<ArrivalDeparture> readArrivalsDepartures(Date dayStart)
+			throws IOException {
+		DataInputStream in = open(getFile(ARRIVALS_DEPARTURES, dayStart));
+		try {
+			int n = in.readInt();
+			long[] times = ColumnarEncoding.readTimes(in, n);
+			Long[] avlTimes = ColumnarEncoding.readRelativeTimes(in, times);
+			Long[] scheduledTimes = ColumnarEncoding.readRelativeTimes(in, times);
+			Long[] freqStartTimes = ColumnarEncoding.readRelativeTimes(in, times);
+			String[] vehicleIds = ColumnarEncoding.readStrings(in, n);
+			String[] stopIds = ColumnarEncoding.readStrings(in, n);
+			String[] tripIds = ColumnarEncoding.readStrings(in, n);
+			String[] blockIds = ColumnarEncoding.readStrings(in, n);
+			String[] routeIds = ColumnarEncoding.readStrings(in, n);
+			String[] routeShortNames = ColumnarEncoding.readStrings(in, n);
+			String[] serviceIds = ColumnarEncoding.readStrings(in, n);
+			String[] directionIds = ColumnarEncoding.readStrings(in, n);
+			int[] gtfsStopSeqs = ColumnarEncoding.readInts(in, n);
+			int[] configRevs = ColumnarEncoding.readInts(in, n);
+			int[] tripIndices = ColumnarEncoding.readInts(in, n);
+			int[] stopPathIndices = ColumnarEncoding.readInts(in, n);
+			int[] stopOrders = ColumnarEncoding.readInts(in, n);
+			boolean[] isArrivals = ColumnarEncoding.readBooleans(in, n);
+			float[] stopPathLengths = ColumnarEncoding.readFloats(in, n);
+
+			List<ArrivalDeparture> arrDeps = new ArrayList<ArrivalDeparture>(n);
+			for (int i=0; i<n; ++i) {
+				Integer stopOrder = stopOrders[i] == -1 ? null : stopOrders[i];
+				if (isArrivals[i]) {
+					arrDeps.add(new Arrival(vehicleIds[i], new Date(times[i]),
+							stopIds[i], gtfsStopSeqs[i], tripIds[i],
+							configRevs[i], toDate(avlTimes[i]),
+							toDate(scheduledTimes[i]), blockIds[i],
+							routeIds[i], routeShortNames[i], serviceIds[i],
+							directionIds[i], tripIndices[i],
+							toDate(freqStartTimes[i]), stopPathIndices[i],
+							stopOrder, stopPathLengths[i]));
+				} else {
+					arrDeps.add(new Departure(vehicleIds[i], new Date(times[i]),
+							stopIds[i], gtfsStopSeqs[i], tripIds[i],
+							configRevs[i], toDate(avlTimes[i]),
+							toDate(scheduledTimes[i]), blockIds[i],
+							routeIds[i], routeShortNames[i], serviceIds[i],
+							directionIds[i], tripIndices[i],
+							toDate(freqStartTimes[i]), stopPathIndices[i],
+							stopOrder, stopPathLengths[i]));
+				}
+			}
+			return arrDeps;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the matches for a day to the archive.
+	 *
+	 * @param dayStart
+	 * @param matches
+	 * @throws IOException
+	 */
+	public static void writeMatches(Date dayStart, List<Match> matches)
+			throws IOException {
+		List<Match> rows = new ArrayList<Match>(matches);
+		Collections.sort(rows, new Comparator<Match>() {
+			@Override
+			public int compare(Match m1, Match m2) {
+				return Long.compare(m1.getTime(), m2.getTime());
+			}
+		});
+
+		int n = rows.size();
+		long[] times = new long[n];
+		String[] vehicleIds = new String[n];
+		String[] serviceIds = new String[n];
+		String[] blockIds = new String[n];
+		String[] tripIds = new String[n];
+		int[] configRevs = new int[n];
+		int[] stopPathIndices = new int[n];
+		int[] segmentIndices = new int[n];
+		float[] distancesAlongSegment = new float[n];
+		float[] distancesAlongStopPath = new float[n];
+		boolean[] atStops = new boolean[n];
+		for (int i=0; i<n; ++i) {
+			Match match = rows.get(i);
+			times[i] = match.getTime();
+			vehicleIds[i] = match.getVehicleId();
+			serviceIds[i] = match.getServiceId();
+			blockIds[i] = match.getBlockId();
+			tripIds[i] = match.getTripId();
+			configRevs[i] = match.getConfigRev();
+			stopPathIndices[i] = match.getStopPathIndex();
+			segmentIndices[i] = match.getSegmentIndex();
+			distancesAlongSegment[i] = match.getDistanceAlongSegment();
+			distancesAlongStopPath[i] = match.getDistanceAlongStopPath();
+			atStops[i] = match.isAtStop();
+		}
+
+		File file = getFile(MATCHES, dayStart);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = create(tmpFile, n);
+		try {
+			ColumnarEncoding.writeTimes(out, times);
+			ColumnarEncoding.writeStrings(out, vehicleIds);
+			ColumnarEncoding.writeStrings(out, serviceIds);
+			ColumnarEncoding.writeStrings(out, blockIds);
+			ColumnarEncoding.writeStrings(out, tripIds);
+			ColumnarEncoding.writeInts(out, configRevs);
+			ColumnarEncoding.writeInts(out, stopPathIndices);
+			ColumnarEncoding.writeInts(out, segmentIndices);
+			ColumnarEncoding.writeFloats(out, distancesAlongSegment);
+			ColumnarEncoding.writeFloats(out, distancesAlongStopPath);
+			ColumnarEncoding.writeBooleans(out, atStops);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		commit(out, tmpFile, file, n);
+	}
+
+	/**
+	 * Reads the archived matches for a day. They are ordered by time.
+	 *
+	 * @param dayStart
+	 * @return the matches
+	 * @throws IOException
+	 */
+	public static List<Match> readMatches(Date dayStart) throws IOException {
+		DataInputStream in = open(getFile(MATCHES, dayStart));
+		try {
+			int n = in.readInt();
+			long[] times = ColumnarEncoding.readTimes(in, n);
+			String[] vehicleIds = ColumnarEncoding.readStrings(in, n);
+			String[] serviceIds = ColumnarEncoding.readStrings(in, n);
+			String[] blockIds = ColumnarEncoding.readStrings(in, n);
+			String[] tripIds = ColumnarEncoding.readStrings(in, n);
+			int[] configRevs = ColumnarEncoding.readInts(in, n);
+			int[] stopPathIndices = ColumnarEncoding.readInts(in, n);
+			int[] segmentIndices = ColumnarEncoding.readInts(in, n);
+			float[] distancesAlongSegment = ColumnarEncoding.readFloats(in, n);
+			float[] distancesAlongStopPath = ColumnarEncoding.readFloats(in, n);
+			boolean[] atStops = ColumnarEncoding.readBooleans(in, n);
+
+			List<Match> matches = new ArrayList<Match>(n);
+			for (int i=0; i<n; ++i) {
+				matches.add(new Match(vehicleIds[i], new Date(times[i]),
+						configRevs[i], serviceIds[i], blockIds[i], tripIds[i],
+						stopPathIndices[i], segmentIndices[i],
+						distancesAlongSegment[i], distancesAlongStopPath[i],
+						atStops[i]));
+			}
+			return matches;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the AVL reports for a day to the archive. The main members,
+	 * including the assignment, are archived. The time processed and the
+	 * custom field are not.
+	 *
+	 * @param dayStart
+	 * @param avlReports
+	 * @throws IOException
+	 */
+	public static void writeAvlReports(Date dayStart,
+			List<AvlReport> avlReports) throws IOException {
+		List<AvlReport> rows = new ArrayList<AvlReport>(avlReports);
+		Collections.sort(rows, new Comparator<AvlReport>() {
+			@Override
+			public int compare(AvlReport r1, AvlReport r2) {
+				return Long.compare(r1.getTime(), r2.getTime());
+			}
+		});
+
+		int n = rows.size();
+		long[] times = new long[n];
+		String[] vehicleIds = new String[n];
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		float[] speeds = new float[n];
+		float[] headings = new float[n];
+		String[] sources = new String[n];
+		String[] assignmentIds = new String[n];
+		String[] assignmentTypes = new String[n];
+		String[] leadVehicleIds = new String[n];
+		String[] driverIds = new String[n];
+		String[] licensePlates = new String[n];
+		int[] passengerCounts = new int[n];
+		float[] passengerFullnesses = new float[n];
+		for (int i=0; i<n; ++i) {
+			AvlReport avlReport = rows.get(i);
+			times[i] = avlReport.getTime();
+			vehicleIds[i] = avlReport.getVehicleId();
+			lats[i] = avlReport.getLat();
+			lons[i] = avlReport.getLon();
+			speeds[i] = avlReport.getSpeed();
+			headings[i] = avlReport.getHeading();
+			sources[i] = avlReport.getSource();
+			assignmentIds[i] = avlReport.getAssignmentId();
+			assignmentTypes[i] = avlReport.getAssignmentType() == null ?
+					null : avlReport.getAssignmentType().name();
+			leadVehicleIds[i] = avlReport.getLeadVehicleId();
+			driverIds[i] = avlReport.getDriverId();
+			licensePlates[i] = avlReport.getLicensePlate();
+			// Invalid passenger count is stored as -1
+			passengerCounts[i] = avlReport.getPassengerCount();
+			passengerFullnesses[i] = avlReport.getPassengerFullness();
+		}
+
+		File file = getFile(AVL_REPORTS, dayStart);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = create(tmpFile, n);
+		try {
+			ColumnarEncoding.writeTimes(out, times);
+			ColumnarEncoding.writeStrings(out, vehicleIds);
+			ColumnarEncoding.writeCoordinates(out, lats);
+			ColumnarEncoding.writeCoordinates(out, lons);
+			ColumnarEncoding.writeFloats(out, speeds);
+			ColumnarEncoding.writeFloats(out, headings);
+			ColumnarEncoding.writeStrings(out, sources);
+			ColumnarEncoding.writeStrings(out, assignmentIds);
+			ColumnarEncoding.writeStrings(out, assignmentTypes);
+			ColumnarEncoding.writeStrings(out, leadVehicleIds);
+			ColumnarEncoding.writeStrings(out, driverIds);
+			ColumnarEncoding.writeStrings(out, licensePlates);
+			ColumnarEncoding.writeInts(out, passengerCounts);
+			ColumnarEncoding.writeFloats(out, passengerFullnesses);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		commit(out, tmpFile, file, n);
+	}
+
+	/**
+	 * Reads the archived AVL reports for a day. They are ordered by time.
+	 *
+	 * @param dayStart
+	 * @return the AVL reports
+	 * @throws IOException
+	 */
+	public static List<AvlReport> readAvlReports(Date dayStart)
+			throws IOException {
+		DataInputStream in = open(getFile(AVL_REPORTS, dayStart));
+		try {
+			int n = in.readInt();
+			long[] times = ColumnarEncoding.readTimes(in, n);
+			String[] vehicleIds = ColumnarEncoding.readStrings(in, n);
+			double[] lats = ColumnarEncoding.readCoordinates(in, n);
+			double[] lons = ColumnarEncoding.readCoordinates(in, n);
+			float[] speeds = ColumnarEncoding.readFloats(in, n);
+			float[] headings = ColumnarEncoding.readFloats(in, n);
+			String[] sources = ColumnarEncoding.readStrings(in, n);
+			String[] assignmentIds = ColumnarEncoding.readStrings(in, n);
+			String[] assignmentTypes = ColumnarEncoding.readStrings(in, n);
+			String[] leadVehicleIds = ColumnarEncoding.readStrings(in, n);
+			String[] driverIds = ColumnarEncoding.readStrings(in, n);
+			String[] licensePlates = ColumnarEncoding.readStrings(in, n);
+			int[] passengerCounts = ColumnarEncoding.readInts(in, n);
+			float[] passengerFullnesses = ColumnarEncoding.readFloats(in, n);
+
+			List<AvlReport> avlReports = new ArrayList<AvlReport>(n);
+			for (int i=0; i<n; ++i) {
+				AvlReport avlReport = new AvlReport(vehicleIds[i], times[i],
+						lats[i], lons[i], speeds[i], headings[i], sources[i],
+						leadVehicleIds[i], driverIds[i], licensePlates[i],
+						passengerCounts[i] == -1 ? null : passengerCounts[i],
+						passengerFullnesses[i]);
+				if (assignmentIds[i] != null)
+					avlReport = new AvlReport(avlReport, assignmentIds[i],
+							AssignmentType.valueOf(assignmentTypes[i]));
+				avlReports.add(avlReport);
+			}
+			return avlReports;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the arrivals/departures between the begin and end times,
+	 * inclusive. For days that have been archived the data is read from the
+	 * archive files. For the other days, or for all days if the archive is
+	 * not enabled, it is read from the database. The results are ordered by
+	 * time. This is what the caches should use to read in historic
+	 * arrivals/departures when they are populated.
+	 *
+	 * @param session
+	 * @param beginTime
+	 * @param endTime
+	 * @return the arrivals/departures
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<ArrivalDeparture> getArrivalsDepartures(
+			Session session, Date beginTime, Date endTime) {
+		if (!isEnabled()) {
+			return session.createCriteria(ArrivalDeparture.class)
+					.add(Restrictions.between("time", beginTime, endTime))
+					.addOrder(Order.asc("time"))
+					.list();
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		List<ArrivalDeparture> results = new ArrayList<ArrivalDeparture>();
+		int numFromArchive = 0;
+
+		Date dayStart = getDayStart(beginTime);
+		while (dayStart.before(endTime)) {
+			Date nextDayStart = getNextDayStart(dayStart);
+			Date segmentBegin =
+					dayStart.before(beginTime) ? beginTime : dayStart;
+			boolean lastSegment = !nextDayStart.before(endTime);
+
+			List<ArrivalDeparture> arrDeps = null;
+			if (isArchived(ARRIVALS_DEPARTURES, dayStart)) {
+				try {
+					arrDeps = new ArrayList<ArrivalDeparture>();
+					for (ArrivalDeparture arrDep :
+							readArrivalsDepartures(dayStart)) {
+						long time = arrDep.getTime();
+						if (time >= segmentBegin.getTime()
+								&& (lastSegment ? time <= endTime.getTime()
+										: time < nextDayStart.getTime()))
+							arrDeps.add(arrDep);
+					}
+					numFromArchive += arrDeps.size();
+				} catch (IOException e) {
+					logger.error("Could not read archived arrivals/departures "
+							+ "for {} so reading them from db instead",
+							dayStart, e);
+					arrDeps = null;
+				}
+			}
+			if (arrDeps == null) {
+				Criteria criteria =
+						session.createCriteria(ArrivalDeparture.class)
+						.add(Restrictions.ge("time", segmentBegin));
+				if (lastSegment)
+					criteria.add(Restrictions.le("time", endTime));
+				else
+					criteria.add(Restrictions.lt("time", nextDayStart));
+				arrDeps = criteria.list();
+				Collections.sort(arrDeps, new Comparator<ArrivalDeparture>() {
+					@Override
+					public int compare(ArrivalDeparture a1,
+							ArrivalDeparture a2) {
+						return Long.compare(a1.getTime(), a2.getTime());
+					}
+				});
+			}
+			results.addAll(arrDeps);
+
+			dayStart = nextDayStart;
+		}
+
+		logger.info("Read {} arrivals/departures between {} and {}, {} of "
+				+ "them from the archive. Took {} msec.", results.size(),
+				beginTime, endTime, numFromArchive, timer.elapsedMsec());
+		return results;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Low level encoding of the columns of an archive file. Each column is written
+ * in its entirety before the next one so that similar values are next to each
+ * other, which makes the subsequent gzip compression far more effective.
+ * <ul>
+ * <li>Strings, which are mostly IDs, are dictionary encoded: the distinct
+ * values are written once and then each row is just an index.</li>
+ * <li>Times are delta encoded, so since the rows are ordered by time most
+ * values fit into one or two bytes.</li>
+ * <li>Coordinates are stored as fixed point integers.</li>
+ * <li>Integers use a variable length zig-zag encoding so that small positive
+ * and negative values take up little space.</li>
+ * </ul>
+ */
+class ColumnarEncoding {
+
+	// Coordinates are stored as millionths of a degree, which is about 0.1m
+	private static final double COORDINATE_SCALE = 1000000.0;
+
+	/********************** Member Functions **************************/
+
+	static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		// Zig-zag encode so that small negative values are small too
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Writes a column of strings using dictionary encoding. Nulls are OK.
+	 *
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	static void writeStrings(DataOutputStream out, String[] values)
+			throws IOException {
+		// Index 0 is reserved for null
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		int[] indices = new int[values.length];
+		String[] distinct = new String[values.length];
+		for (int i=0; i<values.length; ++i) {
+			if (values[i] == null)
+				continue;
+			Integer index = dictionary.get(values[i]);
+			if (index == null) {
+				index = dictionary.size() + 1;
+				dictionary.put(values[i], index);
+				distinct[index - 1] = values[i];
+			}
+			indices[i] = index;
+		}
+
+		writeVarLong(out, dictionary.size());
+		for (int i=0; i<dictionary.size(); ++i)
+			out.writeUTF(distinct[i]);
+		for (int index : indices)
+			writeVarLong(out, index);
+	}
+
+	/**
+	 * Reads a column written by writeStrings(). Since the dictionary is used
+	 * the rows share the String objects, which greatly reduces memory use.
+	 *
+	 * @param in
+	 * @param numRows
+	 * @return the strings
+	 * @throws IOException
+	 */
+	static String[] readStrings(DataInputStream in, int numRows)
+			throws IOException {
+		int dictionarySize = (int) readVarLong(in);
+		String[] dictionary = new String[dictionarySize + 1];
+		for (int i=1; i<=dictionarySize; ++i)
+			dictionary[i] = in.readUTF().intern();
+
+		String[] values = new String[numRows];
+		for (int i=0; i<numRows; ++i)
+			values[i] = dictionary[(int) readVarLong(in)];
+		return values;
+	}
+
+	/**
+	 * Writes a column of times, in msec, as deltas from the previous time
+	 *
+	 * @param out
+	 * @param times
+	 * @throws IOException
+	 */
+	static void writeTimes(DataOutputStream out, long[] times)
+			throws IOException {
+		long previous = 0;
+		for (long time : times) {
+			writeVarLong(out, time - previous);
+			previous = time;
+		}
+	}
+
+	static long[] readTimes(DataInputStream in, int numRows)
+			throws IOException {
+		long[] times = new long[numRows];
+		long previous = 0;
+		for (int i=0; i<numRows; ++i) {
+			previous += readVarLong(in);
+			times[i] = previous;
+		}
+		return times;
+	}
+
+	/**
+	 * Writes a column of optional times as offsets from the corresponding
+	 * reference times. Such times, like the scheduled time of an arrival, are
+	 * usually close to the reference time so the offsets are small. A null
+	 * time is written as a single zero byte.
+	 *
+	 * @param out
+	 * @param times
+	 *            Can contain nulls
+	 * @param referenceTimes
+	 * @throws IOException
+	 */
+	static void writeRelativeTimes(DataOutputStream out, Long[] times,
+			long[] referenceTimes) throws IOException {
+		for (int i=0; i<times.length; ++i) {
+			if (times[i] == null) {
+				out.writeBoolean(false);
+			} else {
+				out.writeBoolean(true);
+				writeVarLong(out, times[i] - referenceTimes[i]);
+			}
+		}
+	}
+
+	static Long[] readRelativeTimes(DataInputStream in, long[] referenceTimes)
+			throws IOException {
+		Long[] times = new Long[referenceTimes.length];
+		for (int i=0; i<times.length; ++i) {
+			if (in.readBoolean())
+				times[i] = referenceTimes[i] + readVarLong(in);
+		}
+		return times;
+	}
+
+	static void writeInts(DataOutputStream out, int[] values)
+			throws IOException {
+		for (int value : values)
+			writeVarLong(out, value);
+	}
+
+	static int[] readInts(DataInputStream in, int numRows)
+			throws IOException {
+		int[] values = new int[numRows];
+		for (int i=0; i<numRows; ++i)
+			values[i] = (int) readVarLong(in);
+		return values;
+	}
+
+	static void writeBooleans(DataOutputStream out, boolean[] values)
+			throws IOException {
+		for (boolean value : values)
+			out.writeBoolean(value);
+	}
+
+	static boolean[] readBooleans(DataInputStream in, int numRows)
+			throws IOException {
+		boolean[] values = new boolean[numRows];
+		for (int i=0; i<numRows; ++i)
+			values[i] = in.readBoolean();
+		return values;
+	}
+
+	static void writeFloats(DataOutputStream out, float[] values)
+			throws IOException {
+		for (float value : values)
+			out.writeFloat(value);
+	}
+
+	static float[] readFloats(DataInputStream in, int numRows)
+			throws IOException {
+		float[] values = new float[numRows];
+		for (int i=0; i<numRows; ++i)
+			values[i] = in.readFloat();
+		return values;
+	}
+
+	/**
+	 * Writes a column of latitudes or longitudes as fixed point integers
+	 *
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	static void writeCoordinates(DataOutputStream out, double[] values)
+			throws IOException {
+		for (double value : values)
+			writeVarLong(out, Math.round(value * COORDINATE_SCALE));
+	}
+
+	static double[] readCoordinates(DataInputStream in, int numRows)
+			throws IOException {
+		double[] values = new double[numRows];
+		for (int i=0; i<numRows; ++i)
+			values[i] = readVarLong(in) / COORDINATE_SCALE;
+		return values;
+	}
+}
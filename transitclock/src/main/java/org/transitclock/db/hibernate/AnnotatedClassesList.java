@@ -37,9 +37,11 @@ import org.transitclock.db.structs.MeasuredArrivalTime;
 import org.transitclock.db.structs.MonitoringEvent;
 import org.transitclock.db.structs.Prediction;
 import org.transitclock.db.structs.PredictionAccuracy;
+import org.transitclock.db.structs.PredictionAccuracyRollup;
 import org.transitclock.db.structs.PredictionEvent;
 import org.transitclock.db.structs.PredictionForStopPath;
 import org.transitclock.db.structs.Route;
+import org.transitclock.db.structs.ScheduleAdherenceRollup;
 import org.transitclock.db.structs.Stop;
 import org.transitclock.db.structs.StopPath;
 import org.transitclock.db.structs.Transfer;
@@ -92,7 +94,9 @@ public class AnnotatedClassesList {
 		MeasuredArrivalTime.class,
 		MonitoringEvent.class,
 		PredictionAccuracy.class,
+		PredictionAccuracyRollup.class,
 		Route.class,
+		ScheduleAdherenceRollup.class,
 		Stop.class,
 		StopPath.class,
 		Transfer.class,
@@ -0,0 +1,310 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.hibernate;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.db.structs.Match;
+import org.transitclock.db.structs.Prediction;
+import org.transitclock.db.structs.VehicleState;
+import org.transitclock.utils.MapKey;
+import org.transitclock.utils.Time;
+
+/**
+ * For reducing the amount of high volume data written to the database. Most
+ * predictions, matches, and vehicle states only differ from the previously
+ * written one for the same vehicle (and stop for predictions) by a few
+ * seconds. The filter keeps track of the last object written for each key
+ * and indicates that a new object should be written only if it differs
+ * significantly or if the maximum interval has elapsed since the last one
+ * was written.
+ * <p>
+ * Note that prediction accuracy is determined from the predictions in memory
+ * by the PredictionAccuracyModule and is therefore not affected by this
+ * filter.
+ *
+ * @param <T>
+ *            Type of object being filtered
+ */
+public abstract class ChangeOnlyFilter<T> {
+
+	// The last object that was written for each key
+	private final Map<Object, T> lastWrittenMap = new HashMap<Object, T>();
+
+	// For reporting how much the filter is reducing the writes
+	private final String name;
+	private long numReceived = 0;
+	private long numWritten = 0;
+	private long lastReportTime = 0;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(ChangeOnlyFilter.class);
+
+	/********************** Config Params **************************/
+
+	private static final BooleanConfigValue enabled =
+			new BooleanConfigValue("transitclock.db.changeOnlyFilter",
+					false,
+					"If true then predictions, matches, and vehicle states are "
+					+ "only written to the database if they differ "
+					+ "significantly from the previously written one for the "
+					+ "vehicle, or if the max interval has elapsed. Greatly "
+					+ "reduces the amount of data written. But note that "
+					+ "fewer matches are then available for processing "
+					+ "travel times.");
+
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	private static final IntegerConfigValue maxIntervalSecs =
+			new IntegerConfigValue("transitclock.db.changeOnlyMaxIntervalSecs",
+					300,
+					"When transitclock.db.changeOnlyFilter is set an object is "
+					+ "written at least this often even if it hasn't changed "
+					+ "significantly.");
+
+	private static final IntegerConfigValue predictionThresholdSecs =
+			new IntegerConfigValue(
+					"transitclock.db.changeOnlyPredictionThresholdSecs",
+					30,
+					"When transitclock.db.changeOnlyFilter is set a prediction "
+					+ "is written if the predicted time differs from the "
+					+ "previously written one by at least this much.");
+
+	private static final IntegerConfigValue matchThresholdMeters =
+			new IntegerConfigValue(
+					"transitclock.db.changeOnlyMatchThresholdMeters",
+					25,
+					"When transitclock.db.changeOnlyFilter is set a match is "
+					+ "written if the vehicle moved at least this far along "
+					+ "the stop path since the previously written match. "
+					+ "Matches for a different trip, stop path, or segment "
+					+ "are always written.");
+
+	private static final IntegerConfigValue vehicleStateThresholdSecs =
+			new IntegerConfigValue(
+					"transitclock.db.changeOnlyVehicleStateThresholdSecs",
+					60,
+					"When transitclock.db.changeOnlyFilter is set a vehicle "
+					+ "state is written if the schedule adherence differs "
+					+ "from the previously written one by at least this much. "
+					+ "Vehicle states where the assignment or status changed "
+					+ "are always written.");
+
+	// How often the reduction ratio is logged
+	private static final long REPORT_INTERVAL_MSEC = 10 * Time.MS_PER_MIN;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param name
+	 *            For logging
+	 */
+	protected ChangeOnlyFilter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the key that identifies which objects are compared to each
+	 *         other
+	 */
+	protected abstract Object getKey(T t);
+
+	/**
+	 * @return the time of the object in epoch msec
+	 */
+	protected abstract long getTime(T t);
+
+	/**
+	 * @return true if the current object differs significantly from the
+	 *         previously written one
+	 */
+	protected abstract boolean isSignificantChange(T previous, T current);
+
+	/**
+	 * Determines whether the object should be written to the database.
+	 *
+	 * @param t
+	 * @return true if the object should be written
+	 */
+	public synchronized boolean shouldWrite(T t) {
+		++numReceived;
+		long time = getTime(t);
+
+		Object key = getKey(t);
+		T previous = lastWrittenMap.get(key);
+		boolean shouldWrite = previous == null
+				|| time - getTime(previous) >=
+						maxIntervalSecs.getValue() * Time.MS_PER_SEC
+				|| time < getTime(previous)
+				|| isSignificantChange(previous, t);
+		if (shouldWrite) {
+			lastWrittenMap.put(key, t);
+			++numWritten;
+		}
+
+		if (time - lastReportTime >= REPORT_INTERVAL_MSEC) {
+			report();
+			removeOldEntries(time);
+			lastReportTime = time;
+		}
+
+		return shouldWrite;
+	}
+
+	/**
+	 * Logs how much the filter reduced the number of objects written
+	 */
+	private void report() {
+		if (numReceived == 0)
+			return;
+		logger.info("ChangeOnlyFilter for {} wrote {} of {} objects, a "
+				+ "reduction of {}%. Tracking {} keys.",
+				name, numWritten, numReceived,
+				String.format("%.1f", 100.0 * (numReceived - numWritten)
+						/ numReceived),
+				lastWrittenMap.size());
+	}
+
+	/**
+	 * Removes entries that haven't been written recently, such as for trips
+	 * that are done, so that the map doesn't keep growing.
+	 *
+	 * @param time
+	 */
+	private void removeOldEntries(long time) {
+		long oldestTime = time - 2 * maxIntervalSecs.getValue() * Time.MS_PER_SEC;
+		Iterator<T> iter = lastWrittenMap.values().iterator();
+		while (iter.hasNext()) {
+			if (getTime(iter.next()) < oldestTime)
+				iter.remove();
+		}
+	}
+
+	/**
+	 * Filter for predictions. Keyed on vehicle, trip, stop, and whether
+	 * arrival or departure.
+	 */
+	static class PredictionFilter extends ChangeOnlyFilter<Prediction> {
+		PredictionFilter() {
+			super(Prediction.class.getSimpleName());
+		}
+
+		@Override
+		protected Object getKey(Prediction p) {
+			return MapKey.create(p.getVehicleId(), p.getTripId(),
+					p.getGtfsStopSeq(), p.isArrival());
+		}
+
+		@Override
+		protected long getTime(Prediction p) {
+			return p.getCreationTime().getTime();
+		}
+
+		@Override
+		protected boolean isSignificantChange(Prediction previous,
+				Prediction current) {
+			return Math.abs(current.getPredictionTime().getTime()
+					- previous.getPredictionTime().getTime()) >=
+							predictionThresholdSecs.getValue() * Time.MS_PER_SEC
+					|| current.isAffectedByWaitStop() != previous.isAffectedByWaitStop()
+					|| current.isSchedBasedPred() != previous.isSchedBasedPred();
+		}
+	}
+
+	/**
+	 * Filter for matches. Keyed on vehicle.
+	 */
+	static class MatchFilter extends ChangeOnlyFilter<Match> {
+		MatchFilter() {
+			super(Match.class.getSimpleName());
+		}
+
+		@Override
+		protected Object getKey(Match m) {
+			return m.getVehicleId();
+		}
+
+		@Override
+		protected long getTime(Match m) {
+			return m.getTime();
+		}
+
+		@Override
+		protected boolean isSignificantChange(Match previous, Match current) {
+			return !Objects.equals(current.getTripId(), previous.getTripId())
+					|| current.getStopPathIndex() != previous.getStopPathIndex()
+					|| current.getSegmentIndex() != previous.getSegmentIndex()
+					|| current.isAtStop() != previous.isAtStop()
+					|| Math.abs(current.getDistanceAlongStopPath()
+							- previous.getDistanceAlongStopPath()) >=
+									matchThresholdMeters.getValue();
+		}
+	}
+
+	/**
+	 * Filter for vehicle states. Keyed on vehicle.
+	 */
+	static class VehicleStateFilter extends ChangeOnlyFilter<VehicleState> {
+		VehicleStateFilter() {
+			super(VehicleState.class.getSimpleName());
+		}
+
+		@Override
+		protected Object getKey(VehicleState vs) {
+			return vs.getVehicleId();
+		}
+
+		@Override
+		protected long getTime(VehicleState vs) {
+			return vs.getAvlTime().getTime();
+		}
+
+		@Override
+		protected boolean isSignificantChange(VehicleState previous,
+				VehicleState current) {
+			if (!Objects.equals(current.getBlockId(), previous.getBlockId())
+					|| !Objects.equals(current.getTripId(), previous.getTripId())
+					|| !Objects.equals(current.getRouteId(), previous.getRouteId())
+					|| !Objects.equals(current.getIsPredictable(), previous.getIsPredictable())
+					|| !Objects.equals(current.getIsDelayed(), previous.getIsDelayed())
+					|| !Objects.equals(current.getIsLayover(), previous.getIsLayover())
+					|| !Objects.equals(current.getIsWaitStop(), previous.getIsWaitStop())
+					|| !Objects.equals(current.getSchedAdhWithinBounds(),
+							previous.getSchedAdhWithinBounds())
+					|| !Objects.equals(current.getIsForSchedBasedPreds(),
+							previous.getIsForSchedBasedPreds()))
+				return true;
+
+			if (current.getSchedAdhMsec() == null
+					|| previous.getSchedAdhMsec() == null)
+				return current.getSchedAdhMsec() != previous.getSchedAdhMsec();
+			return Math.abs(current.getSchedAdhMsec()
+					- previous.getSchedAdhMsec()) >=
+							vehicleStateThresholdSecs.getValue() * Time.MS_PER_SEC;
+		}
+	}
+}
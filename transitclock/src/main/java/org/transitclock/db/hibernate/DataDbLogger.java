@@ -83,6 +83,12 @@ public class DataDbLogger {
   private DbQueue<VehicleEvent> vehicleEventQueue;
   private DbQueue<VehicleState> vehicleStateQueue;
   private DbQueue<Object> genericQueue;
+
+  // For only writing predictions, matches, and vehicle states that changed
+  // significantly. Null if transitclock.db.changeOnlyFilter not set.
+  private ChangeOnlyFilter<Prediction> predictionFilter;
+  private ChangeOnlyFilter<Match> matchFilter;
+  private ChangeOnlyFilter<VehicleState> vehicleStateFilter;
 	
 	private static final int QUEUE_CAPACITY = 5000000;
 	
@@ -183,6 +189,11 @@ public class DataDbLogger {
 	  vehicleStateQueue = new DbQueue<VehicleState>(agencyId, shouldStoreToDb, shouldPauseToReduceQueue, VehicleState.class.getSimpleName());
 	  genericQueue = new DbQueue<Object>(agencyId, shouldStoreToDb, shouldPauseToReduceQueue, Object.class.getSimpleName());
 		
+	  if (ChangeOnlyFilter.isEnabled()) {
+	    predictionFilter = new ChangeOnlyFilter.PredictionFilter();
+	    matchFilter = new ChangeOnlyFilter.MatchFilter();
+	    vehicleStateFilter = new ChangeOnlyFilter.VehicleStateFilter();
+	  }
 	}
 	
 	public boolean add(ArrivalDeparture ad) {
@@ -195,9 +206,13 @@ public class DataDbLogger {
 	  return vehicleConfigQueue.add(vc);
 	}
 	public boolean add(Prediction p) {
+	  if (predictionFilter != null && !predictionFilter.shouldWrite(p))
+	    return true;
 	  return predictionQueue.add(p);
 	}
   public boolean add(Match m) {
+    if (matchFilter != null && !matchFilter.shouldWrite(m))
+      return true;
 	  return matchQueue.add(m);
 	}
   public boolean add(PredictionAccuracy pa) {
@@ -210,6 +225,8 @@ public class DataDbLogger {
     return vehicleEventQueue.add(ve);
   }
   public boolean add(VehicleState vs) {
+    if (vehicleStateFilter != null && !vehicleStateFilter.shouldWrite(vs))
+      return true;
     return vehicleStateQueue.add(vs);
   }
 
@@ -0,0 +1,128 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.hibernate;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+
+/**
+ * For iterating over the results of a query that returns too many rows to
+ * read in at once with Query.list(). The rows are read from a forward only
+ * cursor a fetch size at a time. A StatelessSession is used so that the rows
+ * are not also kept in the first level cache of the session.
+ * <p>
+ * The cursor must be closed when done with it so that the session is closed.
+ * A HibernateException is thrown if there is a problem reading the rows.
+ *
+ * @param <T>
+ *            Type of object returned by the query
+ */
+public class DbCursor<T> implements Iterator<T>, Closeable {
+
+	private final StatelessSession session;
+	private final ScrollableResults results;
+	
+	// The row that has been read by hasNext() but not yet returned by next()
+	private T nextRow = null;
+	
+	/********************** Member Functions **************************/
+
+	private DbCursor(StatelessSession session, ScrollableResults results) {
+		this.session = session;
+		this.results = results;
+	}
+	
+	/**
+	 * Opens a cursor for the HQL query.
+	 * 
+	 * @param agencyId
+	 *            Used as the database name if the property
+	 *            transitclock.db.dbName is not set
+	 * @param hql
+	 *            The query. The parameters are set by the binder.
+	 * @param binder
+	 *            For setting the parameters of the query
+	 * @param fetchSize
+	 *            Number of rows to read from the db at a time
+	 * @return the open cursor
+	 * @throws HibernateException
+	 */
+	public static <T> DbCursor<T> open(String agencyId, String hql,
+			ParameterBinder binder, int fetchSize) throws HibernateException {
+		StatelessSession session = 
+				HibernateUtils.getSessionFactory(agencyId).openStatelessSession();
+		try {
+			Query query = session.createQuery(hql);
+			binder.bind(query);
+			query.setFetchSize(fetchSize);
+			return new DbCursor<T>(session, 
+					query.scroll(ScrollMode.FORWARD_ONLY));
+		} catch (HibernateException e) {
+			session.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * For setting the parameters of the query of a cursor
+	 */
+	public interface ParameterBinder {
+		void bind(Query query);
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean hasNext() {
+		if (nextRow == null && results.next())
+			nextRow = (T) results.get(0);
+		return nextRow != null;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T row = nextRow;
+		nextRow = null;
+		return row;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Closes the cursor and the session
+	 */
+	@Override
+	public void close() {
+		try {
+			results.close();
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -21,6 +21,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.configData.DbSetupConfig;
 import org.transitclock.logging.Markers;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Gauge;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.Time;
 import org.transitclock.utils.threading.NamedThreadFactory;
@@ -80,6 +84,11 @@ public class DbQueue<T> {
   private long throughputTimestamp = System.currentTimeMillis();
   private String shortType;
 
+  // Metrics, labeled by the shortType
+  private final Counter writtenCounter;
+  private final Counter droppedCounter;
+  private final Histogram commitTime;
+
   public DbQueue(String projectId, boolean shouldStoreToDb, 
       boolean shouldPauseToReduceQueue, String shortType) {
     this.projectId = projectId;
@@ -87,6 +96,23 @@ public class DbQueue<T> {
     this.shouldPauseToReduceQueue = shouldPauseToReduceQueue;
     this.shortType = shortType;
     
+    MetricsRegistry registry = MetricsRegistry.getInstance();
+    writtenCounter = registry.counter("transitclock_db_objects_written_total",
+        "Number of objects written to the db in batches", "queue", shortType);
+    droppedCounter = registry.counter("transitclock_db_objects_dropped_total",
+        "Number of objects lost because the db queue was full",
+        "queue", shortType);
+    commitTime = registry.histogram("transitclock_db_commit_seconds",
+        "How long committing a batch of objects to the db takes",
+        "queue", shortType);
+    registry.gauge("transitclock_db_queue_size",
+        "Number of objects waiting to be written to the db",
+        new Gauge() {
+          @Override
+          public double getValue() {
+            return queue.size();
+          }
+        }, "queue", shortType);
     
     // Create the reusable heavy weight session factory
     sessionFactory = HibernateUtils.getSessionFactory(projectId);
@@ -133,6 +159,7 @@ public class DbQueue<T> {
     
     // If losing data then log such
     if (!success) {
+      droppedCounter.increment();
       logger.error("DataDbLogger queue is now completely full for " +
           "projectId=" + projectId + "and type " + shortType + ". LOSING DATA!!! Failed to " +
           "store object=[" + t + "]");
@@ -251,9 +278,12 @@ public class DbQueue<T> {
 			logger.debug("Committing {} objects. {} objects still in queue.", 
 					objectsForThisBatch.size(), queueSize());			
 			IntervalTimer timer = new IntervalTimer();
+			long commitStartNanos = System.nanoTime();
 
 			// Actually do the commit
 			tx.commit();
+			commitTime.recordSince(commitStartNanos);
+			writtenCounter.add(objectsForThisBatch.size());
 			
 			// Sometimes useful for debugging via the console
 			//System.err.println(new Date() + " Done committing. Took " 
@@ -46,6 +46,7 @@ import org.transitclock.applications.Core;
 import org.transitclock.configData.AgencyConfig;
 import org.transitclock.configData.DbSetupConfig;
 import org.transitclock.core.TemporalDifference;
+import org.transitclock.db.hibernate.DbCursor;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.logging.Markers;
 import org.transitclock.utils.Geo;
@@ -302,6 +303,40 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 	public Date getFreqStartTime() {
 		return freqStartTime;
 	}
+	
+	/**
+	 * Constructor for when all of the members are already known, such as
+	 * when reading the data back in from an archive file instead of from
+	 * the db. The block is not available and is therefore null.
+	 */
+	protected ArrivalDeparture(String vehicleId, Date time, String stopId,
+			int gtfsStopSeq, boolean isArrival, String tripId, int configRev,
+			Date avlTime, Date scheduledTime, String blockId, String routeId,
+			String routeShortName, String serviceId, String directionId,
+			int tripIndex, Date freqStartTime, int stopPathIndex,
+			Integer stopOrder, float stopPathLength) {
+		this.vehicleId = vehicleId;
+		this.time = time;
+		this.stopId = stopId;
+		this.gtfsStopSeq = gtfsStopSeq;
+		this.isArrival = isArrival;
+		this.tripId = tripId;
+		this.configRev = configRev;
+		this.avlTime = avlTime;
+		this.scheduledTime = scheduledTime;
+		this.blockId = blockId;
+		this.routeId = routeId;
+		this.routeShortName = routeShortName;
+		this.serviceId = serviceId;
+		this.directionId = directionId;
+		this.tripIndex = tripIndex;
+		this.freqStartTime = freqStartTime;
+		this.stopPathIndex = stopPathIndex;
+		this.stopOrder = stopOrder;
+		this.stopPathLength = stopPathLength;
+		this.block = null;
+	}
+	
 	/**
 	 * Hibernate requires a no-arg constructor for reading objects
 	 * from database.
@@ -865,7 +900,40 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 		
 	}
 
-	
+	/**
+	 * Opens a cursor over the arrivals/departures for the specified time
+	 * range, ordered by time. Unlike getArrivalsDeparturesFromDb() the
+	 * results are not all read into memory at once, so this is for reading
+	 * in large amounts of historic data with a single query that can use the
+	 * time index. The cursor must be closed.
+	 * 
+	 * @param dbName
+	 *            Name of the database to retrieve data from
+	 * @param beginTime
+	 * @param endTime
+	 *            Inclusive
+	 * @param fetchSize
+	 *            Number of rows to read from the db at a time
+	 * @return the open cursor
+	 * @throws HibernateException
+	 *             if there is a problem reading the data
+	 */
+	public static DbCursor<ArrivalDeparture> openArrivalsDeparturesCursor(
+			String dbName, final Date beginTime, final Date endTime,
+			int fetchSize) throws HibernateException {
+		String hql = "FROM ArrivalDeparture " +
+				"    WHERE time between :beginDate " +
+				"      AND :endDate" +
+				"    ORDER BY time";
+		return DbCursor.open(dbName, hql, new DbCursor.ParameterBinder() {
+			@Override
+			public void bind(Query query) {
+				query.setTimestamp("beginDate", beginTime);
+				query.setTimestamp("endDate", endTime);
+			}
+		}, fetchSize);
+	}
+
 	/**
 	 * Same as other getArrivalsDeparturesFromDb() but uses
 	 * -Dtransitclock.db.dbName Java property to specify the name of the database.
@@ -953,6 +1021,10 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 		return routeId;
 	}
 
+	public String getRouteShortName() {
+		return routeShortName;
+	}
+
 	public String getServiceId() {
 		return serviceId;
 	}
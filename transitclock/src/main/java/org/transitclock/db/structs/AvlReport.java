@@ -16,6 +16,9 @@
  */
 package org.transitclock.db.structs;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
@@ -43,6 +46,7 @@ import org.transitclock.applications.Core;
 import org.transitclock.configData.AvlConfig;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.ipc.data.IpcAvl;
+import org.transitclock.monitoring.PipelineStage;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.Time;
 
@@ -171,6 +175,12 @@ public class AvlReport implements Serializable {
 	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
 	String field1Value;
 	
+	// For timing each stage of processing the AVL report. Indexed by the
+	// PipelineStage ordinal. Only meaningful within this process so not
+	// stored in db nor serialized. Lazily created.
+	@Transient
+	private transient long[] pipelineStageNanos;
+	
 	
 	// How long the AvlReport source field can be in db
 	private static final int SOURCE_LENGTH = 10;
@@ -963,7 +973,121 @@ public class AvlReport implements Serializable {
 	public boolean ignoreBecauseInConsist() {
 		return leadVehicleId != null;
 	}
-	
+
+	/**
+	 * Returns the System.nanoTime() at which the AVL report reached each
+	 * PipelineStage, indexed by the stage ordinal. A value of 0 means that
+	 * the stage hasn't been reached. For PipelineLatencyMonitor.
+	 *
+	 * @return the stage times
+	 */
+	public long[] getPipelineStageNanos() {
+		if (pipelineStageNanos == null)
+			pipelineStageNanos = new long[PipelineStage.values().length];
+		return pipelineStageNanos;
+	}
+
+	// Bits for writeCompact() indicating which optional members are set
+	private static final int HAS_SOURCE = 0x01;
+	private static final int HAS_ASSIGNMENT_ID = 0x02;
+	private static final int HAS_LEAD_VEHICLE_ID = 0x04;
+	private static final int HAS_DRIVER_ID = 0x08;
+	private static final int HAS_LICENSE_PLATE = 0x10;
+	private static final int HAS_PASSENGER_COUNT = 0x20;
+	private static final int HAS_FIELD1_NAME = 0x40;
+	private static final int HAS_FIELD1_VALUE = 0x80;
+
+	/**
+	 * Writes the AVL report in a compact binary form, for when sending many
+	 * AVL reports such as via JMS. Much smaller and faster than Java
+	 * serialization. Optional members that are not set are not written.
+	 * timeProcessed and the pipeline stage times are not written since they
+	 * are only meaningful within a process. Read with readCompact().
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeCompact(DataOutput out) throws IOException {
+		int flags = (source != null ? HAS_SOURCE : 0)
+				| (assignmentId != null ? HAS_ASSIGNMENT_ID : 0)
+				| (leadVehicleId != null ? HAS_LEAD_VEHICLE_ID : 0)
+				| (driverId != null ? HAS_DRIVER_ID : 0)
+				| (licensePlate != null ? HAS_LICENSE_PLATE : 0)
+				| (passengerCount != null ? HAS_PASSENGER_COUNT : 0)
+				| (field1Name != null ? HAS_FIELD1_NAME : 0)
+				| (field1Value != null ? HAS_FIELD1_VALUE : 0);
+		out.writeByte(flags);
+		out.writeUTF(vehicleId);
+		out.writeLong(time.getTime());
+		out.writeDouble(location.getLat());
+		out.writeDouble(location.getLon());
+		// Heading written as is since getHeading() depends on speed
+		out.writeFloat(speed != null ? speed : Float.NaN);
+		out.writeFloat(heading != null ? heading : Float.NaN);
+		out.writeFloat(passengerFullness != null ? 
+				passengerFullness : Float.NaN);
+		out.writeByte(assignmentType.ordinal());
+		if (source != null)
+			out.writeUTF(source);
+		if (assignmentId != null)
+			out.writeUTF(assignmentId);
+		if (leadVehicleId != null)
+			out.writeUTF(leadVehicleId);
+		if (driverId != null)
+			out.writeUTF(driverId);
+		if (licensePlate != null)
+			out.writeUTF(licensePlate);
+		if (passengerCount != null)
+			out.writeInt(passengerCount);
+		if (field1Name != null)
+			out.writeUTF(field1Name);
+		if (field1Value != null)
+			out.writeUTF(field1Value);
+	}
+
+	/**
+	 * Reads an AVL report that was written using writeCompact().
+	 * 
+	 * @param in
+	 * @return the AVL report
+	 * @throws IOException
+	 */
+	public static AvlReport readCompact(DataInput in) throws IOException {
+		int flags = in.readUnsignedByte();
+		String vehicleId = in.readUTF();
+		long time = in.readLong();
+		double lat = in.readDouble();
+		double lon = in.readDouble();
+		float speed = in.readFloat();
+		float heading = in.readFloat();
+		float passengerFullness = in.readFloat();
+		AssignmentType assignmentType = 
+				AssignmentType.values()[in.readUnsignedByte()];
+		String source = (flags & HAS_SOURCE) != 0 ? in.readUTF() : null;
+		String assignmentId = 
+				(flags & HAS_ASSIGNMENT_ID) != 0 ? in.readUTF() : null;
+		String leadVehicleId = 
+				(flags & HAS_LEAD_VEHICLE_ID) != 0 ? in.readUTF() : null;
+		String driverId = (flags & HAS_DRIVER_ID) != 0 ? in.readUTF() : null;
+		String licensePlate = 
+				(flags & HAS_LICENSE_PLATE) != 0 ? in.readUTF() : null;
+		Integer passengerCount = 
+				(flags & HAS_PASSENGER_COUNT) != 0 ? in.readInt() : null;
+		String field1Name = 
+				(flags & HAS_FIELD1_NAME) != 0 ? in.readUTF() : null;
+		String field1Value = 
+				(flags & HAS_FIELD1_VALUE) != 0 ? in.readUTF() : null;
+		
+		AvlReport avlReport = new AvlReport(vehicleId, time, lat, lon, speed,
+				heading, source, leadVehicleId, driverId, licensePlate,
+				passengerCount, passengerFullness);
+		avlReport.assignmentId = assignmentId;
+		avlReport.assignmentType = assignmentType;
+		avlReport.field1Name = field1Name;
+		avlReport.field1Value = field1Value;
+		return avlReport;
+	}
+
 	public String getDriverId() {
 		return driverId;
 	}
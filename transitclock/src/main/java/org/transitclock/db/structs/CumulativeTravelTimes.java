@@ -0,0 +1,197 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.db.structs;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cumulative travel and stop times for a trip so that the expected travel
+ * time between two positions on the trip can be determined with a couple of
+ * array lookups instead of summing up the TravelTimesForStopPath for every
+ * stop path and travel time segment in between. Heavily used by temporal
+ * matching which determines travel times for every candidate match.
+ * <p>
+ * Built from the TravelTimesForTrip of the trip. Since the trip is specific
+ * to a config revision and the TravelTimesForTrip to a travel times
+ * revision, a new one is created by Trip.getCumulativeTravelTimes() if the
+ * travel times for the trip are changed. Immutable once constructed.
+ */
+public class CumulativeTravelTimes {
+
+	// What the times were built from
+	private final TravelTimesForTrip travelTimesForTrip;
+
+	// Expected msec from the beginning of the trip to the beginning of each
+	// stop path, including the stop times of the previous stops. Has an
+	// additional element for the end of the trip, after the last stop time.
+	private final int[] stopPathStartMsec;
+
+	// For each stop path the expected msec from the beginning of the stop
+	// path to the beginning of each travel time segment. Has an additional
+	// element for the end of the stop path so the last element is the
+	// travel time for the stop path.
+	private final int[][] segmentStartMsec;
+
+	// Indices of the stop paths whose stop is a wait stop, in increasing
+	// order, since the travel time is adjusted for the schedule there
+	private final int[] waitStopIndices;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Builds the cumulative times for the trip from its current
+	 * TravelTimesForTrip.
+	 * 
+	 * @param trip
+	 */
+	public CumulativeTravelTimes(Trip trip) {
+		this(trip.getTravelTimes(),
+				trip.getTravelTimes().getTravelTimesForStopPaths(),
+				trip.getStopPaths());
+	}
+
+	/**
+	 * Builds the cumulative times from the travel times for each stop path.
+	 * 
+	 * @param travelTimesForTrip
+	 *            What the travel times are from, for isFor()
+	 * @param travelTimesForStopPaths
+	 * @param stopPaths
+	 *            For determining the wait stops
+	 */
+	CumulativeTravelTimes(TravelTimesForTrip travelTimesForTrip,
+			List<TravelTimesForStopPath> travelTimesForStopPaths,
+			List<StopPath> stopPaths) {
+		this.travelTimesForTrip = travelTimesForTrip;
+		int numStopPaths = travelTimesForStopPaths.size();
+
+		stopPathStartMsec = new int[numStopPaths + 1];
+		segmentStartMsec = new int[numStopPaths][];
+		int[] waitStops = new int[numStopPaths];
+		int numWaitStops = 0;
+		for (int i = 0; i < numStopPaths; ++i) {
+			TravelTimesForStopPath travelTimes =
+					travelTimesForStopPaths.get(i);
+			int numSegments = travelTimes.getNumberTravelTimeSegments();
+			int[] segmentStarts = new int[numSegments + 1];
+			for (int j = 0; j < numSegments; ++j) {
+				segmentStarts[j + 1] = segmentStarts[j]
+						+ travelTimes.getTravelTimeSegmentMsec(j);
+			}
+			segmentStartMsec[i] = segmentStarts;
+
+			stopPathStartMsec[i + 1] = stopPathStartMsec[i]
+					+ segmentStarts[numSegments]
+					+ travelTimes.getStopTimeMsec();
+
+			if (i < stopPaths.size() && stopPaths.get(i).isWaitStop())
+				waitStops[numWaitStops++] = i;
+		}
+		waitStopIndices = Arrays.copyOf(waitStops, numWaitStops);
+	}
+
+	/**
+	 * @param travelTimes
+	 * @return true if these cumulative times were built from the specified
+	 *         TravelTimesForTrip and are therefore still current
+	 */
+	public boolean isFor(TravelTimesForTrip travelTimes) {
+		return travelTimesForTrip == travelTimes;
+	}
+
+	/**
+	 * @param stopPathIndex
+	 * @return number of travel time segments for the stop path
+	 */
+	public int getNumberTravelTimeSegments(int stopPathIndex) {
+		return segmentStartMsec[stopPathIndex].length - 1;
+	}
+
+	/**
+	 * @param stopPathIndex
+	 * @param segmentIndex
+	 * @return travel time in msec for the travel time segment
+	 */
+	public int getTravelTimeSegmentMsec(int stopPathIndex, int segmentIndex) {
+		int[] segmentStarts = segmentStartMsec[stopPathIndex];
+		return segmentStarts[segmentIndex + 1] - segmentStarts[segmentIndex];
+	}
+
+	/**
+	 * @param stopPathIndex
+	 * @return travel time in msec for the whole stop path, not including
+	 *         the stop time
+	 */
+	public int getStopPathTravelTimeMsec(int stopPathIndex) {
+		int[] segmentStarts = segmentStartMsec[stopPathIndex];
+		return segmentStarts[segmentStarts.length - 1];
+	}
+
+	/**
+	 * @param stopPathIndex
+	 * @return stop time in msec for the stop at the end of the stop path
+	 */
+	public int getStopTimeMsec(int stopPathIndex) {
+		return stopPathStartMsec[stopPathIndex + 1]
+				- stopPathStartMsec[stopPathIndex]
+				- getStopPathTravelTimeMsec(stopPathIndex);
+	}
+
+	/**
+	 * Returns the travel time from the beginning of the stop path to the
+	 * specified travel time segment, not including the segment itself.
+	 * 
+	 * @param stopPathIndex
+	 * @param segmentIndex
+	 * @return travel time in msec
+	 */
+	public int getTimeToSegmentMsec(int stopPathIndex, int segmentIndex) {
+		return segmentStartMsec[stopPathIndex][segmentIndex];
+	}
+
+	/**
+	 * Returns the expected time from the beginning of stop path
+	 * fromStopPathIndex to the beginning of stop path toStopPathIndex,
+	 * including travel and stop times but not adjusted for wait stops.
+	 * 
+	 * @param fromStopPathIndex
+	 * @param toStopPathIndex
+	 *            Can be number of stop paths to get the time to the end of
+	 *            the trip
+	 * @return time in msec
+	 */
+	public int getTimeBetweenStopPathsMsec(int fromStopPathIndex,
+			int toStopPathIndex) {
+		return stopPathStartMsec[toStopPathIndex]
+				- stopPathStartMsec[fromStopPathIndex];
+	}
+
+	/**
+	 * Returns the index of the first stop path at or after stopPathIndex
+	 * whose stop is a wait stop.
+	 * 
+	 * @param stopPathIndex
+	 * @return stop path index of the wait stop, or -1 if there isn't one
+	 */
+	public int getNextWaitStopIndex(int stopPathIndex) {
+		int i = Arrays.binarySearch(waitStopIndices, stopPathIndex);
+		if (i < 0)
+			i = -i - 1;
+		return i < waitStopIndices.length ? waitStopIndices[i] : -1;
+	}
+}
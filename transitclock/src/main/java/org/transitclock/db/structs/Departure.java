@@ -57,6 +57,22 @@ public class Departure extends ArrivalDeparture {
 		super(configRev, vehicleId, time, avlTime, block, tripIndex, stopPathIndex, 
 				false, freqStartTime); // isArrival
 	}
+	/**
+	 * Constructor for when all of the members are already known, such as
+	 * when reading the data back in from an archive file.
+	 */
+	public Departure(String vehicleId, Date time, String stopId,
+			int gtfsStopSeq, String tripId, int configRev, Date avlTime,
+			Date scheduledTime, String blockId, String routeId,
+			String routeShortName, String serviceId, String directionId,
+			int tripIndex, Date freqStartTime, int stopPathIndex,
+			Integer stopOrder, float stopPathLength) {
+		super(vehicleId, time, stopId, gtfsStopSeq, false, tripId, configRev,
+				avlTime, scheduledTime, blockId, routeId, routeShortName,
+				serviceId, directionId, tripIndex, freqStartTime,
+				stopPathIndex, stopOrder, stopPathLength); // isArrival
+	}
+	
 	/**
 	 * Hibernate always wants a no-arg constructor. Made private since 
 	 * it shouldn't normally be used.
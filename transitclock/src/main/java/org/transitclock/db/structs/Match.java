@@ -41,6 +41,7 @@ import org.slf4j.LoggerFactory;
 import org.transitclock.applications.Core;
 import org.transitclock.core.TemporalMatch;
 import org.transitclock.core.VehicleState;
+import org.transitclock.db.hibernate.DbCursor;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.IntervalTimer;
@@ -162,6 +163,28 @@ public class Match implements Lifecycle, Serializable {
 		logger.info(this.toString());
 	}
 
+	/**
+	 * Constructor for when all of the members are already known, such as
+	 * when reading the data back in from an archive file instead of from
+	 * the db.
+	 */
+	public Match(String vehicleId, Date avlTime, int configRev,
+			String serviceId, String blockId, String tripId,
+			int stopPathIndex, int segmentIndex, float distanceAlongSegment,
+			float distanceAlongStopPath, boolean atStop) {
+		this.vehicleId = vehicleId;
+		this.avlTime = avlTime;
+		this.configRev = configRev;
+		this.serviceId = serviceId;
+		this.blockId = blockId;
+		this.tripId = tripId;
+		this.stopPathIndex = stopPathIndex;
+		this.segmentIndex = segmentIndex;
+		this.distanceAlongSegment = distanceAlongSegment;
+		this.distanceAlongStopPath = distanceAlongStopPath;
+		this.atStop = atStop;
+	}
+
 	/**
 	 * Hibernate requires a no-args constructor for reading data.
 	 * So this is an experiment to see what can be done to satisfy
@@ -346,6 +369,39 @@ public class Match implements Lifecycle, Serializable {
 		}
 	}
 
+	/**
+	 * Opens a cursor over the matches that are not at a stop for the
+	 * specified time range, ordered by avlTime. The matches are not all read
+	 * into memory at once, so this is for reading in large amounts of
+	 * historic data with a single query. The cursor must be closed.
+	 * 
+	 * @param projectId
+	 * @param beginTime
+	 * @param endTime
+	 *            Inclusive
+	 * @param fetchSize
+	 *            Number of rows to read from the db at a time
+	 * @return the open cursor
+	 * @throws HibernateException
+	 *             if there is a problem reading the data
+	 */
+	public static DbCursor<Match> openMatchesCursor(String projectId,
+			final Date beginTime, final Date endTime, int fetchSize) 
+					throws HibernateException {
+		String hql = "FROM Match " +
+				"    WHERE avlTime between :beginDate " +
+				"      AND :endDate" +
+				"      AND atStop = false" +
+				"    ORDER BY avlTime";
+		return DbCursor.open(projectId, hql, new DbCursor.ParameterBinder() {
+			@Override
+			public void bind(Query query) {
+				query.setTimestamp("beginDate", beginTime);
+				query.setTimestamp("endDate", endTime);
+			}
+		}, fetchSize);
+	}
+
 	public static Long getMatchesCountFromDb(
 			String projectId, Date beginTime, Date endTime, 
 			String sqlClause) {
@@ -0,0 +1,234 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.structs;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.DynamicUpdate;
+import org.transitclock.db.hibernate.HibernateUtils;
+import org.transitclock.utils.HistogramUtils;
+
+/**
+ * A database object for persisting prediction accuracy data that has been
+ * rolled up per hour, route, direction, stop, prediction length bucket, and
+ * prediction source. Instead of the individual accuracy values a histogram of
+ * the accuracy, in seconds, is stored. This way reports covering long time
+ * ranges don't need to read and aggregate every PredictionAccuracy row.
+ * <p>
+ * The rows are additive. There can be multiple rows for the same hour and
+ * dimensions, such as when data for an hour is written in more than one
+ * batch, and queries simply need to combine them.
+ *
+ */
+@Entity @DynamicUpdate
+@Table(name="PredictionAccuracyRollups",
+       indexes = { @Index(name="PredAccuracyRollupsHourIndex",
+                   columnList="hourStart" ) } )
+public class PredictionAccuracyRollup implements Serializable {
+
+	// Predictions are grouped into buckets by their length. Each bucket
+	// is centered on a multiple of the bucket size so bucket 2 is for
+	// predictions between 45 and 75 seconds.
+	public static final int PRED_LENGTH_BUCKET_SIZE_SECS = 30;
+
+	// Predictions at least this long are all put into the
+	// BEYOND_MAX_PRED_LENGTH_BUCKET
+	public static final int MAX_PRED_LENGTH_SECS = 900;
+
+	public static final int BEYOND_MAX_PRED_LENGTH_BUCKET = -1;
+
+	// Need an ID but using regular columns doesn't really make
+	// sense. So use an auto generated one. Not final since
+	// autogenerated and therefore not set in constructor.
+	@Id
+	@GeneratedValue(strategy=GenerationType.AUTO)
+	private long id;
+
+	// The start of the hour of the arrival/departure times
+	@Column
+	@Temporal(TemporalType.TIMESTAMP)
+	private final Date hourStart;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeId;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeShortName;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String directionId;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String stopId;
+
+	// See getPredLengthBucket()
+	@Column
+	private final int predLengthBucket;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String predictionSource;
+
+	@Column
+	private final Boolean affectedByWaitStop;
+
+	// Total number of predictions in the histogram
+	@Column
+	private final int numPredictions;
+
+	// Histogram of prediction accuracy in seconds. See
+	// HistogramUtils.format()
+	@Column(length=HistogramUtils.MAX_STRING_LENGTH)
+	private final String histogram;
+
+	private static final long serialVersionUID = -1788236813616418617L;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Simple constructor for creating object to be stored in db
+	 *
+	 * @param hourStart
+	 * @param routeId
+	 * @param routeShortName
+	 * @param directionId
+	 * @param stopId
+	 * @param predLengthBucket
+	 * @param predictionSource
+	 * @param affectedByWaitStop
+	 * @param numPredictions
+	 * @param histogram
+	 */
+	public PredictionAccuracyRollup(Date hourStart, String routeId,
+			String routeShortName, String directionId, String stopId,
+			int predLengthBucket, String predictionSource,
+			Boolean affectedByWaitStop, int numPredictions, String histogram) {
+		this.hourStart = hourStart;
+		this.routeId = routeId;
+		this.routeShortName = routeShortName;
+		this.directionId = directionId;
+		this.stopId = stopId;
+		this.predLengthBucket = predLengthBucket;
+		this.predictionSource = predictionSource;
+		this.affectedByWaitStop = affectedByWaitStop;
+		this.numPredictions = numPredictions;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Hibernate requires a no-arg constructor for reading objects
+	 * from database.
+	 */
+	protected PredictionAccuracyRollup() {
+		this.hourStart = null;
+		this.routeId = null;
+		this.routeShortName = null;
+		this.directionId = null;
+		this.stopId = null;
+		this.predLengthBucket = -1;
+		this.predictionSource = null;
+		this.affectedByWaitStop = null;
+		this.numPredictions = 0;
+		this.histogram = null;
+	}
+
+	/**
+	 * Returns the prediction length bucket for the prediction length. Each
+	 * bucket is for an easily understood value, such as 1 minute, and covers
+	 * the predictions within half a bucket of that value. Predictions that are
+	 * at least MAX_PRED_LENGTH_SECS long are put into
+	 * BEYOND_MAX_PRED_LENGTH_BUCKET.
+	 *
+	 * @param predLengthMsecs
+	 * @return the bucket
+	 */
+	public static int getPredLengthBucket(int predLengthMsecs) {
+		int predLengthSecs = Math.abs(predLengthMsecs / 1000);
+		if (predLengthSecs >= MAX_PRED_LENGTH_SECS)
+			return BEYOND_MAX_PRED_LENGTH_BUCKET;
+		return (predLengthSecs + PRED_LENGTH_BUCKET_SIZE_SECS / 2)
+				/ PRED_LENGTH_BUCKET_SIZE_SECS;
+	}
+
+	@Override
+	public String toString() {
+		return "PredictionAccuracyRollup ["
+				+ "hourStart=" + hourStart
+				+ ", routeId=" + routeId
+				+ ", routeShortName=" + routeShortName
+				+ ", directionId=" + directionId
+				+ ", stopId=" + stopId
+				+ ", predLengthBucket=" + predLengthBucket
+				+ ", predictionSource=" + predictionSource
+				+ ", affectedByWaitStop=" + affectedByWaitStop
+				+ ", numPredictions=" + numPredictions
+				+ ", histogram=" + histogram
+				+ "]";
+	}
+
+	public Date getHourStart() {
+		return hourStart;
+	}
+
+	public String getRouteId() {
+		return routeId;
+	}
+
+	public String getRouteShortName() {
+		return routeShortName;
+	}
+
+	public String getDirectionId() {
+		return directionId;
+	}
+
+	public String getStopId() {
+		return stopId;
+	}
+
+	public int getPredLengthBucket() {
+		return predLengthBucket;
+	}
+
+	public String getPredictionSource() {
+		return predictionSource;
+	}
+
+	public Boolean isAffectedByWaitStop() {
+		return affectedByWaitStop;
+	}
+
+	public int getNumPredictions() {
+		return numPredictions;
+	}
+
+	public String getHistogram() {
+		return histogram;
+	}
+
+}
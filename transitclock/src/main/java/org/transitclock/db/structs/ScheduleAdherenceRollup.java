@@ -0,0 +1,243 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.db.structs;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.DynamicUpdate;
+import org.transitclock.db.hibernate.HibernateUtils;
+import org.transitclock.utils.HistogramUtils;
+
+/**
+ * A database object for persisting schedule adherence that has been rolled up
+ * per service day, hour, route, direction, stop, stop order, and whether it is
+ * for arrivals or departures. The
+ * number of arrivals/departures and the sum of their schedule adherence are
+ * stored so that averages can be determined. A histogram of the schedule
+ * adherence, in seconds, is also stored so that the number of early, on time,
+ * and late arrivals/departures can be determined for any limits. This way the
+ * schedule adherence reports don't need to aggregate every ArrivalDeparture
+ * row.
+ * <p>
+ * Schedule adherence is the arrival/departure time minus the scheduled time
+ * so a positive value means that the vehicle was late.
+ * <p>
+ * The service date is the day of the service that the trip belongs to, which
+ * for trips that go past midnight is the day before the arrival/departure.
+ * The hour of the day is for the time zone of the agency so that reports can
+ * filter by time of day in the query.
+ * <p>
+ * The rows are additive. There can be multiple rows for the same hour and
+ * dimensions and queries simply need to combine them.
+ *
+ */
+@Entity @DynamicUpdate
+@Table(name="ScheduleAdherenceRollups",
+       indexes = { @Index(name="SchedAdhRollupsDateIndex",
+                   columnList="serviceDate" ) } )
+public class ScheduleAdherenceRollup implements Serializable {
+
+	// Need an ID but using regular columns doesn't really make
+	// sense. So use an auto generated one. Not final since
+	// autogenerated and therefore not set in constructor.
+	@Id
+	@GeneratedValue(strategy=GenerationType.AUTO)
+	private long id;
+
+	// The service day of the trips for the arrivals/departures
+	@Column
+	@Temporal(TemporalType.DATE)
+	private final Date serviceDate;
+
+	// The start of the hour of the arrival/departure times
+	@Column
+	@Temporal(TemporalType.TIMESTAMP)
+	private final Date hourStart;
+
+	// The hour of the day, 0 to 23, of hourStart in the agency time zone
+	@Column
+	private final int hourOfDay;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeId;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeShortName;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String directionId;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String stopId;
+
+	// The order of the stop for the direction of the route, so that reports
+	// by stop can be ordered. Null if not known.
+	@Column
+	private final Integer stopOrder;
+
+	@Column
+	private final boolean isArrival;
+
+	// Total number of arrivals/departures in the histogram
+	@Column
+	private final int numArrivalsDepartures;
+
+	@Column
+	private final long sumAdherenceSecs;
+
+	// Histogram of schedule adherence in seconds. See
+	// HistogramUtils.format()
+	@Column(length=HistogramUtils.MAX_STRING_LENGTH)
+	private final String histogram;
+
+	private static final long serialVersionUID = 5227810374405263417L;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Simple constructor for creating object to be stored in db
+	 *
+	 * @param serviceDate
+	 * @param hourStart
+	 * @param hourOfDay
+	 * @param routeId
+	 * @param routeShortName
+	 * @param directionId
+	 * @param stopId
+	 * @param stopOrder
+	 * @param isArrival
+	 * @param numArrivalsDepartures
+	 * @param sumAdherenceSecs
+	 * @param histogram
+	 */
+	public ScheduleAdherenceRollup(Date serviceDate, Date hourStart,
+			int hourOfDay, String routeId, String routeShortName,
+			String directionId, String stopId, Integer stopOrder,
+			boolean isArrival, int numArrivalsDepartures,
+			long sumAdherenceSecs, String histogram) {
+		this.serviceDate = serviceDate;
+		this.hourStart = hourStart;
+		this.hourOfDay = hourOfDay;
+		this.routeId = routeId;
+		this.routeShortName = routeShortName;
+		this.directionId = directionId;
+		this.stopId = stopId;
+		this.stopOrder = stopOrder;
+		this.isArrival = isArrival;
+		this.numArrivalsDepartures = numArrivalsDepartures;
+		this.sumAdherenceSecs = sumAdherenceSecs;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Hibernate requires a no-arg constructor for reading objects
+	 * from database.
+	 */
+	protected ScheduleAdherenceRollup() {
+		this.serviceDate = null;
+		this.hourStart = null;
+		this.hourOfDay = 0;
+		this.routeId = null;
+		this.routeShortName = null;
+		this.directionId = null;
+		this.stopId = null;
+		this.stopOrder = null;
+		this.isArrival = false;
+		this.numArrivalsDepartures = 0;
+		this.sumAdherenceSecs = 0;
+		this.histogram = null;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduleAdherenceRollup ["
+				+ "serviceDate=" + serviceDate
+				+ ", hourStart=" + hourStart
+				+ ", hourOfDay=" + hourOfDay
+				+ ", routeId=" + routeId
+				+ ", routeShortName=" + routeShortName
+				+ ", directionId=" + directionId
+				+ ", stopId=" + stopId
+				+ ", stopOrder=" + stopOrder
+				+ ", isArrival=" + isArrival
+				+ ", numArrivalsDepartures=" + numArrivalsDepartures
+				+ ", sumAdherenceSecs=" + sumAdherenceSecs
+				+ ", histogram=" + histogram
+				+ "]";
+	}
+
+	public Date getServiceDate() {
+		return serviceDate;
+	}
+
+	public Date getHourStart() {
+		return hourStart;
+	}
+
+	public int getHourOfDay() {
+		return hourOfDay;
+	}
+
+	public String getRouteId() {
+		return routeId;
+	}
+
+	public String getRouteShortName() {
+		return routeShortName;
+	}
+
+	public String getDirectionId() {
+		return directionId;
+	}
+
+	public String getStopId() {
+		return stopId;
+	}
+
+	public Integer getStopOrder() {
+		return stopOrder;
+	}
+
+	public boolean isArrival() {
+		return isArrival;
+	}
+
+	public int getNumArrivalsDepartures() {
+		return numArrivalsDepartures;
+	}
+
+	public long getSumAdherenceSecs() {
+		return sumAdherenceSecs;
+	}
+
+	public String getHistogram() {
+		return histogram;
+	}
+
+}
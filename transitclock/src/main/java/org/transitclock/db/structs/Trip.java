@@ -162,6 +162,11 @@ public class Trip implements Lifecycle, Serializable {
 
 	@Transient
 	private Route route;
+
+	// For quickly determining travel times between positions on the trip.
+	// Built when first needed and rebuilt if the travel times are changed.
+	@Transient
+	private transient volatile CumulativeTravelTimes cumulativeTravelTimes = null;
 	
 	// Note: though trip_short_name and wheelchair_accessible are available
 	// as part of the GTFS spec and in a GtfsTrip object, they are not
@@ -485,6 +490,33 @@ public class Trip implements Lifecycle, Serializable {
 		return tripsMap;
 	}
 
+	/**
+	 * Returns the ID of the TravelTimesForTrip used by each Trip for the
+	 * specified configRev. Only the IDs are read instead of the whole Trips
+	 * so is much quicker than getTrips(). For incremental processing of GTFS
+	 * data so that travel times can be carried forward.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @return map of TravelTimesForTrip IDs, keyed on trip ID
+	 * @throws HibernateException
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Integer> getTravelTimesIds(Session session,
+			int configRev) throws HibernateException {
+		String hql = "SELECT t.tripId, t.travelTimes.id FROM Trip t " +
+				"    WHERE t.configRev = :configRev";
+		Query query = session.createQuery(hql);
+		query.setInteger("configRev", configRev);
+		List<Object[]> results = query.list();
+
+		Map<String, Integer> travelTimesIds = new HashMap<String, Integer>();
+		for (Object[] result : results) {
+			travelTimesIds.put((String) result[0], (Integer) result[1]);
+		}
+		return travelTimesIds;
+	}
+
 	/**
 	 * Returns specified Trip object for the specified configRev and tripId.
 	 * 
@@ -1056,6 +1088,22 @@ public class Trip implements Lifecycle, Serializable {
 	public TravelTimesForStopPath getTravelTimesForStopPath(int stopPathIndex) {
 		return travelTimes.getTravelTimesForStopPath(stopPathIndex);
 	}
+
+	/**
+	 * Returns the cumulative travel and stop times for the trip. They are
+	 * built the first time needed and whenever the travel times for the
+	 * trip have been changed.
+	 * 
+	 * @return the CumulativeTravelTimes for the current travel times
+	 */
+	public CumulativeTravelTimes getCumulativeTravelTimes() {
+		CumulativeTravelTimes cumulative = cumulativeTravelTimes;
+		if (cumulative == null || !cumulative.isFor(travelTimes)) {
+			cumulative = new CumulativeTravelTimes(this);
+			cumulativeTravelTimes = cumulative;
+		}
+		return cumulative;
+	}
 	
 	/**
 	 * Returns length of the trip from the first terminal to the last.
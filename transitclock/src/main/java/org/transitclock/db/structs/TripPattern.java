@@ -99,6 +99,13 @@ public class TripPattern implements Serializable, Lifecycle {
 	@Embedded
 	private final Extent extent;
 	
+	// Fingerprint of the GTFS data used to determine the stop paths, such 
+	// as the shape and the stop locations. Used for incremental GTFS 
+	// processing so that the stop paths don't need to be determined again 
+	// if nothing changed. Can be null for older revisions.
+	@Column
+	private Long inputFingerprint;
+	
 	// So know which trips use this trip pattern
 	@Transient
 	private List<Trip> trips = new ArrayList<Trip>();
@@ -763,6 +770,24 @@ public class TripPattern implements Serializable, Lifecycle {
 		return routeShortName;
 	}
 	
+	/**
+	 * @return Fingerprint of the GTFS data used to determine the stop paths.
+	 *         Can be null if not set for the config rev.
+	 */
+	public Long getInputFingerprint() {
+		return inputFingerprint;
+	}
+	
+	/**
+	 * For when processing GTFS data. Sets fingerprint of the GTFS data
+	 * used to determine the stop paths.
+	 * 
+	 * @param inputFingerprint
+	 */
+	public void setInputFingerprint(Long inputFingerprint) {
+		this.inputFingerprint = inputFingerprint;
+	}
+	
 	/**
 	 * For modifying the headsign. Useful for when reading in GTFS data and
 	 * determine that the headsign should be modified because it is for a
@@ -20,19 +20,36 @@ package org.transitclock.feed.gtfsRt;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
-
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.db.structs.AvlReport.AssignmentType;
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.MathUtils;
-import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.Position;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
@@ -44,6 +61,11 @@ import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
  * AvlReport objects. This class should be inherited from such that
  * handleAvlReport() of the superclass will process the AVL data one report at a
  * time. This way don't have to fill up memory with a giant list of AvlReports.
+ * <p>
+ * The feed is decoded one FeedEntity at a time instead of parsing the entire
+ * FeedMessage into memory. If the same reader is used to read a feed
+ * repeatedly it can skip vehicles whose timestamp hasn't advanced since the
+ * previous read, so that large feeds can be polled frequently.
  * 
  * @author SkiBu Smith
  * 
@@ -52,13 +74,64 @@ public abstract class GtfsRtVehiclePositionsReaderBase {
 
 	private final String urlString;
 	
+	// Whether to skip vehicles whose timestamp hasn't advanced
+	private final boolean skipUnchanged;
+	
+	// The VehiclePosition timestamp previously read, keyed on vehicle ID.
+	// Vehicle ID is used since some feeds assign new entity IDs each time
+	// the feed is generated.
+	private final Map<String, Long> previousTimestamps =
+			new ConcurrentHashMap<String, Long>();
+	
+	// The vehicle ID for each entity ID, since DIFFERENTIAL feeds delete
+	// vehicles by entity ID
+	private final Map<String, String> entityToVehicle =
+			new ConcurrentHashMap<String, String>();
+	
+	private static ExecutorService parseExecutor = null;
+	
+	private static final Counter unchangedCounter =
+			MetricsRegistry.getInstance().counter(
+					"transitclock_avl_gtfsrt_unchanged_total",
+					"Number of GTFS-realtime vehicle positions skipped "
+					+ "because the timestamp hadn't advanced");
+	
+	/*********** Configurable Parameters for this module ***********/
+	private static IntegerConfigValue parseThreads =
+			new IntegerConfigValue("transitclock.avl.gtfsRealtimeParseThreads",
+					1,
+					"Number of threads for parsing the entities of a "
+					+ "GTFS-realtime vehicle positions feed. Useful for large "
+					+ "regional feeds. If 1 then the entities are parsed by "
+					+ "the thread reading the feed.");
+	
+	private static IntegerConfigValue entitiesPerTask =
+			new IntegerConfigValue(
+					"transitclock.avl.gtfsRealtimeEntitiesPerTask",
+					500,
+					"Number of GTFS-realtime entities parsed together as a "
+					+ "task by a parse thread.");
+	
 	private static final Logger logger = LoggerFactory
 			.getLogger(GtfsRtVehiclePositionsReaderBase.class);
 
 	/********************** Member Functions **************************/
 
 	public GtfsRtVehiclePositionsReaderBase(String urlString) {
+		this(urlString, false);
+	}
+	
+	/**
+	 * @param urlString
+	 *            URL of GTFS-realtime feed
+	 * @param skipUnchanged
+	 *            If true then vehicles whose timestamp hasn't advanced since
+	 *            the previous time process() was called are skipped
+	 */
+	public GtfsRtVehiclePositionsReaderBase(String urlString,
+			boolean skipUnchanged) {
 		this.urlString = urlString;
+		this.skipUnchanged = skipUnchanged;
 	}
 	
 	/**
@@ -111,19 +184,158 @@ public abstract class GtfsRtVehiclePositionsReaderBase {
 	protected abstract void handleAvlReport(AvlReport avlReport);
 	
 	/**
-	 * For each vehicle in the GTFS-realtime message put AvlReport into list.
+	 * Converts a GTFS-realtime VehiclePosition into an AvlReport, including
+	 * the route or trip assignment if there is one.
 	 * 
-	 * @param message
-	 *            Contains all of the VehiclePosition objects
-	 * @return List of AvlReports
+	 * @param vehicle
+	 *            The VehiclePosition
+	 * @param source
+	 *            Source of the AVL report, such as "GTFS-rt"
+	 * @return The AvlReport, or null if there is no vehicle ID or position
 	 */
-	private void processMessage(FeedMessage message) {
-		logger.info("Processing each individual AvlReport...");
-		IntervalTimer timer = new IntervalTimer();
+	public static AvlReport createAvlReport(VehiclePosition vehicle,
+			String source) {
+		// Determine vehicle ID. If no vehicle ID then can't handle it.
+		String vehicleId = getVehicleId(vehicle);
+
+		String vehicleLabel = getVehicleLabel(vehicle);
 		
-		// For each entity/vehicle process the data
-		int counter = 0;
-		for (FeedEntity entity : message.getEntityList()) {
+		if (vehicleId == null && vehicleLabel!=null)
+			vehicleId=vehicleLabel;
+							
+		if(vehicleId == null)
+			return null;
+
+		// Determine the GPS time. If time is not available then use the
+		// current time. This is really a bad idea though because the 
+		// latency will be quite large, resulting in inaccurate predictions
+		// and arrival times. But better than not having a time at all.
+		long gpsTime;
+
+		if (vehicle.hasTimestamp()) {
+			gpsTime = vehicle.getTimestamp();
+			if (gpsTime < 14396727760l) { // TODO if too small to be milli second epoch
+				gpsTime = gpsTime * 1000;
+			}
+		} else
+		{
+			gpsTime = System.currentTimeMillis();
+		}
+		
+		// Determine the position data
+	    Position position = vehicle.getPosition();
+	    
+	    // If no position then cannot handle the data
+	    if (!position.hasLatitude() || !position.hasLongitude())
+	    	return null;
+	    
+	    double lat = position.getLatitude();
+	    double lon = position.getLongitude();
+	    
+	    // Handle speed and heading
+	    float speed = Float.NaN;
+	    if (position.hasSpeed()) {
+	    	speed = position.getSpeed();
+	    }
+	    float heading = Float.NaN;
+	    if (position.hasBearing()) {
+	    	heading = position.getBearing();
+	    }
+	    
+		// Create the core AVL object. The feed can provide a silly amount 
+	    // of precision so round to just 5 decimal places.
+
+            // AvlReport is expecting time in ms while the proto provides it in
+	    // seconds
+		AvlReport avlReport = new AvlReport(vehicleId, 
+				gpsTime,
+
+				MathUtils.round(lat, 5), MathUtils.round(lon, 5), speed,
+				heading,
+				source,
+				null, // leadingVehicleId,
+				null, // driverId
+				getLicensePlate(vehicle), 
+				null, // passengerCount
+				Float.NaN); // passengerFullness
+		
+		// Determine vehicle assignment information
+		if (vehicle.hasTrip()) {
+			TripDescriptor tripDescriptor = vehicle.getTrip();
+
+			
+			if (tripDescriptor.hasRouteId()) {
+				avlReport.setAssignment(tripDescriptor.getRouteId(), 
+						AssignmentType.ROUTE_ID);
+			}
+			
+			if (tripDescriptor.hasTripId()) {
+				avlReport.setAssignment(tripDescriptor.getTripId(), 
+						AssignmentType.TRIP_ID);
+			}
+
+		
+		}
+		
+		return avlReport;
+	}
+	
+	/**
+	 * An AvlReport converted from a VehiclePosition along with what is needed
+	 * to record the VehiclePosition timestamp once the report has been
+	 * handled.
+	 */
+	private static class ConvertedReport {
+		private final AvlReport avlReport;
+		// Null if the timestamp isn't being tracked
+		private final String vehicleKey;
+		private final long timestamp;
+		
+		private ConvertedReport(AvlReport avlReport, String vehicleKey,
+				long timestamp) {
+			this.avlReport = avlReport;
+			this.vehicleKey = vehicleKey;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	/**
+	 * Parses the FeedEntity messages and converts the vehicle positions into
+	 * AvlReports. Entities that are deleted, that don't have a vehicle, or
+	 * whose vehicle timestamp hasn't advanced are skipped. Is called by the
+	 * parse threads, so any state must be thread safe. The timestamps are
+	 * not recorded here but by handleConvertedReport() once the report has
+	 * been handled, so that a report that fails isn't skipped next time.
+	 * 
+	 * @param entities
+	 *            The serialized FeedEntity messages
+	 * @param entityVehicles
+	 *            For recording the vehicle ID of each entity in the feed
+	 * @return List of converted AvlReports
+	 */
+	private List<ConvertedReport> convertEntities(List<ByteString> entities,
+			Map<String, String> entityVehicles) {
+		List<ConvertedReport> avlReports = 
+				new ArrayList<ConvertedReport>(entities.size());
+		for (ByteString entityBytes : entities) {
+			FeedEntity entity;
+			try {
+				entity = FeedEntity.parseFrom(entityBytes);
+			} catch (InvalidProtocolBufferException e) {
+				logger.error("Could not parse FeedEntity from GTFS-realtime "
+						+ "feed {}. {}", urlString, e.getMessage());
+				continue;
+			}
+			
+			// For a DIFFERENTIAL feed a deleted entity means the vehicle is
+			// no longer in the feed
+			if (entity.getIsDeleted()) {
+				String vehicleKey = entityToVehicle.remove(entity.getId());
+				previousTimestamps.remove(
+						vehicleKey != null ? vehicleKey : entity.getId());
+				continue;
+			}
+			
 			// If no vehicles in the entity then nothing to process 
 			if (!entity.hasVehicle())
 				continue;
@@ -131,95 +343,210 @@ public abstract class GtfsRtVehiclePositionsReaderBase {
 			// Get the object describing the vehicle
 			VehiclePosition vehicle = entity.getVehicle();
 			
-			// Determine vehicle ID. If no vehicle ID then can't handle it.
-			String vehicleId = getVehicleId(vehicle);
-
-			String vehicleLabel = getVehicleLabel(vehicle);
-			
-			if (vehicleId == null && vehicleLabel!=null)
-				vehicleId=vehicleLabel;
-								
-			if(vehicleId == null)
-				continue;
-
-			// Determine the GPS time. If time is not available then use the
-			// current time. This is really a bad idea though because the 
-			// latency will be quite large, resulting in inaccurate predictions
-			// and arrival times. But better than not having a time at all.
-			long gpsTime;
-
-			if (vehicle.hasTimestamp()) {
-				gpsTime = vehicle.getTimestamp();
-				if (gpsTime < 14396727760l) { // TODO if too small to be milli second epoch
-					gpsTime = gpsTime * 1000;
+			// If the vehicle hasn't reported since the previous time the
+			// feed was read then skip it
+			String vehicleKey = null;
+			if (skipUnchanged) {
+				String key = getVehicleKey(entity);
+				entityToVehicle.put(entity.getId(), key);
+				entityVehicles.put(entity.getId(), key);
+				if (vehicle.hasTimestamp()) {
+					if (!isNewTimestamp(key, vehicle.getTimestamp())) {
+						unchangedCounter.increment();
+						continue;
+					}
+					vehicleKey = key;
 				}
-			} else
-			{
-				gpsTime = System.currentTimeMillis();
 			}
 			
-			// Determine the position data
-		    Position position = vehicle.getPosition();
-		    
-		    // If no position then cannot handle the data
-		    if (!position.hasLatitude() || !position.hasLongitude())
-		    	continue;
-		    
-		    double lat = position.getLatitude();
-		    double lon = position.getLongitude();
-		    
-		    // Handle speed and heading
-		    float speed = Float.NaN;
-		    if (position.hasSpeed()) {
-		    	speed = position.getSpeed();
-		    }
-		    float heading = Float.NaN;
-		    if (position.hasBearing()) {
-		    	heading = position.getBearing();
-		    }
-		    
-			// Create the core AVL object. The feed can provide a silly amount 
-		    // of precision so round to just 5 decimal places.
-
-            // AvlReport is expecting time in ms while the proto provides it in
-		    // seconds
-			AvlReport avlReport = new AvlReport(vehicleId, 
-					gpsTime,
-
-					MathUtils.round(lat, 5), MathUtils.round(lon, 5), speed,
-					heading,
-					"GTFS-rt",
-					null, // leadingVehicleId,
-					null, // driverId
-					getLicensePlate(vehicle), 
-					null, // passengerCount
-					Float.NaN); // passengerFullness
+			// Convert to an AvlReport. If no vehicle ID or position then
+			// can't handle it.
+			AvlReport avlReport = createAvlReport(vehicle, "GTFS-rt");
+			if (avlReport == null)
+				continue;
 			
-			// Determine vehicle assignment information
-			if (vehicle.hasTrip()) {
-				TripDescriptor tripDescriptor = vehicle.getTrip();
-
-				
-				if (tripDescriptor.hasRouteId()) {
-					avlReport.setAssignment(tripDescriptor.getRouteId(), 
-							AssignmentType.ROUTE_ID);
-				}
-				
-				if (tripDescriptor.hasTripId()) {
-					avlReport.setAssignment(tripDescriptor.getTripId(), 
-							AssignmentType.TRIP_ID);
-				}
+			logger.debug("Processed {}", avlReport);
+			avlReports.add(new ConvertedReport(avlReport, vehicleKey,
+					vehicle.getTimestamp()));
+		}
+		
+		return avlReports;
+	}
+	
+	/**
+	 * Returns the key for tracking the timestamp of the vehicle in the
+	 * entity. Is the vehicle ID, or the vehicle label just like
+	 * createAvlReport() uses, or the entity ID if the vehicle has neither.
+	 * 
+	 * @param entity
+	 * @return key for the vehicle
+	 */
+	private static String getVehicleKey(FeedEntity entity) {
+		VehiclePosition vehicle = entity.getVehicle();
+		String vehicleId = getVehicleId(vehicle);
+		if (vehicleId == null && vehicle.getVehicle().hasLabel())
+			vehicleId = vehicle.getVehicle().getLabel();
+		return vehicleId != null ? vehicleId : entity.getId();
+	}
+	
+	/**
+	 * Determines whether the timestamp is later than the one recorded for
+	 * the vehicle by handleConvertedReport(). If the vehicle is in the feed
+	 * twice then both reports can be new, but then both are processed and
+	 * AvlClient throws away the older one.
+	 * 
+	 * @param vehicleKey
+	 * @param timestamp
+	 *            The VehiclePosition timestamp
+	 * @return true if timestamp is later than the previous one for the
+	 *         vehicle
+	 */
+	private boolean isNewTimestamp(String vehicleKey, long timestamp) {
+		Long previousTimestamp = previousTimestamps.get(vehicleKey);
+		return previousTimestamp == null || timestamp > previousTimestamp;
+	}
+	
+	/**
+	 * Calls handleAvlReport() for the report and then, since it was handled
+	 * successfully, records the VehiclePosition timestamp so that the vehicle
+	 * is skipped until it reports again. If handleAvlReport() throws then the
+	 * timestamp isn't recorded and the report is tried again the next time
+	 * the feed is read. Only called by the thread reading the feed.
+	 * 
+	 * @param convertedReport
+	 */
+	private void handleConvertedReport(ConvertedReport convertedReport) {
+		// The callback for each AvlReport
+		handleAvlReport(convertedReport.avlReport);
+		
+		String vehicleKey = convertedReport.vehicleKey;
+		if (vehicleKey != null 
+				&& isNewTimestamp(vehicleKey, convertedReport.timestamp))
+			previousTimestamps.put(vehicleKey, convertedReport.timestamp);
+	}
+	
+	/**
+	 * Calls handleConvertedReport() for each of the AVL reports. Called in
+	 * the order that the entities were read from the feed.
+	 * 
+	 * @param avlReports
+	 * @return Number of AVL reports handled
+	 */
+	private int handleAvlReports(Future<List<ConvertedReport>> avlReports) 
+			throws InterruptedException, ExecutionException {
+		int counter = 0;
+		for (ConvertedReport avlReport : avlReports.get()) {
+			handleConvertedReport(avlReport);
+			++counter;
+		}
+		return counter;
+	}
+	
+	/**
+	 * Returns the executor for parsing entities in parallel. Returns null if
+	 * only a single thread is configured, in which case the entities are
+	 * parsed by the calling thread.
+	 * 
+	 * @return the executor or null
+	 */
+	private static synchronized ExecutorService getParseExecutor() {
+		if (parseExecutor == null && parseThreads.getValue() > 1) {
+			parseExecutor = Executors.newFixedThreadPool(
+					parseThreads.getValue(),
+					new NamedThreadFactory("gtfsRtParser"));
+		}
+		return parseExecutor;
+	}
 
+	/**
+	 * Reads the FeedMessage one FeedEntity at a time so that the whole
+	 * message doesn't need to be in memory. The FeedMessage is read field by
+	 * field: the header is parsed to determine if the feed is DIFFERENTIAL
+	 * and the entities are handed off in batches to be parsed and converted
+	 * to AvlReports, in parallel if transitclock.avl.gtfsRealtimeParseThreads
+	 * is greater than 1. handleAvlReport() is called by this thread in the
+	 * order the entities are in the feed.
+	 * 
+	 * @param codedStream
+	 * @throws Exception
+	 */
+	private void processStream(CodedInputStream codedStream) throws Exception {
+		logger.info("Processing each individual AvlReport...");
+		IntervalTimer timer = new IntervalTimer();
+		
+		ExecutorService executor = getParseExecutor();
+		int maxPending = 2 * parseThreads.getValue();
+		final Map<String, String> entityVehicles =
+				new ConcurrentHashMap<String, String>();
+		Queue<Future<List<ConvertedReport>>> pending = 
+				new ArrayDeque<Future<List<ConvertedReport>>>();
+		List<ByteString> batch = new ArrayList<ByteString>();
+		boolean differential = false;
+		int counter = 0;
+		
+		while (true) {
+			int tag = codedStream.readTag();
+			if (tag == 0)
+				break;
 			
+			switch (WireFormat.getTagFieldNumber(tag)) {
+			case FeedMessage.HEADER_FIELD_NUMBER:
+				FeedHeader header = FeedHeader.parseFrom(codedStream.readBytes());
+				differential = header.getIncrementality() 
+						== FeedHeader.Incrementality.DIFFERENTIAL;
+				break;
+			case FeedMessage.ENTITY_FIELD_NUMBER:
+				batch.add(codedStream.readBytes());
+				break;
+			default:
+				codedStream.skipField(tag);
 			}
 			
-			logger.debug("Processed {}", avlReport);
+			// Size limit is for each entity instead of the whole message
+			codedStream.resetSizeCounter();
 			
-			// The callback for each AvlReport
-			handleAvlReport(avlReport);
-
+			if (batch.size() < entitiesPerTask.getValue())
+				continue;
+			
+			// Convert the batch, in parallel if configured to do so
+			final List<ByteString> entities = batch;
+			batch = new ArrayList<ByteString>();
+			if (executor == null) {
+				for (ConvertedReport avlReport : 
+						convertEntities(entities, entityVehicles)) {
+					handleConvertedReport(avlReport);
+					++counter;
+				}
+			} else {
+				pending.add(executor.submit(
+						new Callable<List<ConvertedReport>>() {
+					@Override
+					public List<ConvertedReport> call() {
+						return convertEntities(entities, entityVehicles);
+					}
+				}));
+				// Don't let the reading get too far ahead of the parsing
+				if (pending.size() > maxPending)
+					counter += handleAvlReports(pending.remove());
+			}
+		}
+		
+		// Handle the entities that are left
+		while (!pending.isEmpty())
+			counter += handleAvlReports(pending.remove());
+		for (ConvertedReport avlReport : 
+				convertEntities(batch, entityVehicles)) {
+			handleConvertedReport(avlReport);
 			++counter;
-		  }
+		}
+		
+		// For a full dataset, vehicles not in the feed are no longer active
+		// so forget about them
+		if (skipUnchanged && !differential) {
+			entityToVehicle.keySet().retainAll(entityVehicles.keySet());
+			previousTimestamps.keySet().retainAll(
+					new HashSet<String>(entityVehicles.values()));
+		}
 		
 		logger.info("Successfully processed {} AVL reports from " +
 				"GTFS-realtime feed in {} msec",
@@ -227,7 +554,7 @@ public abstract class GtfsRtVehiclePositionsReaderBase {
 	}
 	
 
-	private String getVehicleLabel(VehiclePosition vehicle) {
+	private static String getVehicleLabel(VehiclePosition vehicle) {
 		
 		return vehicle.getVehicle().getLabel();
 	}
@@ -241,34 +568,20 @@ public abstract class GtfsRtVehiclePositionsReaderBase {
 		try {
 			logger.info("Getting GTFS-realtime AVL data from URL={} ...", 
 					urlString);
-			IntervalTimer timer = new IntervalTimer();
 			
 			URI uri = new URI(urlString);
 			URL url = uri.toURL();
 			
 			// Create a CodedInputStream instead of just a regular InputStream
-			// so that can change the size limit. Otherwise if file is greater
-			// than 64MB get an exception.
+			// so that can read the FeedMessage one entity at a time. The
+			// size limit is reset for each entity so the default 64MB limit
+			// is plenty.
 			InputStream inputStream = url.openStream();
-			CodedInputStream codedStream = 
-					CodedInputStream.newInstance(inputStream);
-			// What to use instead of default 64MB limit
-			final int GTFS_SIZE_LIMIT = 200000000;
-			codedStream.setSizeLimit(GTFS_SIZE_LIMIT);	
-			
-			// Actual read in the data into a protobuffer FeedMessage object.
-			// Would prefer to do this one VehiclePosition at a time using
-			// something like VehiclePosition.parseFrom(codedStream) so that
-			// wouldn't have to load entire protobuffer file into memory. But
-			// it never seemed to complete, even for just a single call to
-			// parseFrom(). Therefore loading in entire file at once.
-			FeedMessage feed = FeedMessage.parseFrom(codedStream);
-			logger.info("Parsing GTFS-realtime file into a FeedMessage took " +
-					"{} msec", timer.elapsedMsec());
-			
-			// Process each individual VehiclePostions message
-			processMessage(feed);
-			inputStream.close();
+			try {
+				processStream(CodedInputStream.newInstance(inputStream));
+			} finally {
+				inputStream.close();
+			}
 		} catch (Exception e) {
 			logger.error("Exception when reading GTFS-realtime data from " +
 					"URL {}", 
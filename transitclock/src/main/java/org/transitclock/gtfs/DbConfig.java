@@ -32,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.applications.Core;
 import org.transitclock.config.StringConfigValue;
+import org.transitclock.core.ActiveBlocksIndex;
 import org.transitclock.core.ServiceUtils;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.db.structs.ActiveRevisions;
@@ -84,6 +85,9 @@ public class DbConfig {
 	// So can access blocks by service ID and route ID easily
 	private Map<RouteServiceMapKey, List<Block>> blocksByRouteMap = null;
 
+	// So can quickly determine which blocks are active for a service ID
+	private ActiveBlocksIndex activeBlocksIndex = null;
+
 	// Ordered list of routes
 	private List<Route> routes;
 	// Keyed on routeId
@@ -699,6 +703,7 @@ public class DbConfig {
 		blocks = Block.getBlocks(globalSession, configRev);
 		blocksByServiceMap = putBlocksIntoMap(blocks);
 		blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
+		activeBlocksIndex = new ActiveBlocksIndex(blocks);
 		logger.debug("Reading blocks took {} msec", timer.elapsedMsec());
 
 		timer = new IntervalTimer();
@@ -846,6 +851,16 @@ public class DbConfig {
 		return Collections.unmodifiableList(blocks);
 	}
 
+	/**
+	 * Returns the index of blocks by start and end time so that can
+	 * efficiently determine which blocks are active.
+	 * 
+	 * @return the ActiveBlocksIndex for the blocks
+	 */
+	public ActiveBlocksIndex getActiveBlocksIndex() {
+		return activeBlocksIndex;
+	}
+
 	/**
 	 * Returns Map of routesMap keyed on the routeId.
 	 * 
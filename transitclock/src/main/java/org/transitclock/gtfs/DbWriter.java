@@ -17,13 +17,27 @@
  */
 package org.transitclock.gtfs;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.configData.DbSetupConfig;
 import org.transitclock.db.hibernate.HibernateUtils;
+import org.transitclock.db.structs.ActiveRevisions;
 import org.transitclock.db.structs.Agency;
 import org.transitclock.db.structs.Block;
 import org.transitclock.db.structs.Calendar;
@@ -38,6 +52,7 @@ import org.transitclock.db.structs.TravelTimesForTrip;
 import org.transitclock.db.structs.Trip;
 import org.transitclock.db.structs.TripPattern;
 import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * Writes the GTFS data contained in a GtfsData object to the database.
@@ -52,6 +67,30 @@ public class DbWriter {
 	private static final Logger logger = LoggerFactory
 			.getLogger(DbWriter.class);
 
+	private static BooleanConfigValue bulkWrite =
+			new BooleanConfigValue("transitclock.gtfs.bulkDbWrite", 
+					false,
+					"If true then the routes, stops, agencies, calendars, "
+					+ "calendar dates, fares, frequencies, and transfers "
+					+ "are written to the database in parallel, each table "
+					+ "using its own connection and a StatelessSession so "
+					+ "that rows are simply inserted in JDBC batches without "
+					+ "the selects and caching of saveOrUpdate(). The blocks "
+					+ "are written at the same time using the main session. "
+					+ "The new revision is only made active once all tables "
+					+ "have been successfully written. For the inserts to be "
+					+ "sent as multi-row statements the JDBC driver should be "
+					+ "configured for it, e.g. rewriteBatchedStatements=true "
+					+ "for MySQL or reWriteBatchedInserts=true for "
+					+ "PostgreSQL.");
+	
+	private static IntegerConfigValue bulkWriteThreads =
+			new IntegerConfigValue("transitclock.gtfs.bulkDbWriteThreads", 
+					4,
+					"When transitclock.gtfs.bulkDbWrite is true this is the "
+					+ "number of tables, and therefore database connections, "
+					+ "that are written to in parallel.");
+
 	/********************** Member Functions **************************/
 
 	public DbWriter(GtfsData gtfsData) {
@@ -86,42 +125,143 @@ public class DbWriter {
 	}
 	
 	/**
-	 * Goes through the collections in GtfsData and writes the objects
-	 * to the database.
+	 * For bulk writing all of the objects for a single table using a separate
+	 * StatelessSession, and therefore a separate database connection. Old 
+	 * data for the config rev is first deleted. The objects are then simply
+	 * inserted, which means that Hibernate doesn't need to do any selects
+	 * nor cache the objects. The inserts are sent to the database in JDBC
+	 * batches.
+	 */
+	private class TableWriter implements Callable<Integer> {
+		// Class name of the objects. Needed for the hql delete
+		private final String entityName;
+		private final Collection<?> objects;
+		private final int configRev;
+		
+		private TableWriter(String entityName, Collection<?> objects,
+				int configRev) {
+			this.entityName = entityName;
+			this.objects = objects;
+			this.configRev = configRev;
+		}
+		
+		@Override
+		public Integer call() throws HibernateException {
+			IntervalTimer timer = new IntervalTimer();
+			
+			StatelessSession statelessSession = 
+					getSessionFactory().openStatelessSession();
+			Transaction tx = statelessSession.beginTransaction();
+			try {
+				deleteFromRev(statelessSession, entityName, configRev);
+				for (Object object : objects)
+					statelessSession.insert(object);
+				tx.commit();
+			} catch (HibernateException e) {
+				tx.rollback();
+				throw e;
+			} finally {
+				statelessSession.close();
+			}
+			
+			logger.info("Bulk wrote {} {} objects to database. Took {} msec.",
+					objects.size(), entityName, timer.elapsedMsec());
+			return objects.size();
+		}
+	}
+	
+	/**
+	 * Returns the session factory for the agency so that additional 
+	 * connections can be used for writing the tables in parallel.
+	 * 
+	 * @return the SessionFactory
+	 */
+	private SessionFactory getSessionFactory() {
+		return HibernateUtils.getSessionFactory(gtfsData.getAgencyId());
+	}
+	
+	/**
+	 * Deletes the data for the specified config rev for the table. Same as
+	 * the deleteFromRev() methods of the db structs but for a
+	 * StatelessSession.
 	 * 
+	 * @param statelessSession
+	 * @param entityName
+	 *            The class name of the db struct. Note that hql uses class
+	 *            name, not the table name
 	 * @param configRev
+	 * @return Number of rows deleted
 	 */
-	private void actuallyWriteData(Session session, int configRev, boolean cleanupRevs) {
-		if (cleanupRevs) {
-			// Get rid of old data. Getting rid of trips, trip patterns, and blocks
-			// is a bit complicated. Need to delete them in proper order because
-			// of the foreign keys. Because appear to need to use plain SQL
-			// to do so successfully (without reading in objects and then
-			// deleting them, which takes too much time and memory). Therefore
-			// deleting of this data is done here before writing the data.
-			logger.info("Deleting old blocks and associated trips from rev {} of "
-					+ "database...", configRev);
-			Block.deleteFromRev(session, configRev);
-	
-			logger.info("Deleting old trips from rev {} of database...", 
-					configRev);
-			Trip.deleteFromRev(session, configRev);
-	
-			logger.info("Deleting old trip patterns from rev {} of database...", 
-					configRev);
-			TripPattern.deleteFromRev(session, configRev);
-			
-			// Get rid of travel times that are associated with the rev being 
-			// deleted
-			logger.info("Deleting old travel times from rev {} of database...", 
-					configRev);
-			TravelTimesForTrip.deleteFromRev(session, configRev);
+	private static int deleteFromRev(StatelessSession statelessSession,
+			String entityName, int configRev) {
+		String hql = "DELETE " + entityName + " WHERE configRev=" + configRev;
+		return statelessSession.createQuery(hql).executeUpdate();
+	}
+	
+	/**
+	 * Creates the TableWriters for all of the tables that are independent of
+	 * the blocks and therefore can be written in parallel.
+	 * 
+	 * @param configRev
+	 * @return List of TableWriters
+	 */
+	private List<TableWriter> getTableWriters(int configRev) {
+		List<TableWriter> tableWriters = new ArrayList<TableWriter>();
+		tableWriters.add(new TableWriter("Route", 
+				gtfsData.getRoutes(), configRev));
+		tableWriters.add(new TableWriter("Stop", 
+				gtfsData.getStops(), configRev));
+		tableWriters.add(new TableWriter("Agency", 
+				gtfsData.getAgencies(), configRev));
+		tableWriters.add(new TableWriter("Calendar", 
+				gtfsData.getCalendars(), configRev));
+		tableWriters.add(new TableWriter("CalendarDate", 
+				gtfsData.getCalendarDates(), configRev));
+		tableWriters.add(new TableWriter("FareRule", 
+				gtfsData.getFareRules(), configRev));
+		tableWriters.add(new TableWriter("FareAttribute", 
+				gtfsData.getFareAttributes(), configRev));
+		tableWriters.add(new TableWriter("Frequency", 
+				gtfsData.getFrequencies(), configRev));
+		tableWriters.add(new TableWriter("Transfer", 
+				gtfsData.getTransfers(), configRev));
+		return tableWriters;
+	}
+	
+	/**
+	 * Deletes the data written by the TableWriters for the config rev. Called
+	 * if there was a problem writing the revision so that partially written
+	 * data is not left in the database. Uses a new session since the 
+	 * TableWriters committed their data using separate sessions. 
+	 * 
+	 * @param configRev
+	 */
+	private void deleteBulkWrittenData(int configRev) {
+		StatelessSession statelessSession = 
+				getSessionFactory().openStatelessSession();
+		Transaction tx = statelessSession.beginTransaction();
+		try {
+			for (TableWriter tableWriter : getTableWriters(configRev))
+				deleteFromRev(statelessSession, tableWriter.entityName, 
+						configRev);
+			tx.commit();
+		} catch (HibernateException e) {
+			tx.rollback();
+			logger.error("Could not delete partially written data for "
+					+ "configRev={}", configRev, e);
+		} finally {
+			statelessSession.close();
 		}
-		
-		// Now write the data to the database.
-		// First write the Blocks. This will also write the Trips, TripPatterns,
-		// Paths, and TravelTimes since those all have been configured to be
-		// cascade=CascadeType.SAVE_UPDATE .
+	}
+	
+	/**
+	 * Writes the blocks using the main session. This will also write the
+	 * Trips, TripPatterns, Paths, and TravelTimes since those all have been
+	 * configured to be cascade=CascadeType.SAVE_UPDATE .
+	 * 
+	 * @param session
+	 */
+	private void writeBlocks(Session session) {
 		logger.info("Saving {} blocks (plus associated trips) to database...", 
 				gtfsData.getBlocks().size());
 		int c = 0;
@@ -134,6 +274,139 @@ public class DbWriter {
 				logger.info("wrote " + c + " blocks in " + (System.currentTimeMillis()-startTime)/1000 + "s");
 			}
 		}
+	}
+	
+	/**
+	 * Deletes the old trips, trip patterns, blocks, and travel times for the
+	 * config rev.
+	 * 
+	 * @param session
+	 * @param configRev
+	 */
+	private void deleteOldTrips(Session session, int configRev) {
+		// Get rid of old data. Getting rid of trips, trip patterns, and blocks
+		// is a bit complicated. Need to delete them in proper order because
+		// of the foreign keys. Because appear to need to use plain SQL
+		// to do so successfully (without reading in objects and then
+		// deleting them, which takes too much time and memory). Therefore
+		// deleting of this data is done here before writing the data.
+		logger.info("Deleting old blocks and associated trips from rev {} of "
+				+ "database...", configRev);
+		Block.deleteFromRev(session, configRev);
+
+		logger.info("Deleting old trips from rev {} of database...", 
+				configRev);
+		Trip.deleteFromRev(session, configRev);
+
+		logger.info("Deleting old trip patterns from rev {} of database...", 
+				configRev);
+		TripPattern.deleteFromRev(session, configRev);
+		
+		// Get rid of travel times that are associated with the rev being 
+		// deleted
+		logger.info("Deleting old travel times from rev {} of database...", 
+				configRev);
+		TravelTimesForTrip.deleteFromRev(session, configRev);
+	}
+	
+	/**
+	 * Writes the data using the bulk approach. The tables that are 
+	 * independent of the blocks are written in parallel using separate
+	 * connections while the blocks, with their trips, trip patterns, etc,
+	 * are written using the main session.
+	 * <p>
+	 * Readers only use the config rev specified by ActiveRevisions. The
+	 * ActiveRevisions and ConfigRevision are only written as part of the 
+	 * main transaction, which is committed by the caller after all of the
+	 * parallel writes have been successfully committed. Therefore readers
+	 * never see a partially written revision. If any of the writes fail 
+	 * then the data written by the parallel writers is deleted again.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @param cleanupRevs
+	 */
+	private void actuallyBulkWriteData(Session session, int configRev,
+			boolean cleanupRevs) {
+		ExecutorService executor = 
+				Executors.newFixedThreadPool(bulkWriteThreads.getValue(), 
+						new NamedThreadFactory("dbWriter"));
+		try {
+			// Start writing the independent tables in parallel
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (TableWriter tableWriter : getTableWriters(configRev))
+				futures.add(executor.submit(tableWriter));
+			
+			// While those are being written write the blocks using the 
+			// main session
+			if (cleanupRevs)
+				deleteOldTrips(session, configRev);
+			writeBlocks(session);
+			
+			// Wait for the parallel writes to complete
+			for (Future<Integer> future : futures)
+				future.get();
+			
+			// Write out the ConfigRevision data
+			writeObject(session, gtfsData.getConfigRevision());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			deleteBulkWrittenData(configRev);
+			throw new HibernateException("Interrupted while writing data", e);
+		} catch (ExecutionException e) {
+			deleteBulkWrittenData(configRev);
+			throw new HibernateException("Exception while writing data", 
+					e.getCause());
+		} catch (HibernateException e) {
+			deleteBulkWrittenData(configRev);
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Determines if the bulk approach can be used for writing. Bulk writing
+	 * commits the tables separately so it cannot be used when overwriting
+	 * the currently active config rev since then readers could see partial
+	 * data.
+	 * 
+	 * @param configRev
+	 * @return true if should bulk write
+	 */
+	private boolean shouldBulkWrite(int configRev) {
+		if (!bulkWrite.getValue())
+			return false;
+		
+		// Read committed ActiveRevisions using a separate session
+		ActiveRevisions activeRevisions = 
+				ActiveRevisions.get(gtfsData.getAgencyId());
+		if (activeRevisions == null 
+				|| activeRevisions.getConfigRev() == configRev) {
+			logger.warn("Not using bulk write since writing to configRev={} "
+					+ "which is the currently active rev or could not "
+					+ "determine the active rev.", configRev);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Goes through the collections in GtfsData and writes the objects
+	 * to the database.
+	 * 
+	 * @param configRev
+	 */
+	private void actuallyWriteData(Session session, int configRev, boolean cleanupRevs) {
+		if (cleanupRevs)
+			deleteOldTrips(session, configRev);
+		
+		// Now write the data to the database.
+		// First write the Blocks. This will also write the Trips, TripPatterns,
+		// Paths, and TravelTimes since those all have been configured to be
+		// cascade=CascadeType.SAVE_UPDATE .
+		writeBlocks(session);
 		
 		logger.info("Saving routes to database...");
 		Route.deleteFromRev(session, configRev);
@@ -218,13 +491,26 @@ public class DbWriter {
 		Transaction tx = session.beginTransaction();
 		
 		// Do the low-level processing
+		boolean bulkWritten = false;
 		try {
-			actuallyWriteData(session, configRev, cleanupRevs);
+			if (shouldBulkWrite(configRev)) {
+				actuallyBulkWriteData(session, configRev, cleanupRevs);
+				bulkWritten = true;
+			} else {
+				actuallyWriteData(session, configRev, cleanupRevs);
+			}
 			
 			// Done writing data so commit it
 			tx.commit();
 		} catch (HibernateException e) {
 			logger.error("Error writing GTFS configuration data to db.", e);
+			
+			// The bulk written tables were already committed using separate
+			// sessions so they need to be deleted if the main transaction
+			// could not be committed. If the bulk write itself failed then
+			// actuallyBulkWriteData() already deleted them.
+			if (bulkWritten)
+				deleteBulkWrittenData(configRev);
 			throw e;
 		} 
 
@@ -16,12 +16,17 @@
  */
 package org.transitclock.gtfs;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,7 +34,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.hibernate.HibernateException;
@@ -38,6 +48,7 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.DoubleConfigValue;
 import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.config.StringConfigValue;
@@ -96,6 +107,8 @@ import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.MapKey;
 import org.transitclock.utils.StringUtils;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.csv.CsvBaseReader;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * Contains all the GTFS data processed into Java lists and such. Also combines
@@ -122,6 +135,14 @@ public class GtfsData {
 	// For when zip file used. Null otherwise
 	private final Date zipFileLastModifiedTime;
 	private final int originalTravelTimesRev;
+	
+	// The original active config revision, as read from db. Needed for
+	// incremental processing.
+	private final int originalConfigRev;
+	
+	// For incremental processing. IDs of the trip patterns that are 
+	// unchanged from originalConfigRev. Null if not incremental.
+	private Set<String> unchangedTripPatternIds = null;
 	private final String agencyId;
 	private final double pathOffsetDistance;
 	private final double maxStopToPathDistance;
@@ -155,6 +176,8 @@ public class GtfsData {
 	
 	// From stop_times.txt file
 	private Map<String, List<GtfsStopTime>> gtfsStopTimesForTripMap; // Key is trip_id
+	// Used instead of gtfsStopTimesForTripMap for streaming import
+	private Map<String, StopTimesForTrip> stopTimesForTripMap; // Key is trip_id
 	private Collection<Trip> tripsCollection;
 	
 	// Want to lookup trip patterns and only keep around
@@ -265,6 +288,44 @@ public class GtfsData {
 			+ "and pasting it in to http://www.gpsvisualizer.com/map_input"
 			+ "Separate multiple route ids with commas");
 	
+	private static BooleanConfigValue streamingImport =
+			new BooleanConfigValue("transitclock.gtfs.streamingImport", 
+					false,
+					"If true then the stop_times.txt file is streamed in and "
+					+ "grouped by trip as it is read instead of first being "
+					+ "read into one large list. The records are converted "
+					+ "using multiple threads and the trips, trip patterns, "
+					+ "and stop paths are then processed in parallel. Each "
+					+ "trip is processed as soon as its stop times have been "
+					+ "read in and then only the stop sequences and times "
+					+ "are kept, so much less memory is used for very large "
+					+ "GTFS feeds. Requires stop_times.txt to be grouped by "
+					+ "trip_id. If it is not then the regular import is "
+					+ "used. The peak heap usage is logged at the end of the "
+					+ "import so the two modes can be compared.");
+	
+	private static BooleanConfigValue incrementalImport =
+			new BooleanConfigValue("transitclock.gtfs.incrementalImport", 
+					false,
+					"If true then the trip patterns are fingerprinted and "
+					+ "compared to the trip patterns of the previous config "
+					+ "rev. For trip patterns where the shape, stops, and "
+					+ "stop path parameters have not changed the stop paths "
+					+ "of the previous config rev are reused instead of "
+					+ "matching the stops to the shapes again. For the trips "
+					+ "of those trip patterns the travel times used in the "
+					+ "previous config rev are carried forward if they still "
+					+ "fit. Note that the new config rev is still written to "
+					+ "the database in full since all of the config tables "
+					+ "are keyed by config rev.");
+	
+	private static IntegerConfigValue importThreads =
+			new IntegerConfigValue("transitclock.gtfs.importThreads", 
+					Runtime.getRuntime().availableProcessors(),
+					"When transitclock.gtfs.streamingImport is true this is "
+					+ "the number of threads used for processing the GTFS "
+					+ "data.");
+	
 	// Logging
 	public static final Logger logger = 
 			LoggerFactory.getLogger(GtfsData.class);
@@ -334,6 +395,7 @@ public class GtfsData {
 		// rev since need it to read in old travel time data. 		
 		ActiveRevisions originalRevs = ActiveRevisions.get(session); 
 		originalTravelTimesRev = originalRevs.getTravelTimesRev();
+		originalConfigRev = originalRevs.getConfigRev();
 		
 		// If should store the new revs in database (make them active)
 		// then use the originalRevs read from db since they will be
@@ -1029,6 +1091,15 @@ public class GtfsData {
 		// Let user know what is going on
 		logger.info("Processing stop_times.txt data...");
 		
+		// If streaming import then process each trip as soon as its stop
+		// times have been read in so that all of the stop times don't need
+		// to be kept in memory
+		if (streamingImport.getValue() && processStopTimesStreaming()) {
+			logger.info("Finished processing stop_times.txt data. Took {} "
+					+ "msec.", timer.elapsedMsec());
+			return;
+		}
+		
 		// Read in the stop_times.txt GTFS data from file. Use a large initial
 		// array size so when reading in data won't have to constantly increase
 		// array size and do array copying. SFMTA for example has 1,100,000
@@ -1130,9 +1201,28 @@ public class GtfsData {
 		
 		// Log if a trip is defined in the trips.txt file but not in 
 		// stop_times.txt
+		logTripsWithoutStopTimes(gtfsStopTimesForTripMap.keySet());
+		
+		// Now that have all the stop times gtfs data create the trips
+		// and the trip patterns.
+		createTripsAndTripPatterns(gtfsStopTimesForTripMap);
+				
+		// Let user know what is going on
+		logger.info("Finished processing stop_times.txt data. Took {} msec.", 
+				timer.elapsedMsec());
+	}
+	
+	/**
+	 * Logs the trips that are defined in the trips.txt file but not in
+	 * stop_times.txt
+	 * 
+	 * @param tripIdsInStopTimes
+	 *            The trip IDs that are in stop_times.txt
+	 */
+	private void logTripsWithoutStopTimes(Set<String> tripIdsInStopTimes) {
 		int numberOfProblemTrips = 0;
 		for (String tripIdFromTripsFile : gtfsTripsMap.keySet()) {
-			if (gtfsStopTimesForTripMap.get(tripIdFromTripsFile) == null) {
+			if (!tripIdsInStopTimes.contains(tripIdFromTripsFile)) {
 				++numberOfProblemTrips;
 				logger.warn("trip_id={} was defined on line #{} in trips.txt " +
 						"but there was no such trip defined in the " +
@@ -1145,14 +1235,367 @@ public class GtfsData {
 			logger.warn("Found {} trips were defined in trips.txt but not in " +
 					"stop_times.txt out of a total of {} trips in trips.txt",
 					numberOfProblemTrips, gtfsTripsMap.size());
+	}
+	
+	/**
+	 * For streaming import. Thrown by the StreamingStopTimesHandler when 
+	 * stop_times.txt turns out not to be grouped by trip_id, in which case
+	 * the stop times for a trip can't be processed as soon as they are read.
+	 */
+	private static class StopTimesNotGroupedException 
+			extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private StopTimesNotGroupedException(String tripId) {
+			super("stop_times.txt is not grouped by trip_id. Stop times for "
+					+ "trip_id=" + tripId + " are not all together.");
+		}
+	}
+	
+	/**
+	 * For streaming import. The stop sequences and times of the stop times
+	 * for a trip. This is all that is needed of the stop times once the trip
+	 * has been created, for determining travel times. Kept in arrays since
+	 * that takes far less memory than the GtfsStopTime objects.
+	 */
+	private static class StopTimesForTrip {
+		private static final int NO_TIME = Integer.MIN_VALUE;
+		
+		private final int[] stopSequences;
+		private final int[] arrivalTimes;
+		private final int[] departureTimes;
+		
+		private StopTimesForTrip(List<GtfsStopTime> gtfsStopTimesForTrip) {
+			int size = gtfsStopTimesForTrip.size();
+			stopSequences = new int[size];
+			arrivalTimes = new int[size];
+			departureTimes = new int[size];
+			for (int i = 0; i < size; ++i) {
+				GtfsStopTime gtfsStopTime = gtfsStopTimesForTrip.get(i);
+				Integer arr = gtfsStopTime.getArrivalTimeSecs();
+				Integer dep = gtfsStopTime.getDepartureTimeSecs();
+				stopSequences[i] = gtfsStopTime.getStopSequence();
+				arrivalTimes[i] = arr != null ? arr : NO_TIME;
+				departureTimes[i] = dep != null ? dep : NO_TIME;
+			}
+		}
 		
-		// Now that have all the stop times gtfs data create the trips
-		// and the trip patterns.
-		createTripsAndTripPatterns(gtfsStopTimesForTripMap);
+		/**
+		 * @param stopSequence
+		 * @return The GTFS times for the stop, or null if stop not found or
+		 *         the stop doesn't have times
+		 */
+		private ScheduleTime getScheduleTime(int stopSequence) {
+			for (int i = 0; i < stopSequences.length; ++i) {
+				if (stopSequences[i] == stopSequence) {
+					if (arrivalTimes[i] == NO_TIME 
+							&& departureTimes[i] == NO_TIME)
+						return null;
+					return new ScheduleTime(
+							arrivalTimes[i] != NO_TIME ? arrivalTimes[i] : null,
+							departureTimes[i] != NO_TIME ? 
+									departureTimes[i] : null);
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * For streaming import. The results of processing the stop times for a
+	 * trip, which is done in parallel.
+	 */
+	private static class ProcessedTrip {
+		private final String tripId;
+		// Null if the trip is not valid
+		private final Trip trip;
+		private final List<ScheduleTime> scheduleTimes;
+		private final List<StopPath> paths;
+		private final StopTimesForTrip stopTimes;
+		
+		private ProcessedTrip(String tripId, Trip trip,
+				List<ScheduleTime> scheduleTimes, List<StopPath> paths,
+				StopTimesForTrip stopTimes) {
+			this.tripId = tripId;
+			this.trip = trip;
+			this.scheduleTimes = scheduleTimes;
+			this.paths = paths;
+			this.stopTimes = stopTimes;
+		}
+	}
+	
+	/**
+	 * For streaming import. Cleans up the stop times for a trip, creates the
+	 * trip, and determines its schedule times and paths. Doesn't modify any
+	 * of the trip or trip pattern collections so can be called by multiple
+	 * threads at once.
+	 * 
+	 * @param tripId
+	 * @param gtfsStopTimesForTrip
+	 *            All of the stop times for the trip
+	 * @return The processed trip
+	 */
+	private ProcessedTrip processTrip(String tripId,
+			List<GtfsStopTime> gtfsStopTimesForTrip) {
+		List<GtfsStopTime> processedGtfsStopTimesForTrip =
+				processStopTimesForTrip(gtfsStopTimesForTrip);
+		StopTimesForTrip stopTimes = 
+				new StopTimesForTrip(processedGtfsStopTimesForTrip);
+		
+		Trip trip = createNewTrip(tripId, processedGtfsStopTimesForTrip);
+		if (trip == null)
+			return new ProcessedTrip(tripId, null, null, null, stopTimes);
+		
+		List<StopPath> paths = new ArrayList<StopPath>();
+		List<ScheduleTime> scheduleTimes = getScheduleTimesForTrip(trip,
+				processedGtfsStopTimesForTrip, paths);
+		return new ProcessedTrip(tripId, trip, scheduleTimes, paths, 
+				stopTimes);
+	}
+	
+	/**
+	 * For streaming import. Handles the stop times as they are read in from
+	 * stop_times.txt. Since stop times are normally grouped by trip, once
+	 * the trip_id changes all the stop times for the previous trip have been
+	 * read in. That trip is then processed on the thread pool and its stop
+	 * times are dropped. Only the stop sequences and times are kept, in
+	 * stopTimesForTripMap. The processed trips are added to the trip and trip
+	 * pattern collections by the reading thread, in file order, so that
+	 * those collections don't need to be thread safe.
+	 */
+	private class StreamingStopTimesHandler 
+			implements CsvBaseReader.ObjectHandler<GtfsStopTime> {
+		// Limit on trips that are being processed or waiting to be added to
+		// the collections so that memory use is bounded
+		private final int maxTripsInProgress;
+		private final ExecutorService executor;
+		private final Deque<Future<ProcessedTrip>> tripsInProgress =
+				new ArrayDeque<Future<ProcessedTrip>>();
+		
+		// Supplemental stop times keyed by trip_id and then stop_id. Removed
+		// once the trip has been read in.
+		private final Map<String, Map<String, GtfsStopTime>> supplementMap =
+				new HashMap<String, Map<String, GtfsStopTime>>();
+		
+		// The trip currently being read in
+		private String currentTripId = null;
+		private List<GtfsStopTime> currentStopTimes = null;
+		private final Set<String> usedSupplementStopIds = 
+				new HashSet<String>();
+		
+		private StreamingStopTimesHandler(ExecutorService executor,
+				int numberThreads) {
+			this.executor = executor;
+			this.maxTripsInProgress = 64 * numberThreads;
+			
+			if (supplementDir != null) {
+				GtfsStopTimesSupplementReader stopTimesSupplementReader =
+						new GtfsStopTimesSupplementReader(supplementDir);
+				for (GtfsStopTime stopTimeSupplement : 
+						stopTimesSupplementReader.get()) {
+					Map<String, GtfsStopTime> supplementsForTrip =
+							supplementMap.get(stopTimeSupplement.getTripId());
+					if (supplementsForTrip == null) {
+						supplementsForTrip = 
+								new HashMap<String, GtfsStopTime>();
+						supplementMap.put(stopTimeSupplement.getTripId(), 
+								supplementsForTrip);
+					}
+					supplementsForTrip.put(stopTimeSupplement.getStopId(), 
+							stopTimeSupplement);
+				}
+			}
+		}
+		
+		@Override
+		public void handleObject(GtfsStopTime gtfsStopTime) {
+			String tripId = gtfsStopTime.getTripId();
+			if (!tripId.equals(currentTripId)) {
+				// All stop times of the previous trip have been read in
+				if (currentTripId != null)
+					tripReadIn(currentTripId, currentStopTimes);
+				if (stopTimesForTripMap.containsKey(tripId))
+					throw new StopTimesNotGroupedException(tripId);
+				currentTripId = tripId;
+				currentStopTimes = new ArrayList<GtfsStopTime>();
+				usedSupplementStopIds.clear();
+			}
+			
+			// Apply supplemental data if there is any for the stop time
+			Map<String, GtfsStopTime> supplementsForTrip = 
+					supplementMap.get(tripId);
+			GtfsStopTime stopTimeSupplement = supplementsForTrip != null ? 
+					supplementsForTrip.get(gtfsStopTime.getStopId()) : null;
+			if (stopTimeSupplement != null) {
+				usedSupplementStopIds.add(gtfsStopTime.getStopId());
 				
-		// Let user know what is going on
-		logger.info("Finished processing stop_times.txt data. Took {} msec.", 
-				timer.elapsedMsec());
+				// If supplement says to delete stop time then done
+				if (stopTimeSupplement.shouldDelete())
+					return;
+				
+				// Modify the stop time using the supplemental data
+				gtfsStopTime = 
+						new GtfsStopTime(gtfsStopTime, stopTimeSupplement);
+			}
+			currentStopTimes.add(gtfsStopTime);
+		}
+		
+		/**
+		 * Called once all of stop_times.txt has been read in. Processes the
+		 * last trip and any trips only in the supplemental data, and waits
+		 * till all trips have been added to the collections.
+		 */
+		private void finish() {
+			if (currentTripId != null)
+				tripReadIn(currentTripId, currentStopTimes);
+			currentTripId = null;
+			currentStopTimes = null;
+			
+			// Handle trips that are only in the supplemental data
+			for (String tripId : new ArrayList<String>(supplementMap.keySet()))
+				tripReadIn(tripId, new ArrayList<GtfsStopTime>());
+			
+			while (!tripsInProgress.isEmpty())
+				addOldestTrip();
+		}
+		
+		/**
+		 * Called once all the stop times for a trip have been read in. Adds
+		 * the supplemental stop times that weren't in the main data and then
+		 * processes the trip using the thread pool.
+		 * 
+		 * @param tripId
+		 * @param gtfsStopTimesForTrip
+		 */
+		private void tripReadIn(final String tripId,
+				final List<GtfsStopTime> gtfsStopTimesForTrip) {
+			Map<String, GtfsStopTime> supplementsForTrip = 
+					supplementMap.remove(tripId);
+			if (supplementsForTrip != null) {
+				for (GtfsStopTime stopTimeSupplement : 
+						supplementsForTrip.values()) {
+					if (usedSupplementStopIds.contains(
+							stopTimeSupplement.getStopId()))
+						continue;
+					
+					if (stopTimeSupplement.shouldDelete()) {
+						logger.error("Supplement stop_times.txt file for "
+								+ "trip_id={} and stop_id={} specifies "
+								+ "that the stop time should be removed "
+								+ "but it is not actually configured in "
+								+ "the regular stop_times.txt file",
+								stopTimeSupplement.getTripId(), 
+								stopTimeSupplement.getStopId());
+					} else {
+						// The stop time is not in main data so add it
+						gtfsStopTimesForTrip.add(stopTimeSupplement);
+					}
+				}
+			}
+			usedSupplementStopIds.clear();
+			if (gtfsStopTimesForTrip.isEmpty())
+				return;
+			
+			// Reserve the trip ID so that can tell if stop_times.txt is not
+			// grouped by trip_id
+			stopTimesForTripMap.put(tripId, null);
+			
+			tripsInProgress.addLast(executor.submit(
+					new Callable<ProcessedTrip>() {
+				@Override
+				public ProcessedTrip call() {
+					return processTrip(tripId, gtfsStopTimesForTrip);
+				}
+			}));
+			
+			// Add the trips that have been processed to the collections.
+			// If too many trips are in progress then wait for the oldest.
+			while (!tripsInProgress.isEmpty() 
+					&& (tripsInProgress.peekFirst().isDone() 
+							|| tripsInProgress.size() > maxTripsInProgress))
+				addOldestTrip();
+		}
+		
+		/**
+		 * Adds the oldest processed trip to the trip and trip pattern 
+		 * collections. Waits for it to be processed if necessary.
+		 */
+		private void addOldestTrip() {
+			ProcessedTrip processedTrip;
+			try {
+				processedTrip = tripsInProgress.removeFirst().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while processing "
+						+ "trips", e);
+			} catch (ExecutionException e) {
+				logger.error("Exception occurred when processing trips", 
+						e.getCause());
+				throw new RuntimeException(e.getCause());
+			}
+			
+			stopTimesForTripMap.put(processedTrip.tripId, 
+					processedTrip.stopTimes);
+			
+			Trip trip = processedTrip.trip;
+			if (trip == null) {
+				logDiscardedTrip(processedTrip.tripId);
+				return;
+			}
+			serviceIdsWithTrips.add(trip.getServiceId());
+			updateTripPatterns(trip, processedTrip.paths);
+			trip.addScheduleTimes(processedTrip.scheduleTimes);
+			addTripToCollection(processedTrip.tripId, trip);
+		}
+	}
+	
+	/**
+	 * For streaming import. Reads in stop_times.txt and processes each trip
+	 * as soon as all of its stop times have been read in. Trips are processed
+	 * in parallel using importThreads threads. Only the stop sequences and
+	 * times of the stop times are kept, in stopTimesForTripMap, instead of
+	 * the whole GtfsStopTime objects in gtfsStopTimesForTripMap.
+	 * <p>
+	 * Requires that stop_times.txt be grouped by trip_id, which is nearly
+	 * always the case. If it is not then false is returned so that the
+	 * regular import can be used instead.
+	 * 
+	 * @return true if the stop times were processed, false if stop_times.txt
+	 *         is not grouped by trip_id
+	 */
+	private boolean processStopTimesStreaming() {
+		prepareForCreatingTrips();
+		gtfsStopTimesForTripMap = null;
+		stopTimesForTripMap = new HashMap<String, StopTimesForTrip>();
+		
+		int numberThreads = Math.max(1, importThreads.getValue());
+		ExecutorService executor = Executors.newFixedThreadPool(numberThreads,
+				new NamedThreadFactory("gtfsImport"));
+		try {
+			StreamingStopTimesHandler handler = 
+					new StreamingStopTimesHandler(executor, numberThreads);
+			GtfsStopTimesReader stopTimesReader = 
+					new GtfsStopTimesReader(gtfsDirectoryName);
+			stopTimesReader.process(handler, numberThreads);
+			handler.finish();
+		} catch (StopTimesNotGroupedException e) {
+			logger.warn("{} Therefore cannot do streaming import and using "
+					+ "regular import instead.", e.getMessage());
+			stopTimesForTripMap = null;
+			return false;
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		// Log if a trip is defined in the trips.txt file but not in 
+		// stop_times.txt
+		logTripsWithoutStopTimes(stopTimesForTripMap.keySet());
+		
+		// Process the headsigns for the trips and the trip patterns to make 
+		// sure that they are unique for each destination.
+		makeHeadsignsUniqueIfDifferentLastStop();
+		
+		return true;
 	}
 	
 	/**
@@ -1171,23 +1614,50 @@ public class GtfsData {
 					"GtfsData.getScheduleTimesForTrip() was. Exiting.");
 			System.exit(-1);
 		}
+		
+		// Create list of Paths for creating trip pattern
+		List<StopPath> paths = new ArrayList<StopPath>();
+		
+		// Determine the gtfs stop times for this trip
+		List<GtfsStopTime> gtfsStopTimesForTrip = 
+				gtfsStopTimesForTripMap.get(trip.getId());
+
+		List<ScheduleTime> newScheduleTimesList = 
+				getScheduleTimesForTrip(trip, gtfsStopTimesForTrip, paths);
+		
+		// Now that have Paths defined for the trip, if need to, 
+		// also create new trip pattern
+		updateTripPatterns(trip, paths);			
+
+		return newScheduleTimesList;
+	}
+	
+	/**
+	 * For the trip being created go through the stop times and determine all
+	 * the stop paths for the trip. Doesn't modify any of the trip pattern
+	 * collections so can be called by multiple threads at once.
+	 * 
+	 * @param trip
+	 *            The trip being created
+	 * @param gtfsStopTimesForTrip
+	 *            The processed stop times for the trip
+	 * @param paths
+	 *            List that the StopPaths for the trip are added to
+	 * @return List of ScheduleTime objects for the trip
+	 */
+	private List<ScheduleTime> getScheduleTimesForTrip(Trip trip,
+			List<GtfsStopTime> gtfsStopTimesForTrip, List<StopPath> paths) {
+		// Make sure necessary data already read in
 		if (gtfsRoutesMap == null) {
 			logger.error("gtfsRoutesMap not filled in before " + 
 					"GtfsData.getScheduleTimesForTrip() was. Exiting.");
 			System.exit(-1);			
 		}
 		
-		// Create list of Paths for creating trip pattern
-		List<StopPath> paths = new ArrayList<StopPath>();
-		
 		// Create set of path IDs for this trip so can tell if looping 
 		// back on path such that need to create a unique path ID
 		Set<String> pathIdsForTrip = new HashSet<String>();
 		
-		// Determine the gtfs stop times for this trip
-		List<GtfsStopTime> gtfsStopTimesForTrip = 
-				gtfsStopTimesForTripMap.get(trip.getId());
-
 		// For each stop time for the trip...
 		List<ScheduleTime> newScheduleTimesList = 
 				new ArrayList<ScheduleTime>();
@@ -1294,10 +1764,6 @@ public class GtfsData {
 			previousStopId = stopId;
 		} // End of for each stop_time for trip
 		
-		// Now that have Paths defined for the trip, if need to, 
-		// also create new trip pattern
-		updateTripPatterns(trip, paths);			
-
 		return newScheduleTimesList;
 	}
 	
@@ -1411,14 +1877,10 @@ public class GtfsData {
 	}
 
 	/**
-	 * Takes raw GTFS data and creates Trip and TripPattern objects.
-	 * 
-	 * @param gtfsStopTimesForTripMap
-	 *            Keyed by tripId. Value is List of GtfsStopTimes for the
-	 *            tripId.
+	 * Makes sure that the data needed for creating trips has been read in
+	 * and creates the collections for the trips and trip patterns.
 	 */
-	private void createTripsAndTripPatterns(
-			Map<String, List<GtfsStopTime>> gtfsStopTimesForTripMap) {
+	private void prepareForCreatingTrips() {
 		if (stopsMap == null || stopsMap.isEmpty()) {
 			logger.error("processStopData() must be called before " + 
 					"GtfsData.processStopTimesData() is. Exiting.");
@@ -1451,6 +1913,18 @@ public class GtfsData {
 		tripPatternIdSet = new HashSet<String>();
 		serviceIdsWithTrips = new HashSet<String>();
 		pathsMap = new HashMap<String, StopPath>();
+	}
+	
+	/**
+	 * Takes raw GTFS data and creates Trip and TripPattern objects.
+	 * 
+	 * @param gtfsStopTimesForTripMap
+	 *            Keyed by tripId. Value is List of GtfsStopTimes for the
+	 *            tripId.
+	 */
+	private void createTripsAndTripPatterns(
+			Map<String, List<GtfsStopTime>> gtfsStopTimesForTripMap) {
+		prepareForCreatingTrips();
 		
 		// For each trip in the stop_times.txt file ...
 		for (String tripId : gtfsStopTimesForTripMap.keySet()) {
@@ -1460,14 +1934,7 @@ public class GtfsData {
 			
 			// If trip not valid then skip over it
 			if (trip == null) {
-				logger.warn("Encountered trip_id={} in the "
-						+ "stop_times.txt file but that trip_id is not in "
-						+ "the trips.txt file, the service ID for the "
-						+ "trip is not valid in anytime in the future, "
-						+ "or the associated route is filtered out, "
-						+ "or the trip is filtered out. "
-						+ "Therefore this trip cannot be configured and "
-						+ "has been discarded.", tripId);
+				logDiscardedTrip(tripId);
 				continue;
 			}
 			
@@ -1484,42 +1951,7 @@ public class GtfsData {
 			List<ScheduleTime> scheduleTimesList = getScheduleTimesForTrip(trip);
 			trip.addScheduleTimes(scheduleTimesList); 
 						
-			if (isTripFrequencyBasedWithExactTimes(tripId)) {
-				// This is special case where for this trip ID 
-				// there is an entry in the frequencies.txt
-				// file with exact_times set indicating that need to create
-				// a separate Trip for each actual trip.  
-				List<Frequency> frequencyListForTripId =
-						frequencyMap.get(tripId);
-				for (Frequency frequency : frequencyListForTripId) {
-					for (int tripStartTime = frequency.getStartTime(); 
-							tripStartTime < frequency.getEndTime();
-							tripStartTime += frequency.getHeadwaySecs()) {
-						Trip frequencyBasedTrip = 
-								new Trip(trip,	tripStartTime);
-						tripsCollection.add(frequencyBasedTrip);
-					}
-				}
-			} else if (isTripFrequencyBasedWithoutExactTimes(tripId)) {
-				// This is a trip defined in the GTFS frequency.txt file
-				// to not be schedule based (not have exact_times set). 
-				// Need to create a trip for each time range defined for
-				// the trip in frequency.txt .
-				List<Frequency> frequencyListForTripId =
-						frequencyMap.get(tripId);
-				for (Frequency frequency : frequencyListForTripId) {
-					Trip frequencyBasedTrip =
-							new Trip(trip, frequency.getStartTime(),
-									frequency.getEndTime());
-					tripsCollection.add(frequencyBasedTrip);
-				}
-			} else {
-				// This is the normal case, an actual Trip that is not affected 
-				// by exact times in frequencies.txt data. Therefore simply add 
-				// it to the collection. It still might be a trip with no 
-				// schedule, but it isn't one with exact times.
-				tripsCollection.add(trip);
-			}
+			addTripToCollection(tripId, trip);
 		}  // End of for each trip ID
 		
 		// Process the headsigns for the trips and the trip patterns to make sure that 
@@ -1527,6 +1959,70 @@ public class GtfsData {
 		makeHeadsignsUniqueIfDifferentLastStop();
 	}
 	
+	/**
+	 * Logs that a trip in stop_times.txt could not be configured.
+	 * 
+	 * @param tripId
+	 */
+	private void logDiscardedTrip(String tripId) {
+		logger.warn("Encountered trip_id={} in the "
+				+ "stop_times.txt file but that trip_id is not in "
+				+ "the trips.txt file, the service ID for the "
+				+ "trip is not valid in anytime in the future, "
+				+ "or the associated route is filtered out, "
+				+ "or the trip is filtered out. "
+				+ "Therefore this trip cannot be configured and "
+				+ "has been discarded.", tripId);
+	}
+	
+	/**
+	 * Adds the trip, whose schedule times have already been set, to the 
+	 * tripsCollection. If the trip is frequency based then a trip is added
+	 * for each start time or time range.
+	 * 
+	 * @param tripId
+	 * @param trip
+	 */
+	private void addTripToCollection(String tripId, Trip trip) {
+		if (isTripFrequencyBasedWithExactTimes(tripId)) {
+			// This is special case where for this trip ID 
+			// there is an entry in the frequencies.txt
+			// file with exact_times set indicating that need to create
+			// a separate Trip for each actual trip.  
+			List<Frequency> frequencyListForTripId =
+					frequencyMap.get(tripId);
+			for (Frequency frequency : frequencyListForTripId) {
+				for (int tripStartTime = frequency.getStartTime(); 
+						tripStartTime < frequency.getEndTime();
+						tripStartTime += frequency.getHeadwaySecs()) {
+					Trip frequencyBasedTrip = 
+							new Trip(trip,	tripStartTime);
+					tripsCollection.add(frequencyBasedTrip);
+				}
+			}
+		} else if (isTripFrequencyBasedWithoutExactTimes(tripId)) {
+			// This is a trip defined in the GTFS frequency.txt file
+			// to not be schedule based (not have exact_times set). 
+			// Need to create a trip for each time range defined for
+			// the trip in frequency.txt .
+			List<Frequency> frequencyListForTripId =
+					frequencyMap.get(tripId);
+			for (Frequency frequency : frequencyListForTripId) {
+				Trip frequencyBasedTrip =
+						new Trip(trip, frequency.getStartTime(),
+								frequency.getEndTime());
+				tripsCollection.add(frequencyBasedTrip);
+			}
+		} else {
+			// This is the normal case, an actual Trip that is not affected 
+			// by exact times in frequencies.txt data. Therefore simply add 
+			// it to the collection. It still might be a trip with no 
+			// schedule, but it isn't one with exact times.
+			tripsCollection.add(trip);
+		}
+	}
+	
+	/**
 	/**
 	 * For each route makes sure that the headsigns are unique if the last stop of
 	 * the trip is different. This way get different headsigns if the destination
@@ -1886,19 +2382,52 @@ public class GtfsData {
 			}
 		}
 		
+		// Fingerprint the trip patterns so that for a future incremental 
+		// import can determine which ones have changed. If doing an 
+		// incremental import reuse the stop paths from the previous config 
+		// rev for the trip patterns that haven't changed so that only the
+		// remaining ones need to be processed.
+		TripPatternFingerprints fingerprints = 
+				new TripPatternFingerprints(gtfsShapes, stopsMap, 
+						pathOffsetDistance, maxStopToPathDistance,
+						maxDistanceForEliminatingVertices,
+						trimPathBeforeFirstStopOfTrip, maxDistanceBetweenStops,
+						disableSpecialLoopBackToBeginningCase);
+		// Can't reuse if writing over the original config rev since then the
+		// previous trip patterns would conflict with the new ones in the
+		// session.
+		List<TripPattern> previousTripPatterns = null;
+		if (incrementalImport.getValue() && originalConfigRev >= 0
+				&& originalConfigRev != revs.getConfigRev())
+			previousTripPatterns = 
+					TripPattern.getTripPatterns(session, originalConfigRev);
+		Collection<TripPattern> tripPatternsToProcess = 
+				fingerprints.reuseUnchangedStopPaths(tripPatternMap.values(), 
+						previousTripPatterns);
+		if (previousTripPatterns != null) {
+			unchangedTripPatternIds = new HashSet<String>();
+			for (TripPattern tripPattern : tripPatternMap.values())
+				unchangedTripPatternIds.add(tripPattern.getId());
+			for (TripPattern tripPattern : tripPatternsToProcess)
+				unchangedTripPatternIds.remove(tripPattern.getId());
+		}
+		
 		// Process all the shapes into stopPaths
 		StopPathProcessor pathProcessor = 
 				new StopPathProcessor(
 						Collections.unmodifiableCollection(gtfsShapes), 
 						Collections.unmodifiableMap(stopsMap), 
-						Collections.unmodifiableCollection(tripPatternMap.values()),
+						Collections.unmodifiableCollection(tripPatternsToProcess),
 						pathOffsetDistance,
 						maxStopToPathDistance, 
 						maxDistanceForEliminatingVertices,
 						trimPathBeforeFirstStopOfTrip,
 						maxDistanceBetweenStops,
 						disableSpecialLoopBackToBeginningCase);
-		pathProcessor.processPathSegments();
+		if (streamingImport.getValue())
+			pathProcessor.processPathSegments(importThreads.getValue());
+		else
+			pathProcessor.processPathSegments();
 						
 		// Let user know what is going on
 		logger.info("Finished processing shapes.txt data. Took {} msec.",
@@ -2313,17 +2842,80 @@ public class GtfsData {
 	 * @return
 	 */
 	public boolean isStopTimesReadIn() {
+		if (stopTimesForTripMap != null)
+			return !stopTimesForTripMap.isEmpty();
 		return gtfsStopTimesForTripMap != null && !gtfsStopTimesForTripMap.isEmpty();
 	}
 	
 	/**
-	 * Returns list of GtfsStopTimes for the trip specified
+	 * Returns list of GtfsStopTimes for the trip specified. Not available
+	 * for a streaming import since then the GtfsStopTimes are not kept.
 	 * @param tripId
 	 * @return
 	 */
 	public List<GtfsStopTime> getGtfsStopTimesForTrip(String tripId) {
+		if (gtfsStopTimesForTripMap == null)
+			return null;
 		return gtfsStopTimesForTripMap.get(tripId);
 	}
+	
+	/**
+	 * For incremental processing. Returns the config rev that the unchanged
+	 * trip patterns were carried forward from.
+	 * 
+	 * @return the previous config rev, or -1 if not doing incremental
+	 *         processing
+	 */
+	public int getIncrementalBaseConfigRev() {
+		return unchangedTripPatternIds != null ? originalConfigRev : -1;
+	}
+	
+	/**
+	 * For incremental processing. Returns true if the trip pattern, and
+	 * therefore its stop paths, are unchanged from the previous config rev.
+	 * 
+	 * @param tripPatternId
+	 * @return true if unchanged. False if changed or not doing incremental
+	 *         processing.
+	 */
+	public boolean isTripPatternUnchanged(String tripPatternId) {
+		return unchangedTripPatternIds != null 
+				&& unchangedTripPatternIds.contains(tripPatternId);
+	}
+	
+	/**
+	 * Returns the arrival and departure times from stop_times.txt for the
+	 * specified trip and stop. Works for both regular and streaming imports.
+	 * 
+	 * @param tripId
+	 * @param gtfsStopSequence
+	 * @return The times, or null if the stop is not found or it doesn't have
+	 *         times
+	 */
+	public ScheduleTime getGtfsScheduleTime(String tripId, 
+			int gtfsStopSequence) {
+		if (stopTimesForTripMap != null) {
+			StopTimesForTrip stopTimes = stopTimesForTripMap.get(tripId);
+			return stopTimes != null ? 
+					stopTimes.getScheduleTime(gtfsStopSequence) : null;
+		}
+		
+		List<GtfsStopTime> gtfsStopTimesList = 
+				gtfsStopTimesForTripMap.get(tripId);
+		if (gtfsStopTimesList == null)
+			return null;
+		for (GtfsStopTime gtfsStopTime : gtfsStopTimesList) {
+			if (gtfsStopTime.getStopSequence() == gtfsStopSequence) {
+				Integer arr = gtfsStopTime.getArrivalTimeSecs();
+				Integer dep = gtfsStopTime.getDepartureTimeSecs();
+				if (arr == null && dep == null)
+					return null;
+				else
+					return new ScheduleTime(arr, dep);
+			}
+		}
+		return null;
+	}
 		
 	/**
 	 * @return Collection of all the Trip objects
@@ -2734,6 +3326,7 @@ public class GtfsData {
     gtfsRoutesMap = null;
     gtfsTripsMap = null;
     gtfsStopTimesForTripMap = null; 
+    stopTimesForTripMap = null;
     int originalNumberOfTravelTimes = travelTimesProcesssor.getOriginalNumberOfTravelTimes();
     int numberOfTravelTimes = travelTimesProcesssor.getNumberOfTravelTimes();
     int configRev = revs.getConfigRev();
@@ -2744,9 +3337,12 @@ public class GtfsData {
   		// Finish things up by closing the session
   		session.close();
   		
-  		// Let user know what is going on
-  		logger.info("Finished processing GTFS data from {} . Took {} msec.",
-  				gtfsDirectoryName, timer.elapsedMsec());
+  		// Let user know what is going on. Include peak heap usage so
+  		// that streaming and regular imports can be compared.
+  		logger.info("Finished processing GTFS data from {} . Took {} msec. "
+  				+ "Streaming import={}. Peak heap usage {} MB.",
+  				gtfsDirectoryName, timer.elapsedMsec(), 
+  				streamingImport.getValue(), getPeakHeapUsageMB());
     } catch (HibernateException e) {
       logger.error("Exception when writing data to db", e);
       throw e;
@@ -2789,6 +3385,21 @@ public class GtfsData {
 //		}
 	}
 
+  /**
+   * Returns the peak heap usage of the JVM so far. Used for reporting
+   * memory use of the GTFS import.
+   * 
+   * @return peak heap usage in MB
+   */
+  private static long getPeakHeapUsageMB() {
+    long peakBytes = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        peakBytes += pool.getPeakUsage().getUsed();
+    }
+    return peakBytes / (1024 * 1024);
+  }
+
   public Long updateMetrics(int originalTravelTimesCount, int expectedTravelTimesCount, int configRev, int travelTimesRev) {
     HibernateUtils.clearSessionFactory();
     SessionFactory sessionFactory =  
@@ -22,6 +22,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +38,7 @@ import org.transitclock.db.structs.Vector;
 import org.transitclock.gtfs.gtfsStructs.GtfsShape;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * Part of GtfsData class. Processes the shapes.txt data and converts
@@ -622,6 +628,20 @@ public class StopPathProcessor {
 	 * adjusted.
 	 */
 	public void processPathSegments() {
+		processPathSegments(1);
+	}
+	
+	/**
+	 * Determines the path segments for each trip pattern, as described for
+	 * processPathSegments(). Each trip pattern has its own stop paths so the
+	 * trip patterns can be processed in parallel using numberThreads
+	 * threads. This greatly speeds up processing of large GTFS feeds.
+	 * 
+	 * @param numberThreads
+	 *            Number of threads to use. If 1 then the trip patterns are
+	 *            simply processed by the calling thread.
+	 */
+	public void processPathSegments(int numberThreads) {
 		// For logging how long things take
 		IntervalTimer timer = new IntervalTimer();
 
@@ -629,26 +649,36 @@ public class StopPathProcessor {
 		logger.info("Processing and filtering path segment data...");
 		
 		// Need to process stopPaths for every trip pattern...
-		for (TripPattern tripPattern : tripPatterns) {
-			// Determine the GtfsShape associated with the TripPattern
-			String shapeId = tripPattern.getShapeId();
-			List<GtfsShape> gtfsShapesForTripPattern = gtfsShapesMap.get(shapeId);
+		if (numberThreads <= 1) {
+			for (TripPattern tripPattern : tripPatterns)
+				processTripPattern(tripPattern);
+		} else {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final TripPattern tripPattern : tripPatterns) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						processTripPattern(tripPattern);
+						return null;
+					}
+				});
+			}
 			
-			// If no shape defined then simply connect the stops
-			if (gtfsShapesForTripPattern == null) {
-				// Create stopPaths by connecting the stops
-				connectStopsSinceNoShapes(tripPattern);
-			} else {
-				// Determine list of shapes associated with the trip pattern.
-				// The stopPaths are offset to the right by the offsetDistance
-				// if needed. This is useful if the shapes.txt data is street
-				// centerline data.
-				List<Location> offsetLocations = 
-						getOffsetLocations(gtfsShapesMap.get(shapeId));
-						
-				// Create stopPaths by finding best match to shapes
-				determinePathSegmentsMatchingStopsToShapes(offsetLocations, 
-						tripPattern);
+			ExecutorService executor = Executors.newFixedThreadPool(
+					numberThreads, new NamedThreadFactory("stopPathProcessor"));
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks))
+					future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(
+						"Interrupted while processing path segments", e);
+			} catch (ExecutionException e) {
+				logger.error("Exception occurred when processing path "
+						+ "segments", e.getCause());
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
 			}
 		}
 		
@@ -658,4 +688,32 @@ public class StopPathProcessor {
 				timer.elapsedMsec());		
 	}
 	
+	/**
+	 * Determines the path segments for a single trip pattern.
+	 * 
+	 * @param tripPattern
+	 */
+	private void processTripPattern(TripPattern tripPattern) {
+		// Determine the GtfsShape associated with the TripPattern
+		String shapeId = tripPattern.getShapeId();
+		List<GtfsShape> gtfsShapesForTripPattern = gtfsShapesMap.get(shapeId);
+		
+		// If no shape defined then simply connect the stops
+		if (gtfsShapesForTripPattern == null) {
+			// Create stopPaths by connecting the stops
+			connectStopsSinceNoShapes(tripPattern);
+		} else {
+			// Determine list of shapes associated with the trip pattern.
+			// The stopPaths are offset to the right by the offsetDistance
+			// if needed. This is useful if the shapes.txt data is street
+			// centerline data.
+			List<Location> offsetLocations = 
+					getOffsetLocations(gtfsShapesMap.get(shapeId));
+					
+			// Create stopPaths by finding best match to shapes
+			determinePathSegmentsMatchingStopsToShapes(offsetLocations, 
+					tripPattern);
+		}
+	}
+	
 }
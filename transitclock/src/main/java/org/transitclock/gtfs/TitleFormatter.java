@@ -22,8 +22,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -92,8 +94,10 @@ public class TitleFormatter {
 	// and processing could then be sped up a bit since doing a 
 	// regex for each title is expensive.
 	private boolean logUnusedRegexs;
-	private HashSet<String> regexesThatMadeDifference = 
-			new HashSet<String>();
+	// Synchronized since titles can be processed by multiple threads when
+	// doing a streaming GTFS import
+	private Set<String> regexesThatMadeDifference = 
+			Collections.synchronizedSet(new HashSet<String>());
 	
 	private List<RegexInfo> regexReplaceList = 
 			new ArrayList<RegexInfo>();
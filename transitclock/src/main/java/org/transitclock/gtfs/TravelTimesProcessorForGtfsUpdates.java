@@ -17,6 +17,7 @@
 package org.transitclock.gtfs;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +35,6 @@ import org.transitclock.db.structs.TravelTimesForTrip;
 import org.transitclock.db.structs.Trip;
 import org.transitclock.db.structs.TripPattern;
 import org.transitclock.db.structs.TravelTimesForStopPath.HowSet;
-import org.transitclock.gtfs.gtfsStructs.GtfsStopTime;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.Time;
@@ -97,10 +97,10 @@ public class TravelTimesProcessorForGtfsUpdates {
 	 * times since trip times can be filtered and only contain times for
 	 * schedule adherence stops.
 	 * 
-	 * NOTE: this method simply does a linear search for the appropriate stop
-	 * through the list of travel times associated with the trip. Therefore it
-	 * could be rather slow! Might need to have GtfsData provide a ordered map
-	 * of GtfsStopTimes instead of just a List of them.
+	 * NOTE: GtfsData simply does a linear search for the appropriate stop
+	 * through the stop times associated with the trip. Therefore it could be
+	 * rather slow! Might need to have GtfsData provide a ordered map of
+	 * GtfsStopTimes instead of just a List of them.
 	 * 
 	 * @param tripId
 	 * @param tripPattern
@@ -110,27 +110,9 @@ public class TravelTimesProcessorForGtfsUpdates {
 	 */
 	private ScheduleTime getGtfsScheduleTime(String tripId,
 			TripPattern tripPattern, int gtfsStopSequence, GtfsData gtfsData) {
-		
-		// Go through list of stops for the tripId. 
-		List<GtfsStopTime> gtfsStopTimesList = 
-				gtfsData.getGtfsStopTimesForTrip(tripId);
-		for (int stopTimeIdx = 0; 
-				stopTimeIdx < gtfsStopTimesList.size(); 
-				++stopTimeIdx) {
-			GtfsStopTime gtfsStopTime = gtfsStopTimesList.get(stopTimeIdx);
-			if (gtfsStopTime.getStopSequence() == gtfsStopSequence) {
-				// Found the stop. 
-				Integer arr = gtfsStopTime.getArrivalTimeSecs();
-				Integer dep = gtfsStopTime.getDepartureTimeSecs();
-				if (arr == null && dep == null)
-					return null;
-				else
-					return new ScheduleTime(arr, dep);
-			}
-		}
-		
-		// Didn't find the stop so can't return SchduleTime
-		return null;
+		// GtfsData handles both regular imports, where the GtfsStopTimes
+		// are kept, and streaming imports, where only the times are kept
+		return gtfsData.getGtfsScheduleTime(tripId, gtfsStopSequence);
 	}
 	
 	/**
@@ -623,6 +605,52 @@ public class TravelTimesProcessorForGtfsUpdates {
 		return true;
 	}
 	
+	/**
+	 * For incremental processing of GTFS data. If the trip pattern of the
+	 * trip is unchanged from the previous config rev then the travel times
+	 * that the trip used for that config rev are carried forward, as long as
+	 * they are from the original travel times rev and still fit the trip.
+	 * This way don't need to search for travel times for the unchanged trips.
+	 * 
+	 * @param trip
+	 *            which trip trying to get travel times for
+	 * @param gtfsData
+	 *            for determining if trip pattern unchanged and for getting
+	 *            schedule info
+	 * @param previousTravelTimesIds
+	 *            IDs of the travel times used by the trips of the previous
+	 *            config rev, keyed on trip ID. Null if not incremental.
+	 * @param travelTimesFromDbById
+	 *            the travel times from the db, keyed on ID
+	 * @return travel times to carry forward, or null if there aren't any
+	 */
+	private TravelTimesForTrip previousTravelTimes(Trip trip, 
+			GtfsData gtfsData, Map<String, Integer> previousTravelTimesIds,
+			Map<Integer, TravelTimesForTrip> travelTimesFromDbById) {
+		if (previousTravelTimesIds == null 
+				|| !gtfsData.isTripPatternUnchanged(
+						trip.getTripPattern().getId()))
+			return null;
+		
+		// If the previous travel times are not from the original travel 
+		// times rev, such as when travel times have since been updated, 
+		// then can't carry them forward
+		Integer travelTimesId = previousTravelTimesIds.get(trip.getId());
+		TravelTimesForTrip previousTravelTimes = travelTimesId != null ? 
+				travelTimesFromDbById.get(travelTimesId) : null;
+		if (previousTravelTimes == null 
+				|| !stopPathsMatch(trip, previousTravelTimes)
+				|| !previousTravelTimes.isValid())
+			return null;
+		
+		// If based on the schedule then the schedule might have changed
+		if (previousTravelTimes.purelyScheduleBased() 
+				&& !scheduleCloseEnough(trip, previousTravelTimes, gtfsData))
+			return null;
+		
+		return previousTravelTimes;
+	}
+	
 	/**
 	 * Goes through every trip and and associates schedule based travel times
 	 * with trip if don't have GPS data for it.
@@ -630,14 +658,30 @@ public class TravelTimesProcessorForGtfsUpdates {
 	 * @param gtfsData
 	 * @param travelTimesFromDbMap
 	 *            Map keyed by tripPatternId of Lists of TripPatterns
+	 * @param previousTravelTimesIds
+	 *            For incremental processing. IDs of the travel times used by
+	 *            the trips of the previous config rev, keyed on trip ID. Null
+	 *            if not incremental.
 	 * @return the number of distinct traveltimes referenced for the travelTimesRev            
 	 * @throws HibernateException
 	 */
 	private Integer processTrips(GtfsData gtfsData, 
-			Map<String, List<TravelTimesForTrip>> travelTimesFromDbMap) {
+			Map<String, List<TravelTimesForTrip>> travelTimesFromDbMap,
+			Map<String, Integer> previousTravelTimesIds) {
 	  // keep a set of travel times for trips for metrics
 	  Set<Integer> travelTimesForTripIds = new HashSet<Integer>();
 	  
+		// For carrying forward travel times of unchanged trips
+		Map<Integer, TravelTimesForTrip> travelTimesFromDbById = 
+				new HashMap<Integer, TravelTimesForTrip>();
+		if (previousTravelTimesIds != null) {
+			for (List<TravelTimesForTrip> ttList : travelTimesFromDbMap.values()) {
+				for (TravelTimesForTrip tt : ttList)
+					travelTimesFromDbById.put(tt.getId(), tt);
+			}
+		}
+		int numberCarriedForward = 0;
+		
 		// For trip read from GTFS data..
 		for (Trip trip : gtfsData.getTrips()) {
 			TripPattern tripPattern = trip.getTripPattern();
@@ -652,10 +696,20 @@ public class TravelTimesProcessorForGtfsUpdates {
 			List<TravelTimesForTrip> ttForTripFromDbList = 
 					travelTimesFromDbMap.get(tripPattern.getId());			
 
+			// For incremental processing carry forward the travel times 
+			// that the trip used in the previous config rev if the trip is
+			// unchanged
+			TravelTimesForTrip travelTimesToUse = previousTravelTimes(trip,
+					gtfsData, previousTravelTimesIds, travelTimesFromDbById);
+			if (travelTimesToUse != null)
+				++numberCarriedForward;
+			
 			// See if have historic non-schedule based travel times from db for 
 			// the trip
-			TravelTimesForTrip travelTimesToUse =
-					travelTimesForTripFromDb(trip, ttForTripFromDbList, false);
+			if (travelTimesToUse == null) {
+				travelTimesToUse =
+						travelTimesForTripFromDb(trip, ttForTripFromDbList, false);
+			}
 
 			// If didn't find travel times for trip see if have non-schedule 
 			// based ones for same trip pattern.
@@ -698,6 +752,11 @@ public class TravelTimesProcessorForGtfsUpdates {
 			// the database.
 			trip.setTravelTimes(travelTimesToUse);
 		}			
+		
+		if (previousTravelTimesIds != null)
+			logger.info("Carried forward the travel times of {} unchanged "
+					+ "trips out of {} trips.", numberCarriedForward, 
+					gtfsData.getTrips().size());
 		return travelTimesForTripIds.size();
 	}
 	
@@ -757,8 +816,17 @@ public class TravelTimesProcessorForGtfsUpdates {
 		setOriginalNumberOfTravelTimes(
 				numberOfTravelTimes(travelTimesFromDbMap));
 		
+		// If doing incremental processing then read in which travel times
+		// the trips of the previous config rev used so that they can be 
+		// carried forward for the unchanged trips
+		Map<String, Integer> previousTravelTimesIds = null;
+		if (gtfsData.getIncrementalBaseConfigRev() >= 0)
+			previousTravelTimesIds = Trip.getTravelTimesIds(session, 
+					gtfsData.getIncrementalBaseConfigRev());
+		
 		// Do the low-level processing
-		setNumberOfTravelTimes(processTrips(gtfsData, travelTimesFromDbMap));
+		setNumberOfTravelTimes(processTrips(gtfsData, travelTimesFromDbMap,
+				previousTravelTimesIds));
 							
 		// Let user know what is going on
 		logger.info("Finished processing travel time data. " + 
@@ -0,0 +1,242 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.gtfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.db.structs.Location;
+import org.transitclock.db.structs.Stop;
+import org.transitclock.db.structs.StopPath;
+import org.transitclock.db.structs.TripPattern;
+import org.transitclock.gtfs.gtfsStructs.GtfsShape;
+
+/**
+ * For incremental processing of GTFS data. Determines a fingerprint for each
+ * trip pattern that covers all of the input data that is used by
+ * StopPathProcessor to determine the locations of the stop paths: the shape,
+ * the stops and their locations, and the path processing parameters. If the
+ * fingerprint of a trip pattern is the same as for the trip pattern with the
+ * same ID in the previous config rev then the stop paths would be the same.
+ * Therefore the locations of the previous stop paths can simply be reused
+ * instead of doing the expensive matching of stops to shapes again.
+ */
+public class TripPatternFingerprints {
+
+	// Fingerprint for each shape, keyed on shapeId
+	private final Map<String, Long> shapeFingerprints =
+			new HashMap<String, Long>();
+
+	private final Map<String, Stop> stopsMap;
+
+	// Fingerprint of the parameters used for processing the stop paths
+	private final long parametersFingerprint;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(TripPatternFingerprints.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor. Determines the fingerprints for all of the shapes.
+	 *
+	 * @param gtfsShapes
+	 *            The shapes, including any supplemental data
+	 * @param stopsMap
+	 *            The stops, keyed on stopId
+	 * @param parameters
+	 *            The parameters used by StopPathProcessor. If any of them
+	 *            change then the stop paths need to be processed again.
+	 */
+	public TripPatternFingerprints(Collection<GtfsShape> gtfsShapes,
+			Map<String, Stop> stopsMap, Object... parameters) {
+		this.stopsMap = stopsMap;
+
+		long fingerprint = START;
+		for (Object parameter : parameters)
+			fingerprint = add(fingerprint, String.valueOf(parameter));
+		this.parametersFingerprint = fingerprint;
+
+		// Group the shape points by shapeId and sort them by sequence so
+		// that the fingerprint doesn't depend on the order of the file
+		Map<String, List<GtfsShape>> gtfsShapesMap =
+				new HashMap<String, List<GtfsShape>>();
+		for (GtfsShape gtfsShape : gtfsShapes) {
+			List<GtfsShape> gtfsShapesForShapeId =
+					gtfsShapesMap.get(gtfsShape.getShapeId());
+			if (gtfsShapesForShapeId == null) {
+				gtfsShapesForShapeId = new ArrayList<GtfsShape>();
+				gtfsShapesMap.put(gtfsShape.getShapeId(), gtfsShapesForShapeId);
+			}
+			gtfsShapesForShapeId.add(gtfsShape);
+		}
+		for (Map.Entry<String, List<GtfsShape>> entry :
+				gtfsShapesMap.entrySet()) {
+			List<GtfsShape> gtfsShapesForShapeId = entry.getValue();
+			Collections.sort(gtfsShapesForShapeId);
+			long shapeFingerprint = START;
+			for (GtfsShape gtfsShape : gtfsShapesForShapeId)
+				shapeFingerprint = add(shapeFingerprint, gtfsShape.getLocation());
+			shapeFingerprints.put(entry.getKey(), shapeFingerprint);
+		}
+	}
+
+	// For combining values into a 64-bit FNV-1a style hash
+	private static final long START = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private static long add(long fingerprint, long value) {
+		for (int i=0; i<8; ++i) {
+			fingerprint ^= (value >>> (8*i)) & 0xff;
+			fingerprint *= PRIME;
+		}
+		return fingerprint;
+	}
+
+	private static long add(long fingerprint, String value) {
+		if (value == null)
+			return add(fingerprint, 0L);
+
+		for (int i=0; i<value.length(); ++i)
+			fingerprint = add(fingerprint, value.charAt(i));
+		// Include length so that concatenated strings are distinguished
+		return add(fingerprint, value.length());
+	}
+
+	private static long add(long fingerprint, Location location) {
+		if (location == null)
+			return add(fingerprint, 0L);
+
+		fingerprint = add(fingerprint,
+				Double.doubleToLongBits(location.getLat()));
+		return add(fingerprint, Double.doubleToLongBits(location.getLon()));
+	}
+
+	/**
+	 * Determines the fingerprint of the input data for the trip pattern.
+	 *
+	 * @param tripPattern
+	 * @return the fingerprint
+	 */
+	public long getFingerprint(TripPattern tripPattern) {
+		long fingerprint = parametersFingerprint;
+
+		// Shape. If no shape then stops are simply connected
+		String shapeId = tripPattern.getShapeId();
+		fingerprint = add(fingerprint, shapeId);
+		Long shapeFingerprint = shapeFingerprints.get(shapeId);
+		fingerprint =
+				add(fingerprint, shapeFingerprint != null ? shapeFingerprint : 0L);
+
+		// The stops and their locations
+		for (StopPath stopPath : tripPattern.getStopPaths()) {
+			fingerprint = add(fingerprint, stopPath.getId());
+			fingerprint = add(fingerprint, stopPath.getStopId());
+			Stop stop = stopsMap.get(stopPath.getStopId());
+			fingerprint = add(fingerprint, stop != null ? stop.getLoc() : null);
+		}
+
+		return fingerprint;
+	}
+
+	/**
+	 * Sets the fingerprint for each of the new trip patterns. For the trip
+	 * patterns that have the same fingerprint as the trip pattern with the
+	 * same ID from the previous config rev the locations of the stop paths
+	 * are copied from the previous trip pattern.
+	 *
+	 * @param tripPatterns
+	 *            The new trip patterns
+	 * @param previousTripPatterns
+	 *            The trip patterns from the previous config rev. If null then
+	 *            no stop paths are reused.
+	 * @return The trip patterns whose stop paths were not reused and
+	 *         therefore still need to be processed
+	 */
+	public Collection<TripPattern> reuseUnchangedStopPaths(
+			Collection<TripPattern> tripPatterns,
+			Collection<TripPattern> previousTripPatterns) {
+		// Put previous trip patterns into map keyed on ID
+		Map<String, TripPattern> previousTripPatternsMap =
+				new HashMap<String, TripPattern>();
+		if (previousTripPatterns != null) {
+			for (TripPattern previousTripPattern : previousTripPatterns)
+				previousTripPatternsMap.put(previousTripPattern.getId(),
+						previousTripPattern);
+		}
+
+		List<TripPattern> tripPatternsToProcess = new ArrayList<TripPattern>();
+		for (TripPattern tripPattern : tripPatterns) {
+			long fingerprint = getFingerprint(tripPattern);
+			tripPattern.setInputFingerprint(fingerprint);
+
+			TripPattern previousTripPattern =
+					previousTripPatternsMap.get(tripPattern.getId());
+			if (previousTripPattern == null
+					|| previousTripPattern.getInputFingerprint() == null
+					|| previousTripPattern.getInputFingerprint() != fingerprint
+					|| !copyStopPathLocations(previousTripPattern,
+							tripPattern)) {
+				tripPatternsToProcess.add(tripPattern);
+			}
+		}
+
+		logger.info("Of the {} trip patterns {} were unchanged from the "
+				+ "previous config rev so their stop paths were reused. "
+				+ "{} trip patterns need to be processed.",
+				tripPatterns.size(),
+				tripPatterns.size() - tripPatternsToProcess.size(),
+				tripPatternsToProcess.size());
+
+		return tripPatternsToProcess;
+	}
+
+	/**
+	 * Copies the locations of the stop paths from the previous trip pattern
+	 * to the new one.
+	 *
+	 * @param previousTripPattern
+	 * @param tripPattern
+	 * @return true if successful, false if the stop paths didn't match up
+	 */
+	private static boolean copyStopPathLocations(
+			TripPattern previousTripPattern, TripPattern tripPattern) {
+		List<StopPath> previousStopPaths = previousTripPattern.getStopPaths();
+		List<StopPath> stopPaths = tripPattern.getStopPaths();
+		if (previousStopPaths.size() != stopPaths.size())
+			return false;
+		for (int i=0; i<stopPaths.size(); ++i) {
+			StopPath previousStopPath = previousStopPaths.get(i);
+			if (!previousStopPath.getId().equals(stopPaths.get(i).getId())
+					|| previousStopPath.getLocations() == null
+					|| previousStopPath.getLocations().isEmpty())
+				return false;
+		}
+
+		for (int i=0; i<stopPaths.size(); ++i) {
+			stopPaths.get(i).setLocations(new ArrayList<Location>(
+					previousStopPaths.get(i).getLocations()));
+		}
+		return true;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.ipc.data;
+
+import java.io.Serializable;
+
+import org.transitclock.utils.LatencyHistogram;
+
+/**
+ * Latency statistics for a stage of processing AVL reports, for Inter
+ * Process Communication (IPC). All latencies are in microseconds.
+ */
+public class IpcPipelineStageLatency implements Serializable {
+
+	private final String stage;
+	private final String description;
+	private final long windowStartTime;
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long max;
+
+	private static final long serialVersionUID = -3356230851733271466L;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param stage
+	 *            Name of the stage
+	 * @param description
+	 *            Description for display
+	 * @param windowStartTime
+	 *            Epoch time in msec of when the histogram was last reset
+	 * @param histogram
+	 *            The latencies for the stage, in microseconds
+	 */
+	public IpcPipelineStageLatency(String stage, String description,
+			long windowStartTime, LatencyHistogram histogram) {
+		this.stage = stage;
+		this.description = description;
+		this.windowStartTime = windowStartTime;
+		this.count = histogram.getCount();
+		this.mean = histogram.getMean();
+		this.p50 = histogram.getValueAtPercentile(50.0);
+		this.p90 = histogram.getValueAtPercentile(90.0);
+		this.p99 = histogram.getValueAtPercentile(99.0);
+		this.max = histogram.getMax();
+	}
+
+	@Override
+	public String toString() {
+		return "IpcPipelineStageLatency ["
+				+ "stage=" + stage
+				+ ", count=" + count
+				+ ", mean=" + mean
+				+ ", p50=" + p50
+				+ ", p90=" + p90
+				+ ", p99=" + p99
+				+ ", max=" + max
+				+ "]";
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public long getWindowStartTime() {
+		return windowStartTime;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+}
@@ -50,6 +50,23 @@ public interface CommandsInterface extends Remote {
 	 */
 	public String pushAvl(Collection<IpcAvl> avlData) throws RemoteException;
 	
+	/**
+	 * Sends a batch of AVL data to the server in a single call. The data is
+	 * a serialized GTFS-realtime FeedMessage containing VehiclePosition
+	 * entities. Sending the serialized bytes is much more compact than
+	 * sending an IpcAvl object for each report and the server only needs to
+	 * deserialize a single byte array.
+	 * 
+	 * @param feedMessage
+	 *            Serialized GTFS-realtime FeedMessage
+	 * @return For each entity, true if it was accepted. An entity is not
+	 *         accepted if it doesn't have a vehicle ID and position or if
+	 *         the AVL queue is full.
+	 * @throws RemoteException
+	 *             If the FeedMessage could not be parsed
+	 */
+	public boolean[] pushAvlBatch(byte[] feedMessage) throws RemoteException;
+	
 	/*
 	 * WIP This is to give a means of manually setting a vehicle unpredictable and unassigned so it will be reassigned quickly.
 	 */
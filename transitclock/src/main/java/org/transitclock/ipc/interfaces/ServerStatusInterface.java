@@ -20,7 +20,9 @@ package org.transitclock.ipc.interfaces;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.Date;
+import java.util.List;
 
+import org.transitclock.ipc.data.IpcPipelineStageLatency;
 import org.transitclock.ipc.data.IpcServerStatus;
 
 /**
@@ -59,4 +61,23 @@ public interface ServerStatusInterface extends Remote {
 	 * @throws RemoteException
 	 */
 	public Date getCurrentServerTime() throws RemoteException;
+	
+	/**
+	 * Gets the latency percentiles for each stage of processing AVL reports,
+	 * followed by the total latency. Latencies are in microseconds.
+	 * 
+	 * @return List of latencies for each stage
+	 * @throws RemoteException
+	 */
+	public List<IpcPipelineStageLatency> getPipelineLatencies()
+			throws RemoteException;
+	
+	/**
+	 * Gets the metrics for the internals of the core, such as queue sizes,
+	 * cache hit ratios, and timings, in the Prometheus text format.
+	 * 
+	 * @return The metrics as text
+	 * @throws RemoteException
+	 */
+	public String getMetrics() throws RemoteException;
 }
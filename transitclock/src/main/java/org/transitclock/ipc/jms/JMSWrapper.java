@@ -90,6 +90,10 @@ public class JMSWrapper {
 	private Connection connection;
 	private Session session;
 	
+	// True if the ConnectionFactory was provided instead of being looked
+	// up via JNDI
+	private boolean connectionFactoryProvided = false;
+	
 	private static final Logger logger= 
 			LoggerFactory.getLogger(JMSWrapper.class);
 	
@@ -106,6 +110,21 @@ public class JMSWrapper {
 		initiateConnection();
 	}
 	
+	/**
+	 * Constructor for when the ConnectionFactory is already available, such
+	 * as for an embedded JMS server. Since JNDI isn't used the topics and
+	 * queues cannot be looked up by name.
+	 * 
+	 * @param connectionFactory
+	 * @throws JMSException
+	 */
+	private JMSWrapper(ConnectionFactory connectionFactory) 
+			throws JMSException {
+		this.connectionFactory = connectionFactory;
+		this.connectionFactoryProvided = true;
+		createSession();
+	}
+	
 	/**
 	 * Does all the initialization. Called by constructor but
 	 * sometimes needs to be called by another class if the session
@@ -116,6 +135,17 @@ public class JMSWrapper {
 	 */
 	public void initiateConnection() 
 			throws NamingException, JMSException {
+		if (!connectionFactoryProvided)
+			lookUpConnectionFactory();
+		createSession();
+	}
+	
+	/**
+	 * Looks up the ConnectionFactory of the hornetq server via JNDI
+	 * 
+	 * @throws NamingException
+	 */
+	private void lookUpConnectionFactory() throws NamingException {
 		// Specify how to access the hornetq server
 		java.util.Properties p = new java.util.Properties();	
 		p.put(javax.naming.Context.INITIAL_CONTEXT_FACTORY,
@@ -128,6 +158,14 @@ public class JMSWrapper {
 		initialContext = new InitialContext(p);
 		connectionFactory = 
 				(ConnectionFactory) initialContext.lookup("/ConnectionFactory");
+	}
+	
+	/**
+	 * Creates the connection and the session that is reused
+	 * 
+	 * @throws JMSException
+	 */
+	private void createSession() throws JMSException {
 		connection = connectionFactory.createConnection();
 		connection.start();
 		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);		
@@ -149,6 +187,21 @@ public class JMSWrapper {
 		return new JMSWrapper();
 	}
 	
+	/**
+	 * Returns a new JMSWrapper that uses the specified ConnectionFactory
+	 * instead of looking it up via JNDI. Topics and queues then need to be
+	 * obtained from the JMS implementation directly instead of by name via
+	 * getTopic() or getQueue().
+	 * 
+	 * @param connectionFactory
+	 * @return
+	 * @throws JMSException
+	 */
+	public static JMSWrapper getJMSWrapper(ConnectionFactory connectionFactory) 
+			throws JMSException {
+		return new JMSWrapper(connectionFactory);
+	}
+	
 	/**
 	 * Needed for classes such as RestartableMessageProducer
 	 * which needs Session to create message objects.
@@ -135,8 +135,10 @@ public abstract class AbstractServer {
 			logger.info("Setting up AbstractServer for RMI using secondary "
 					+ "port={}", RmiParams.getSecondaryRmiPort());
 			// Export the RMI stub. Specify that should use special port for
-			// secondary RMI communication.
-			stub = UnicastRemoteObject.exportObject(remoteThis,
+			// secondary RMI communication. A proxy is exported instead of
+			// this object so that metrics are recorded for each call.
+			stub = UnicastRemoteObject.exportObject(
+					ServerCallInvocationHandler.createProxy(remoteThis),
 					RmiParams.getSecondaryRmiPort());
 
 			// Make sure the registry exists
@@ -0,0 +1,128 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.ipc.rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.transitclock.monitoring.metrics.Counter;
+import org.transitclock.monitoring.metrics.Histogram;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
+
+/**
+ * The server side counterpart to RmiCallInvocationHandler. AbstractServer
+ * exports a proxy that uses this handler instead of exporting the server
+ * object directly so that the time and errors of each RMI call are recorded
+ * as metrics, labeled by the interface and method.
+ */
+class ServerCallInvocationHandler implements InvocationHandler {
+
+	// The server object that does the work
+	private final Object delegate;
+
+	// The metrics for each method. Created lazily since only a few of the
+	// methods are typically called.
+	private final ConcurrentMap<Method, Histogram> callTimes =
+			new ConcurrentHashMap<Method, Histogram>();
+	private final ConcurrentMap<Method, Counter> callErrors =
+			new ConcurrentHashMap<Method, Counter>();
+
+	/********************** Member Functions **************************/
+
+	private ServerCallInvocationHandler(Object delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Creates a proxy for the server object that implements all of its
+	 * Remote interfaces and records metrics for each call.
+	 *
+	 * @param server
+	 *            The server object to be exported
+	 * @return the proxy to export instead of the server object
+	 */
+	static Remote createProxy(Remote server) {
+		Set<Class<?>> remoteInterfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> c = server.getClass(); c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				if (Remote.class.isAssignableFrom(i))
+					remoteInterfaces.add(i);
+			}
+		}
+
+		return (Remote) Proxy.newProxyInstance(
+				server.getClass().getClassLoader(),
+				remoteInterfaces.toArray(new Class<?>[remoteInterfaces.size()]),
+				new ServerCallInvocationHandler(server));
+	}
+
+	private Histogram getCallTime(Method method) {
+		Histogram histogram = callTimes.get(method);
+		if (histogram == null) {
+			histogram = MetricsRegistry.getInstance().histogram(
+					"transitclock_rmi_call_seconds",
+					"How long RMI calls take on the server",
+					"interface", method.getDeclaringClass().getSimpleName(),
+					"method", method.getName());
+			callTimes.put(method, histogram);
+		}
+		return histogram;
+	}
+
+	private Counter getCallErrors(Method method) {
+		Counter counter = callErrors.get(method);
+		if (counter == null) {
+			counter = MetricsRegistry.getInstance().counter(
+					"transitclock_rmi_call_errors_total",
+					"Number of RMI calls that threw an exception on the server",
+					"interface", method.getDeclaringClass().getSimpleName(),
+					"method", method.getName());
+			callErrors.put(method, counter);
+		}
+		return counter;
+	}
+
+	/**
+	 * Calls the method on the server object and records how long it took.
+	 * Exceptions thrown by the server object are propagated unchanged.
+	 */
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		// toString(), hashCode() and equals() are for the proxy itself
+		// and should not be counted as RMI calls
+		if (Object.class == method.getDeclaringClass())
+			return method.invoke(delegate, args);
+
+		long startNanos = System.nanoTime();
+		try {
+			return method.invoke(delegate, args);
+		} catch (InvocationTargetException e) {
+			getCallErrors(method).increment();
+			throw e.getCause();
+		} finally {
+			getCallTime(method).recordSince(startNanos);
+		}
+	}
+}
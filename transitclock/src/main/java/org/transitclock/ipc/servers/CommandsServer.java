@@ -3,8 +3,10 @@ package org.transitclock.ipc.servers;
 import java.rmi.RemoteException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,10 +19,17 @@ import org.transitclock.core.dataCache.VehicleDataCache;
 import org.transitclock.core.dataCache.VehicleStateManager;
 import org.transitclock.db.structs.AvlReport;
 import org.transitclock.db.structs.VehicleEvent;
+import org.transitclock.feed.gtfsRt.GtfsRtVehiclePositionsReaderBase;
 import org.transitclock.ipc.data.IpcAvl;
 import org.transitclock.ipc.data.IpcVehicleComplete;
 import org.transitclock.ipc.interfaces.CommandsInterface;
 import org.transitclock.ipc.rmi.AbstractServer;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.PipelineStage;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 
 public class CommandsServer extends AbstractServer 
 	implements CommandsInterface {
@@ -28,6 +37,9 @@ public class CommandsServer extends AbstractServer
 	// Should only be accessed as singleton class
 	private static CommandsServer singleton;
 
+	// Source of the AVL reports pushed in batches
+	private static final String AVL_BATCH_SOURCE = "API";
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(CommandsServer.class);
 
@@ -107,6 +119,57 @@ public class CommandsServer extends AbstractServer
 		return null;
 	}
 
+	/**
+	 * Called on server side via RMI when a batch of AVL data is to be
+	 * processed. The whole batch is handed to the AvlExecutor at once.
+	 * 
+	 * @param feedMessage
+	 *            Serialized GTFS-realtime FeedMessage
+	 * @return For each entity, whether it was accepted
+	 */
+	@Override
+	public boolean[] pushAvlBatch(byte[] feedMessage) throws RemoteException {
+		long receiptNanos = System.nanoTime();
+		FeedMessage message;
+		try {
+			message = FeedMessage.parseFrom(feedMessage);
+		} catch (InvalidProtocolBufferException e) {
+			throw new RemoteException("Could not parse GTFS-realtime "
+					+ "FeedMessage. " + e.getMessage());
+		}
+		
+		// Convert the entities to AVL reports, keeping track of which
+		// entity each report is for
+		int numEntities = message.getEntityCount();
+		List<AvlReport> avlReports = new ArrayList<AvlReport>(numEntities);
+		int[] entityIndexes = new int[numEntities];
+		for (int i=0; i<numEntities; ++i) {
+			FeedEntity entity = message.getEntity(i);
+			if (!entity.hasVehicle())
+				continue;
+			AvlReport avlReport = GtfsRtVehiclePositionsReaderBase
+					.createAvlReport(entity.getVehicle(), AVL_BATCH_SOURCE);
+			if (avlReport == null)
+				continue;
+			
+			PipelineLatencyMonitor.stamp(avlReport, PipelineStage.FEED_RECEIPT,
+					receiptNanos);
+			entityIndexes[avlReports.size()] = i;
+			avlReports.add(avlReport);
+		}
+		
+		// Use AvlExecutor to actually process the data
+		boolean[] reportAccepted =
+				AvlExecutor.getInstance().processAvlReports(avlReports);
+		
+		boolean[] accepted = new boolean[numEntities];
+		for (int i=0; i<reportAccepted.length; ++i)
+			accepted[entityIndexes[i]] = reportAccepted[i];
+		logger.debug("Processed batch of {} AVL reports from {} entities",
+				avlReports.size(), numEntities);
+		return accepted;
+	}
+
 	@Override
 	public void setVehicleUnpredictable(String vehicleId) throws RemoteException {
 				
@@ -19,14 +19,18 @@ package org.transitclock.ipc.servers;
 
 import java.rmi.RemoteException;
 import java.util.Date;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.applications.Core;
+import org.transitclock.ipc.data.IpcPipelineStageLatency;
 import org.transitclock.ipc.data.IpcServerStatus;
 import org.transitclock.ipc.interfaces.ServerStatusInterface;
 import org.transitclock.ipc.rmi.AbstractServer;
 import org.transitclock.monitoring.AgencyMonitor;
+import org.transitclock.monitoring.PipelineLatencyMonitor;
+import org.transitclock.monitoring.metrics.MetricsRegistry;
 
 /**
  * Runs on the server side and receives IPC calls and returns results.
@@ -103,4 +107,21 @@ public class ServerStatusServer extends AbstractServer
 		return new Date(Core.getInstance().getSystemTime());
 	}
 
+	/* (non-Javadoc)
+	 * @see org.transitclock.ipc.interfaces.ServerStatusInterface#getPipelineLatencies()
+	 */
+	@Override
+	public List<IpcPipelineStageLatency> getPipelineLatencies()
+			throws RemoteException {
+		return PipelineLatencyMonitor.getInstance().getLatencies();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitclock.ipc.interfaces.ServerStatusInterface#getMetrics()
+	 */
+	@Override
+	public String getMetrics() throws RemoteException {
+		return MetricsRegistry.getInstance().getTextFormat();
+	}
+
 }
@@ -0,0 +1,210 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.maintenance;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.applications.Core;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.config.StringConfigValue;
+import org.transitclock.configData.AgencyConfig;
+import org.transitclock.db.archive.ColumnarArchive;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.Match;
+import org.transitclock.logging.Markers;
+import org.transitclock.modules.Module;
+import org.transitclock.utils.Time;
+
+/**
+ * A module that runs in a separate thread and once a day exports the AVL
+ * reports, arrivals/departures, and matches for the days that are complete
+ * into the columnar archive files (see ColumnarArchive). The data is not
+ * deleted from the database.
+ * <p>
+ * transitclock.archive.directory must be set for this module to do anything.
+ */
+public class ArchiveDbDataModule extends Module {
+
+	/******************** Parameters ************************************/
+
+	private static StringConfigValue timeToArchive =
+			new StringConfigValue("transitclock.archive.timeToArchive",
+					"02:00:00", // 2 am
+					"Specified time of day that should archive the historic "
+					+ "data from the database. Should usually be run in "
+					+ "middle of night when load is less. Time is in the "
+					+ "format HH:MM:SS");
+
+	private static IntegerConfigValue daysTillArchived =
+			new IntegerConfigValue("transitclock.archive.daysTillArchived",
+					2,
+					"How many days old the data for a day needs to be before "
+					+ "it is archived. Need to wait a bit so that the data "
+					+ "for the day is complete.");
+
+	private static IntegerConfigValue maxDaysToArchive =
+			new IntegerConfigValue("transitclock.archive.maxDaysToArchive",
+					30,
+					"How many days back to look for days whose data has not "
+					+ "yet been archived.");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ArchiveDbDataModule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public ArchiveDbDataModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * Sleeps until the time of day specified by timeToArchive
+	 */
+	private void sleepTillAppropriateTime() {
+		int secondsIntoDay = Time.parseTimeOfDay(timeToArchive.getValue());
+
+		int nowSecsIntoDay =
+				Core.getInstance().getTime().getMsecsIntoDay(new Date())
+				/ Time.MS_PER_SEC;
+		int secsToSleep = secondsIntoDay - nowSecsIntoDay;
+		if (nowSecsIntoDay > secondsIntoDay)
+			secsToSleep += 1 * Time.SEC_PER_DAY;
+		Time.sleep(secsToSleep * Time.MS_PER_SEC);
+	}
+
+	/**
+	 * Archives the data for the days that are complete but have not yet been
+	 * archived.
+	 *
+	 * @param now
+	 * @throws IOException
+	 */
+	public void archiveDays(Date now) throws IOException {
+		// Determine the first day that is too recent to archive
+		Date endDayStart = ColumnarArchive.getDayStart(now);
+		for (int i=1; i<daysTillArchived.getValue(); ++i)
+			endDayStart = ColumnarArchive.getDayStart(
+					new Date(endDayStart.getTime() - Time.MS_PER_HOUR));
+
+		Date dayStart = new Date(endDayStart.getTime()
+				- maxDaysToArchive.getValue() * Time.MS_PER_DAY);
+		dayStart = ColumnarArchive.getDayStart(dayStart);
+		while (dayStart.before(endDayStart)) {
+			Date nextDayStart = ColumnarArchive.getNextDayStart(dayStart);
+			archiveDay(dayStart, nextDayStart);
+			dayStart = nextDayStart;
+		}
+	}
+
+	/**
+	 * Archives the data for a single day for the tables that have not yet
+	 * been archived. If there is no data for a table for the day then nothing
+	 * is written so that it can be tried again later.
+	 *
+	 * @param dayStart
+	 * @param nextDayStart
+	 * @throws IOException
+	 */
+	private void archiveDay(Date dayStart, Date nextDayStart)
+			throws IOException {
+		// Each day is the half open range [dayStart, nextDayStart) so that a
+		// row at exactly midnight is only archived with the day it starts.
+		// The arrival/departure and match queries include the end time, and
+		// a db that only stores seconds can round an end time just before
+		// midnight up to midnight, so rows at nextDayStart are dropped here.
+		if (!ColumnarArchive.isArchived(ColumnarArchive.ARRIVALS_DEPARTURES,
+				dayStart)) {
+			List<ArrivalDeparture> arrDeps =
+					ArrivalDeparture.getArrivalsDeparturesFromDb(agencyId,
+							dayStart, nextDayStart, "ORDER BY time", null, 
+							null, null); // arrivalOrDeparture. Null means both
+			if (arrDeps != null) {
+				Iterator<ArrivalDeparture> iterator = arrDeps.iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next().getTime() >= nextDayStart.getTime())
+						iterator.remove();
+				}
+			}
+			if (arrDeps != null && !arrDeps.isEmpty())
+				ColumnarArchive.writeArrivalsDepartures(dayStart, arrDeps);
+		}
+
+		if (!ColumnarArchive.isArchived(ColumnarArchive.MATCHES, dayStart)) {
+			List<Match> matches = Match.getMatchesFromDb(agencyId, dayStart,
+					nextDayStart, "ORDER BY avlTime", null, null);
+			if (matches != null) {
+				Iterator<Match> iterator = matches.iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next().getTime() >= nextDayStart.getTime())
+						iterator.remove();
+				}
+			}
+			if (matches != null && !matches.isEmpty())
+				ColumnarArchive.writeMatches(dayStart, matches);
+		}
+
+		// The AVL report query already excludes the end time
+		if (!ColumnarArchive.isArchived(ColumnarArchive.AVL_REPORTS,
+				dayStart)) {
+			List<AvlReport> avlReports = AvlReport.getAvlReportsFromDb(
+					dayStart, nextDayStart, null, "ORDER BY time");
+			if (avlReports != null && !avlReports.isEmpty())
+				ColumnarArchive.writeAvlReports(dayStart, avlReports);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		if (!ColumnarArchive.isEnabled()) {
+			logger.error("transitclock.archive.directory not set so "
+					+ "ArchiveDbDataModule not archiving any data.");
+			return;
+		}
+
+		while (true) {
+			try {
+				// Sleep until the time of day specified by timeToArchive
+				sleepTillAppropriateTime();
+
+				logger.info("ArchiveDbDataModule reached appropriate time "
+						+ "of {} so archiving historic data.",
+						timeToArchive.getValue());
+				archiveDays(new Date());
+			} catch (Exception e) {
+				logger.error(Markers.email(),
+						"Error when archiving historic data for agencyId={}.",
+						AgencyConfig.getAgencyId(), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.ipc.data.IpcPipelineStageLatency;
+import org.transitclock.utils.LatencyHistogram;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.Timer;
+
+/**
+ * For determining where the time goes when processing AVL reports. As an
+ * AVL report goes through each PipelineStage it is stamped with the current
+ * monotonic time and the time since the previous stage it went through is
+ * recorded in a histogram for the stage. When the last stage is reached the
+ * time since the first stage is recorded as the total latency. An async
+ * stage is instead timed from the stage it follows and is not part of the
+ * total latency.
+ * <p>
+ * The histograms cover a window of transitclock.monitoring.pipelineLatencyWindowMins
+ * minutes. At the end of each window the percentiles are logged and the
+ * histograms are reset. The percentiles for the current window are available
+ * via ServerStatusInterface.
+ * <p>
+ * Since the stage times are transient they are lost if AVL reports are
+ * sent via JMS. In that case the stages are only timed starting with the
+ * AVL client that reads from JMS.
+ */
+public class PipelineLatencyMonitor {
+
+	private static final PipelineStage[] STAGES = PipelineStage.values();
+
+	// The async stages come after it but are not part of the total
+	private static final PipelineStage LAST_STAGE =
+			PipelineStage.DB_LOGGER_ENQUEUE;
+
+	private static final String TOTAL_STAGE = "TOTAL";
+
+	// Histogram for each stage, indexed by the stage ordinal
+	private final LatencyHistogram[] stageHistograms =
+			new LatencyHistogram[STAGES.length];
+
+	private final LatencyHistogram totalHistogram = new LatencyHistogram();
+
+	// When the histograms were last reset
+	private volatile long windowStartTime;
+
+	/*********** Configurable Parameters for this module ***********/
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue("transitclock.monitoring.pipelineLatency",
+					true,
+					"Whether to record how long each stage of processing an "
+					+ "AVL report takes.");
+
+	private static IntegerConfigValue windowMins =
+			new IntegerConfigValue(
+					"transitclock.monitoring.pipelineLatencyWindowMins",
+					60,
+					"How many minutes of AVL processing the pipeline latency "
+					+ "percentiles cover. At the end of each window the "
+					+ "percentiles are logged and then reset. If 0 then "
+					+ "they are never reset.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(PipelineLatencyMonitor.class);
+
+	// Created after the config values since the constructor uses them
+	private static PipelineLatencyMonitor singleton =
+			new PipelineLatencyMonitor();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private because singleton class
+	 */
+	private PipelineLatencyMonitor() {
+		for (int i=0; i<STAGES.length; ++i)
+			stageHistograms[i] = new LatencyHistogram();
+		windowStartTime = System.currentTimeMillis();
+
+		int mins = windowMins.getValue();
+		if (mins > 0) {
+			Timer.get().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						logAndReset();
+					} catch (Exception e) {
+						logger.error("Exception logging pipeline latencies",
+								e);
+					}
+				}
+			}, mins, mins, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Returns singleton instance
+	 *
+	 * @return the PipelineLatencyMonitor
+	 */
+	public static PipelineLatencyMonitor getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Records that the AVL report has reached the specified stage now.
+	 *
+	 * @param avlReport
+	 * @param stage
+	 */
+	public static void stamp(AvlReport avlReport, PipelineStage stage) {
+		stamp(avlReport, stage, System.nanoTime());
+	}
+
+	/**
+	 * Records that the AVL report reached the specified stage at the
+	 * specified time. Useful for when a batch of AVL reports was received
+	 * at the same time.
+	 *
+	 * @param avlReport
+	 * @param stage
+	 * @param nanoTime
+	 *            Time from System.nanoTime()
+	 */
+	public static void stamp(AvlReport avlReport, PipelineStage stage,
+			long nanoTime) {
+		if (!enabled.getValue() || avlReport == null)
+			return;
+
+		singleton.record(avlReport.getPipelineStageNanos(), stage, nanoTime);
+	}
+
+	/**
+	 * @param avlReport
+	 * @param stage
+	 * @return true if the AVL report has already been stamped for the stage
+	 */
+	public static boolean isStamped(AvlReport avlReport, PipelineStage stage) {
+		return avlReport.getPipelineStageNanos()[stage.ordinal()] != 0;
+	}
+
+	/**
+	 * Stores the time for the stage and records the time since the previous
+	 * stage that was stamped. For the last stage also records the total time
+	 * since the first stage that was stamped. An async stage only records
+	 * the time since the stage it follows.
+	 *
+	 * @param stageNanos
+	 *            The stage times of the AVL report
+	 * @param stage
+	 * @param nanoTime
+	 */
+	private void record(long[] stageNanos, PipelineStage stage, long nanoTime) {
+		int index = stage.ordinal();
+		stageNanos[index] = nanoTime;
+
+		if (stage.isAsync()) {
+			long followsNanos = stageNanos[stage.getFollows().ordinal()];
+			if (followsNanos != 0)
+				stageHistograms[index].record((nanoTime - followsNanos) / 1000);
+			return;
+		}
+
+		// The async stages come after the last stage so they are not
+		// looked at
+		for (int i=index-1; i>=0; --i) {
+			if (stageNanos[i] != 0) {
+				stageHistograms[index].record((nanoTime - stageNanos[i]) / 1000);
+				break;
+			}
+		}
+
+		if (stage == LAST_STAGE) {
+			for (int i=0; i<index; ++i) {
+				if (stageNanos[i] != 0) {
+					totalHistogram.record((nanoTime - stageNanos[i]) / 1000);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the latency statistics for each stage for the current window,
+	 * followed by the total latency.
+	 *
+	 * @return list of the latencies
+	 */
+	public List<IpcPipelineStageLatency> getLatencies() {
+		List<IpcPipelineStageLatency> latencies =
+				new ArrayList<IpcPipelineStageLatency>(STAGES.length + 1);
+		for (PipelineStage stage : STAGES) {
+			latencies.add(new IpcPipelineStageLatency(stage.name(),
+					stage.getDescription(), windowStartTime,
+					stageHistograms[stage.ordinal()]));
+		}
+		latencies.add(new IpcPipelineStageLatency(TOTAL_STAGE,
+				"Total", windowStartTime, totalHistogram));
+		return latencies;
+	}
+
+	/**
+	 * Logs the latencies for the window that just ended and then resets the
+	 * histograms for the next window.
+	 */
+	private void logAndReset() {
+		for (IpcPipelineStageLatency latency : getLatencies()) {
+			if (latency.getCount() > 0)
+				logger.info("Pipeline latency since {} {}",
+						Time.dateTimeStr(windowStartTime), latency);
+		}
+
+		for (LatencyHistogram histogram : stageHistograms)
+			histogram.reset();
+		totalHistogram.reset();
+		windowStartTime = System.currentTimeMillis();
+	}
+}
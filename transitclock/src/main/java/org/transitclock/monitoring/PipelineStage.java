@@ -0,0 +1,78 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring;
+
+/**
+ * The stages that an AVL report goes through when being processed, in the
+ * order that they happen. Used by PipelineLatencyMonitor to determine how
+ * long each stage takes. The time recorded for a stage is the time since the
+ * previous stage that the AVL report went through.
+ * <p>
+ * The async stages are for work that the AVL processing hands off to other
+ * threads, such as when predictions are generated asynchronously. The time
+ * recorded for an async stage is the time since the stage it follows, and
+ * the async stages are not part of the total latency.
+ */
+public enum PipelineStage {
+	FEED_RECEIPT("Feed receipt"),
+	QUEUE_ENQUEUE("AVL queue enqueue"),
+	QUEUE_DEQUEUE("AVL queue dequeue"),
+	SPATIAL_MATCH("Spatial match"),
+	TEMPORAL_MATCH("Temporal match"),
+	PREDICTION_GENERATION("Prediction generation"),
+	PREDICTION_CACHE_UPDATE("Prediction cache update"),
+	ARRIVAL_DEPARTURE_GENERATION("Arrival/departure generation"),
+	DB_LOGGER_ENQUEUE("Db logger enqueue"),
+	ASYNC_PREDICTION_GENERATION("Async prediction generation", 
+			TEMPORAL_MATCH),
+	ASYNC_PREDICTION_CACHE_UPDATE("Async prediction cache update",
+			ASYNC_PREDICTION_GENERATION);
+
+	private final String description;
+	
+	// For an async stage the stage that its time is measured from
+	private final PipelineStage follows;
+
+	private PipelineStage(String description) {
+		this(description, null);
+	}
+
+	private PipelineStage(String description, PipelineStage follows) {
+		this.description = description;
+		this.follows = follows;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return true if the stage is done by another thread than the one
+	 *         processing the AVL report
+	 */
+	public boolean isAsync() {
+		return follows != null;
+	}
+
+	/**
+	 * @return for an async stage, the stage that its time is measured from.
+	 *         Otherwise null.
+	 */
+	public PipelineStage getFollows() {
+		return follows;
+	}
+}
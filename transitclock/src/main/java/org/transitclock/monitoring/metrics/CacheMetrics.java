@@ -0,0 +1,104 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The standard metrics for a cache: the number of hits, the number of
+ * misses, and how long lookups take. A lookup that returns null or an empty
+ * collection is considered a miss.
+ */
+public class CacheMetrics {
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Histogram getTime;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param cacheName
+	 *            used as the "cache" label of the metrics
+	 */
+	public CacheMetrics(String cacheName) {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		hits = registry.counter("transitclock_cache_hits_total",
+				"Number of cache lookups that found data", "cache", cacheName);
+		misses = registry.counter("transitclock_cache_misses_total",
+				"Number of cache lookups that did not find data",
+				"cache", cacheName);
+		getTime = registry.histogram("transitclock_cache_get_seconds",
+				"How long cache lookups take", "cache", cacheName);
+	}
+
+	/**
+	 * Records the result of a lookup
+	 *
+	 * @param result
+	 *            what the lookup returned
+	 * @param startNanos
+	 *            when the lookup started, from System.nanoTime()
+	 * @return the result, so that the lookup can be returned directly
+	 */
+	public <T> T record(T result, long startNanos) {
+		record(isHit(result), startNanos);
+		return result;
+	}
+
+	/**
+	 * Records a lookup for when the caller determines whether it was a hit
+	 *
+	 * @param hit
+	 *            true if the lookup found data
+	 * @param startNanos
+	 *            when the lookup started, from System.nanoTime()
+	 */
+	public void record(boolean hit, long startNanos) {
+		getTime.recordSince(startNanos);
+		if (hit)
+			hits.increment();
+		else
+			misses.increment();
+	}
+
+	/**
+	 * Records the result of a lookup for when the lookup wasn't timed.
+	 *
+	 * @param result
+	 *            what the lookup returned
+	 * @return the result
+	 */
+	public <T> T record(T result) {
+		if (isHit(result))
+			hits.increment();
+		else
+			misses.increment();
+		return result;
+	}
+
+	private static boolean isHit(Object result) {
+		if (result == null)
+			return false;
+		if (result instanceof Collection)
+			return !((Collection<?>) result).isEmpty();
+		if (result instanceof Map)
+			return !((Map<?, ?>) result).isEmpty();
+		return true;
+	}
+}
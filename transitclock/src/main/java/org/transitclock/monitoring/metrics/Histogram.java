@@ -0,0 +1,134 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring.metrics;
+
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.utils.LatencyHistogram;
+
+/**
+ * For timing something, such as writing a batch of data to the db. Durations
+ * are recorded in microseconds and are exported as a summary in seconds with
+ * the 50%, 90%, and 99% quantiles.
+ * <p>
+ * The sum and count cover the lifetime of the process, as Prometheus
+ * expects. The quantiles only cover the recent past so that they reflect
+ * current performance instead of being dominated by old values. The window
+ * is split into slots so that it slides forward one slot at a time.
+ */
+public class Histogram {
+
+	// Number of slots that the quantile window is split into
+	private static final int NUM_SLOTS = 5;
+
+	// For the lifetime sum and count
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	// Histogram for each slot of the window, along with which slot period,
+	// the time divided by the slot length, it currently contains
+	private final LatencyHistogram[] slots = new LatencyHistogram[NUM_SLOTS];
+	private final long[] slotPeriods = new long[NUM_SLOTS];
+
+	/********************** Config Params **************************/
+
+	private static IntegerConfigValue quantileWindowSecs =
+			new IntegerConfigValue(
+					"transitclock.monitoring.metricsQuantileWindowSecs",
+					600,
+					"The quantiles output for timing metrics are for the "
+					+ "durations recorded within this many seconds.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Package-private since should be created via MetricsRegistry
+	 */
+	Histogram() {
+		for (int i=0; i<NUM_SLOTS; ++i) {
+			slots[i] = new LatencyHistogram();
+			slotPeriods[i] = -1;
+		}
+	}
+
+	/**
+	 * @return length of a slot of the quantile window in msec
+	 */
+	private static long getSlotMsec() {
+		return Math.max(1000L * quantileWindowSecs.getValue() / NUM_SLOTS, 1);
+	}
+
+	/**
+	 * Returns the histogram for the slot of the current time. If the slot
+	 * still contains values from a previous period it is cleared first.
+	 *
+	 * @param period
+	 *            Current time divided by the slot length
+	 * @return the histogram for the current slot
+	 */
+	private LatencyHistogram getSlot(long period) {
+		int index = (int) (period % NUM_SLOTS);
+		synchronized (slotPeriods) {
+			if (slotPeriods[index] != period) {
+				slots[index].reset();
+				slotPeriods[index] = period;
+			}
+		}
+		return slots[index];
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param micros
+	 *            duration in microseconds
+	 */
+	public void record(long micros) {
+		total.record(micros);
+		getSlot(System.currentTimeMillis() / getSlotMsec()).record(micros);
+	}
+
+	/**
+	 * Records the duration from startNanos until now
+	 *
+	 * @param startNanos
+	 *            start time from System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * @return histogram of all the durations recorded, for the sum and count
+	 */
+	LatencyHistogram getLatencyHistogram() {
+		return total;
+	}
+
+	/**
+	 * @return histogram of the durations recorded within the quantile window
+	 */
+	LatencyHistogram getWindowHistogram() {
+		LatencyHistogram window = new LatencyHistogram();
+		long currentPeriod = System.currentTimeMillis() / getSlotMsec();
+		synchronized (slotPeriods) {
+			for (int i=0; i<NUM_SLOTS; ++i) {
+				if (currentPeriod - slotPeriods[i] < NUM_SLOTS)
+					window.add(slots[i]);
+			}
+		}
+		return window;
+	}
+}
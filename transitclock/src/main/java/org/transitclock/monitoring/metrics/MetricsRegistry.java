@@ -0,0 +1,342 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.utils.LatencyHistogram;
+
+/**
+ * Singleton registry of all the metrics for the core. Metrics are identified
+ * by a name plus optional labels, specified as name/value pairs, such as
+ * counter("transitclock_db_objects_written_total", "...", "queue",
+ * "AvlReport"). Getting a metric that already exists returns the existing
+ * one so that classes that are instantiated multiple times share the metric.
+ * Getting a metric is a map lookup so the result should be stored in a
+ * member when it is used frequently.
+ * <p>
+ * The metrics are output in the Prometheus text exposition format so that
+ * they can be scraped by Prometheus or similar tools.
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry singleton = new MetricsRegistry();
+
+	// Quantiles output for histograms
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private enum Type {
+		COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+		private final String text;
+
+		private Type(String text) {
+			this.text = text;
+		}
+	}
+
+	/**
+	 * All of the metrics with the same name, keyed by their label string
+	 */
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final ConcurrentMap<String, Object> metrics =
+				new ConcurrentSkipListMap<String, Object>();
+
+		private Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	// Sorted so that the output is in a consistent order
+	private final ConcurrentMap<String, Family> families =
+			new ConcurrentSkipListMap<String, Family>();
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(MetricsRegistry.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private because singleton class
+	 */
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Returns singleton instance
+	 *
+	 * @return the MetricsRegistry
+	 */
+	public static MetricsRegistry getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns the family of metrics with the specified name, creating it if
+	 * needed.
+	 *
+	 * @param name
+	 * @param help
+	 * @param type
+	 * @return the family
+	 * @throws IllegalArgumentException
+	 *             if the name is already used for a different type of metric
+	 */
+	private Family getFamily(String name, String help, Type type) {
+		Family family = families.get(name);
+		if (family == null) {
+			Family newFamily = new Family(name, help, type);
+			family = families.putIfAbsent(name, newFamily);
+			if (family == null)
+				family = newFamily;
+		}
+
+		if (family.type != type)
+			throw new IllegalArgumentException("Metric " + name
+					+ " is already registered as a " + family.type.text);
+		return family;
+	}
+
+	/**
+	 * Converts the label name/value pairs into the Prometheus label format,
+	 * without the surrounding braces. Values are escaped.
+	 *
+	 * @param labels
+	 *            name/value pairs
+	 * @return the label string, empty if there are no labels
+	 */
+	private static String labelString(String... labels) {
+		if (labels.length % 2 != 0)
+			throw new IllegalArgumentException(
+					"Labels must be name/value pairs");
+
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<labels.length; i+=2) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(labels[i]).append("=\"");
+			String value = labels[i+1] == null ? "" : labels[i+1];
+			for (int j=0; j<value.length(); ++j) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"')
+					sb.append('\\').append(c);
+				else if (c == '\n')
+					sb.append("\\n");
+				else
+					sb.append(c);
+			}
+			sb.append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the metric for the label string, creating it if needed.
+	 *
+	 * @param family
+	 * @param labelString
+	 * @param newMetric
+	 *            The metric to use if there isn't one already
+	 * @return the metric
+	 */
+	private static Object getMetric(Family family, String labelString,
+			Object newMetric) {
+		Object metric = family.metrics.putIfAbsent(labelString, newMetric);
+		return metric != null ? metric : newMetric;
+	}
+
+	/**
+	 * Returns the counter with the specified name and labels, creating it if
+	 * it doesn't already exist.
+	 *
+	 * @param name
+	 *            Name of the metric. By convention ends with "_total"
+	 * @param help
+	 *            Description of the metric
+	 * @param labels
+	 *            name/value pairs
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		Family family = getFamily(name, help, Type.COUNTER);
+		return (Counter) getMetric(family, labelString(labels), new Counter());
+	}
+
+	/**
+	 * Returns the histogram with the specified name and labels, creating it
+	 * if it doesn't already exist.
+	 *
+	 * @param name
+	 *            Name of the metric. By convention ends with "_seconds"
+	 * @param help
+	 *            Description of the metric
+	 * @param labels
+	 *            name/value pairs
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		Family family = getFamily(name, help, Type.SUMMARY);
+		return (Histogram) getMetric(family, labelString(labels),
+				new Histogram());
+	}
+
+	/**
+	 * Registers a gauge with the specified name and labels. If a gauge was
+	 * already registered with the name and labels then it is replaced, so
+	 * that the value is for the most recently created object.
+	 *
+	 * @param name
+	 *            Name of the metric
+	 * @param help
+	 *            Description of the metric
+	 * @param gauge
+	 *            For getting the value when the metrics are read
+	 * @param labels
+	 *            name/value pairs
+	 */
+	public void gauge(String name, String help, Gauge gauge,
+			String... labels) {
+		Family family = getFamily(name, help, Type.GAUGE);
+		family.metrics.put(labelString(labels), gauge);
+	}
+
+	/**
+	 * Removes the metric with the specified name and labels. For when the
+	 * labels identify something transient, such as a connection, so that
+	 * the metrics don't accumulate.
+	 *
+	 * @param name
+	 *            Name of the metric
+	 * @param labels
+	 *            name/value pairs
+	 */
+	public void remove(String name, String... labels) {
+		Family family = families.get(name);
+		if (family != null)
+			family.metrics.remove(labelString(labels));
+	}
+
+	/**
+	 * Formats a value as required by the text format
+	 *
+	 * @param value
+	 * @return the value as a string
+	 */
+	private static String formatValue(double value) {
+		if (Double.isNaN(value))
+			return "NaN";
+		if (Double.isInfinite(value))
+			return value > 0 ? "+Inf" : "-Inf";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * Appends a single sample line
+	 *
+	 * @param sb
+	 * @param name
+	 * @param labelString
+	 * @param extraLabel
+	 *            Additional label, such as for the quantile, or null
+	 * @param value
+	 */
+	private static void appendSample(StringBuilder sb, String name,
+			String labelString, String extraLabel, double value) {
+		sb.append(name);
+		if (!labelString.isEmpty() || extraLabel != null) {
+			sb.append('{').append(labelString);
+			if (extraLabel != null) {
+				if (!labelString.isEmpty())
+					sb.append(',');
+				sb.append(extraLabel);
+			}
+			sb.append('}');
+		}
+		sb.append(' ').append(formatValue(value)).append('\n');
+	}
+
+	/**
+	 * Returns all of the metrics in the Prometheus text exposition format,
+	 * version 0.0.4.
+	 *
+	 * @return the metrics as text
+	 */
+	public String getTextFormat() {
+		StringBuilder sb = new StringBuilder(16 * 1024);
+		for (Family family : families.values()) {
+			sb.append("# HELP ").append(family.name).append(' ')
+					.append(family.help.replace("\\", "\\\\")
+							.replace("\n", "\\n"))
+					.append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ')
+					.append(family.type.text).append('\n');
+
+			for (Map.Entry<String, Object> entry :
+					family.metrics.entrySet()) {
+				String labelString = entry.getKey();
+				Object metric = entry.getValue();
+				switch (family.type) {
+				case COUNTER:
+					appendSample(sb, family.name, labelString, null,
+							((Counter) metric).get());
+					break;
+				case GAUGE:
+					double value;
+					try {
+						value = ((Gauge) metric).getValue();
+					} catch (Exception e) {
+						logger.error("Exception getting value of gauge {}",
+								family.name, e);
+						value = Double.NaN;
+					}
+					appendSample(sb, family.name, labelString, null, value);
+					break;
+				case SUMMARY:
+					// Quantiles are for the recent window while the sum
+					// and count are for the lifetime of the process
+					LatencyHistogram window =
+							((Histogram) metric).getWindowHistogram();
+					LatencyHistogram histogram =
+							((Histogram) metric).getLatencyHistogram();
+					for (double quantile : QUANTILES) {
+						appendSample(sb, family.name, labelString,
+								"quantile=\"" + quantile + "\"",
+								window.getValueAtPercentile(quantile * 100.0)
+										/ 1000000.0);
+					}
+					appendSample(sb, family.name + "_sum", labelString, null,
+							histogram.getSum() / 1000000.0);
+					appendSample(sb, family.name + "_count", labelString,
+							null, histogram.getCount());
+					break;
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
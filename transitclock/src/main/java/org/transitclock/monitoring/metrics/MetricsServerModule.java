@@ -0,0 +1,124 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.monitoring.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.modules.Module;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small embedded HTTP listener that serves the metrics from the
+ * MetricsRegistry at /metrics in the Prometheus text format. Allows the
+ * metrics of the core to be scraped without the API being deployed.
+ * Enable by adding org.transitclock.monitoring.metrics.MetricsServerModule
+ * to transitclock.modules.optionalModulesList.
+ */
+public class MetricsServerModule extends Module {
+
+	/*********** Configurable Parameters for this module ***********/
+	private static IntegerConfigValue metricsPort =
+			new IntegerConfigValue("transitclock.monitoring.metricsPort",
+					9464,
+					"Port of the embedded HTTP listener that serves the "
+					+ "metrics of the core at /metrics.");
+
+	private static IntegerConfigValue numThreads =
+			new IntegerConfigValue("transitclock.monitoring.metricsThreads",
+					2,
+					"Number of threads for the embedded HTTP listener that "
+					+ "serves the metrics.");
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(MetricsServerModule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public MetricsServerModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * Handles a request for the metrics
+	 */
+	private static class MetricsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())
+						&& !"HEAD".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+
+				byte[] body = MetricsRegistry.getInstance().getTextFormat()
+						.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				if ("HEAD".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(200, -1);
+					return;
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			} catch (RuntimeException e) {
+				logger.error("Exception serving metrics", e);
+				exchange.sendResponseHeaders(500, -1);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			HttpServer server = HttpServer.create(
+					new InetSocketAddress(metricsPort.getValue()), 0);
+			server.createContext("/metrics", new MetricsHandler());
+			server.setExecutor(Executors.newFixedThreadPool(
+					numThreads.getValue(),
+					new NamedThreadFactory("metricsServer")));
+			server.start();
+			logger.info("Serving metrics at http://localhost:{}/metrics",
+					metricsPort.getValue());
+		} catch (IOException e) {
+			logger.error("Could not start metrics server on port {}",
+					metricsPort.getValue(), e);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Utilities for histograms of integer values, such as the histograms of
+ * prediction accuracy and of schedule adherence in seconds that are stored
+ * in the hourly rollup tables. A histogram is a map of the value to the
+ * number of times that value occurred.
+ */
+public class HistogramUtils {
+
+	// Maximum length of the string for a histogram. Longer histograms need
+	// to be split up using split().
+	public static final int MAX_STRING_LENGTH = 4000;
+
+	// Maximum string length of a value:count pair, including the comma
+	private static final int MAX_PAIR_LENGTH = 23;
+
+	/**
+	 * Increments the count for the value in the histogram
+	 * 
+	 * @param histogram
+	 * @param value
+	 */
+	public static void add(SortedMap<Integer, Integer> histogram, int value) {
+		Integer count = histogram.get(value);
+		histogram.put(value, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Converts histogram to a string of the form "-5:2,0:7,12:1" where the
+	 * first value of each pair is the value and the second is the number of
+	 * times that value occurred.
+	 *
+	 * @param histogram
+	 * @return the histogram as a string
+	 */
+	public static String format(SortedMap<Integer, Integer> histogram) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(entry.getKey()).append(':').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Converts string created by format() back to a histogram.
+	 *
+	 * @param histogramStr
+	 * @return the histogram. Empty if histogramStr is null or empty.
+	 */
+	public static SortedMap<Integer, Integer> parse(String histogramStr) {
+		SortedMap<Integer, Integer> histogram = new TreeMap<Integer, Integer>();
+		if (histogramStr == null || histogramStr.isEmpty())
+			return histogram;
+
+		for (String pair : histogramStr.split(",")) {
+			int colon = pair.indexOf(':');
+			histogram.put(Integer.parseInt(pair.substring(0, colon)),
+					Integer.parseInt(pair.substring(colon + 1)));
+		}
+		return histogram;
+	}
+
+	/**
+	 * Splits the histogram into histograms that are each short enough to be
+	 * formatted into a string of at most MAX_STRING_LENGTH characters.
+	 * Usually the result is just the original histogram.
+	 * 
+	 * @param histogram
+	 * @return list of the histograms. Empty if the histogram is empty.
+	 */
+	public static List<SortedMap<Integer, Integer>> split(
+			SortedMap<Integer, Integer> histogram) {
+		List<SortedMap<Integer, Integer>> histograms =
+				new ArrayList<SortedMap<Integer, Integer>>();
+		SortedMap<Integer, Integer> current = new TreeMap<Integer, Integer>();
+		int length = 0;
+		for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+			if (length + MAX_PAIR_LENGTH > MAX_STRING_LENGTH) {
+				histograms.add(current);
+				current = new TreeMap<Integer, Integer>();
+				length = 0;
+			}
+			current.put(entry.getKey(), entry.getValue());
+			length += MAX_PAIR_LENGTH;
+		}
+		if (!current.isEmpty())
+			histograms.add(current);
+		return histograms;
+	}
+
+	/**
+	 * Returns the total of the counts in the histogram
+	 * 
+	 * @param histogram
+	 * @return the number of values in the histogram
+	 */
+	public static int getCount(SortedMap<Integer, Integer> histogram) {
+		int count = 0;
+		for (int n : histogram.values())
+			count += n;
+		return count;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of non-negative values, such as latencies in
+ * microseconds, for determining percentiles without having to keep every
+ * value. Values are counted in logarithmic buckets where each power of two
+ * is split into 8 sub-buckets, so percentiles are accurate to within
+ * 12.5% while the histogram takes a fixed, small amount of memory. Recording
+ * a value is lock free so it can be done from the AVL processing threads.
+ */
+public class LatencyHistogram {
+
+	// Number of sub-buckets per power of two, as bits
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any non-negative long
+	private static final int NUM_BUCKETS =
+			(63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Returns index of bucket that the value belongs in. Values less than
+	 * SUB_BUCKETS each get their own bucket.
+	 *
+	 * @param value
+	 * @return index into counts
+	 */
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value that is counted in the specified bucket.
+	 *
+	 * @param index
+	 * @return largest value of the bucket
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int shift = index / SUB_BUCKETS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Adds a value to the histogram. Negative values are counted as 0.
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		counts.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value))
+			currentMax = max.get();
+	}
+
+	/**
+	 * Adds all of the values recorded by another histogram to this one. For
+	 * combining histograms that each cover a period of time.
+	 *
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i=0; i<NUM_BUCKETS; ++i) {
+			long n = other.counts.get(i);
+			if (n > 0)
+				counts.addAndGet(i, n);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+
+		long otherMax = other.max.get();
+		long currentMax = max.get();
+		while (otherMax > currentMax
+				&& !max.compareAndSet(currentMax, otherMax))
+			currentMax = max.get();
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the values recorded
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the largest value recorded, or 0 if none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0.0 if none
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n > 0 ? (double) sum.get() / n : 0.0;
+	}
+
+	/**
+	 * Returns the value that the specified percentage of recorded values are
+	 * less than or equal to. Since values are counted in buckets the value
+	 * returned is the upper bound of the bucket, but is never more than the
+	 * max value recorded.
+	 *
+	 * @param percentile
+	 *            Between 0.0 and 100.0
+	 * @return the value at the percentile, or 0 if no values recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0)
+			return 0;
+
+		long target = (long) Math.ceil(total * percentile / 100.0);
+		if (target < 1)
+			target = 1;
+
+		long cumulative = 0;
+		for (int i=0; i<NUM_BUCKETS; ++i) {
+			cumulative += counts.get(i);
+			if (cumulative >= target)
+				return Math.min(bucketUpperBound(i), max.get());
+		}
+
+		// Values recorded while iterating can make count larger than what
+		// was summed up, so just return max.
+		return max.get();
+	}
+
+	/**
+	 * Clears out all recorded values. Not atomic with respect to values
+	 * being recorded at the same time, which is fine for statistics.
+	 */
+	public void reset() {
+		for (int i=0; i<NUM_BUCKETS; ++i)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram ["
+				+ "count=" + getCount()
+				+ ", mean=" + Geo.oneDigitFormat(getMean())
+				+ ", p50=" + getValueAtPercentile(50.0)
+				+ ", p90=" + getValueAtPercentile(90.0)
+				+ ", p99=" + getValueAtPercentile(99.0)
+				+ ", max=" + getMax()
+				+ "]";
+	}
+}
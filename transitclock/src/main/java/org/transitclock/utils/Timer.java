@@ -17,7 +17,9 @@
 package org.transitclock.utils;
 
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 
+import org.transitclock.utils.threading.NamedThread;
 import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
@@ -36,6 +38,11 @@ import org.transitclock.utils.threading.NamedThreadFactory;
  * @author SkiBu Smith
  */
 public class Timer {
+	
+	// Single timer shared by the infrequent, quick housekeeping tasks so
+	// that each one doesn't need its own thread
+	private static ScheduledThreadPoolExecutor sharedTimer = null;
+	
 	public static ScheduledThreadPoolExecutor get() {
 		// A timer is created to be used. Therefore pretty much
 		// always want to have a single thread available so that
@@ -53,4 +60,27 @@ public class Timer {
 		return executor;
 	}
 
+	/**
+	 * Returns the timer that is shared by infrequent, quick housekeeping
+	 * tasks such as refreshing caches at midnight or writing snapshots. Its
+	 * single thread is a daemon so that it doesn't keep the application from
+	 * exiting. Tasks that take a while or that run frequently should use
+	 * their own timer from get() so that they don't delay the other tasks.
+	 * 
+	 * @return the shared timer
+	 */
+	public static synchronized ScheduledThreadPoolExecutor getShared() {
+		if (sharedTimer == null) {
+			sharedTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = 
+							new NamedThread(r, Timer.class.getName() + "-shared");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedTimer;
+	}
 }
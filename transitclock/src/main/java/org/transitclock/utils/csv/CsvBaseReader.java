@@ -24,9 +24,16 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -34,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * For parsing a CSV file. Does all of the hard work. This class is
@@ -60,6 +68,10 @@ public abstract class CsvBaseReader<T> {
 	
 	// The CSV objects read from the file
 	protected List<T> gtfsObjects;
+	
+	// When parsing using multiple threads the records are converted to
+	// objects in chunks of this size
+	private static final int RECORDS_PER_CHUNK = 10000;
 
 	protected static final Logger logger = 
 			LoggerFactory.getLogger(CsvBaseReader.class);
@@ -103,12 +115,120 @@ public abstract class CsvBaseReader<T> {
 	abstract protected T handleRecord(CSVRecord record, boolean supplemental)
 		throws ParseException, NumberFormatException;
 	
+	/**
+	 * For processing the CSV objects one at a time as they are read in
+	 * instead of first putting all of them into a list. Useful for very large
+	 * files such as stop_times.txt since then don't need to hold all of the
+	 * objects in memory at once.
+	 */
+	public interface ObjectHandler<T> {
+		/**
+		 * Called for each CSV object read in, in the order of the file. Is
+		 * always called by the thread that is parsing the file.
+		 * 
+		 * @param gtfsObject
+		 *            The object created by handleRecord()
+		 */
+		void handleObject(T gtfsObject);
+	}
+	
+	/**
+	 * Converts a record into a CSV object using handleRecord(). Logs errors
+	 * so that processing can continue with the other records.
+	 * 
+	 * @param record
+	 * @return The CSV object, or null if blank line, if there was a problem
+	 *         with the record, or if the object was filtered out
+	 */
+	private T convertRecord(CSVRecord record) {
+		// If blank line then skip it. This way avoid error messages since
+		// expected data column won't exist
+		if (record.size() == 0)
+			return null;
+		
+		// Process the record using appropriate handler
+		// and create the corresponding CSV object
+		try {
+			return handleRecord(record, supplemental);
+		} catch (ParseException e) {
+			logger.error("ParseException occurred for record {} "
+					+ "(comment lines not included when determing record #) for "
+					+ "filename {} . {}",  
+					record.getRecordNumber(), fileName, e.getMessage());
+		} catch (NumberFormatException e) {
+			logger.error("NumberFormatException occurred for record {} "
+					+ "(comment lines not included when determing record #) "
+					+ "for filename {} . {}", 
+					record.getRecordNumber(), fileName, e.getMessage());
+		}
+
+		// Continue even though there was an error so that all errors 
+		// logged at once.					
+		return null;
+	}
+	
+	/**
+	 * For converting a chunk of records into CSV objects in a separate thread
+	 */
+	private class ChunkConverter implements Callable<List<T>> {
+		private final List<CSVRecord> records;
+		
+		private ChunkConverter(List<CSVRecord> records) {
+			this.records = records;
+		}
+		
+		@Override
+		public List<T> call() {
+			List<T> objects = new ArrayList<T>(records.size());
+			for (CSVRecord record : records) {
+				T gtfsObject = convertRecord(record);
+				if (gtfsObject != null)
+					objects.add(gtfsObject);
+			}
+			return objects;
+		}
+	}
+	
+	/**
+	 * Hands the CSV objects from the oldest chunk to the handler. Waits for
+	 * the chunk to be converted if necessary.
+	 * 
+	 * @param chunks
+	 * @param handler
+	 */
+	private void handleOldestChunk(Deque<Future<List<T>>> chunks,
+			ObjectHandler<T> handler) throws IOException {
+		try {
+			for (T gtfsObject : chunks.removeFirst().get())
+				handler.handleObject(gtfsObject);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + fileName, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Exception while parsing " + fileName, 
+					e.getCause());
+		}
+	}
+	
 	/**
 	 * Parse the CSV file. Reads in the header info and then each line. Calls
-	 * the abstract handleRecord() method for each record. Adds each resulting
-	 * CSV object to the gtfsObjecgts array.
+	 * the abstract handleRecord() method for each record. Each resulting
+	 * CSV object is passed to the handler.
+	 * <p>
+	 * If numberThreads is greater than 1 then the records are still read in
+	 * by the calling thread but are converted to CSV objects by handleRecord()
+	 * in chunks using a pool of threads. The objects are still passed to the
+	 * handler in file order by the calling thread. Only a limited number of
+	 * chunks are outstanding at once so that memory use is bounded.
+	 * handleRecord() must therefore be thread safe if numberThreads is 
+	 * greater than 1.
+	 * 
+	 * @param handler
+	 *            For handling each CSV object
+	 * @param numberThreads
+	 *            Number of threads to use for converting records to objects
 	 */
-	private void parse() {
+	private void parse(ObjectHandler<T> handler, int numberThreads) {
 		CSVRecord record = null;
 		try {
 			IntervalTimer timer = new IntervalTimer();
@@ -156,64 +276,74 @@ public abstract class CsvBaseReader<T> {
 			timer = new IntervalTimer();
 			IntervalTimer loggingTimer = new IntervalTimer();
 			
-			Iterator<CSVRecord> iterator = records.iterator();
-			while (iterator.hasNext()) {
-				// Determine the record to process
-				record = iterator.next();
-				
-				// If blank line then skip it. This way avoid error messages since
-				// expected data column won't exist
-				if (record.size() == 0)
-					continue;
-				
-				// Process the record using appropriate handler
-				// and create the corresponding CSV object
-				T gtfsObject;
-				try {
-					gtfsObject = handleRecord(record, supplemental);
-				} catch (ParseException e) {
-					logger.error("ParseException occurred for record {} "
-							+ "(comment lines not included when determing record #) for "
-							+ "filename {} . {}",  
-							record.getRecordNumber(), fileName, e.getMessage());
-
-					// Continue even though there was an error so that all errors 
-					// logged at once.					
-					continue;
-				} catch (NumberFormatException e) {
-					logger.error("NumberFormatException occurred for record {} "
-							+ "(comment lines not included when determing record #) "
-							+ "for filename {} . {}", 
-							record.getRecordNumber(), fileName, e.getMessage());
-
-					// Continue even though there was an error so that all errors 
-					// logged at once.					
-					continue;
-				}
+			// If using multiple threads then need executor for converting
+			// the chunks of records
+			ExecutorService executor = null;
+			Deque<Future<List<T>>> chunks = null;
+			List<CSVRecord> chunk = null;
+			if (numberThreads > 1) {
+				executor = Executors.newFixedThreadPool(numberThreads,
+						new NamedThreadFactory(getClass().getSimpleName()));
+				chunks = new ArrayDeque<Future<List<T>>>();
+				chunk = new ArrayList<CSVRecord>(RECORDS_PER_CHUNK);
+			}
+			
+			try {
+				Iterator<CSVRecord> iterator = records.iterator();
+				while (iterator.hasNext()) {
+					// Determine the record to process
+					record = iterator.next();
 				
-				// Add the newly created CSV object to the object list
-				if (gtfsObject != null)
-					gtfsObjects.add(gtfsObject);		
+					if (executor == null) {
+						// Single threaded so convert the record right here and
+						// hand the newly created CSV object to the handler
+						T gtfsObject = convertRecord(record);
+						if (gtfsObject != null)
+							handler.handleObject(gtfsObject);
+					} else {
+						// Multi-threaded so convert records a chunk at a time.
+						// Don't let too many chunks be outstanding since then
+						// would use up a lot of memory.
+						chunk.add(record);
+						if (chunk.size() >= RECORDS_PER_CHUNK) {
+							chunks.addLast(executor.submit(new ChunkConverter(chunk)));
+							chunk = new ArrayList<CSVRecord>(RECORDS_PER_CHUNK);
+							if (chunks.size() > 2 * numberThreads)
+								handleOldestChunk(chunks, handler);
+						}
+					}
 				
-				// Log info if it has been a while. Check only every 20,000
-				// lines to see if the 10 seconds has gone by. If so, then log
-				// number of lines. By only looking at timer every 20,000 lines
-				// not slowing things down by for every line doing system call 
-				// for to get current time.
-				final int LINES_TO_PROCESS_BEFORE_CHECKING_IF_SHOULD_LOG = 20000;
-				final long SECONDS_ELSAPSED_UNTIL_SHOULD_LOG = 5;
-				if (record.getRecordNumber() >= 
-						lineNumberWhenLogged + 
-							LINES_TO_PROCESS_BEFORE_CHECKING_IF_SHOULD_LOG) {
-					lineNumberWhenLogged = (int) record.getRecordNumber();
-					if (loggingTimer.elapsedMsec() > 
-					SECONDS_ELSAPSED_UNTIL_SHOULD_LOG*Time.MS_PER_SEC) {
-						logger.info("  Processed {} lines. Took {} msec...", 
-								lineNumberWhenLogged, timer.elapsedMsec());
-						loggingTimer = new IntervalTimer();
+					// Log info if it has been a while. Check only every 20,000
+					// lines to see if the 10 seconds has gone by. If so, then log
+					// number of lines. By only looking at timer every 20,000 lines
+					// not slowing things down by for every line doing system call 
+					// for to get current time.
+					final int LINES_TO_PROCESS_BEFORE_CHECKING_IF_SHOULD_LOG = 20000;
+					final long SECONDS_ELSAPSED_UNTIL_SHOULD_LOG = 5;
+					if (record.getRecordNumber() >= 
+							lineNumberWhenLogged + 
+								LINES_TO_PROCESS_BEFORE_CHECKING_IF_SHOULD_LOG) {
+						lineNumberWhenLogged = (int) record.getRecordNumber();
+						if (loggingTimer.elapsedMsec() > 
+						SECONDS_ELSAPSED_UNTIL_SHOULD_LOG*Time.MS_PER_SEC) {
+							logger.info("  Processed {} lines. Took {} msec...", 
+									lineNumberWhenLogged, timer.elapsedMsec());
+							loggingTimer = new IntervalTimer();
+						}
 					}
+				} // End of while iterating over records
+			
+				// If multi-threaded then handle the remaining chunks
+				if (executor != null) {
+					if (!chunk.isEmpty())
+						chunks.addLast(executor.submit(new ChunkConverter(chunk)));
+					while (!chunks.isEmpty())
+						handleOldestChunk(chunks, handler);
 				}
-			} // End of while iterating over records
+			} finally {
+				if (executor != null)
+					executor.shutdownNow();
+			}
 			
 			// Close up the file reader
 			in.close();
@@ -259,11 +389,42 @@ public abstract class CsvBaseReader<T> {
 	public List<T> get(int initialSize) {
 		gtfsObjects = new ArrayList<T>(initialSize);
 		
-		parse();
+		parse(new ObjectHandler<T>() {
+			@Override
+			public void handleObject(T gtfsObject) {
+				gtfsObjects.add(gtfsObject);
+			}
+		}, 1);
 		
 		return gtfsObjects;
 	}
 
+	/**
+	 * For processing the CSV objects one at a time, in file order, without
+	 * first reading all of them into memory.
+	 * 
+	 * @param handler
+	 *            Called for each CSV object
+	 */
+	public void process(ObjectHandler<T> handler) {
+		parse(handler, 1);
+	}
+
+	/**
+	 * For processing the CSV objects one at a time, in file order, without
+	 * first reading all of them into memory. Uses multiple threads for
+	 * converting the records into CSV objects so handleRecord() must be
+	 * thread safe. The handler is still only called by the calling thread.
+	 * 
+	 * @param handler
+	 *            Called for each CSV object
+	 * @param numberThreads
+	 *            Number of threads to use for converting records
+	 */
+	public void process(ObjectHandler<T> handler, int numberThreads) {
+		parse(handler, numberThreads);
+	}
+
 	
 	/**
 	 * @return the file name of the file being processed
@@ -241,6 +241,21 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyRollups (
+        id bigint not null auto_increment,
+        affectedByWaitStop bit,
+        directionId varchar(60),
+        histogram varchar(4000),
+        hourStart datetime(3),
+        numPredictions integer,
+        predLengthBucket integer,
+        predictionSource varchar(60),
+        routeId varchar(60),
+        routeShortName varchar(60),
+        stopId varchar(60),
+        primary key (id)
+    );
+
     create table Predictions (
         id bigint not null auto_increment,
         affectedByWaitStop bit,
@@ -278,6 +293,23 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id bigint not null auto_increment,
+        directionId varchar(60),
+        histogram varchar(4000),
+        hourOfDay integer,
+        hourStart datetime(3),
+        isArrival bit,
+        numArrivalsDepartures integer,
+        routeId varchar(60),
+        routeShortName varchar(60),
+        serviceDate date,
+        stopId varchar(60),
+        stopOrder integer,
+        sumAdherenceSecs bigint,
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id bigint not null auto_increment,
         algorithm varchar(255),
@@ -390,6 +422,7 @@
         minLat double precision,
         minLon double precision,
         headsign varchar(255),
+        inputFingerprint bigint,
         routeId varchar(60),
         routeShortName varchar(80),
         shapeId varchar(60),
@@ -495,8 +528,12 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyRollupsHourIndex on PredictionAccuracyRollups (hourStart);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
+    create index SchedAdhRollupsDateIndex on ScheduleAdherenceRollups (serviceDate);
+
     create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
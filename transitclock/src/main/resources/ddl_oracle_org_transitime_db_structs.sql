@@ -241,6 +241,21 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyRollups (
+        id number(19,0) not null,
+        affectedByWaitStop number(1,0),
+        directionId varchar2(60 char),
+        histogram varchar2(4000 char),
+        hourStart timestamp,
+        numPredictions number(10,0),
+        predLengthBucket number(10,0),
+        predictionSource varchar2(60 char),
+        routeId varchar2(60 char),
+        routeShortName varchar2(60 char),
+        stopId varchar2(60 char),
+        primary key (id)
+    );
+
     create table Predictions (
         id number(19,0) not null,
         affectedByWaitStop number(1,0),
@@ -278,6 +293,23 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id number(19,0) not null,
+        directionId varchar2(60 char),
+        histogram varchar2(4000 char),
+        hourOfDay number(10,0),
+        hourStart timestamp,
+        isArrival number(1,0),
+        numArrivalsDepartures number(10,0),
+        routeId varchar2(60 char),
+        routeShortName varchar2(60 char),
+        serviceDate date,
+        stopId varchar2(60 char),
+        stopOrder number(10,0),
+        sumAdherenceSecs number(19,0),
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id number(19,0) not null,
         algorithm varchar2(255 char),
@@ -390,6 +422,7 @@
         minLat double precision,
         minLon double precision,
         headsign varchar2(255 char),
+        inputFingerprint number(19,0),
         routeId varchar2(60 char),
         routeShortName varchar2(80 char),
         shapeId varchar2(60 char),
@@ -495,8 +528,12 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyRollupsHourIndex on PredictionAccuracyRollups (hourStart);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
+    create index SchedAdhRollupsDateIndex on ScheduleAdherenceRollups (serviceDate);
+
     create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
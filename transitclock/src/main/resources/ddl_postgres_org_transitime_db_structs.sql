@@ -241,6 +241,21 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyRollups (
+        id int8 not null,
+        affectedByWaitStop boolean,
+        directionId varchar(60),
+        histogram varchar(4000),
+        hourStart timestamp,
+        numPredictions int4,
+        predLengthBucket int4,
+        predictionSource varchar(60),
+        routeId varchar(60),
+        routeShortName varchar(60),
+        stopId varchar(60),
+        primary key (id)
+    );
+
     create table Predictions (
         id int8 not null,
         affectedByWaitStop boolean,
@@ -278,6 +293,23 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id int8 not null,
+        directionId varchar(60),
+        histogram varchar(4000),
+        hourOfDay int4,
+        hourStart timestamp,
+        isArrival boolean,
+        numArrivalsDepartures int4,
+        routeId varchar(60),
+        routeShortName varchar(60),
+        serviceDate date,
+        stopId varchar(60),
+        stopOrder int4,
+        sumAdherenceSecs int8,
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id int8 not null,
         algorithm varchar(255),
@@ -390,6 +422,7 @@
         minLat float8,
         minLon float8,
         headsign varchar(255),
+        inputFingerprint int8,
         routeId varchar(60),
         routeShortName varchar(80),
         shapeId varchar(60),
@@ -495,8 +528,12 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyRollupsHourIndex on PredictionAccuracyRollups (hourStart);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
+    create index SchedAdhRollupsDateIndex on ScheduleAdherenceRollups (serviceDate);
+
     create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
@@ -0,0 +1,146 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.MessageConsumer;
+import javax.jms.Topic;
+
+import org.hornetq.api.core.TransportConfiguration;
+import org.hornetq.api.jms.HornetQJMSClient;
+import org.hornetq.api.jms.JMSFactoryType;
+import org.hornetq.core.config.Configuration;
+import org.hornetq.core.config.impl.ConfigurationImpl;
+import org.hornetq.core.remoting.impl.invm.InVMAcceptorFactory;
+import org.hornetq.core.remoting.impl.invm.InVMConnectorFactory;
+import org.hornetq.jms.server.config.JMSConfiguration;
+import org.hornetq.jms.server.config.impl.JMSConfigurationImpl;
+import org.hornetq.jms.server.config.impl.TopicConfigurationImpl;
+import org.hornetq.jms.server.embedded.EmbeddedJMS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.ipc.jms.JMSWrapper;
+import org.transitclock.ipc.jms.RestartableMessageProducer;
+
+/**
+ * Sends AVL reports in batches through an embedded HornetQ server, from
+ * AvlModule to AvlJmsClientModule.
+ */
+public class AvlJmsBatchTest {
+
+	private static final String AGENCY_ID = "test";
+	
+	private static final int BATCH_SIZE = 10;
+	
+	private static EmbeddedJMS jmsServer;
+	
+	private static ConnectionFactory connectionFactory;
+	
+	private static Topic topic;
+	
+	@BeforeClass
+	public static void setUp() throws Exception {
+		// Config params are read when the classes are loaded so they need
+		// to be set before AvlModule is first used
+		System.setProperty("transitclock.avl.shouldUseJms", "true");
+		System.setProperty("transitclock.avl.jmsBatchSize", 
+				Integer.toString(BATCH_SIZE));
+		System.setProperty("transitclock.avl.jmsBatchLingerMsec", "200");
+		
+		// In-VM server without persistence or security
+		Configuration config = new ConfigurationImpl();
+		config.setPersistenceEnabled(false);
+		config.setSecurityEnabled(false);
+		config.getAcceptorConfigurations().add(new TransportConfiguration(
+				InVMAcceptorFactory.class.getName()));
+		
+		String topicName = AvlJmsClientModule.getTopicName(AGENCY_ID);
+		JMSConfiguration jmsConfig = new JMSConfigurationImpl();
+		jmsConfig.getTopicConfigurations().add(
+				new TopicConfigurationImpl(topicName, "/topic/" + topicName));
+		
+		jmsServer = new EmbeddedJMS();
+		jmsServer.setConfiguration(config);
+		jmsServer.setJmsConfiguration(jmsConfig);
+		jmsServer.start();
+		
+		connectionFactory = HornetQJMSClient.createConnectionFactoryWithoutHA(
+				JMSFactoryType.CF, new TransportConfiguration(
+						InVMConnectorFactory.class.getName()));
+		topic = HornetQJMSClient.createTopic(topicName);
+	}
+	
+	@AfterClass
+	public static void tearDown() throws Exception {
+		jmsServer.stop();
+	}
+	
+	@Test(timeout = 30000)
+	public void batchesSentReceivedAndAcknowledged() throws Exception {
+		// Subscribe before sending since a topic only delivers to the 
+		// existing subscribers
+		JMSWrapper consumerWrapper = 
+				JMSWrapper.getJMSWrapper(connectionFactory);
+		MessageConsumer consumer = 
+				consumerWrapper.getSession().createConsumer(topic);
+		AvlJmsClientModule avlClient = 
+				new AvlJmsClientModule(AGENCY_ID, consumer);
+		
+		AvlModule avlModule = new AvlModule(AGENCY_ID) {
+			@Override
+			public void run() {
+			}
+		};
+		avlModule.jmsMsgProducer = new RestartableMessageProducer(
+				JMSWrapper.getJMSWrapper(connectionFactory), topic);
+		
+		// Enough AVL reports for a couple of full batches and a partial one
+		List<AvlReport> sent = new ArrayList<AvlReport>();
+		for (int i=0; i<2*BATCH_SIZE + 5; ++i) {
+			AvlReport avlReport = new AvlReport("vehicle" + i % 7, 
+					1500000000000L + i * 1000L, 37.8 + i * 0.001, -122.27,
+					8.5f, 275.0f, "test", null, null, null, null, Float.NaN);
+			sent.add(avlReport);
+			avlModule.processAvlReport(avlReport);
+		}
+		
+		List<AvlReport> received = new ArrayList<AvlReport>();
+		int messages = 0;
+		while (received.size() < sent.size()) {
+			received.addAll(avlClient.receiveAvlReports());
+			++messages;
+		}
+		assertEquals(sent, received);
+		assertTrue("AVL reports should have been sent in batches but "
+				+ messages + " messages were received", 
+				messages < sent.size());
+		
+		// The session uses AUTO_ACKNOWLEDGE so the batches were
+		// acknowledged when received and aren't delivered again
+		consumerWrapper.getSession().recover();
+		assertNull(consumer.receive(500));
+	}
+}
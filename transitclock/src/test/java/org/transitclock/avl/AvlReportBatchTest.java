@@ -0,0 +1,159 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.AvlReport.AssignmentType;
+
+public class AvlReportBatchTest {
+
+	private static final long TIME = 1500000000000L;
+	
+	/**
+	 * An AVL report with all of the optional members set
+	 */
+	private static AvlReport fullReport() {
+		AvlReport avlReport = new AvlReport("1234", TIME, 37.80071, -122.27163, 
+				8.5f, 275.0f, "GTFS-rt", "1233", "driver7", "ABC123", 42, 
+				0.6f);
+		avlReport.setAssignment("block_5", AssignmentType.BLOCK_ID);
+		avlReport.setField1("door", "open");
+		return avlReport;
+	}
+	
+	/**
+	 * An AVL report with none of the optional members set
+	 */
+	private static AvlReport minimalReport() {
+		return new AvlReport("5678", TIME + 1000, 37.8, -122.27, Float.NaN,
+				Float.NaN, null, null, null, null, null, Float.NaN);
+	}
+	
+	private static AvlReport roundTrip(AvlReport avlReport) 
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		avlReport.writeCompact(out);
+		out.flush();
+		
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		AvlReport result = AvlReport.readCompact(in);
+		assertEquals("all bytes should be read", -1, in.read());
+		return result;
+	}
+	
+	/**
+	 * Checks the members that AvlReport.equals() doesn't compare
+	 */
+	private static void assertSameExtras(AvlReport expected, 
+			AvlReport actual) {
+		assertEquals(expected.getSource(), actual.getSource());
+		assertEquals(expected.getLeadVehicleId(), actual.getLeadVehicleId());
+		assertEquals(expected.getField1Name(), actual.getField1Name());
+		assertEquals(expected.getField1Value(), actual.getField1Value());
+	}
+	
+	@Test
+	public void compactRoundTripWithAllMembers() throws IOException {
+		AvlReport avlReport = fullReport();
+		AvlReport result = roundTrip(avlReport);
+		
+		assertEquals(avlReport, result);
+		assertSameExtras(avlReport, result);
+		assertEquals("block_5", result.getAssignmentId());
+		assertEquals(AssignmentType.BLOCK_ID, result.getAssignmentType());
+		assertEquals(42, result.getPassengerCount());
+		assertEquals(0.6f, result.getPassengerFullness(), 0.0f);
+		assertEquals(8.5f, result.getSpeed(), 0.0f);
+	}
+	
+	@Test
+	public void compactRoundTripWithoutOptionalMembers() throws IOException {
+		AvlReport avlReport = minimalReport();
+		AvlReport result = roundTrip(avlReport);
+		
+		assertEquals(avlReport, result);
+		assertSameExtras(avlReport, result);
+		assertNull(result.getSource());
+		assertNull(result.getAssignmentId());
+		assertEquals(AssignmentType.UNSET, result.getAssignmentType());
+		assertNull(result.getDriverId());
+		assertNull(result.getLicensePlate());
+		assertFalse(result.isSpeedValid());
+		assertFalse(result.isPassengerCountValid());
+		assertFalse(result.isPassengerFullnessValid());
+	}
+	
+	@Test
+	public void compactRoundTripWithSomeOptionalMembers() throws IOException {
+		// Only some of the flags set, so that the optional members after an
+		// unset one are still read from the right place
+		AvlReport avlReport = new AvlReport("9", TIME, 37.8, -122.27, 
+				Float.NaN, 90.0f, "NextBus", null, "driver1", null, 0, 
+				Float.NaN);
+		avlReport.setField1("field", null);
+		AvlReport result = roundTrip(avlReport);
+		
+		assertEquals(avlReport, result);
+		assertSameExtras(avlReport, result);
+		assertTrue(result.isPassengerCountValid());
+		assertEquals(0, result.getPassengerCount());
+		assertNull(result.getField1Value());
+	}
+	
+	@Test
+	public void batchRoundTrip() throws IOException {
+		List<AvlReport> avlReports = 
+				Arrays.asList(fullReport(), minimalReport(), fullReport());
+		List<AvlReport> result = 
+				AvlReportBatch.decode(AvlReportBatch.encode(avlReports));
+		
+		assertEquals(avlReports, result);
+		for (int i=0; i<avlReports.size(); ++i)
+			assertSameExtras(avlReports.get(i), result.get(i));
+	}
+	
+	@Test
+	public void emptyBatchRoundTrip() throws IOException {
+		List<AvlReport> result = AvlReportBatch.decode(
+				AvlReportBatch.encode(new ArrayList<AvlReport>()));
+		assertTrue(result.isEmpty());
+	}
+	
+	@Test(expected = IOException.class)
+	public void unknownBatchVersionRejected() throws IOException {
+		byte[] data = AvlReportBatch.encode(Arrays.asList(minimalReport()));
+		data[0] = 99;
+		AvlReportBatch.decode(data);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.avl.calAmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.transitclock.db.structs.AvlReport;
+
+public class CalAmpParserTest {
+
+	// A mini event report from mobile ID 4561234567 in the form received
+	// on the UDP port: options header with the mobile ID, message header
+	// for a mini event report with sequence number 42, then the report for
+	// 2018-02-22 06:00:32 UTC at 37.7749,-122.4194 heading 270 at 36 kph
+	// with a valid fix.
+	private static final String MINI_EVENT_REPORT =
+			"830545612345670101" + "010A002A"
+			+ "5A8E5C80" + "1683FE08" + "B7084830"
+			+ "010E" + "24" + "02" + "00" + "00" + "15";
+
+	private static ByteBuffer buffer(String hex) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+		for (int i=0; i<hex.length(); i+=2)
+			buffer.put((byte) Integer.parseInt(hex.substring(i, i+2), 16));
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the packet with the byte at the offset replaced
+	 */
+	private static String replaceByte(String hex, int offset, String b) {
+		return hex.substring(0, 2*offset) + b + hex.substring(2*offset + 2);
+	}
+
+	private static AvlReport parse(String hex)
+			throws CalAmpParser.MalformedMessageException {
+		return CalAmpParser.parse(buffer(hex), false);
+	}
+
+	@Test
+	public void parsesMiniEventReport() throws Exception {
+		ByteBuffer buffer = buffer(MINI_EVENT_REPORT);
+		AvlReport avlReport = CalAmpParser.parse(buffer, false);
+
+		assertNotNull(avlReport);
+		assertEquals("4561234567", avlReport.getVehicleId());
+		assertEquals(1519279232000L, avlReport.getTime());
+		assertEquals(37.7749, avlReport.getLat(), 0.0000001);
+		assertEquals(-122.4194, avlReport.getLon(), 0.0000001);
+		assertEquals(270.0, avlReport.getHeading(), 0.001);
+		assertEquals(10.0, avlReport.getSpeed(), 0.001);
+		assertEquals("CalAmp", avlReport.getSource());
+
+		// Parsing doesn't change the position of the buffer
+		assertEquals(0, buffer.position());
+		assertEquals(MINI_EVENT_REPORT, CalAmpParser.toHex(buffer));
+	}
+
+	@Test
+	public void ignoresOtherMessageTypes() throws Exception {
+		// Message type at offset 10. Type 2 is an event report, which
+		// isn't handled.
+		assertNull(parse(replaceByte(MINI_EVENT_REPORT, 10, "02")));
+	}
+
+	@Test
+	public void ignoresInvalidFix() throws Exception {
+		// Fix status at offset 28, 0x40 is the invalid fix bit
+		assertNull(parse(replaceByte(MINI_EVENT_REPORT, 28, "42")));
+	}
+
+	@Test
+	public void ignoresMessageWithoutMobileId() throws Exception {
+		// Without the 9 byte options header
+		assertNull(parse(MINI_EVENT_REPORT.substring(18)));
+	}
+
+	@Test
+	public void truncatedMessageIsMalformed() {
+		// Each length that ends within the message
+		int length = MINI_EVENT_REPORT.length() / 2;
+		for (int i=0; i<length; ++i) {
+			try {
+				parse(MINI_EVENT_REPORT.substring(0, 2*i));
+				fail("Message truncated to " + i + " bytes was parsed");
+			} catch (CalAmpParser.MalformedMessageException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void negativeMobileIdLengthIsMalformed() {
+		try {
+			parse(replaceByte(MINI_EVENT_REPORT, 1, "F0"));
+			fail("Negative mobile ID length was parsed");
+		} catch (CalAmpParser.MalformedMessageException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.transitclock.db.structs.Block;
+import org.transitclock.db.structs.Trip;
+import org.transitclock.utils.Time;
+
+public class ActiveBlocksIndexTest {
+
+	private static final String SERVICE_ID = "weekday";
+
+	// 6:00 to 8:00
+	private static final Block morning = block("morning", 6 * 3600, 8 * 3600);
+	// 23:30 to 25:30, past midnight
+	private static final Block lateNight =
+			block("lateNight", 23 * 3600 + 1800, 25 * 3600 + 1800);
+	// 0:10 to 1:00
+	private static final Block earlyMorning =
+			block("earlyMorning", 600, 3600);
+
+	private static final ActiveBlocksIndex index = new ActiveBlocksIndex(
+			Arrays.asList(morning, lateNight, earlyMorning));
+
+	private static Block block(String blockId, int startTime, int endTime) {
+		return new Block(0, blockId, SERVICE_ID, startTime, endTime,
+				new ArrayList<Trip>());
+	}
+
+	private static Set<Block> active(int secsInDay, int allowableBeforeTimeSecs,
+			int allowableAfterStartTimeSecs) {
+		List<Block> blocks = new ArrayList<Block>();
+		index.addActiveBlocks(SERVICE_ID, null, secsInDay,
+				allowableBeforeTimeSecs, allowableAfterStartTimeSecs, blocks);
+		return new HashSet<Block>(blocks);
+	}
+
+	private static Set<Block> aboutToStart(int secsInDay,
+			int beforeStartTimeSecs) {
+		List<Block> blocks = new ArrayList<Block>();
+		index.addBlocksAboutToStart(SERVICE_ID, secsInDay, beforeStartTimeSecs,
+				blocks);
+		return new HashSet<Block>(blocks);
+	}
+
+	private static Set<Block> set(Block... blocks) {
+		return new HashSet<Block>(Arrays.asList(blocks));
+	}
+
+	@Test
+	public void activeUpToEndTime() {
+		assertEquals(set(morning), active(7 * 3600, 0, -1));
+		assertEquals(set(morning), active(8 * 3600 - 1, 0, -1));
+		// End time is exclusive
+		assertEquals(set(), active(8 * 3600, 0, -1));
+	}
+
+	@Test
+	public void activeBeforeStartTime() {
+		// Start time is exclusive
+		assertEquals(set(), active(6 * 3600, 0, -1));
+		assertEquals(set(morning), active(6 * 3600 - 60, 120, -1));
+		assertEquals(set(), active(6 * 3600 - 60, 60, -1));
+	}
+
+	@Test
+	public void activeOnlyAfterStartTime() {
+		assertEquals(set(morning), active(6 * 3600 + 300, 0, 600));
+		assertEquals(set(), active(6 * 3600 + 600, 0, 600));
+	}
+
+	@Test
+	public void activeAfterMidnight() {
+		// For the previous day's service the time is past 24:00
+		assertEquals(set(lateNight),
+				active(Time.SEC_PER_DAY + 1800, 0, -1));
+		assertEquals(set(earlyMorning), active(1800, 0, -1));
+		assertEquals(set(lateNight), active(Time.SEC_PER_DAY - 60, 0, -1));
+	}
+
+	@Test
+	public void unknownServiceId() {
+		List<Block> blocks = new ArrayList<Block>();
+		index.addActiveBlocks("sunday", null, 7 * 3600, 0, -1, blocks);
+		assertEquals(0, blocks.size());
+	}
+
+	@Test
+	public void aboutToStartAcrossMidnight() {
+		// Just before midnight the blocks starting soon after midnight are
+		// about to start
+		assertEquals(set(earlyMorning),
+				aboutToStart(Time.SEC_PER_DAY - 60, 20 * 60));
+		assertEquals(set(lateNight),
+				aboutToStart(23 * 3600 + 1500, 20 * 60));
+		assertEquals(set(), aboutToStart(23 * 3600 + 1800, 20 * 60));
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.transitclock.db.structs.Block;
+import org.transitclock.db.structs.StopPath;
+import org.transitclock.db.structs.Trip;
+
+public class PredictionChainTest {
+
+	private static final long AVL_TIME = 1500000000000L;
+	
+	private static final long MAX_AGE_MSEC = 60000;
+	
+	private static final Block block1 = block("block1");
+	private static final Block block2 = block("block2");
+	
+	// Stop IDs are unique for each test since the stop generations are
+	// shared by all chains
+	private static int testCounter = 0;
+	private String stopPrefix;
+	
+	private PredictionChain chain;
+
+	private static Block block(String blockId) {
+		return new Block(0, blockId, "weekday", 6 * 3600, 8 * 3600,
+				new ArrayList<Trip>());
+	}
+	
+	/**
+	 * Indices for a block without trips. The stop of each stop path is
+	 * named after the trip and stop path indices.
+	 */
+	private Indices indices(final Block block, final int tripIndex, 
+			final int stopPathIndex) {
+		final String stopId = stopId(tripIndex, stopPathIndex);
+		return new Indices(null, tripIndex, stopPathIndex, 0) {
+			@Override
+			public Block getBlock() {
+				return block;
+			}
+			
+			@Override
+			public StopPath getStopPath() {
+				return new StopPath(0, "path" + stopPathIndex, stopId, 
+						stopPathIndex, false, "route", false, false, false, 
+						null, null, null);
+			}
+		};
+	}
+	
+	private Indices indices(int tripIndex, int stopPathIndex) {
+		return indices(block1, tripIndex, stopPathIndex);
+	}
+	
+	private String stopId(int tripIndex, int stopPathIndex) {
+		return stopPrefix + "_" + tripIndex + "_" + stopPathIndex;
+	}
+	
+	private void put(int tripIndex, int stopPathIndex, long durationMsec) {
+		chain.put(indices(tripIndex, stopPathIndex), false, durationMsec, 
+				AVL_TIME, PredictionChain.currentGeneration());
+	}
+	
+	private Long get(int tripIndex, int stopPathIndex) {
+		return chain.get(indices(tripIndex, stopPathIndex), false);
+	}
+	
+	@Before
+	public void setUp() {
+		stopPrefix = "stop" + (++testCounter);
+		chain = new PredictionChain();
+		chain.prepare(indices(0, 0), AVL_TIME, MAX_AGE_MSEC);
+	}
+	
+	@Test
+	public void travelAndStopTimesAreSeparate() {
+		chain.put(indices(0, 1), false, 30000, AVL_TIME, 
+				PredictionChain.currentGeneration());
+		assertEquals(Long.valueOf(30000), chain.get(indices(0, 1), false));
+		assertNull(chain.get(indices(0, 1), true));
+		
+		chain.put(indices(0, 1), true, 10000, AVL_TIME, 
+				PredictionChain.currentGeneration());
+		assertEquals(Long.valueOf(10000), chain.get(indices(0, 1), true));
+		assertEquals(Long.valueOf(30000), chain.get(indices(0, 1), false));
+	}
+	
+	@Test
+	public void passedStopPathsAreDiscarded() {
+		put(0, 1, 1000);
+		put(0, 2, 2000);
+		put(0, 3, 3000);
+		put(1, 0, 4000);
+		
+		chain.prepare(indices(0, 2), AVL_TIME + 1000, MAX_AGE_MSEC);
+		assertNull(get(0, 1));
+		assertEquals(Long.valueOf(2000), get(0, 2));
+		assertEquals(Long.valueOf(3000), get(0, 3));
+		assertEquals(Long.valueOf(4000), get(1, 0));
+		
+		// A later trip orders after all of the stop paths of earlier trips
+		chain.prepare(indices(1, 0), AVL_TIME + 2000, MAX_AGE_MSEC);
+		assertNull(get(0, 3));
+		assertEquals(Long.valueOf(4000), get(1, 0));
+	}
+	
+	@Test
+	public void oldDurationsAreDiscarded() {
+		put(0, 1, 1000);
+		
+		chain.prepare(indices(0, 0), AVL_TIME + MAX_AGE_MSEC, MAX_AGE_MSEC);
+		assertEquals(Long.valueOf(1000), get(0, 1));
+		
+		chain.prepare(indices(0, 0), AVL_TIME + MAX_AGE_MSEC + 1, 
+				MAX_AGE_MSEC);
+		assertNull(get(0, 1));
+	}
+	
+	@Test
+	public void durationsFromLaterAvlReportAreDiscarded() {
+		// Such as when an AVL report is older than the previous one
+		put(0, 1, 1000);
+		chain.prepare(indices(0, 0), AVL_TIME - 1, MAX_AGE_MSEC);
+		assertNull(get(0, 1));
+	}
+	
+	@Test
+	public void newBlockClearsChain() {
+		put(0, 1, 1000);
+		
+		chain.prepare(indices(block2, 0, 0), AVL_TIME, MAX_AGE_MSEC);
+		assertNull(chain.get(indices(block2, 0, 1), false));
+		
+		// And back to the original block doesn't bring them back
+		chain.prepare(indices(block1, 0, 0), AVL_TIME, MAX_AGE_MSEC);
+		assertNull(get(0, 1));
+	}
+	
+	@Test
+	public void arrivalDepartureForStopInvalidatesDuration() {
+		put(0, 1, 1000);
+		put(0, 2, 2000);
+		
+		PredictionChain.stopUpdated(stopId(0, 1));
+		assertNull(get(0, 1));
+		assertEquals(Long.valueOf(2000), get(0, 2));
+		
+		// A duration computed after the arrival/departure is valid
+		put(0, 1, 1500);
+		assertEquals(Long.valueOf(1500), get(0, 1));
+	}
+	
+	@Test
+	public void arrivalDepartureWhileComputingInvalidatesDuration() {
+		// The generation is read before computing the duration, and an
+		// arrival/departure is generated while it is being computed
+		long generation = PredictionChain.currentGeneration();
+		PredictionChain.stopUpdated(stopId(0, 1));
+		chain.put(indices(0, 1), false, 1000, AVL_TIME, generation);
+		
+		assertNull(get(0, 1));
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PredictionExecutorTest {
+
+	private static final long NO_STALENESS_MSEC = 60000;
+	
+	// So the blocked generations don't hold up other tests
+	private final CountDownLatch release = new CountDownLatch(1);
+	
+	@After
+	public void tearDown() {
+		release.countDown();
+	}
+	
+	/**
+	 * Instead of generating predictions counts the generations per vehicle.
+	 * Generations for the blocked vehicle wait until released.
+	 */
+	private class CountingExecutor extends PredictionExecutor {
+		private final String blockedVehicleId;
+		private final CountDownLatch blockedStarted = new CountDownLatch(1);
+		private final ConcurrentMap<String, AtomicInteger> generations =
+				new ConcurrentHashMap<String, AtomicInteger>();
+		private final ConcurrentMap<String, AtomicInteger> running =
+				new ConcurrentHashMap<String, AtomicInteger>();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private final ConcurrentMap<String, CountDownLatch> generated =
+				new ConcurrentHashMap<String, CountDownLatch>();
+		
+		private CountingExecutor(int numThreads, long maxStalenessMsec, 
+				String blockedVehicleId) {
+			super(numThreads, maxStalenessMsec);
+			this.blockedVehicleId = blockedVehicleId;
+		}
+		
+		@Override
+		void generate(VehicleState vehicleState) {
+			String vehicleId = vehicleState.getVehicleId();
+			running.putIfAbsent(vehicleId, new AtomicInteger());
+			int numRunning = running.get(vehicleId).incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), numRunning));
+			}
+			try {
+				if (vehicleId.equals(blockedVehicleId)) {
+					blockedStarted.countDown();
+					release.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.get(vehicleId).decrementAndGet();
+			}
+			
+			generations.putIfAbsent(vehicleId, new AtomicInteger());
+			generations.get(vehicleId).incrementAndGet();
+			latch(vehicleId).countDown();
+		}
+		
+		private CountDownLatch latch(String vehicleId) {
+			generated.putIfAbsent(vehicleId, new CountDownLatch(1));
+			return generated.get(vehicleId);
+		}
+		
+		private int generations(String vehicleId) {
+			AtomicInteger count = generations.get(vehicleId);
+			return count == null ? 0 : count.get();
+		}
+		
+		private void awaitBlocked() throws InterruptedException {
+			assertTrue("blocked generation should start",
+					blockedStarted.await(5, TimeUnit.SECONDS));
+		}
+		
+		private void awaitGenerated(String vehicleId) 
+				throws InterruptedException {
+			assertTrue("predictions should be generated for " + vehicleId,
+					latch(vehicleId).await(5, TimeUnit.SECONDS));
+		}
+	}
+	
+	/**
+	 * Waits until the vehicle has had the expected number of generations,
+	 * then a bit longer to make sure there are no more.
+	 */
+	private static void assertGenerations(CountingExecutor executor,
+			String vehicleId, int expected) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + 5000;
+		while (executor.generations(vehicleId) < expected
+				&& System.currentTimeMillis() < endTime)
+			Thread.sleep(10);
+		Thread.sleep(100);
+		assertEquals(expected, executor.generations(vehicleId));
+	}
+	
+	@Test
+	public void requestsWhileWaitingAreCoalesced() 
+			throws InterruptedException {
+		CountingExecutor executor = 
+				new CountingExecutor(1, NO_STALENESS_MSEC, "v1");
+		VehicleState vehicleState = new VehicleState("v1");
+		
+		executor.generatePredictions(vehicleState);
+		executor.awaitBlocked();
+		
+		// While the first generation is running the later requests are
+		// combined into one
+		for (int i=0; i<5; ++i)
+			executor.generatePredictions(vehicleState);
+		release.countDown();
+		
+		assertGenerations(executor, "v1", 2);
+	}
+	
+	@Test
+	public void vehicleGeneratedByOneThreadAtATime() 
+			throws InterruptedException {
+		CountingExecutor executor = 
+				new CountingExecutor(4, NO_STALENESS_MSEC, "v1");
+		VehicleState vehicleState = new VehicleState("v1");
+		
+		executor.generatePredictions(vehicleState);
+		executor.awaitBlocked();
+		
+		// Another prediction thread takes this request while the first
+		// generation is still running
+		executor.generatePredictions(vehicleState);
+		Thread.sleep(100);
+		release.countDown();
+		
+		assertGenerations(executor, "v1", 2);
+		assertEquals(1, executor.maxRunning.get());
+	}
+	
+	@Test
+	public void otherVehiclesNotBlocked() throws InterruptedException {
+		CountingExecutor executor = 
+				new CountingExecutor(2, NO_STALENESS_MSEC, "v1");
+		
+		executor.generatePredictions(new VehicleState("v1"));
+		executor.awaitBlocked();
+		executor.generatePredictions(new VehicleState("v2"));
+		
+		executor.awaitGenerated("v2");
+		assertEquals(0, executor.generations("v1"));
+	}
+	
+	@Test
+	public void staleRequestGeneratedByTimer() throws InterruptedException {
+		// Only one prediction thread and it is blocked
+		CountingExecutor executor = new CountingExecutor(1, 50, "v1");
+		
+		executor.generatePredictions(new VehicleState("v1"));
+		executor.awaitBlocked();
+		executor.generatePredictions(new VehicleState("v2"));
+		
+		// Generated by the timer even though the prediction thread is busy
+		executor.awaitGenerated("v2");
+		assertEquals(0, executor.generations("v1"));
+		
+		// The queued task for v2 must not generate it again
+		release.countDown();
+		assertGenerations(executor, "v1", 1);
+		assertGenerations(executor, "v2", 1);
+	}
+}
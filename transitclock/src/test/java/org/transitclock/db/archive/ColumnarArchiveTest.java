@@ -0,0 +1,190 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.db.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.transitclock.db.structs.Arrival;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.Departure;
+import org.transitclock.db.structs.Match;
+
+public class ColumnarArchiveTest {
+
+	private static File directory;
+
+	private static Date dayStart;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		// The archive directory is a config param so it needs to be set
+		// before ColumnarArchive is first used
+		directory = File.createTempFile("columnarArchive", "");
+		directory.delete();
+		System.setProperty("transitclock.archive.directory",
+				directory.getPath());
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(2017, Calendar.MARCH, 12, 0, 0, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		dayStart = calendar.getTime();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	private static Date time(int secondsIntoDay) {
+		return new Date(dayStart.getTime() + secondsIntoDay * 1000L);
+	}
+
+	@Test
+	public void dayBoundaries() {
+		Date noon = time(12 * 3600);
+		assertEquals(dayStart, ColumnarArchive.getDayStart(noon));
+		assertEquals(dayStart, ColumnarArchive.getDayStart(dayStart));
+
+		// Uses the calendar so is still the next midnight on days that are
+		// not 24 hours long
+		Date nextDayStart = ColumnarArchive.getNextDayStart(dayStart);
+		assertEquals(nextDayStart, ColumnarArchive.getDayStart(nextDayStart));
+		assertEquals(dayStart, ColumnarArchive.getDayStart(
+				new Date(nextDayStart.getTime() - 1)));
+	}
+
+	@Test
+	public void arrivalsDeparturesRoundTrip() throws IOException {
+		List<ArrivalDeparture> arrDeps = new ArrayList<ArrivalDeparture>();
+		// Written out of order to make sure they are sorted by time
+		arrDeps.add(new Departure("v1", time(3600), "stopA", 2, "trip1", 7,
+				time(3590), time(3660), "block1", "route1", "1", "weekday",
+				"0", 3, null, 1, 2, 250.5f));
+		arrDeps.add(new Arrival("v1", time(3500), "stopA", 2, "trip1", 7,
+				time(3490), null, "block1", "route1", "1", "weekday", "0",
+				3, time(3000), 1, null, 250.5f));
+		arrDeps.add(new Arrival("v2", time(7200), "stopB", 5, "trip2", 7,
+				null, time(7100), null, "route2", null, "weekday", null,
+				0, null, 4, 3, 0.0f));
+
+		ColumnarArchive.writeArrivalsDepartures(dayStart, arrDeps);
+		assertTrue(ColumnarArchive.isArchived(
+				ColumnarArchive.ARRIVALS_DEPARTURES, dayStart));
+		assertFalse(ColumnarArchive.isArchived(
+				ColumnarArchive.ARRIVALS_DEPARTURES,
+				ColumnarArchive.getNextDayStart(dayStart)));
+
+		List<ArrivalDeparture> read =
+				ColumnarArchive.readArrivalsDepartures(dayStart);
+		assertEquals(3, read.size());
+		assertSameMembers(arrDeps.get(1), read.get(0));
+		assertSameMembers(arrDeps.get(0), read.get(1));
+		assertSameMembers(arrDeps.get(2), read.get(2));
+		assertTrue(read.get(0).isArrival());
+		assertFalse(read.get(1).isArrival());
+	}
+
+	/**
+	 * Asserts that the archived arrival/departure has the same members as
+	 * the original one
+	 */
+	private static void assertSameMembers(ArrivalDeparture expected,
+			ArrivalDeparture actual) {
+		assertEquals(expected.isArrival(), actual.isArrival());
+		assertEquals(expected.getVehicleId(), actual.getVehicleId());
+		assertEquals(expected.getDate(), actual.getDate());
+		assertEquals(expected.getStopId(), actual.getStopId());
+		assertEquals(expected.getGtfsStopSequence(),
+				actual.getGtfsStopSequence());
+		assertEquals(expected.getTripId(), actual.getTripId());
+		assertEquals(expected.getConfigRev(), actual.getConfigRev());
+		assertEquals(expected.getAvlTime(), actual.getAvlTime());
+		assertEquals(expected.getScheduledDate(), actual.getScheduledDate());
+		assertEquals(expected.getBlockId(), actual.getBlockId());
+		assertEquals(expected.getRouteId(), actual.getRouteId());
+		assertEquals(expected.getRouteShortName(),
+				actual.getRouteShortName());
+		assertEquals(expected.getServiceId(), actual.getServiceId());
+		assertEquals(expected.getDirectionId(), actual.getDirectionId());
+		assertEquals(expected.getTripIndex(), actual.getTripIndex());
+		assertEquals(expected.getFreqStartTime(), actual.getFreqStartTime());
+		assertEquals(expected.getStopPathIndex(), actual.getStopPathIndex());
+		assertEquals(expected.getStopOrder(), actual.getStopOrder());
+		assertEquals(expected.getStopPathLength(), actual.getStopPathLength(),
+				0.0f);
+	}
+
+	@Test
+	public void matchesRoundTrip() throws IOException {
+		Date nextDayStart = ColumnarArchive.getNextDayStart(dayStart);
+		List<Match> matches = new ArrayList<Match>();
+		matches.add(new Match("v1", time(100), 7, "weekday", "block1",
+				"trip1", 0, 2, 12.5f, 80.25f, false));
+		matches.add(new Match("v2", time(50), 7, null, null, null, 3, 0,
+				0.0f, 0.0f, true));
+
+		ColumnarArchive.writeMatches(nextDayStart, matches);
+		List<Match> read = ColumnarArchive.readMatches(nextDayStart);
+
+		assertEquals(2, read.size());
+		Match first = read.get(0);
+		assertEquals("v2", first.getVehicleId());
+		assertEquals(time(50), first.getDate());
+		assertNull(first.getTripId());
+		assertNull(first.getBlockId());
+		assertTrue(first.isAtStop());
+
+		Match second = read.get(1);
+		assertEquals("v1", second.getVehicleId());
+		assertEquals(time(100), second.getDate());
+		assertEquals(7, second.getConfigRev());
+		assertEquals("weekday", second.getServiceId());
+		assertEquals("block1", second.getBlockId());
+		assertEquals("trip1", second.getTripId());
+		assertEquals(0, second.getStopPathIndex());
+		assertEquals(2, second.getSegmentIndex());
+		assertEquals(12.5f, second.getDistanceAlongSegment(), 0.0f);
+		assertEquals(80.25f, second.getDistanceAlongStopPath(), 0.0f);
+		assertFalse(second.isAtStop());
+	}
+
+	@Test
+	public void emptyDayRoundTrip() throws IOException {
+		Date day = ColumnarArchive.getNextDayStart(
+				ColumnarArchive.getNextDayStart(dayStart));
+		ColumnarArchive.writeMatches(day, new ArrayList<Match>());
+		assertTrue(ColumnarArchive.readMatches(day).isEmpty());
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.db.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ColumnarEncodingTest {
+
+	private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private DataOutputStream out = new DataOutputStream(bytes);
+
+	private DataInputStream in() throws IOException {
+		out.flush();
+		return new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	@Test
+	public void varLongRoundTrip() throws IOException {
+		long[] values = {0, 1, -1, 63, -64, 64, 127, 128, -129,
+				Integer.MAX_VALUE, Integer.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE};
+		for (long value : values)
+			ColumnarEncoding.writeVarLong(out, value);
+
+		DataInputStream in = in();
+		for (long value : values)
+			assertEquals(value, ColumnarEncoding.readVarLong(in));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void smallValuesTakeOneByte() throws IOException {
+		ColumnarEncoding.writeVarLong(out, 63);
+		ColumnarEncoding.writeVarLong(out, -64);
+		assertEquals(2, in().available());
+	}
+
+	@Test
+	public void stringsRoundTripWithNulls() throws IOException {
+		String[] values = {"route1", null, "route2", "route1", "", null,
+				"r\u00e9seau"};
+		ColumnarEncoding.writeStrings(out, values);
+
+		String[] read = ColumnarEncoding.readStrings(in(), values.length);
+		assertArrayEquals(values, read);
+		// Rows with the same value share the dictionary entry
+		assertSame(read[0], read[3]);
+	}
+
+	@Test
+	public void emptyColumns() throws IOException {
+		ColumnarEncoding.writeStrings(out, new String[0]);
+		ColumnarEncoding.writeTimes(out, new long[0]);
+		ColumnarEncoding.writeInts(out, new int[0]);
+
+		DataInputStream in = in();
+		assertEquals(0, ColumnarEncoding.readStrings(in, 0).length);
+		assertEquals(0, ColumnarEncoding.readTimes(in, 0).length);
+		assertEquals(0, ColumnarEncoding.readInts(in, 0).length);
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void timesRoundTrip() throws IOException {
+		// Out of order times give negative deltas, which must still work
+		long[] times = {1500000000000L, 1500000000000L, 1500000001234L,
+				1499999999000L, 1500086400000L};
+		ColumnarEncoding.writeTimes(out, times);
+
+		assertArrayEquals(times, ColumnarEncoding.readTimes(in(), times.length));
+	}
+
+	@Test
+	public void relativeTimesRoundTripWithNulls() throws IOException {
+		long[] referenceTimes = {1500000000000L, 1500000060000L,
+				1500000120000L};
+		Long[] times = {1500000030000L, null, 1500000000000L};
+		ColumnarEncoding.writeRelativeTimes(out, times, referenceTimes);
+
+		Long[] read =
+				ColumnarEncoding.readRelativeTimes(in(), referenceTimes);
+		assertEquals(Long.valueOf(1500000030000L), read[0]);
+		assertNull(read[1]);
+		assertEquals(Long.valueOf(1500000000000L), read[2]);
+	}
+
+	@Test
+	public void intsBooleansAndFloatsRoundTrip() throws IOException {
+		int[] ints = {0, -1, 42, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		boolean[] booleans = {true, false, false, true};
+		float[] floats = {0.0f, -12.5f, 3.4028235e38f, Float.NaN};
+		ColumnarEncoding.writeInts(out, ints);
+		ColumnarEncoding.writeBooleans(out, booleans);
+		ColumnarEncoding.writeFloats(out, floats);
+
+		DataInputStream in = in();
+		assertArrayEquals(ints, ColumnarEncoding.readInts(in, ints.length));
+		boolean[] readBooleans =
+				ColumnarEncoding.readBooleans(in, booleans.length);
+		for (int i=0; i<booleans.length; ++i)
+			assertEquals(booleans[i], readBooleans[i]);
+		assertArrayEquals(floats,
+				ColumnarEncoding.readFloats(in, floats.length), 0.0f);
+	}
+
+	@Test
+	public void coordinatesKeepMicrodegrees() throws IOException {
+		double[] coordinates = {37.7749295, -122.4194155, 0.0, -0.0000004,
+				179.999999};
+		ColumnarEncoding.writeCoordinates(out, coordinates);
+
+		double[] read =
+				ColumnarEncoding.readCoordinates(in(), coordinates.length);
+		for (int i=0; i<coordinates.length; ++i)
+			assertEquals(coordinates[i], read[i], 0.0000005);
+	}
+}
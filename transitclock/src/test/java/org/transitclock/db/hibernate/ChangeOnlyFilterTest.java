@@ -0,0 +1,137 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.db.hibernate;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.transitclock.utils.Time;
+
+public class ChangeOnlyFilterTest {
+
+	// Default of transitclock.db.changeOnlyMaxIntervalSecs
+	private static final long MAX_INTERVAL_MSEC = 300 * Time.MS_PER_SEC;
+
+	private static final long START = 1500000000000L;
+
+	private TestFilter filter;
+
+	/**
+	 * Simple object for the filter with a key, time, and a value that is a
+	 * significant change if it differs by at least 10
+	 */
+	private static class Sample {
+		private final String key;
+		private final long time;
+		private final int value;
+
+		private Sample(String key, long time, int value) {
+			this.key = key;
+			this.time = time;
+			this.value = value;
+		}
+	}
+
+	private static class TestFilter extends ChangeOnlyFilter<Sample> {
+		private TestFilter() {
+			super("test");
+		}
+
+		@Override
+		protected Object getKey(Sample s) {
+			return s.key;
+		}
+
+		@Override
+		protected long getTime(Sample s) {
+			return s.time;
+		}
+
+		@Override
+		protected boolean isSignificantChange(Sample previous, Sample current) {
+			return Math.abs(current.value - previous.value) >= 10;
+		}
+	}
+
+	private boolean write(String key, long msecAfterStart, int value) {
+		return filter.shouldWrite(new Sample(key, START + msecAfterStart,
+				value));
+	}
+
+	@Before
+	public void setUp() {
+		filter = new TestFilter();
+	}
+
+	@Test
+	public void firstObjectForKeyIsWritten() {
+		assertTrue(write("v1", 0, 0));
+		assertTrue(write("v2", 1000, 0));
+	}
+
+	@Test
+	public void insignificantChangeIsNotWritten() {
+		assertTrue(write("v1", 0, 0));
+		assertFalse(write("v1", 10000, 5));
+		assertFalse(write("v1", 20000, 9));
+	}
+
+	@Test
+	public void significantChangeIsWritten() {
+		assertTrue(write("v1", 0, 0));
+		assertTrue(write("v1", 10000, 10));
+		// Compared to the last written object, not the last received one
+		assertFalse(write("v1", 20000, 15));
+		assertTrue(write("v1", 30000, 20));
+	}
+
+	@Test
+	public void writtenOnceMaxIntervalElapsed() {
+		assertTrue(write("v1", 0, 0));
+		assertFalse(write("v1", MAX_INTERVAL_MSEC - 1, 0));
+		assertTrue(write("v1", MAX_INTERVAL_MSEC, 0));
+		assertFalse(write("v1", MAX_INTERVAL_MSEC + 1000, 0));
+	}
+
+	@Test
+	public void olderObjectIsWritten() {
+		assertTrue(write("v1", 60000, 0));
+		// Such as when the clock of a vehicle jumps back
+		assertTrue(write("v1", 30000, 0));
+	}
+
+	@Test
+	public void keysAreIndependent() {
+		assertTrue(write("v1", 0, 0));
+		assertTrue(write("v2", 1000, 100));
+		assertFalse(write("v1", 2000, 1));
+		assertFalse(write("v2", 3000, 101));
+		assertTrue(write("v1", 4000, 50));
+	}
+
+	@Test
+	public void staleEntriesAreRemoved() {
+		assertTrue(write("v1", 0, 0));
+		// Well after the report interval so old entries are removed and
+		// writing for v1 starts over
+		assertTrue(write("v2", 20 * Time.MS_PER_MIN, 0));
+		assertTrue(write("v1", 20 * Time.MS_PER_MIN + 1000, 0));
+		assertFalse(write("v1", 20 * Time.MS_PER_MIN + 2000, 0));
+	}
+}
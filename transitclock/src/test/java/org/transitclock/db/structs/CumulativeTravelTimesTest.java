@@ -0,0 +1,176 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.db.structs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.transitclock.db.structs.TravelTimesForStopPath.HowSet;
+
+public class CumulativeTravelTimesTest {
+
+	private static TravelTimesForStopPath travelTimes(int stopTimeMsec,
+			Integer... segmentMsecs) {
+		return new TravelTimesForStopPath(0, 0, "path", 100.0,
+				new ArrayList<Integer>(Arrays.asList(segmentMsecs)),
+				stopTimeMsec, -1, HowSet.SCHED, null);
+	}
+	
+	private static StopPath stopPath(boolean waitStop) {
+		return new StopPath(0, "path", "stop", 1, false, "route", false,
+				waitStop, false, null, null, null);
+	}
+	
+	/**
+	 * Three stop paths, the second one with a wait stop
+	 */
+	private static final List<TravelTimesForStopPath> threeStopPaths = 
+			Arrays.asList(
+					travelTimes(0, 5000),
+					travelTimes(20000, 10000, 20000, 30000),
+					travelTimes(15000, 40000, 50000));
+	
+	private static final CumulativeTravelTimes cumulative =
+			new CumulativeTravelTimes(null, threeStopPaths,
+					Arrays.asList(stopPath(false), stopPath(true), 
+							stopPath(false)));
+	
+	@Test
+	public void stopPathTimes() {
+		assertEquals(1, cumulative.getNumberTravelTimeSegments(0));
+		assertEquals(3, cumulative.getNumberTravelTimeSegments(1));
+		assertEquals(60000, cumulative.getStopPathTravelTimeMsec(1));
+		assertEquals(20000, cumulative.getStopTimeMsec(1));
+		assertEquals(0, cumulative.getStopTimeMsec(0));
+		assertEquals(50000, cumulative.getTravelTimeSegmentMsec(2, 1));
+	}
+	
+	@Test
+	public void timeToSegment() {
+		assertEquals(0, cumulative.getTimeToSegmentMsec(1, 0));
+		assertEquals(30000, cumulative.getTimeToSegmentMsec(1, 2));
+		// The extra element is for the end of the stop path
+		assertEquals(60000, cumulative.getTimeToSegmentMsec(1, 3));
+	}
+	
+	@Test
+	public void timeBetweenStopPaths() {
+		assertEquals(5000, cumulative.getTimeBetweenStopPathsMsec(0, 1));
+		assertEquals(85000, cumulative.getTimeBetweenStopPathsMsec(0, 2));
+		// To the end of the trip, including the last stop time
+		assertEquals(190000, cumulative.getTimeBetweenStopPathsMsec(0, 3));
+		assertEquals(0, cumulative.getTimeBetweenStopPathsMsec(2, 2));
+	}
+	
+	@Test
+	public void nextWaitStop() {
+		assertEquals(1, cumulative.getNextWaitStopIndex(0));
+		assertEquals(1, cumulative.getNextWaitStopIndex(1));
+		assertEquals(-1, cumulative.getNextWaitStopIndex(2));
+	}
+	
+	@Test
+	public void noStopPaths() {
+		CumulativeTravelTimes empty = new CumulativeTravelTimes(null,
+				new ArrayList<TravelTimesForStopPath>(), 
+				new ArrayList<StopPath>());
+		assertEquals(0, empty.getTimeBetweenStopPathsMsec(0, 0));
+		assertEquals(-1, empty.getNextWaitStopIndex(0));
+	}
+	
+	/**
+	 * Compares against summing up the TravelTimesForStopPath stop path by
+	 * stop path and segment by segment, which is how the travel times were
+	 * determined before the cumulative times were used.
+	 */
+	@Test
+	public void sameAsPerStopPathLoop() {
+		Random random = new Random(42);
+		int numStopPaths = 40;
+		List<TravelTimesForStopPath> travelTimesForStopPaths = 
+				new ArrayList<TravelTimesForStopPath>();
+		List<StopPath> stopPaths = new ArrayList<StopPath>();
+		for (int i=0; i<numStopPaths; ++i) {
+			Integer[] segments = new Integer[1 + random.nextInt(5)];
+			for (int j=0; j<segments.length; ++j)
+				segments[j] = random.nextInt(120000);
+			travelTimesForStopPaths.add(
+					travelTimes(random.nextInt(60000), segments));
+			stopPaths.add(stopPath(random.nextInt(5) == 0));
+		}
+		CumulativeTravelTimes times = new CumulativeTravelTimes(null,
+				travelTimesForStopPaths, stopPaths);
+		
+		for (int i=0; i<numStopPaths; ++i) {
+			TravelTimesForStopPath travelTimes = 
+					travelTimesForStopPaths.get(i);
+			assertEquals(travelTimes.getStopPathTravelTimeMsec(),
+					times.getStopPathTravelTimeMsec(i));
+			assertEquals(travelTimes.getStopTimeMsec(), 
+					times.getStopTimeMsec(i));
+			
+			// Segment by segment, both from the beginning of the stop path
+			// to a segment and from a segment to the end of the stop path
+			int numSegments = travelTimes.getNumberTravelTimeSegments();
+			assertEquals(numSegments, times.getNumberTravelTimeSegments(i));
+			for (int segment=0; segment<numSegments; ++segment) {
+				assertEquals(travelTimes.getTravelTimeSegmentMsec(segment),
+						times.getTravelTimeSegmentMsec(i, segment));
+				
+				int toSegmentMsec = 0;
+				for (int j=0; j<segment; ++j)
+					toSegmentMsec += travelTimes.getTravelTimeSegmentMsec(j);
+				assertEquals(toSegmentMsec, 
+						times.getTimeToSegmentMsec(i, segment));
+				
+				int afterSegmentMsec = 0;
+				for (int j=segment+1; j<numSegments; ++j)
+					afterSegmentMsec += 
+							travelTimes.getTravelTimeSegmentMsec(j);
+				assertEquals(afterSegmentMsec, 
+						times.getStopPathTravelTimeMsec(i)
+						- times.getTimeToSegmentMsec(i, segment + 1));
+			}
+			
+			// Stop path by stop path to each later stop path
+			int betweenMsec = 0;
+			for (int to=i; to<=numStopPaths; ++to) {
+				assertEquals(betweenMsec, 
+						times.getTimeBetweenStopPathsMsec(i, to));
+				if (to < numStopPaths) {
+					TravelTimesForStopPath toTravelTimes = 
+							travelTimesForStopPaths.get(to);
+					betweenMsec += toTravelTimes.getStopPathTravelTimeMsec()
+							+ toTravelTimes.getStopTimeMsec();
+				}
+			}
+			
+			// Next wait stop by going through the stop paths
+			int nextWaitStop = -1;
+			for (int j=i; j<numStopPaths && nextWaitStop < 0; ++j) {
+				if (stopPaths.get(j).isWaitStop())
+					nextWaitStop = j;
+			}
+			assertEquals(nextWaitStop, times.getNextWaitStopIndex(i));
+		}
+	}
+}
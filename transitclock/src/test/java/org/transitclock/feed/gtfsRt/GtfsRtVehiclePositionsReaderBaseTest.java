@@ -0,0 +1,172 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.feed.gtfsRt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.transitclock.db.structs.AvlReport;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+
+public class GtfsRtVehiclePositionsReaderBaseTest {
+
+	private File feedFile;
+	
+	private final List<String> handledVehicles = new ArrayList<String>();
+	
+	// Vehicle for which handleAvlReport() throws, or null
+	private String failingVehicle = null;
+	
+	private GtfsRtVehiclePositionsReaderBase reader;
+	
+	@Before
+	public void setUp() throws IOException {
+		feedFile = File.createTempFile("vehiclePositions", ".pb");
+		reader = new GtfsRtVehiclePositionsReaderBase(
+				feedFile.toURI().toString(), true) {
+			@Override
+			protected void handleAvlReport(AvlReport avlReport) {
+				if (avlReport.getVehicleId().equals(failingVehicle))
+					throw new RuntimeException("Handling failed");
+				handledVehicles.add(avlReport.getVehicleId());
+			}
+		};
+	}
+	
+	@After
+	public void tearDown() {
+		feedFile.delete();
+	}
+	
+	private static FeedEntity vehicle(String entityId, String vehicleId,
+			long timestamp) {
+		VehiclePosition position = VehiclePosition.newBuilder()
+				.setVehicle(VehicleDescriptor.newBuilder().setId(vehicleId))
+				.setPosition(Position.newBuilder()
+						.setLatitude(37.8f).setLongitude(-122.27f))
+				.setTimestamp(timestamp)
+				.build();
+		return FeedEntity.newBuilder().setId(entityId).setVehicle(position)
+				.build();
+	}
+	
+	private static FeedEntity deleted(String entityId) {
+		return FeedEntity.newBuilder().setId(entityId).setIsDeleted(true)
+				.build();
+	}
+	
+	/**
+	 * Writes the entities as the feed and has the reader process it.
+	 * 
+	 * @return the vehicle IDs of the AVL reports that were handled
+	 */
+	private List<String> read(FeedHeader.Incrementality incrementality,
+			FeedEntity... entities) throws IOException {
+		FeedMessage.Builder message = FeedMessage.newBuilder()
+				.setHeader(FeedHeader.newBuilder()
+						.setGtfsRealtimeVersion("1.0")
+						.setIncrementality(incrementality));
+		for (FeedEntity entity : entities)
+			message.addEntity(entity);
+		OutputStream out = new FileOutputStream(feedFile);
+		try {
+			message.build().writeTo(out);
+		} finally {
+			out.close();
+		}
+		
+		handledVehicles.clear();
+		reader.process();
+		return new ArrayList<String>(handledVehicles);
+	}
+	
+	private static List<String> list(String... vehicleIds) {
+		List<String> list = new ArrayList<String>();
+		for (String vehicleId : vehicleIds)
+			list.add(vehicleId);
+		return list;
+	}
+	
+	@Test
+	public void unchangedVehiclesSkippedWhenEntityIdsChange() 
+			throws IOException {
+		FeedHeader.Incrementality full = 
+				FeedHeader.Incrementality.FULL_DATASET;
+		assertEquals(list("bus1", "bus2"), read(full, 
+				vehicle("1", "bus1", 1000), vehicle("2", "bus2", 1000)));
+		
+		// Same vehicles under new entity IDs. Only bus2 has a new timestamp.
+		assertEquals(list("bus2"), read(full, 
+				vehicle("a", "bus1", 1000), vehicle("b", "bus2", 1030)));
+	}
+	
+	@Test
+	public void failedVehicleNotSkippedNextTime() throws IOException {
+		FeedHeader.Incrementality full = 
+				FeedHeader.Incrementality.FULL_DATASET;
+		failingVehicle = "bus1";
+		assertEquals(list(), read(full, 
+				vehicle("1", "bus1", 1000), vehicle("2", "bus2", 1000)));
+		
+		// bus1 wasn't handled so is tried again with the same timestamp.
+		// bus2 wasn't reached either since the exception ended the read.
+		failingVehicle = null;
+		assertEquals(list("bus1", "bus2"), read(full, 
+				vehicle("1", "bus1", 1000), vehicle("2", "bus2", 1000)));
+		assertEquals(list(), read(full, 
+				vehicle("1", "bus1", 1000), vehicle("2", "bus2", 1000)));
+	}
+	
+	@Test
+	public void vehicleNotInFullDatasetIsForgotten() throws IOException {
+		FeedHeader.Incrementality full = 
+				FeedHeader.Incrementality.FULL_DATASET;
+		read(full, vehicle("1", "bus1", 1000), vehicle("2", "bus2", 1000));
+		assertEquals(list(), read(full, vehicle("3", "bus2", 1000)));
+		
+		// bus1 left the feed so its old timestamp is new again
+		assertEquals(list("bus1"), read(full, 
+				vehicle("4", "bus1", 1000), vehicle("5", "bus2", 1000)));
+	}
+	
+	@Test
+	public void differentialDeleteUsesVehicleOfEntity() throws IOException {
+		FeedHeader.Incrementality differential = 
+				FeedHeader.Incrementality.DIFFERENTIAL;
+		read(differential, vehicle("1", "bus1", 1000), 
+				vehicle("2", "bus2", 1000));
+		
+		// Deleting entity 1 forgets bus1 but not bus2
+		assertEquals(list("bus1"), read(differential, deleted("1"), 
+				vehicle("3", "bus1", 1000), vehicle("4", "bus2", 1000)));
+	}
+}
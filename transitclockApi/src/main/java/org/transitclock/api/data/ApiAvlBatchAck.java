@@ -0,0 +1,69 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitclock.api.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Acknowledgment for a batch of AVL reports. To keep the response compact
+ * only the indexes of the reports that were not accepted are listed, which
+ * is usually none.
+ */
+@XmlRootElement(name="acknowledgment")
+public class ApiAvlBatchAck {
+	@XmlAttribute
+	private boolean success;
+	
+	@XmlAttribute
+	private int accepted;
+	
+	@XmlAttribute
+	private int total;
+	
+	@XmlElement(name="rejected")
+	private List<Integer> rejected;
+	
+    /********************** Member Functions **************************/
+
+    /**
+     * Need a no-arg constructor for Jersey. Otherwise get really 
+     * obtuse "MessageBodyWriter not found for media type=application/json"
+     * exception.
+     */
+    public ApiAvlBatchAck() {}
+
+    /**
+     * @param acceptedReports
+     *            For each report in the batch whether it was accepted
+     */
+    public ApiAvlBatchAck(boolean[] acceptedReports) {
+    	total = acceptedReports.length;
+    	rejected = new ArrayList<Integer>();
+    	for (int i=0; i<acceptedReports.length; ++i) {
+    		if (acceptedReports[i])
+    			++accepted;
+    		else
+    			rejected.add(i);
+    	}
+    	success = rejected.isEmpty();
+    }
+}
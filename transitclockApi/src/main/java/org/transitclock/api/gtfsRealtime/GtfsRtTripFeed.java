@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -111,10 +112,20 @@ public class GtfsRtTripFeed {
 	/********************** Member Functions **************************/
 
 	public GtfsRtTripFeed(String agencyId) {
+		this(agencyId, AgencyTimezoneCache.get(agencyId));
+	}
+
+	/**
+	 * For when the timezone is already known so it doesn't need to be
+	 * obtained from the server via RMI, such as when benchmarking.
+	 * 
+	 * @param agencyId
+	 * @param timezone
+	 */
+	GtfsRtTripFeed(String agencyId, TimeZone timezone) {
 		this.agencyId = agencyId;	
 		
-		this.gtfsRealtimeDateFormatter.setTimeZone(AgencyTimezoneCache
-				.get(agencyId));
+		this.gtfsRealtimeDateFormatter.setTimeZone(timezone);
 	}
 
 	/**
@@ -230,7 +241,7 @@ public class GtfsRtTripFeed {
 	 *            the data to be put into the GTFS-realtime message
 	 * @return the GTFS-realtime FeedMessage
 	 */
-	private FeedMessage createMessage(Map<String, List<IpcPrediction>> predsByTripMap) {
+	FeedMessage createMessage(Map<String, List<IpcPrediction>> predsByTripMap) {
 		FeedMessage.Builder message = FeedMessage.newBuilder();
 		
 		FeedHeader.Builder feedheader = FeedHeader.newBuilder()
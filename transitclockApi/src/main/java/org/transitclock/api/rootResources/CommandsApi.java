@@ -17,6 +17,7 @@
 package org.transitclock.api.rootResources;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -27,6 +28,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Date;
 import javax.ws.rs.BeanParam;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -41,6 +43,7 @@ import javax.ws.rs.core.Response;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.transitclock.api.data.ApiAvlBatchAck;
 import org.transitclock.api.data.ApiCommandAck;
 import org.transitclock.api.utils.StandardParameters;
 import org.transitclock.api.utils.WebUtils;
@@ -264,6 +267,61 @@ public class CommandsApi {
 		ApiCommandAck ack = new ApiCommandAck(true, "AVL processed");
 		return stdParameters.createResponse(ack);
 	}
+
+	/**
+	 * Processes a POST http request containing a batch of AVL data in the
+	 * message body as a serialized GTFS-realtime FeedMessage with a
+	 * VehiclePosition for each AVL report. Much more efficient than the JSON
+	 * version of pushAvl for high volumes of data since the body is not
+	 * parsed here but instead passed to the server as is in a single RMI
+	 * call.
+	 * <p>
+	 * The response lists the number of entities that were accepted and the
+	 * indexes of any that were rejected, either because they didn't have a
+	 * vehicle ID and position or because the server's AVL queue was full.
+	 * 
+	 * @param stdParameters
+	 * @param requestBody
+	 * @return ApiAvlBatchAck response indicating which reports were accepted
+	 * @throws WebApplicationException
+	 */
+	@Path("/command/pushAvlBatch")
+	@POST
+	@Consumes({ "application/x-protobuf", MediaType.APPLICATION_OCTET_STREAM })
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	@Operation(summary="Reads in a batch of AVL reports in the message body.",
+	description="Reads in a batch of AVL reports. The message body is a "
+			+ "GTFS-realtime FeedMessage in protobuf format with a "
+			+ "VehiclePosition entity for each AVL report. Returns how many "
+			+ "were accepted and the indexes of the entities that were "
+			+ "rejected.",tags= {"operation","vehicle","avl"})
+	public Response pushAvlBatch(@BeanParam StandardParameters stdParameters,
+			@Parameter(description="GTFS-realtime FeedMessage.",required=true)InputStream requestBody) throws WebApplicationException {
+		// Make sure request is valid
+		stdParameters.validate();
+
+		try {
+			// Read in the FeedMessage
+			ByteArrayOutputStream feedMessage = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = requestBody.read(buffer)) != -1)
+				feedMessage.write(buffer, 0, length);
+			requestBody.close();
+
+			// Get RMI interface and send the whole batch to server at once
+			CommandsInterface inter = stdParameters.getCommandsInterface();
+			boolean[] accepted = inter.pushAvlBatch(feedMessage.toByteArray());
+
+			// Create the acknowledgment and return it as JSON or XML
+			ApiAvlBatchAck ack = new ApiAvlBatchAck(accepted);
+			return stdParameters.createResponse(ack);
+		} catch (IOException e) {
+			// If problem getting data then return a Bad Request
+			throw WebUtils.badRequestException(e);
+		}
+	}
+
 	@Path("/command/resetVehicle")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
@@ -1711,6 +1711,36 @@ public class TransitimeApi {
 		}
 	}
 
+	/**
+	 * Returns the metrics for the internals of the core, such as queue sizes,
+	 * cache hit ratios, and timings, in the Prometheus text format so that
+	 * they can be scraped.
+	 * 
+	 * @param stdParameters
+	 * @return
+	 * @throws WebApplicationException
+	 */
+	@Path("/command/metrics")
+	@GET
+	@Produces({ MediaType.TEXT_PLAIN })
+	@Operation(summary="Retrieves metrics for the core.",description="Retrieves metrics for the internals of the core in the Prometheus text format.",tags= {"server status"})
+	public Response getMetrics(@BeanParam StandardParameters stdParameters) throws WebApplicationException {
+
+		// Make sure request is valid
+		stdParameters.validate();
+
+		try {
+			ServerStatusInterface inter = stdParameters.getServerStatusInterface();
+			String metrics = inter.getMetrics();
+
+			return Response.ok(metrics)
+					.type("text/plain; version=0.0.4; charset=utf-8").build();
+		} catch (Exception e) {
+			// If problem getting data then return a Bad Request
+			throw WebUtils.badRequestException(e);
+		}
+	}
+
 	/**
 	 * Returns info for this particular web server for each agency on how many
 	 * outstanding RMI calls there are.
@@ -0,0 +1,91 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.api.gtfsRealtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.benchmarks.BenchmarkEnvironment;
+import org.transitclock.benchmarks.SyntheticGtfs;
+import org.transitclock.core.dataCache.PredictionDataCache;
+import org.transitclock.ipc.data.IpcPrediction;
+import org.transitclock.ipc.data.IpcPredictionsForRouteStopDest;
+
+/**
+ * Benchmarks constructing and serializing the GTFS-realtime trip updates
+ * feed from all of the current predictions. The predictions are obtained
+ * directly from the PredictionDataCache instead of via RMI so that only the
+ * feed construction is measured. In this package so that it can access
+ * GtfsRtTripFeed.createMessage().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GtfsRtTripFeedBenchmark {
+
+	private GtfsRtTripFeed feed;
+	private Map<String, List<IpcPrediction>> predsByTrip;
+
+	@Setup
+	public void setup() {
+		BenchmarkEnvironment.getInstance();
+		feed = new GtfsRtTripFeed(SyntheticGtfs.AGENCY_ID,
+				TimeZone.getTimeZone(SyntheticGtfs.TIMEZONE));
+
+		// Group the predictions by trip the same way
+		// GtfsRtTripFeed.getPredictionsPerTrip() does
+		predsByTrip = new HashMap<String, List<IpcPrediction>>();
+		for (IpcPredictionsForRouteStopDest predsForStop : PredictionDataCache
+				.getInstance().getAllPredictions(Integer.MAX_VALUE,
+						Long.MAX_VALUE)) {
+			for (IpcPrediction pred : predsForStop.getPredictionsForRouteStop()) {
+				List<IpcPrediction> predsForTrip =
+						predsByTrip.get(pred.getTripId());
+				if (predsForTrip == null) {
+					predsForTrip = new ArrayList<IpcPrediction>();
+					predsByTrip.put(pred.getTripId(), predsForTrip);
+				}
+				predsForTrip.add(pred);
+			}
+		}
+		if (predsByTrip.isEmpty())
+			throw new IllegalStateException("No predictions for feed");
+	}
+
+	@Benchmark
+	public byte[] createMessage() {
+		return feed.createMessage(predsByTrip).toByteArray();
+	}
+}
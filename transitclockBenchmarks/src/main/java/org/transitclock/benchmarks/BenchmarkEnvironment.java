@@ -0,0 +1,192 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.transitclock.applications.Core;
+import org.transitclock.config.ConfigFileReader;
+import org.transitclock.configData.AgencyConfig;
+import org.transitclock.core.AvlProcessor;
+import org.transitclock.core.VehicleState;
+import org.transitclock.core.dataCache.VehicleStateManager;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.gtfs.GtfsData;
+import org.transitclock.gtfs.TitleFormatter;
+import org.transitclock.utils.Time;
+
+/**
+ * Sets up a complete core for the benchmarks that need one. The synthetic
+ * GTFS data is processed into an in-memory HSQL db, the Core is created from
+ * it, and then the first part of the synthetic AVL data is run through the
+ * AvlProcessor so that the vehicles are matched to their assignments and
+ * have predictions. The remaining AVL reports are kept so that benchmarks
+ * can match them.
+ * <p>
+ * Since the Core is a singleton there can only be one environment per JVM.
+ * JMH forks a new JVM for each benchmark so this is not a limitation.
+ */
+public class BenchmarkEnvironment {
+
+	// Size of the synthetic system
+	private static final int NUM_ROUTES = 20;
+	private static final int STOPS_PER_ROUTE = 40;
+	private static final int BLOCKS_PER_ROUTE = 6;
+	private static final int TRIPS_PER_BLOCK = 8;
+
+	private static final int AVL_INTERVAL_SECS = 30;
+
+	// How much of the AVL data to process during setup
+	private static final int SETUP_AVL_SECS = 90 * Time.SEC_PER_MIN;
+
+	private static BenchmarkEnvironment singleton = null;
+
+	private final SyntheticGtfs gtfs;
+
+	// The next AVL report for each vehicle, not yet processed
+	private final Map<String, AvlReport> nextAvlReports =
+			new HashMap<String, AvlReport>();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Returns the environment, creating it the first time this is called
+	 *
+	 * @return the benchmark environment
+	 */
+	public static synchronized BenchmarkEnvironment getInstance() {
+		if (singleton == null) {
+			try {
+				singleton = new BenchmarkEnvironment();
+			} catch (IOException e) {
+				throw new RuntimeException(
+						"Could not set up benchmark environment", e);
+			}
+		}
+		return singleton;
+	}
+
+	private BenchmarkEnvironment() throws IOException {
+		gtfs = new SyntheticGtfs(NUM_ROUTES, STOPS_PER_ROUTE,
+				BLOCKS_PER_ROUTE, TRIPS_PER_BLOCK);
+
+		File directory = Files.createTempDirectory("transitclockBenchmarks")
+				.toFile();
+		File gtfsDirectory = new File(directory, "gtfs");
+		gtfs.write(gtfsDirectory);
+
+		// Hibernate needs the config as a regular file, not as a resource
+		// inside of the benchmarks jar
+		File hibernateConfigFile =
+				new File(directory, "hsql_benchmarks_hibernate.cfg.xml");
+		InputStream in = getClass().getClassLoader()
+				.getResourceAsStream("hsql_benchmarks_hibernate.cfg.xml");
+		try {
+			Files.copy(in, hibernateConfigFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			in.close();
+		}
+
+		System.setProperty("transitclock.core.agencyId",
+				SyntheticGtfs.AGENCY_ID);
+		System.setProperty("transitclock.hibernate.configFile",
+				hibernateConfigFile.getPath());
+		System.setProperty("transitclock.logging.dir", directory.getPath());
+		ConfigFileReader.processConfig();
+
+		// Process the GTFS data into the db. Uses the same defaults as
+		// GtfsFileProcessor.
+		TitleFormatter titleFormatter = new TitleFormatter(null, false);
+		GtfsData gtfsData = new GtfsData(1, null, null, true, false,
+				AgencyConfig.getAgencyId(), gtfsDirectory.getPath(), null,
+				0.0, // pathOffsetDistance
+				60.0, // maxStopToPathDistance
+				3.0, // maxDistanceForEliminatingVertices
+				10 * Time.MS_PER_SEC, // defaultWaitTimeAtStopMsec
+				97.0, // maxSpeedKph
+				200.0, // maxTravelTimeSegmentLength
+				false, // trimPathBeforeFirstStopOfTrip
+				titleFormatter,
+				6000.0, // maxDistanceBetweenStops
+				false); // disableSpecialLoopBackToBeginningCase
+		gtfsData.processData();
+
+		// Core is created on first access
+		Core.getInstance();
+
+		// Process the first part of the AVL data so that vehicles are
+		// matched and predictions are generated
+		List<AvlReport> avlReports =
+				gtfs.generateAvlReports(AVL_INTERVAL_SECS);
+		long endOfSetupTime = avlReports.get(0).getTime()
+				+ SETUP_AVL_SECS * Time.MS_PER_SEC;
+		for (AvlReport avlReport : avlReports) {
+			if (avlReport.getTime() <= endOfSetupTime) {
+				processAvlReport(avlReport);
+			} else if (!nextAvlReports.containsKey(avlReport.getVehicleId())) {
+				nextAvlReports.put(avlReport.getVehicleId(), avlReport);
+			}
+		}
+	}
+
+	/**
+	 * Processes the AVL report the same way as BatchCsvAvlFeedModule does
+	 *
+	 * @param avlReport
+	 */
+	public void processAvlReport(AvlReport avlReport) {
+		Core.getInstance().setSystemTime(avlReport.getTime());
+		AvlProcessor.getInstance().processAvlReport(avlReport);
+	}
+
+	public SyntheticGtfs getGtfs() {
+		return gtfs;
+	}
+
+	/**
+	 * @return the vehicle states for the vehicles that are currently
+	 *         predictable
+	 */
+	public List<VehicleState> getPredictableVehicleStates() {
+		List<VehicleState> vehicleStates = new ArrayList<VehicleState>();
+		for (VehicleState vehicleState :
+				VehicleStateManager.getInstance().getVehiclesState()) {
+			if (vehicleState.isPredictable())
+				vehicleStates.add(vehicleState);
+		}
+		return vehicleStates;
+	}
+
+	/**
+	 * @param vehicleId
+	 * @return the first AVL report for the vehicle that was not processed
+	 *         during setup, or null if there is none
+	 */
+	public AvlReport getNextAvlReport(String vehicleId) {
+		return nextAvlReports.get(vehicleId);
+	}
+}
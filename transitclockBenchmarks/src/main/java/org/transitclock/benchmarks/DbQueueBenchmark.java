@@ -0,0 +1,81 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.db.hibernate.DbQueue;
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.utils.Time;
+
+/**
+ * Benchmarks writing objects to the db through a DbQueue, which batches
+ * them into transactions of transitclock.db.batchSize objects. Each
+ * invocation queues OBJECTS_PER_INVOCATION AVL reports and then waits for
+ * the queue's writer thread to have drained them, so the result is the time
+ * for the whole pipeline. The writer polls every second when the queue is
+ * empty, so up to a second of each invocation can be waiting for it to
+ * start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DbQueueBenchmark {
+
+	private static final int OBJECTS_PER_INVOCATION = 50000;
+
+	private DbQueue<AvlReport> dbQueue;
+
+	// AVL reports are keyed by vehicle and time so each needs a new time
+	private long time;
+
+	@Setup
+	public void setup() {
+		// Sets up the db
+		BenchmarkEnvironment.getInstance();
+
+		dbQueue = new DbQueue<AvlReport>(SyntheticGtfs.AGENCY_ID, true, false,
+				"AvlReport");
+		time = SyntheticGtfs.getServiceDate() + 2 * Time.MS_PER_DAY;
+	}
+
+	@Benchmark
+	public void writeObjects() {
+		for (int i=0; i<OBJECTS_PER_INVOCATION; ++i) {
+			time += Time.MS_PER_SEC;
+			dbQueue.add(new AvlReport("benchmark", time, 38.9, -77.1,
+					"Benchmark"));
+		}
+
+		while (dbQueue.queueSize() > 0)
+			Time.sleep(10);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.core.dataCache.ErrorCache;
+import org.transitclock.core.dataCache.KalmanError;
+import org.transitclock.core.dataCache.KalmanErrorCacheKey;
+import org.transitclock.utils.ClassInstantiator;
+
+/**
+ * Compares the ErrorCache implementations that hold the Kalman filter error
+ * values. Each Kalman prediction reads and then writes the error for every
+ * stop path being predicted. Runs with multiple threads since predictions
+ * for different vehicles are generated concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class ErrorCacheBenchmark {
+
+	@Param({ "org.transitclock.core.dataCache.ehcache.KalmanErrorCache",
+			"org.transitclock.core.dataCache.jcs.KalmanErrorCache",
+			"org.transitclock.core.dataCache.inmemory.KalmanErrorCache" })
+	public String className;
+
+	// Roughly a day of trips for a medium sized agency
+	private static final int NUM_TRIPS = 5000;
+	private static final int STOP_PATHS_PER_TRIP = 40;
+
+	private ErrorCache errorCache;
+	private KalmanErrorCacheKey[] keys;
+
+	@Setup
+	public void setup() {
+		errorCache = ClassInstantiator.instantiate(className, ErrorCache.class);
+
+		keys = new KalmanErrorCacheKey[NUM_TRIPS * STOP_PATHS_PER_TRIP];
+		int i = 0;
+		for (int t=0; t<NUM_TRIPS; ++t) {
+			for (int s=0; s<STOP_PATHS_PER_TRIP; ++s) {
+				keys[i] = new KalmanErrorCacheKey("trip_" + t, s);
+				errorCache.putErrorValue(keys[i], 10000.0 + i % 1000);
+				++i;
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		final Random random = new Random();
+	}
+
+	@Benchmark
+	public KalmanError getErrorValue(ThreadState threadState) {
+		return errorCache.getErrorValue(
+				keys[threadState.random.nextInt(keys.length)]);
+	}
+
+	/**
+	 * Read and then update the error value, as a Kalman prediction does
+	 */
+	@Benchmark
+	public void getAndPutErrorValue(ThreadState threadState) {
+		KalmanErrorCacheKey key =
+				keys[threadState.random.nextInt(keys.length)];
+		KalmanError error = errorCache.getErrorValue(key);
+		double value = error != null ? error.getError() : 10000.0;
+		errorCache.putErrorValue(key,
+				value + threadState.random.nextGaussian());
+	}
+}
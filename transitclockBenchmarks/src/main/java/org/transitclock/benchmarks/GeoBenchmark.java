@@ -0,0 +1,97 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.db.structs.Location;
+import org.transitclock.db.structs.Vector;
+import org.transitclock.utils.Geo;
+
+/**
+ * Benchmarks the geometry calculations that are done for every segment of
+ * every trip that an AVL report is matched against.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeoBenchmark {
+
+	private static final int NUM_POINTS = 1024;
+
+	private Location[] locations;
+	private Vector[] vectors;
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		locations = new Location[NUM_POINTS];
+		vectors = new Vector[NUM_POINTS];
+		for (int i=0; i<NUM_POINTS; ++i) {
+			// Points and segments within a few hundred meters of each other,
+			// as when matching
+			double lat = 38.9 + random.nextDouble() * 0.01;
+			double lon = -77.1 + random.nextDouble() * 0.01;
+			locations[i] = new Location(lat, lon);
+			vectors[i] = new Vector(
+					new Location(lat + random.nextDouble() * 0.002,
+							lon + random.nextDouble() * 0.002),
+					new Location(lat + random.nextDouble() * 0.002,
+							lon + random.nextDouble() * 0.002));
+		}
+	}
+
+	private int nextIndex() {
+		index = (index + 1) & (NUM_POINTS - 1);
+		return index;
+	}
+
+	@Benchmark
+	public double distance() {
+		int i = nextIndex();
+		return Geo.distance(locations[i],
+				locations[(i + 1) & (NUM_POINTS - 1)]);
+	}
+
+	@Benchmark
+	public double distanceToVector() {
+		int i = nextIndex();
+		return Geo.distance(locations[i], vectors[i]);
+	}
+
+	@Benchmark
+	public double matchDistanceAlongVector() {
+		int i = nextIndex();
+		return Geo.matchDistanceAlongVector(locations[i], vectors[i]);
+	}
+}
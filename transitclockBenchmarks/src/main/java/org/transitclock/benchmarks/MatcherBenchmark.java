@@ -0,0 +1,118 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.core.SpatialMatch;
+import org.transitclock.core.SpatialMatcher;
+import org.transitclock.core.SpatialMatcher.MatchingType;
+import org.transitclock.core.TemporalMatch;
+import org.transitclock.core.TemporalMatcher;
+import org.transitclock.core.VehicleState;
+import org.transitclock.db.structs.AvlReport;
+
+/**
+ * Benchmarks matching a new AVL report for each predictable vehicle. The
+ * new AVL report is set for the vehicle state during setup, without
+ * processing it, so that each invocation does the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatcherBenchmark {
+
+	private List<VehicleState> vehicleStates;
+	private List<List<SpatialMatch>> spatialMatches;
+	private int index;
+
+	@Setup
+	public void setup() {
+		BenchmarkEnvironment env = BenchmarkEnvironment.getInstance();
+
+		vehicleStates = new ArrayList<VehicleState>();
+		spatialMatches = new ArrayList<List<SpatialMatch>>();
+		for (VehicleState vehicleState : env.getPredictableVehicleStates()) {
+			AvlReport nextAvlReport =
+					env.getNextAvlReport(vehicleState.getVehicleId());
+			if (nextAvlReport == null)
+				continue;
+
+			vehicleState.setAvlReport(nextAvlReport);
+			List<SpatialMatch> matches =
+					SpatialMatcher.getSpatialMatches(vehicleState);
+			if (matches.isEmpty())
+				continue;
+
+			vehicleStates.add(vehicleState);
+			spatialMatches.add(matches);
+		}
+
+		if (vehicleStates.isEmpty())
+			throw new IllegalStateException("No vehicles could be matched");
+	}
+
+	private int nextIndex() {
+		index = (index + 1) % vehicleStates.size();
+		return index;
+	}
+
+	/**
+	 * Matching against all trips of the block, as done when a vehicle is
+	 * first assigned
+	 */
+	@Benchmark
+	public List<SpatialMatch> spatialMatchesForBlock() {
+		VehicleState vehicleState = vehicleStates.get(nextIndex());
+		return SpatialMatcher.getSpatialMatches(vehicleState.getAvlReport(),
+				vehicleState.getBlock(), vehicleState.getBlock().getTrips(),
+				MatchingType.STANDARD_MATCHING);
+	}
+
+	/**
+	 * Matching forward from the previous match, as done for each AVL report
+	 * of a vehicle that is already predictable
+	 */
+	@Benchmark
+	public List<SpatialMatch> spatialMatchesFromPreviousMatch() {
+		return SpatialMatcher.getSpatialMatches(
+				vehicleStates.get(nextIndex()));
+	}
+
+	@Benchmark
+	public TemporalMatch bestTemporalMatch() {
+		int i = nextIndex();
+		return TemporalMatcher.getInstance().getBestTemporalMatch(
+				vehicleStates.get(i), spatialMatches.get(i));
+	}
+}
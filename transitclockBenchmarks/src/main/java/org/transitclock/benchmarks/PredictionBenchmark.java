@@ -0,0 +1,121 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.core.PredictionGeneratorDefaultImpl;
+import org.transitclock.core.VehicleState;
+import org.transitclock.core.dataCache.PredictionDataCache;
+import org.transitclock.ipc.data.IpcPrediction;
+import org.transitclock.ipc.data.IpcPredictionsForRouteStopDest;
+
+/**
+ * Benchmarks generating the predictions for a vehicle and updating and
+ * reading the PredictionDataCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PredictionBenchmark {
+
+	private List<VehicleState> vehicleStates;
+	private List<List<IpcPrediction>> predictions;
+	private PredictionGeneratorDefaultImpl predictionGenerator;
+
+	// Route short names and stop IDs to read predictions for
+	private String[] routeShortNames;
+	private String[] stopIds;
+
+	private int index;
+
+	@Setup
+	public void setup() {
+		BenchmarkEnvironment env = BenchmarkEnvironment.getInstance();
+		predictionGenerator = new PredictionGeneratorDefaultImpl();
+
+		vehicleStates = new ArrayList<VehicleState>();
+		predictions = new ArrayList<List<IpcPrediction>>();
+		for (VehicleState vehicleState : env.getPredictableVehicleStates()) {
+			List<IpcPrediction> predsForVehicle = vehicleState.getPredictions();
+			if (predsForVehicle == null || predsForVehicle.isEmpty())
+				continue;
+			vehicleStates.add(vehicleState);
+			predictions.add(predsForVehicle);
+		}
+		if (vehicleStates.isEmpty())
+			throw new IllegalStateException("No vehicles have predictions");
+
+		SyntheticGtfs gtfs = env.getGtfs();
+		Random random = new Random(42);
+		routeShortNames = new String[1024];
+		stopIds = new String[1024];
+		for (int i=0; i<routeShortNames.length; ++i) {
+			int route = random.nextInt(gtfs.getNumRoutes());
+			routeShortNames[i] = Integer.toString(route);
+			stopIds[i] = SyntheticGtfs.getStopId(route,
+					random.nextInt(gtfs.getStopsPerRoute()));
+		}
+	}
+
+	private int nextIndex(int size) {
+		index = (index + 1) % size;
+		return index;
+	}
+
+	@Benchmark
+	public List<IpcPrediction> generate() {
+		return predictionGenerator.generate(
+				vehicleStates.get(nextIndex(vehicleStates.size())));
+	}
+
+	/**
+	 * Replaces the predictions for a vehicle with the same predictions, which
+	 * is the work done each time a vehicle gets new predictions.
+	 */
+	@Benchmark
+	public void updatePredictions() {
+		List<IpcPrediction> predsForVehicle =
+				predictions.get(nextIndex(predictions.size()));
+		PredictionDataCache.getInstance().updatePredictions(predsForVehicle,
+				predsForVehicle);
+	}
+
+	@Benchmark
+	public List<IpcPredictionsForRouteStopDest> getPredictions() {
+		int i = nextIndex(routeShortNames.length);
+		return PredictionDataCache.getInstance().getPredictions(
+				routeShortNames[i], null, stopIds[i], 3);
+	}
+}
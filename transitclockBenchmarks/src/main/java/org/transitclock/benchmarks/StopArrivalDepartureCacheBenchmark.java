@@ -0,0 +1,128 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitclock.core.dataCache.StopArrivalDepartureCacheFactory;
+import org.transitclock.core.dataCache.StopArrivalDepartureCacheKey;
+import org.transitclock.db.structs.Arrival;
+import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.ipc.data.IpcArrivalDeparture;
+import org.transitclock.utils.Time;
+
+/**
+ * Benchmarks putting arrivals into and reading the history from the
+ * configured StopArrivalDepartureCache. A day of arrivals, with
+ * EVENTS_PER_STOP arrivals for each stop, is put into the cache during
+ * setup so that the gets return realistically sized histories. The put
+ * benchmark cycles through the same arrivals but for subsequent days so that
+ * the history for a stop doesn't grow without bounds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StopArrivalDepartureCacheBenchmark {
+
+	private static final int EVENTS_PER_STOP = 100;
+
+	// For each arrival of a day
+	private String[] stopIds;
+	private int[] routes;
+	private int[] secsIntoDay;
+
+	private long serviceDate;
+	private int putCount;
+	private int getIndex;
+
+	@Setup
+	public void setup() {
+		SyntheticGtfs gtfs = BenchmarkEnvironment.getInstance().getGtfs();
+		serviceDate = SyntheticGtfs.getServiceDate();
+
+		int numStops = gtfs.getNumRoutes() * gtfs.getStopsPerRoute();
+		int numEvents = numStops * EVENTS_PER_STOP;
+		stopIds = new String[numEvents];
+		routes = new int[numEvents];
+		secsIntoDay = new int[numEvents];
+
+		// Spread the events for each stop throughout the service day
+		int i = 0;
+		for (int e=0; e<EVENTS_PER_STOP; ++e) {
+			for (int r=0; r<gtfs.getNumRoutes(); ++r) {
+				for (int s=0; s<gtfs.getStopsPerRoute(); ++s) {
+					stopIds[i] = SyntheticGtfs.getStopId(r, s);
+					routes[i] = r;
+					secsIntoDay[i] = 6 * Time.SEC_PER_HOUR
+							+ e * 10 * Time.SEC_PER_MIN + s * Time.SEC_PER_MIN;
+					++i;
+				}
+			}
+		}
+
+		// Fill in the history for the service day
+		for (int j=0; j<numEvents; ++j) {
+			StopArrivalDepartureCacheFactory.getInstance()
+					.putArrivalDeparture(createArrival(j, 0));
+		}
+	}
+
+	private ArrivalDeparture createArrival(int i, int day) {
+		Date time = new Date(serviceDate + (long) day * Time.MS_PER_DAY
+				+ secsIntoDay[i] * Time.MS_PER_SEC);
+		int route = routes[i];
+		return new Arrival(SyntheticGtfs.getVehicleId(route, 0), time,
+				stopIds[i], 1, SyntheticGtfs.getTripId(route, 0, 0), 0, time,
+				time, SyntheticGtfs.getBlockId(route, 0),
+				SyntheticGtfs.getRouteId(route), Integer.toString(route),
+				SyntheticGtfs.SERVICE_ID, "0", 0, null, 0, 0, 0.0f);
+	}
+
+	@Benchmark
+	public Object putArrivalDeparture() {
+		int day = 1 + putCount / stopIds.length;
+		int i = putCount % stopIds.length;
+		++putCount;
+		return StopArrivalDepartureCacheFactory.getInstance()
+				.putArrivalDeparture(createArrival(i, day));
+	}
+
+	@Benchmark
+	public List<IpcArrivalDeparture> getStopHistory() {
+		getIndex = (getIndex + 1) % stopIds.length;
+		StopArrivalDepartureCacheKey key = new StopArrivalDepartureCacheKey(
+				stopIds[getIndex], new Date(serviceDate));
+		return StopArrivalDepartureCacheFactory.getInstance()
+				.getStopHistory(key);
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.transitclock.db.structs.AvlReport;
+import org.transitclock.db.structs.AvlReport.AssignmentType;
+import org.transitclock.db.structs.Location;
+
+/**
+ * Generates a synthetic but realistically shaped GTFS feed, and AVL reports
+ * for vehicles serving it, so that the benchmarks don't depend on any
+ * agency's data. Each route is a line of evenly spaced stops that is run in
+ * both directions. Each block goes back and forth along its route for the
+ * specified number of trips.
+ * <p>
+ * The generation is deterministic so that benchmark results are comparable
+ * between runs.
+ */
+public class SyntheticGtfs {
+
+	public static final String AGENCY_ID = "1";
+	public static final String TIMEZONE = "America/New_York";
+	public static final String SERVICE_ID = "SVC";
+
+	// Where the routes are laid out
+	private static final double BASE_LAT = 38.90;
+	private static final double BASE_LON = -77.10;
+	private static final double LAT_BETWEEN_ROUTES = 0.01;
+
+	private static final double STOP_SPACING_METERS = 400.0;
+	private static final double METERS_PER_DEGREE_LAT = 111320.0;
+
+	// Stops alternate a bit from side to side so that the shapes are not
+	// just a single straight line
+	private static final double ZIGZAG_LAT = 0.0003;
+
+	private static final int SECS_BETWEEN_STOPS = 60;
+	private static final int LAYOVER_SECS = 300;
+	private static final int FIRST_TRIP_START_SECS = 6 * 60 * 60;
+	private static final int SECS_BETWEEN_BLOCKS = 10 * 60;
+
+	private final int numRoutes;
+	private final int stopsPerRoute;
+	private final int blocksPerRoute;
+	private final int tripsPerBlock;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param numRoutes
+	 * @param stopsPerRoute
+	 * @param blocksPerRoute
+	 * @param tripsPerBlock
+	 */
+	public SyntheticGtfs(int numRoutes, int stopsPerRoute, int blocksPerRoute,
+			int tripsPerBlock) {
+		this.numRoutes = numRoutes;
+		this.stopsPerRoute = stopsPerRoute;
+		this.blocksPerRoute = blocksPerRoute;
+		this.tripsPerBlock = tripsPerBlock;
+	}
+
+	public static String getRouteId(int route) {
+		return "R" + route;
+	}
+
+	public static String getStopId(int route, int stop) {
+		return "R" + route + "_S" + stop;
+	}
+
+	public static String getBlockId(int route, int block) {
+		return "R" + route + "_B" + block;
+	}
+
+	public static String getTripId(int route, int block, int trip) {
+		return "R" + route + "_B" + block + "_T" + trip;
+	}
+
+	public static String getShapeId(int route, int direction) {
+		return "R" + route + "_D" + direction;
+	}
+
+	public static String getVehicleId(int route, int block) {
+		return "V" + route + "_" + block;
+	}
+
+	public int getNumRoutes() {
+		return numRoutes;
+	}
+
+	public int getBlocksPerRoute() {
+		return blocksPerRoute;
+	}
+
+	public int getStopsPerRoute() {
+		return stopsPerRoute;
+	}
+
+	/**
+	 * @return location of the stop
+	 */
+	public Location getStopLocation(int route, int stop) {
+		double lat = BASE_LAT + route * LAT_BETWEEN_ROUTES
+				+ (stop % 2 == 0 ? 0.0 : ZIGZAG_LAT);
+		double metersPerDegreeLon =
+				METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(BASE_LAT));
+		double lon = BASE_LON + stop * STOP_SPACING_METERS / metersPerDegreeLon;
+		return new Location(lat, lon);
+	}
+
+	private int getTripDurationSecs() {
+		return (stopsPerRoute - 1) * SECS_BETWEEN_STOPS;
+	}
+
+	/**
+	 * @return seconds into the day that the trip starts
+	 */
+	private int getTripStartSecs(int block, int trip) {
+		return FIRST_TRIP_START_SECS + block * SECS_BETWEEN_BLOCKS
+				+ trip * (getTripDurationSecs() + LAYOVER_SECS);
+	}
+
+	/**
+	 * @return seconds into the day that the block ends
+	 */
+	public int getBlockEndSecs(int block) {
+		return getTripStartSecs(block, tripsPerBlock - 1)
+				+ getTripDurationSecs();
+	}
+
+	public int getBlockStartSecs(int block) {
+		return getTripStartSecs(block, 0);
+	}
+
+	/**
+	 * Trips alternate direction. For direction 1 the stops are traversed in
+	 * reverse order.
+	 *
+	 * @return the stop index for the specified stop sequence of the trip
+	 */
+	private int getStopForTrip(int trip, int stopSeq) {
+		return trip % 2 == 0 ? stopSeq : stopsPerRoute - 1 - stopSeq;
+	}
+
+	private static String timeStr(int secsIntoDay) {
+		return String.format("%02d:%02d:%02d", secsIntoDay / 3600,
+				(secsIntoDay / 60) % 60, secsIntoDay % 60);
+	}
+
+	/**
+	 * Writes the GTFS files into the specified directory
+	 *
+	 * @param directory
+	 * @throws FileNotFoundException
+	 */
+	public void write(File directory) throws FileNotFoundException {
+		directory.mkdirs();
+
+		PrintWriter out = new PrintWriter(new File(directory, "agency.txt"));
+		out.println("agency_id,agency_name,agency_url,agency_timezone");
+		out.println(AGENCY_ID + ",Synthetic Transit,http://localhost,"
+				+ TIMEZONE);
+		out.close();
+
+		out = new PrintWriter(new File(directory, "calendar.txt"));
+		out.println("service_id,monday,tuesday,wednesday,thursday,friday,"
+				+ "saturday,sunday,start_date,end_date");
+		out.println(SERVICE_ID + ",1,1,1,1,1,1,1,20000101,20991231");
+		out.close();
+
+		out = new PrintWriter(new File(directory, "routes.txt"));
+		out.println("agency_id,route_id,route_short_name,route_long_name,"
+				+ "route_type");
+		for (int r=0; r<numRoutes; ++r)
+			out.println(AGENCY_ID + "," + getRouteId(r) + "," + r
+					+ ",Synthetic Route " + r + ",3");
+		out.close();
+
+		out = new PrintWriter(new File(directory, "stops.txt"));
+		out.println("stop_id,stop_name,stop_lat,stop_lon");
+		for (int r=0; r<numRoutes; ++r) {
+			for (int s=0; s<stopsPerRoute; ++s) {
+				Location loc = getStopLocation(r, s);
+				out.println(getStopId(r, s) + ",Route " + r + " Stop " + s
+						+ "," + loc.getLat() + "," + loc.getLon());
+			}
+		}
+		out.close();
+
+		// A shape point at each stop and halfway between stops
+		out = new PrintWriter(new File(directory, "shapes.txt"));
+		out.println("shape_id,shape_pt_sequence,shape_pt_lat,shape_pt_lon");
+		for (int r=0; r<numRoutes; ++r) {
+			for (int d=0; d<2; ++d) {
+				int seq = 0;
+				for (int i=0; i<stopsPerRoute; ++i) {
+					Location loc = getStopLocation(r, getStopForTrip(d, i));
+					if (i > 0) {
+						Location prev =
+								getStopLocation(r, getStopForTrip(d, i - 1));
+						out.println(getShapeId(r, d) + "," + seq++ + ","
+								+ (prev.getLat() + loc.getLat()) / 2 + ","
+								+ (prev.getLon() + loc.getLon()) / 2);
+					}
+					out.println(getShapeId(r, d) + "," + seq++ + ","
+							+ loc.getLat() + "," + loc.getLon());
+				}
+			}
+		}
+		out.close();
+
+		out = new PrintWriter(new File(directory, "trips.txt"));
+		PrintWriter stopTimesOut =
+				new PrintWriter(new File(directory, "stop_times.txt"));
+		out.println("route_id,service_id,trip_id,direction_id,block_id,"
+				+ "shape_id");
+		stopTimesOut.println("trip_id,arrival_time,departure_time,stop_id,"
+				+ "stop_sequence");
+		for (int r=0; r<numRoutes; ++r) {
+			for (int b=0; b<blocksPerRoute; ++b) {
+				for (int t=0; t<tripsPerBlock; ++t) {
+					String tripId = getTripId(r, b, t);
+					out.println(getRouteId(r) + "," + SERVICE_ID + ","
+							+ tripId + "," + t % 2 + "," + getBlockId(r, b)
+							+ "," + getShapeId(r, t % 2));
+					for (int i=0; i<stopsPerRoute; ++i) {
+						String time = timeStr(getTripStartSecs(b, t)
+								+ i * SECS_BETWEEN_STOPS);
+						stopTimesOut.println(tripId + "," + time + "," + time
+								+ "," + getStopId(r, getStopForTrip(t, i))
+								+ "," + (i + 1));
+					}
+				}
+			}
+		}
+		out.close();
+		stopTimesOut.close();
+	}
+
+	/**
+	 * Returns midnight of a fixed day in the agency timezone. The AVL
+	 * reports are generated for this day.
+	 *
+	 * @return epoch time of the service day
+	 */
+	public static long getServiceDate() {
+		Calendar calendar =
+				Calendar.getInstance(TimeZone.getTimeZone(TIMEZONE));
+		calendar.clear();
+		calendar.set(2018, Calendar.JUNE, 4);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Returns where a vehicle running the block should be at the specified
+	 * time if it is on schedule.
+	 *
+	 * @param route
+	 * @param block
+	 * @param secsIntoDay
+	 * @return location of the vehicle
+	 */
+	private Location getScheduledLocation(int route, int block,
+			double secsIntoDay) {
+		// Determine the trip, or layover before a trip
+		int trip = 0;
+		while (trip < tripsPerBlock - 1
+				&& secsIntoDay >= getTripStartSecs(block, trip + 1))
+			++trip;
+		double secsIntoTrip = Math.max(0.0, Math.min(getTripDurationSecs(),
+				secsIntoDay - getTripStartSecs(block, trip)));
+
+		// Interpolate between the stops
+		int stopSeq = Math.min(stopsPerRoute - 2,
+				(int) (secsIntoTrip / SECS_BETWEEN_STOPS));
+		double fraction =
+				(secsIntoTrip - stopSeq * SECS_BETWEEN_STOPS)
+						/ SECS_BETWEEN_STOPS;
+		Location l1 = getStopLocation(route, getStopForTrip(trip, stopSeq));
+		Location l2 =
+				getStopLocation(route, getStopForTrip(trip, stopSeq + 1));
+		return new Location(
+				l1.getLat() + (l2.getLat() - l1.getLat()) * fraction,
+				l1.getLon() + (l2.getLon() - l1.getLon()) * fraction);
+	}
+
+	/**
+	 * Generates AVL reports for all of the blocks. Each vehicle runs a
+	 * constant amount late, up to a couple of minutes, and the GPS locations
+	 * have a few meters of noise.
+	 *
+	 * @param avlIntervalSecs
+	 *            How frequently each vehicle reports
+	 * @return the AVL reports, ordered by time
+	 */
+	public List<AvlReport> generateAvlReports(int avlIntervalSecs) {
+		Random random = new Random(42);
+		long serviceDate = getServiceDate();
+		List<AvlReport> avlReports = new ArrayList<AvlReport>();
+
+		int lastBlockEndSecs = getBlockEndSecs(blocksPerRoute - 1);
+		for (int secs = getBlockStartSecs(0); secs <= lastBlockEndSecs;
+				secs += avlIntervalSecs) {
+			for (int r=0; r<numRoutes; ++r) {
+				for (int b=0; b<blocksPerRoute; ++b) {
+					if (secs < getBlockStartSecs(b) || secs > getBlockEndSecs(b))
+						continue;
+
+					// Same lateness for a vehicle every time
+					double lateSecs = ((r * 31 + b * 17) % 120);
+					Location loc = getScheduledLocation(r, b, secs - lateSecs);
+					double noise = 0.00003; // About 3m
+					AvlReport avlReport = new AvlReport(getVehicleId(r, b),
+							serviceDate + secs * 1000L,
+							loc.getLat() + (random.nextDouble() - 0.5) * noise,
+							loc.getLon() + (random.nextDouble() - 0.5) * noise,
+							"Synthetic");
+					avlReport.setAssignment(getBlockId(r, b),
+							AssignmentType.BLOCK_ID);
+					avlReports.add(avlReport);
+				}
+			}
+		}
+
+		return avlReports;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.reports;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The prediction accuracy values for a single prediction length bucket. The
+ * values are stored as a count per distinct value instead of as a list with
+ * an element per prediction. This way the histograms of the hourly
+ * PredictionAccuracyRollups can simply be merged in, and the means,
+ * standard deviations, and percentiles are determined from the counts.
+ */
+public class PredAccuracyBucket {
+
+	// Number of predictions for each prediction accuracy in seconds. Sorted
+	// so that percentiles can be determined.
+	private final TreeMap<Integer, Integer> counts = 
+			new TreeMap<Integer, Integer>();
+	
+	// Total number of predictions in the bucket
+	private int size = 0;
+	
+	/********************** Member Functions **************************/
+
+	/**
+	 * Adds a single prediction to the bucket.
+	 * 
+	 * @param accuracySecs
+	 */
+	public void add(int accuracySecs) {
+		add(accuracySecs, 1);
+	}
+	
+	/**
+	 * Adds the specified number of predictions with the same accuracy to
+	 * the bucket.
+	 * 
+	 * @param accuracySecs
+	 * @param count
+	 */
+	public void add(int accuracySecs, int count) {
+		if (count <= 0)
+			return;
+		
+		Integer existingCount = counts.get(accuracySecs);
+		counts.put(accuracySecs, 
+				existingCount == null ? count : existingCount + count);
+		size += count;
+	}
+	
+	/**
+	 * @return Total number of predictions in the bucket
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the prediction accuracy at the index as if the predictions were
+	 * in a sorted list.
+	 * 
+	 * @param index
+	 *            0 to size()-1
+	 * @return the prediction accuracy in seconds
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index 
+					+ " for bucket of size " + size);
+		
+		int remaining = index;
+		for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+			if (remaining < entry.getValue())
+				return entry.getKey();
+			remaining -= entry.getValue();
+		}
+		
+		// Can't get here since index is less than size
+		throw new IllegalStateException();
+	}
+	
+	/**
+	 * @return The mean of the prediction accuracies, or NaN if the bucket is
+	 *         empty
+	 */
+	public double mean() {
+		double sum = 0.0;
+		for (Map.Entry<Integer, Integer> entry : counts.entrySet())
+			sum += (double) entry.getKey() * entry.getValue();
+		return sum / size;
+	}
+	
+	/**
+	 * Returns the sample standard deviation, dividing by N-1, the same as
+	 * Statistics.getSampleStandardDeviation().
+	 * 
+	 * @param mean
+	 * @return the sample standard deviation. NaN if only a single
+	 *         prediction.
+	 */
+	public double sampleStandardDeviation(double mean) {
+		double sumSquaredDifferences = 0.0;
+		for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+			double differenceFromMean = mean - entry.getKey();
+			sumSquaredDifferences += 
+					differenceFromMean * differenceFromMean * entry.getValue();
+		}
+		return Math.sqrt(sumSquaredDifferences / (size - 1));
+	}
+	
+	/**
+	 * @param accuracySecs
+	 * @return Number of predictions with an accuracy less than accuracySecs
+	 */
+	public int countBelow(int accuracySecs) {
+		int count = 0;
+		for (int countForValue : counts.headMap(accuracySecs).values())
+			count += countForValue;
+		return count;
+	}
+	
+	/**
+	 * For logging. Lists the count for each prediction accuracy value.
+	 */
+	@Override
+	public String toString() {
+		return "PredAccuracyBucket [size=" + size + ", counts=" + counts + "]";
+	}
+}
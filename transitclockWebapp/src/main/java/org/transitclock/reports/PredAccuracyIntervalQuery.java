@@ -19,13 +19,11 @@ package org.transitclock.reports;
 
 import java.sql.SQLException;
 import java.text.ParseException;
-import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.reports.ChartJsonBuilder.RowBuilder;
-import org.transitclock.statistics.Statistics;
 
 /**
  * For doing SQL query and generating JSON data for a prediction accuracy
@@ -73,21 +71,21 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 	}
 
 	/**
-	 * Goes through data array (must already be sorted!) and determines the
-	 * index of the array that corresponds to the minimum element. For example,
-	 * if the fraction is specified as 0.70 which means that want to know the
-	 * minimum value such that 70% of the predictions are between the min and
-	 * the max, then will return the index for the item whose index is at
-	 * (100%-70%)/2 = 15% in the array.
+	 * Goes through the prediction bucket data and determines the element
+	 * that corresponds to the minimum. For example, if the fraction is
+	 * specified as 0.70 which means that want to know the minimum value such
+	 * that 70% of the predictions are between the min and the max, then will
+	 * return the item whose index is at (100%-70%)/2 = 15% of the sorted
+	 * data.
 	 * 
 	 * @param data
-	 *            Sorted list of data
+	 *            The data for the prediction bucket
 	 * @param percentage
 	 *            The percentage (0.0 - 100.0%) of prediction accuracy data that
 	 *            should be between the min and the max
 	 * @return Value of the desired element or null if fraction not valid
 	 */
-	private Long getMin(List<Integer> data, double percentage) {
+	private Long getMin(PredAccuracyBucket data, double percentage) {
 		if (percentage == 0.0 || Double.isNaN(percentage))
 			return null;
 
@@ -98,21 +96,20 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 	}
 
 	/**
-	 * Goes through data array (must already be sorted!) and determines the
-	 * index of the array that corresponds to the maximum element. For example,
-	 * if the fraction is specified as 0.70 which means that want to know the
-	 * minimum value such that 70% of the predictions are between the min and
-	 * the max, then will return the index for the item whose index is at 85% in
-	 * the array.
+	 * Goes through the prediction bucket data and determines the element
+	 * that corresponds to the maximum. For example, if the fraction is
+	 * specified as 0.70 which means that want to know the minimum value such
+	 * that 70% of the predictions are between the min and the max, then will
+	 * return the item whose index is at 85% of the sorted data.
 	 * 
 	 * @param data
-	 *            Sorted list of data
+	 *            The data for the prediction bucket
 	 * @param percentage
 	 *            The percentage (0.0 - 100.0%) of prediction accuracy data that
 	 *            should be between the min and the max
 	 * @return Value of the desired element or null if fraction not valid
 	 */
-	private Long getMax(List<Integer> data, double percentage) {
+	private Long getMax(PredAccuracyBucket data, double percentage) {
 		if (percentage == 0.0 || Double.isNaN(percentage))
 			return null;
 		if (percentage == 100.0)
@@ -199,20 +196,15 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 			// Add prediction mean and intervals data for each source
 			for (String source : map.keySet()) {
 				// Determine mean and standard deviation for this source
-				List<List<Integer>> dataForSource = map.get(source);
-				List<Integer> listForPredBucket = null;
+				List<PredAccuracyBucket> dataForSource = map.get(source);
+				PredAccuracyBucket listForPredBucket = null;
 				if (dataForSource != null
 						&& dataForSource.size() > predBucketIdx)
 					listForPredBucket = dataForSource.get(predBucketIdx);
 
-				// Sort the prediction accuracy data so that can call
-				// getMin() and getMax() using necessary sort list.
-				if (listForPredBucket != null)
-					Collections.sort(listForPredBucket);
-
 				// Log some info for debugging
 				logger.info("For source {} for prediction bucket minute {} "
-						+ "sorted datapoints={}", source, predBucketSecs,
+						+ "datapoints={}", source, predBucketSecs,
 						listForPredBucket);
 
 				// If there is enough data then handle stats for this prediction
@@ -225,15 +217,13 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 				if (listForPredBucket != null
 						&& listForPredBucket.size() >= MIN_DATA_POINTS_PER_PRED_BUCKET) {
 					// Determine the mean
-					double dataForPredBucket[] = Statistics
-							.toDoubleArray(listForPredBucket);
-					double mean = Statistics.mean(dataForPredBucket);
+					double mean = listForPredBucket.mean();
 
 					// Determine the standard deviation and handle special case
 					// of when there is only a single data point such that the
 					// standard deviation is NaN.
-					double stdDev = Statistics.getSampleStandardDeviation(
-							dataForPredBucket, mean);
+					double stdDev = 
+							listForPredBucket.sampleStandardDeviation(mean);
 					if (Double.isNaN(stdDev))
 						stdDev = 0.0;
 
@@ -111,7 +111,7 @@ public class PredAccuracyRangeQuery extends PredictionAccuracyQuery {
 		}
 
 		// Only dealing with a single source so get data for that source
-		List<List<Integer>> dataForSource = null;
+		List<PredAccuracyBucket> dataForSource = null;
 		for (String source : map.keySet()) {
 			dataForSource = map.get(source);
 		}
@@ -123,22 +123,17 @@ public class PredAccuracyRangeQuery extends PredictionAccuracyQuery {
 			double predBucketSecs = predBucketIdx
 					* PREDICTION_LENGTH_BUCKET_SIZE / 60.0;
 
-			List<Integer> listForPredBucket = null;
+			PredAccuracyBucket listForPredBucket = null;
 			if (dataForSource != null && dataForSource.size() > predBucketIdx) {
 				listForPredBucket = dataForSource.get(predBucketIdx);
 
 				// For this prediction bucket track whether prediction below
 				// min,
 				// between min and max, and above max.
-				int tooEarly = 0, ok = 0, tooLate = 0;
-				for (int accuracyInSecs : listForPredBucket) {
-					if (accuracyInSecs < -maxEarlySec)
-						++tooEarly;
-					else if (accuracyInSecs < maxLateSec)
-						++ok;
-					else
-						++tooLate;
-				}
+				int tooEarly = listForPredBucket.countBelow(-maxEarlySec);
+				int notLate = listForPredBucket.countBelow(maxLateSec);
+				int ok = notLate - tooEarly;
+				int tooLate = listForPredBucket.size() - notLate;
 
 				// If no data for this prediction bucket then continue to next
 				// one
@@ -24,14 +24,20 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.db.GenericQuery;
+import org.transitclock.db.structs.Agency;
+import org.transitclock.db.structs.PredictionAccuracyRollup;
 import org.transitclock.db.webstructs.WebAgency;
+import org.transitclock.utils.HistogramUtils;
 import org.transitclock.utils.Time;
 
 /**
@@ -49,17 +55,22 @@ abstract public class PredictionAccuracyQuery {
 
 	private final Connection connection;
 	private String dbType = null;
+	
+	// For determining the days and hours of the day when reading the
+	// hourly rollups
+	private final TimeZone timeZone;
 
 	protected static final int MAX_PRED_LENGTH = 900;
 	protected static final int PREDICTION_LENGTH_BUCKET_SIZE = 30;
 
 	// Keyed on source (so can show data for multiple sources at
 	// once in order to compare prediction accuracy. Contains a array,
-	// with an element for each prediction bucket, containing an array
-	// of the prediction accuracy values in seconds for that bucket. Each bucket
-	// is for
-	// a certain prediction range, specified by predictionLengthBucketSize.
-	protected final Map<String, List<List<Integer>>> map = new HashMap<String, List<List<Integer>>>();
+	// with an element for each prediction bucket, containing the counts
+	// of the prediction accuracy values in seconds for that bucket. Each
+	// bucket is for a certain prediction range, specified by
+	// predictionLengthBucketSize.
+	protected final Map<String, List<PredAccuracyBucket>> map = 
+			new HashMap<String, List<PredAccuracyBucket>>();
 
 	// Defines the output type for the intervals, whether should show
 	// standard deviation, percentage, or both.
@@ -124,6 +135,7 @@ abstract public class PredictionAccuracyQuery {
 		this.dbType = dbType;
 		connection = GenericQuery.getConnection(dbType, dbHost, dbName,
 				dbUserName, dbPassword);
+		timeZone = TimeZone.getDefault();
 
 	}
 
@@ -139,6 +151,19 @@ abstract public class PredictionAccuracyQuery {
 		connection = GenericQuery.getConnection(agency.getDbType(),
 				agency.getDbHost(), agency.getDbName(), agency.getDbUserName(),
 				agency.getDbPassword());
+		
+		// Use the time zone of the agency so that the days and hours of the
+		// rollups match the agency's days. If the agency can't be accessed
+		// via RMI then fall back to the default time zone.
+		Agency gtfsAgency = agency.getAgency();
+		if (gtfsAgency != null) {
+			timeZone = gtfsAgency.getTimeZone();
+		} else {
+			logger.error("Could not get time zone for agencyId={} so using "
+					+ "default time zone {}", agencyId, 
+					TimeZone.getDefault().getID());
+			timeZone = TimeZone.getDefault();
+		}
 	}
 
 	/**
@@ -162,13 +187,16 @@ abstract public class PredictionAccuracyQuery {
 	 * 
 	 * @param predLength
 	 * @param predAccuracy
+	 * @param count
+	 *            Number of predictions with this accuracy
 	 * @param source
 	 */
-	private void addDataToMap(int predLength, int predAccuracy, String source) {
+	private void addDataToMap(int predLength, int predAccuracy, int count,
+			String source) {
 		// Get the prediction buckets for the specified source
-		List<List<Integer>> predictionBuckets = map.get(source);
+		List<PredAccuracyBucket> predictionBuckets = map.get(source);
 		if (predictionBuckets == null) {
-			predictionBuckets = new ArrayList<List<Integer>>();
+			predictionBuckets = new ArrayList<PredAccuracyBucket>();
 			map.put(source, predictionBuckets);
 		}
 
@@ -176,12 +204,12 @@ abstract public class PredictionAccuracyQuery {
 		int predictionBucketIndex = index(predLength);
 
 		while (predictionBuckets.size() < predictionBucketIndex + 1)
-			predictionBuckets.add(new ArrayList<Integer>());
+			predictionBuckets.add(new PredAccuracyBucket());
 		if (predictionBucketIndex < predictionBuckets.size() && predictionBucketIndex >= 0) {
-		  List<Integer> predictionAccuracies = predictionBuckets
+		  PredAccuracyBucket predictionAccuracies = predictionBuckets
 		      .get(predictionBucketIndex);
 	    // Add the prediction accuracy to the bucket.
-	    predictionAccuracies.add(predAccuracy);
+	    predictionAccuracies.add(predAccuracy, count);
 		} else {
 		  // some prediction streams supply predictions in the past -- ignore those
 		  logger.error("predictionLength {} has illegal index {} for predAccuracy {} and source {}", 
@@ -293,6 +321,22 @@ abstract public class PredictionAccuracyQuery {
 				predTypeSql = " AND affectedByWaitStop = false ";
 			}
 		}
+		// If the hourly rollups can be used then read them instead of
+		// aggregating the individual prediction accuracy rows
+		if (ReportsConfig.isUsePredAccuracyRollups()) {
+			int[] rollupHours = 
+					ReportsConfig.getRollupHours(beginTimeStr, endTimeStr);
+			if (rollupHours != null) {
+				doRollupQuery(beginDateStr, numDays, rollupHours[0],
+						rollupHours[1], routeIds, routeSql, sourceSql,
+						predTypeSql);
+				return;
+			}
+			logger.info("Times of day {} to {} are not on hour boundaries "
+					+ "so can't use prediction accuracy rollups", 
+					beginTimeStr, endTimeStr);
+		}
+		
 		// TODO generate database independent SQL if possible!
 		// Put the entire SQL query together
 		String postSql = "SELECT "
@@ -420,7 +464,7 @@ abstract public class PredictionAccuracyQuery {
 				int predAccuracy = rs.getInt("predAccuracy");
 				String sourceResult = rs.getString("source");
 
-				addDataToMap(predLength, predAccuracy, sourceResult);
+				addDataToMap(predLength, predAccuracy, 1, sourceResult);
 				logger.debug("predLength={} predAccuracy={} source={}",
 						predLength, predAccuracy, sourceResult);
 			}
@@ -434,4 +478,103 @@ abstract public class PredictionAccuracyQuery {
 		}
 	}
 
+
+	/**
+	 * Like doQuery() but reads the hourly PredictionAccuracyRollups instead
+	 * of the individual prediction accuracy rows. The counts in the histogram
+	 * of each rollup are added to the prediction buckets in the map so that
+	 * the results can be processed the same way. The days and hours of the
+	 * day are for the time zone of the agency.
+	 * 
+	 * @param beginDateStr
+	 * @param numDays
+	 * @param beginHour
+	 *            First hour of the day to use data for
+	 * @param endHour
+	 *            Use data for hours of the day before this one
+	 * @param routeIds
+	 * @param routeSql
+	 * @param sourceSql
+	 * @param predTypeSql
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	private void doRollupQuery(String beginDateStr, int numDays, 
+			int beginHour, int endHour, String routeIds[], String routeSql,
+			String sourceSql, String predTypeSql) 
+					throws SQLException, ParseException {
+		String sql = "SELECT "
+				+ "     hourStart, "
+				+ "     predLengthBucket, "
+				+ "     histogram, "
+				+ "     predictionSource as source "
+				+ " FROM PredictionAccuracyRollups "
+				+ "WHERE hourStart >= ? AND hourStart < ? "
+				+ "  AND predLengthBucket >= 0 "
+				+ routeSql
+				+ sourceSql
+				+ predTypeSql;
+		if ("mysql".equals(dbType)) {
+			// Same as for the regular query
+			sql += "  AND predictionSource <> 'MBTA_seconds' ";
+		}
+		
+		PreparedStatement statement = null;
+		try {
+			logger.debug("SQL: {}", sql);
+			statement = connection.prepareStatement(sql);
+			
+			// Use the date that was specified but start the day at midnight
+			// for the agency time zone
+			Calendar parsedDate = Calendar.getInstance();
+			parsedDate.setTime(Time.parse(beginDateStr));
+			Calendar calendar = new GregorianCalendar(timeZone);
+			calendar.clear();
+			calendar.set(parsedDate.get(Calendar.YEAR), 
+					parsedDate.get(Calendar.MONTH),
+					parsedDate.get(Calendar.DAY_OF_MONTH));
+			java.util.Date beginDate = calendar.getTime();
+			calendar.add(Calendar.DAY_OF_YEAR, numDays);
+			
+			int i = 1;
+			statement.setTimestamp(i++, new Timestamp(beginDate.getTime()));
+			statement.setTimestamp(i++, 
+					new Timestamp(calendar.getTimeInMillis()));
+			if (routeIds != null) {
+				for (String routeId : routeIds)
+					if (!routeId.trim().isEmpty()) {
+						statement.setString(i++, routeId);
+						statement.setString(i++, routeId);
+					}
+			}
+			
+			ResultSet rs = statement.executeQuery();
+			int numRollups = 0;
+			while (rs.next()) {
+				// Filter by hour of day
+				calendar.setTime(rs.getTimestamp("hourStart"));
+				int hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
+				if (hourOfDay < beginHour || hourOfDay >= endHour)
+					continue;
+				
+				int predLength = rs.getInt("predLengthBucket") 
+						* PredictionAccuracyRollup.PRED_LENGTH_BUCKET_SIZE_SECS;
+				String sourceResult = rs.getString("source");
+				Map<Integer, Integer> histogram = 
+						HistogramUtils.parse(rs.getString("histogram"));
+				for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+					addDataToMap(predLength, entry.getKey(), entry.getValue(),
+							sourceResult);
+				}
+				++numRollups;
+			}
+			logger.debug("Read {} prediction accuracy rollups", numRollups);
+			
+			rs.close();
+		} finally {
+			if (statement != null)
+				statement.close();
+		}
+	}
+
 }
@@ -18,6 +18,7 @@
 package org.transitclock.reports;
 
 import org.transitclock.config.BooleanConfigValue;
+import org.transitclock.utils.Time;
 
 public class ReportsConfig {
 	
@@ -30,4 +31,66 @@ public class ReportsConfig {
 	public static boolean isShowPredictionSource() {
 		return showPredictionSource.getValue();
 	}
+	
+	private static BooleanConfigValue usePredAccuracyRollups =
+			new BooleanConfigValue(
+					"transitclock.reports.usePredAccuracyRollups", 
+					false, 
+					"Whether prediction accuracy reports should read the "
+					+ "hourly PredictionAccuracyRollups, which are maintained "
+					+ "when transitclock.predAccuracy.rollups is set, instead "
+					+ "of aggregating the PredictionAccuracy rows.");
+	
+	public static boolean isUsePredAccuracyRollups() {
+		return usePredAccuracyRollups.getValue();
+	}
+	
+	private static BooleanConfigValue useSchedAdhRollups =
+			new BooleanConfigValue(
+					"transitclock.reports.useSchedAdhRollups", 
+					false, 
+					"Whether schedule adherence reports should read the "
+					+ "hourly ScheduleAdherenceRollups, which are maintained "
+					+ "when transitclock.core.schedAdhRollups is set, instead "
+					+ "of aggregating the ArrivalDeparture rows. Only the "
+					+ "most recent hours, which haven't been rolled up yet, "
+					+ "are read from the ArrivalDeparture rows. The rollups "
+					+ "are only used if the times of day are on hour "
+					+ "boundaries. Listing the individual arrivals/departures "
+					+ "still uses the ArrivalDeparture rows.");
+	
+	public static boolean isUseSchedAdhRollups() {
+		return useSchedAdhRollups.getValue();
+	}
+
+	/**
+	 * Determines the hours of the day to use when querying the hourly
+	 * rollups. The rollups can only be used if the begin and end times of day
+	 * are on hour boundaries.
+	 * 
+	 * @param beginTimeStr
+	 *            Begin time of day. Null or empty if not filtering by time of
+	 *            day.
+	 * @param endTimeStr
+	 *            End time of day. Null or empty if not filtering by time of
+	 *            day.
+	 * @return Array with first hour of day to use and the hour of day to end
+	 *         before, or null if the rollups can't be used
+	 */
+	public static int[] getRollupHours(String beginTimeStr, String endTimeStr) {
+		int beginSecs = 0;
+		int endSecs = Time.SEC_PER_DAY;
+		if (beginTimeStr != null && !beginTimeStr.isEmpty())
+			beginSecs = Time.parseTimeOfDay(beginTimeStr);
+		if (endTimeStr != null && !endTimeStr.isEmpty()
+				&& !endTimeStr.equals("23:59:59"))
+			endSecs = Time.parseTimeOfDay(endTimeStr);
+		
+		if (beginSecs % Time.SEC_PER_HOUR != 0 
+				|| endSecs % Time.SEC_PER_HOUR != 0
+				|| beginSecs >= endSecs)
+			return null;
+		return new int[] { beginSecs / Time.SEC_PER_HOUR, 
+				endSecs / Time.SEC_PER_HOUR };
+	}
 }
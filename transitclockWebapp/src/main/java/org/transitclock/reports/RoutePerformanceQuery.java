@@ -16,9 +16,14 @@
  */
 package org.transitclock.reports;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
@@ -35,6 +40,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.db.structs.PredictionAccuracy;
+import org.transitclock.db.structs.PredictionAccuracyRollup;
+import org.transitclock.utils.HistogramUtils;
 
 /**
  * To find route performance information.
@@ -62,6 +69,11 @@ public class RoutePerformanceQuery {
     c.setTime(startDate);
     c.add(Calendar.DAY_OF_YEAR,numDays);
     Date endDate = c.getTime();
+    
+    if (ReportsConfig.isUsePredAccuracyRollups())
+      return queryRollups(agencyId, startDate, endDate, msecLo, msecHi, 
+          predictionType, predictionSource);
+    
     // Project to: # of predictions in which route is on time / # of predictions
     // for route. This cannot be done with pure Criteria API. This could be
     // moved to a separate class or XML file.
@@ -115,4 +127,86 @@ public class RoutePerformanceQuery {
     }
   }
 
+  /**
+   * Same as query() but uses the hourly PredictionAccuracyRollups instead of
+   * the individual prediction accuracy rows. Since the rollups store the
+   * accuracy in seconds the average is accurate to within a second.
+   * 
+   * @return List of maps containing routeId and performance, ordered by
+   *         descending performance, like query(). Null if there is an
+   *         exception.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private List<Object[]> queryRollups(String agencyId, Date startDate, 
+      Date endDate, int msecLo, int msecHi, String predictionType, 
+      String predictionSource) {
+    try {
+      session = HibernateUtils.getSession(agencyId);
+      
+      Criteria criteria = session.createCriteria(PredictionAccuracyRollup.class)
+        .add(Restrictions.ge("hourStart", startDate))
+        .add(Restrictions.lt("hourStart", endDate));
+      
+      if (predictionType == PREDICTION_TYPE_AFFECTED)
+          criteria.add(Restrictions.eq("affectedByWaitStop", true));
+      else if (predictionType == PREDICTION_TYPE_NOT_AFFECTED)
+          criteria.add(Restrictions.eq("affectedByWaitStop", false));
+      
+      if (predictionSource != null && !StringUtils.isEmpty(predictionSource)) {
+        if (predictionSource.equals(TRANSITIME_PREDICTION_SOURCE))
+          criteria.add(Restrictions.eq("predictionSource", TRANSITIME_PREDICTION_SOURCE));
+        else
+          criteria.add(Restrictions.ne("predictionSource", TRANSITIME_PREDICTION_SOURCE));
+      }
+      
+      List<PredictionAccuracyRollup> rollups = criteria.list();
+      
+      // Determine sum and count of accuracy for each route
+      Map<String, long[]> sumAndCountByRoute = new HashMap<String, long[]>();
+      for (PredictionAccuracyRollup rollup : rollups) {
+        long[] sumAndCount = sumAndCountByRoute.get(rollup.getRouteId());
+        if (sumAndCount == null) {
+          sumAndCount = new long[2];
+          sumAndCountByRoute.put(rollup.getRouteId(), sumAndCount);
+        }
+        Map<Integer, Integer> histogram = 
+            HistogramUtils.parse(rollup.getHistogram());
+        for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+          long accuracyMsecs = entry.getKey() * 1000L;
+          if (accuracyMsecs < msecLo || accuracyMsecs > msecHi)
+            continue;
+          sumAndCount[0] += accuracyMsecs * entry.getValue();
+          sumAndCount[1] += entry.getValue();
+        }
+      }
+      
+      List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+      for (Map.Entry<String, long[]> entry : sumAndCountByRoute.entrySet()) {
+        long[] sumAndCount = entry.getValue();
+        if (sumAndCount[1] == 0)
+          continue;
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("routeId", entry.getKey());
+        result.put("performance", (double) sumAndCount[0] / sumAndCount[1]);
+        results.add(result);
+      }
+      Collections.sort(results, new Comparator<Map<String, Object>>() {
+        @Override
+        public int compare(Map<String, Object> m1, Map<String, Object> m2) {
+          return Double.compare((Double) m2.get("performance"), 
+              (Double) m1.get("performance"));
+        }
+      });
+      
+      return (List) results;
+    }
+    catch(HibernateException e) {
+      logger.error(e.toString());
+      return null;
+    }
+    finally {
+      session.close();
+    }
+  }
+
 }
@@ -0,0 +1,673 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitclock.reports;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitclock.core.SchedAdhRollups;
+import org.transitclock.db.GenericQuery;
+import org.transitclock.db.structs.Agency;
+import org.transitclock.db.webstructs.WebAgency;
+import org.transitclock.utils.HistogramUtils;
+import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.Time;
+
+/**
+ * For generating the JSON data of schAdhByRouteData.jsp, schAdhByStopData.jsp,
+ * and schAdhByTimeData.jsp from the hourly ScheduleAdherenceRollups instead of
+ * by aggregating all of the ArrivalsDepartures rows. The rollups for the most
+ * recent hours have not yet been written (see
+ * SchedAdhRollups.getFirstUnwrittenHour()) so for those hours the
+ * ArrivalsDepartures rows are read instead. That is only an hour or two of
+ * data.
+ * <p>
+ * The JSON has the same format as the JSON that GenericJsonQuery creates for
+ * the queries of the ArrivalsDepartures rows so that the charts work the same
+ * way. The schedule adherence in the histograms of the rollups is in whole
+ * seconds so the early/late limits are applied to whole seconds.
+ */
+public class SchedAdhRollupsQuery {
+
+	private final Connection connection;
+	
+	// Time zone of the agency, which is used for the days and hours of the
+	// rollups
+	private final TimeZone timeZone;
+	
+	// Same limit as for the queries of the ArrivalsDepartures rows
+	private static final int MAX_NUM_DAYS = 7;
+	
+	// For the by time data the schedule adherence is put into buckets of
+	// this many seconds. Adherence of an hour or more is ignored.
+	private static final int BUCKET_TIME_SECS = 30;
+	private static final int MAX_ADHERENCE_SECS = Time.SEC_PER_HOUR;
+	
+	private static final Logger logger = LoggerFactory
+			.getLogger(SchedAdhRollupsQuery.class);
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * For processing the schedule adherence read from the rollups and from
+	 * the arrivals/departures of the most recent hours
+	 */
+	private interface AdherenceHandler {
+		/**
+		 * @param routeShortName
+		 * @param directionId
+		 * @param stopId
+		 * @param stopOrder
+		 *            Null if not known
+		 * @param adherenceSecs
+		 *            Arrival/departure time minus the scheduled time
+		 * @param count
+		 *            Number of arrivals/departures with the adherence
+		 */
+		void add(String routeShortName, String directionId, String stopId,
+				Integer stopOrder, int adherenceSecs, int count);
+	}
+	
+	/**
+	 * Number of early, on time, and late arrivals/departures for a group
+	 */
+	private static class Counts {
+		private final int allowableEarlySecs;
+		private final int allowableLateSecs;
+		private long early = 0;
+		private long ontime = 0;
+		private long late = 0;
+		
+		private Counts(int allowableEarlySecs, int allowableLateSecs) {
+			this.allowableEarlySecs = allowableEarlySecs;
+			this.allowableLateSecs = allowableLateSecs;
+		}
+		
+		private void add(int adherenceSecs, int count) {
+			if (-adherenceSecs > allowableEarlySecs)
+				early += count;
+			else if (adherenceSecs > allowableLateSecs)
+				late += count;
+			else
+				ontime += count;
+		}
+		
+		private void add(Counts other) {
+			early += other.early;
+			ontime += other.ontime;
+			late += other.late;
+		}
+		
+		private long getTotal() {
+			return early + ontime + late;
+		}
+	}
+	
+	/**
+	 * A row of the by route or by stop data
+	 */
+	private static class Group {
+		private final String name;
+		private final String directionId;
+		private final Integer order;
+		private final Counts counts;
+		
+		private Group(String name, String directionId, Integer order,
+				Counts counts) {
+			this.name = name;
+			this.directionId = directionId;
+			this.order = order;
+			this.counts = counts;
+		}
+	}
+	
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates connection to the database for the specified agency.
+	 * 
+	 * @param agencyId
+	 * @throws SQLException
+	 */
+	private SchedAdhRollupsQuery(String agencyId) throws SQLException {
+		WebAgency agency = WebAgency.getCachedWebAgency(agencyId);
+		connection = GenericQuery.getConnection(agency.getDbType(),
+				agency.getDbHost(), agency.getDbName(), agency.getDbUserName(),
+				agency.getDbPassword());
+		
+		// If the agency can't be accessed via RMI then fall back to the
+		// default time zone
+		Agency gtfsAgency = agency.getAgency();
+		if (gtfsAgency != null) {
+			timeZone = gtfsAgency.getTimeZone();
+		} else {
+			logger.error("Could not get time zone for agencyId={} so using "
+					+ "default time zone {}", agencyId, 
+					TimeZone.getDefault().getID());
+			timeZone = TimeZone.getDefault();
+		}
+	}
+	
+	/**
+	 * Returns true if the schedule adherence data for the request can be
+	 * determined from the rollups. That is the case if
+	 * transitclock.reports.useSchedAdhRollups is set and the beginTime and
+	 * endTime request parameters, if set, are on hour boundaries.
+	 * 
+	 * @param request
+	 * @return true if the rollups can be used
+	 */
+	public static boolean canUseRollups(HttpServletRequest request) {
+		return ReportsConfig.isUseSchedAdhRollups() 
+				&& getRollupHours(request) != null;
+	}
+	
+	private static int[] getRollupHours(HttpServletRequest request) {
+		return ReportsConfig.getRollupHours(request.getParameter("beginTime"),
+				request.getParameter("endTime"));
+	}
+	
+	/**
+	 * Provides the data of schAdhByRouteData.jsp: for each route the number
+	 * of arrivals/departures that were early, on time, and late, ordered by
+	 * the route order.
+	 * 
+	 * @param request
+	 *            Contains the parameters of the report
+	 * @param allowableEarlySecs
+	 * @param allowableLateSecs
+	 * @return the JSON string
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	public static String getJsonByRoute(HttpServletRequest request,
+			final int allowableEarlySecs, final int allowableLateSecs)
+					throws SQLException, ParseException {
+		SchedAdhRollupsQuery query = 
+				new SchedAdhRollupsQuery(request.getParameter("a"));
+		try {
+			final Map<String, Counts> countsByRoute = 
+					new HashMap<String, Counts>();
+			query.readAdherence(request, new AdherenceHandler() {
+				@Override
+				public void add(String routeShortName, String directionId,
+						String stopId, Integer stopOrder, int adherenceSecs,
+						int count) {
+					Counts counts = countsByRoute.get(routeShortName);
+					if (counts == null) {
+						counts = new Counts(allowableEarlySecs, 
+								allowableLateSecs);
+						countsByRoute.put(routeShortName, counts);
+					}
+					counts.add(adherenceSecs, count);
+				}
+			});
+			
+			// Like the query of the ArrivalsDepartures rows, combine the
+			// routes by name and route order. Routes that aren't configured
+			// are left out.
+			Map<String, Object[]> routes = query.readNamesAndOrders(
+					"SELECT shortName, name, routeOrder, configRev "
+					+ "FROM Routes ORDER BY configRev");
+			Map<List<Object>, Group> groupsMap = 
+					new HashMap<List<Object>, Group>();
+			for (Map.Entry<String, Counts> entry : countsByRoute.entrySet()) {
+				Object[] route = routes.get(entry.getKey());
+				if (route != null)
+					getGroup(groupsMap, (String) route[0], null, 
+							(Integer) route[1], allowableEarlySecs, 
+							allowableLateSecs).counts.add(entry.getValue());
+			}
+			List<Group> groups = new ArrayList<Group>(groupsMap.values());
+			Collections.sort(groups, new Comparator<Group>() {
+				@Override
+				public int compare(Group g1, Group g2) {
+					int result = compareNullsLast(g1.order, g2.order);
+					return result != 0 ? 
+							result : compareNullsLast(g1.name, g2.name);
+				}
+			});
+			
+			StringBuilder json = new StringBuilder("{\"data\": [\n");
+			for (Group group : groups) {
+				addRow(json, 
+						new String[] {"early", "ontime", "late", "total", 
+								"name"},
+						new Object[] {group.counts.early, group.counts.ontime,
+								group.counts.late, group.counts.getTotal(), 
+								group.name});
+			}
+			return json.append("]}").toString();
+		} finally {
+			query.connection.close();
+		}
+	}
+
+	/**
+	 * Provides the data of schAdhByStopData.jsp: for each direction and stop
+	 * the number of arrivals/departures that were early, on time, and late,
+	 * ordered by direction and stop order.
+	 * 
+	 * @param request
+	 *            Contains the parameters of the report
+	 * @param allowableEarlySecs
+	 * @param allowableLateSecs
+	 * @return the JSON string
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	public static String getJsonByStop(HttpServletRequest request,
+			final int allowableEarlySecs, final int allowableLateSecs)
+					throws SQLException, ParseException {
+		SchedAdhRollupsQuery query = 
+				new SchedAdhRollupsQuery(request.getParameter("a"));
+		try {
+			// Stop names are read first so that the groups can be keyed by
+			// stop name, like in the query of the ArrivalsDepartures rows
+			final Map<String, Object[]> stops = query.readNamesAndOrders(
+					"SELECT id, name, NULL, configRev "
+					+ "FROM Stops ORDER BY configRev");
+			final Map<List<Object>, Group> groupsMap = 
+					new HashMap<List<Object>, Group>();
+			query.readAdherence(request, new AdherenceHandler() {
+				@Override
+				public void add(String routeShortName, String directionId,
+						String stopId, Integer stopOrder, int adherenceSecs,
+						int count) {
+					Object[] stop = stops.get(stopId);
+					if (stop != null)
+						getGroup(groupsMap, (String) stop[0], directionId, 
+								stopOrder, allowableEarlySecs, 
+								allowableLateSecs).counts.add(adherenceSecs, 
+										count);
+				}
+			});
+			List<Group> groups = new ArrayList<Group>(groupsMap.values());
+			Collections.sort(groups, new Comparator<Group>() {
+				@Override
+				public int compare(Group g1, Group g2) {
+					int result = 
+							compareNullsLast(g1.directionId, g2.directionId);
+					if (result == 0)
+						result = compareNullsLast(g1.order, g2.order);
+					return result != 0 ? 
+							result : compareNullsLast(g1.name, g2.name);
+				}
+			});
+			
+			StringBuilder json = new StringBuilder("{\"data\": [\n");
+			for (Group group : groups) {
+				addRow(json, 
+						new String[] {"early", "ontime", "late", "total", 
+								"stop_name", "direction_id"},
+						new Object[] {group.counts.early, group.counts.ontime,
+								group.counts.late, group.counts.getTotal(), 
+								group.name, group.directionId});
+			}
+			return json.append("]}").toString();
+		} finally {
+			query.connection.close();
+		}
+	}
+
+	/**
+	 * Provides the data of schAdhByTimeData.jsp: the number of
+	 * arrivals/departures for each 30 second bucket of how early they were.
+	 * The time_period is the floor of the bucket in seconds early, so a
+	 * negative value means late.
+	 * 
+	 * @param request
+	 *            Contains the parameters of the report
+	 * @return the JSON string
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	public static String getJsonByTime(HttpServletRequest request)
+			throws SQLException, ParseException {
+		SchedAdhRollupsQuery query = 
+				new SchedAdhRollupsQuery(request.getParameter("a"));
+		try {
+			final SortedMap<Integer, Long> countsPerTimePeriod =
+					new TreeMap<Integer, Long>();
+			query.readAdherence(request, new AdherenceHandler() {
+				@Override
+				public void add(String routeShortName, String directionId,
+						String stopId, Integer stopOrder, int adherenceSecs,
+						int count) {
+					if (Math.abs(adherenceSecs) >= MAX_ADHERENCE_SECS)
+						return;
+					int timePeriod = Math.floorDiv(-adherenceSecs, 
+							BUCKET_TIME_SECS) * BUCKET_TIME_SECS;
+					Long counts = countsPerTimePeriod.get(timePeriod);
+					countsPerTimePeriod.put(timePeriod, 
+							counts == null ? count : counts + count);
+				}
+			});
+			
+			StringBuilder json = new StringBuilder("{\"data\": [\n");
+			for (Map.Entry<Integer, Long> entry : 
+					countsPerTimePeriod.entrySet()) {
+				addRow(json, 
+						new String[] {"counts_per_time_period", "time_period"},
+						new Object[] {entry.getValue(), entry.getKey()});
+			}
+			return json.append("]}").toString();
+		} finally {
+			query.connection.close();
+		}
+	}
+
+	/**
+	 * Returns the group with the name, direction, and order. Creates the
+	 * group if there isn't one yet.
+	 */
+	private static Group getGroup(Map<List<Object>, Group> groups, 
+			String name, String directionId, Integer order, 
+			int allowableEarlySecs, int allowableLateSecs) {
+		List<Object> key = Arrays.<Object> asList(name, directionId, order);
+		Group group = groups.get(key);
+		if (group == null) {
+			group = new Group(name, directionId, order, 
+					new Counts(allowableEarlySecs, allowableLateSecs));
+			groups.put(key, group);
+		}
+		return group;
+	}
+	
+	private static <T extends Comparable<T>> int compareNullsLast(T o1, T o2) {
+		if (o1 == null)
+			return o2 == null ? 0 : 1;
+		if (o2 == null)
+			return -1;
+		return o1.compareTo(o2);
+	}
+	
+	/**
+	 * Adds a row in the same format as GenericJsonQuery does. Null values
+	 * are left out.
+	 */
+	private static void addRow(StringBuilder json, String[] names,
+			Object[] values) {
+		if (json.charAt(json.length() - 1) == '}')
+			json.append(",\n");
+		json.append('{');
+		boolean firstElementInRow = true;
+		for (int i=0; i<values.length; ++i) {
+			if (values[i] == null)
+				continue;
+			if (!firstElementInRow)
+				json.append(",");
+			firstElementInRow = false;
+			json.append("\"").append(names[i]).append("\":");
+			if (values[i] instanceof String)
+				json.append("\"").append(values[i]).append("\"");
+			else
+				json.append(values[i]);
+		}
+		json.append('}');
+	}
+	
+	/**
+	 * Reads the name and order for each ID from a query that returns the ID,
+	 * name, order, and config rev, ordered by config rev. The name and order
+	 * of the latest config rev that has the ID is used.
+	 * 
+	 * @param sql
+	 * @return map of ID to array containing the name and the order
+	 * @throws SQLException
+	 */
+	private Map<String, Object[]> readNamesAndOrders(String sql) 
+			throws SQLException {
+		Map<String, Object[]> namesAndOrders = new HashMap<String, Object[]>();
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				namesAndOrders.put(rs.getString(1), 
+						new Object[] {rs.getString(2), getInteger(rs, 3)});
+			}
+			rs.close();
+		} finally {
+			statement.close();
+		}
+		return namesAndOrders;
+	}
+	
+	private static Integer getInteger(ResultSet rs, int columnIndex) 
+			throws SQLException {
+		int value = rs.getInt(columnIndex);
+		return rs.wasNull() ? null : value;
+	}
+	
+	/**
+	 * Reads the schedule adherence for the days, hours of the day, and routes
+	 * specified by the request. The rollups are used for the hours that have
+	 * been rolled up and the ArrivalsDepartures rows for the hours after
+	 * that.
+	 * 
+	 * @param request
+	 * @param handler
+	 *            For processing the schedule adherence
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	private void readAdherence(HttpServletRequest request, 
+			AdherenceHandler handler) throws SQLException, ParseException {
+		IntervalTimer timer = new IntervalTimer();
+		int[] rollupHours = getRollupHours(request);
+		Date[] dateRange = getDateRange(request);
+		Date beginTime = dateRange[0];
+		Date endTime = dateRange[1];
+		String routeSql = SqlUtils.routeClause(request, null);
+		
+		Date firstUnwrittenHour = new Date(SchedAdhRollups
+				.getFirstUnwrittenHour(System.currentTimeMillis(), timeZone));
+		Date rollupsEnd = 
+				endTime.before(firstUnwrittenHour) ? endTime : firstUnwrittenHour;
+		if (beginTime.before(rollupsEnd))
+			readRollups(beginTime, rollupsEnd, rollupHours, routeSql, handler);
+		
+		Date arrivalsDeparturesBegin = 
+				beginTime.after(firstUnwrittenHour) ? beginTime : firstUnwrittenHour;
+		if (arrivalsDeparturesBegin.before(endTime))
+			readArrivalsDepartures(arrivalsDeparturesBegin, endTime, 
+					rollupHours, routeSql, handler);
+		
+		logger.debug("Reading schedule adherence for {} to {} took {} msec",
+				beginTime, endTime, timer.elapsedMsec());
+	}
+	
+	/**
+	 * Determines the time range from the dateRange request parameter or, if
+	 * that isn't set, from the beginDate and numDays request parameters. The
+	 * days are for the time zone of the agency.
+	 * 
+	 * @param request
+	 * @return array containing the begin time and the end time (exclusive)
+	 * @throws ParseException
+	 */
+	private Date[] getDateRange(HttpServletRequest request) 
+			throws ParseException {
+		Date beginDate;
+		Date lastDate;
+		String dateRange = request.getParameter("dateRange");
+		if (dateRange != null) {
+			String fromToDates[] = dateRange.split(" to ");
+			beginDate = Time.parseDate(fromToDates[0]);
+			lastDate = fromToDates.length == 1 ? 
+					beginDate : Time.parseDate(fromToDates[1]);
+			if (lastDate.getTime() - beginDate.getTime() 
+					>= MAX_NUM_DAYS * Time.DAY_IN_MSECS)
+				throw new IllegalArgumentException("Date range is limited to "
+						+ MAX_NUM_DAYS + " days.");
+		} else {
+			beginDate = Time.parseDate(request.getParameter("beginDate"));
+			int numDays = Math.min(
+					Integer.parseInt(request.getParameter("numDays")),
+					MAX_NUM_DAYS);
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(beginDate);
+			calendar.add(Calendar.DAY_OF_YEAR, numDays - 1);
+			lastDate = calendar.getTime();
+		}
+		
+		// Use the dates that were specified but start the days at midnight
+		// for the agency time zone
+		return new Date[] { getStartOfDay(beginDate, 0), 
+				getStartOfDay(lastDate, 1) };
+	}
+	
+	/**
+	 * Returns the start of the day in the agency time zone for the date
+	 * parsed in the default time zone
+	 * 
+	 * @param parsedDate
+	 * @param daysToAdd
+	 * @return the start of the day
+	 */
+	private Date getStartOfDay(Date parsedDate, int daysToAdd) {
+		Calendar parsedCalendar = Calendar.getInstance();
+		parsedCalendar.setTime(parsedDate);
+		Calendar calendar = new GregorianCalendar(timeZone);
+		calendar.clear();
+		calendar.set(parsedCalendar.get(Calendar.YEAR), 
+				parsedCalendar.get(Calendar.MONTH),
+				parsedCalendar.get(Calendar.DAY_OF_MONTH));
+		calendar.add(Calendar.DAY_OF_YEAR, daysToAdd);
+		return calendar.getTime();
+	}
+	
+	/**
+	 * Reads the ScheduleAdherenceRollups for the time range and hours of the
+	 * day and passes the counts of their histograms to the handler.
+	 */
+	private void readRollups(Date beginTime, Date endTime, int[] rollupHours,
+			String routeSql, AdherenceHandler handler) throws SQLException {
+		String sql = "SELECT "
+				+ "     routeShortName, "
+				+ "     directionId, "
+				+ "     stopId, "
+				+ "     stopOrder, "
+				+ "     histogram "
+				+ " FROM ScheduleAdherenceRollups "
+				+ "WHERE hourStart >= ? AND hourStart < ? "
+				+ "  AND hourOfDay >= " + rollupHours[0]
+				+ "  AND hourOfDay < " + rollupHours[1]
+				+ routeSql;
+		logger.debug("SQL: {}", sql);
+		
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			statement.setTimestamp(1, new Timestamp(beginTime.getTime()));
+			statement.setTimestamp(2, new Timestamp(endTime.getTime()));
+			ResultSet rs = statement.executeQuery();
+			int numRollups = 0;
+			while (rs.next()) {
+				String routeShortName = rs.getString("routeShortName");
+				String directionId = rs.getString("directionId");
+				String stopId = rs.getString("stopId");
+				Integer stopOrder = getInteger(rs, 4);
+				Map<Integer, Integer> histogram = 
+						HistogramUtils.parse(rs.getString("histogram"));
+				for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+					handler.add(routeShortName, directionId, stopId, 
+							stopOrder, entry.getKey(), entry.getValue());
+				}
+				++numRollups;
+			}
+			logger.debug("Read {} schedule adherence rollups", numRollups);
+			rs.close();
+		} finally {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * Reads the ArrivalsDepartures rows that have a schedule time for the
+	 * time range and hours of the day and passes their schedule adherence to
+	 * the handler. Only used for the hours that have not yet been rolled up.
+	 */
+	private void readArrivalsDepartures(Date beginTime, Date endTime, 
+			int[] rollupHours, String routeSql, AdherenceHandler handler) 
+					throws SQLException {
+		String sql = "SELECT "
+				+ "     time, "
+				+ "     scheduledTime, "
+				+ "     routeShortName, "
+				+ "     directionId, "
+				+ "     stopId, "
+				+ "     stopOrder "
+				+ " FROM ArrivalsDepartures "
+				+ "WHERE time >= ? AND time < ? "
+				+ "  AND scheduledTime IS NOT NULL "
+				+ routeSql;
+		logger.debug("SQL: {}", sql);
+		
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			statement.setTimestamp(1, new Timestamp(beginTime.getTime()));
+			statement.setTimestamp(2, new Timestamp(endTime.getTime()));
+			ResultSet rs = statement.executeQuery();
+			Calendar calendar = new GregorianCalendar(timeZone);
+			int numArrivalsDepartures = 0;
+			while (rs.next()) {
+				Timestamp time = rs.getTimestamp("time");
+				
+				// Filter by hour of day
+				calendar.setTime(time);
+				int hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
+				if (hourOfDay < rollupHours[0] || hourOfDay >= rollupHours[1])
+					continue;
+				
+				// Same as for the rollups
+				int adherenceSecs = (int) ((time.getTime() 
+						- rs.getTimestamp("scheduledTime").getTime()) / 1000);
+				handler.add(rs.getString("routeShortName"), 
+						rs.getString("directionId"), rs.getString("stopId"), 
+						getInteger(rs, 6), adherenceSecs, 1);
+				++numArrivalsDepartures;
+			}
+			logger.debug("Read {} arrivals/departures that have not yet "
+					+ "been rolled up", numArrivalsDepartures);
+			rs.close();
+		} finally {
+			statement.close();
+		}
+	}
+}
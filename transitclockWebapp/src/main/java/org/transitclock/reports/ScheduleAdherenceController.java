@@ -22,6 +22,9 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
@@ -39,6 +42,8 @@ import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.IntegerConfigValue;
 import org.transitclock.db.hibernate.HibernateUtils;
 import org.transitclock.db.structs.ArrivalDeparture;
+import org.transitclock.db.structs.ScheduleAdherenceRollup;
+import org.transitclock.utils.HistogramUtils;
 import org.transitclock.utils.Time;
 
 public class ScheduleAdherenceController {
@@ -117,18 +122,44 @@ public class ScheduleAdherenceController {
 		int ontime = 0;
 		Double earlyLimit = (usePredictionLimits.getValue() ? earlyLimitParam : (double)scheduleEarlySeconds.getValue());
 		Double lateLimit = (usePredictionLimits.getValue() ? lateLimitParam : (double)scheduleLateSeconds.getValue());
-		List<Object> results = routeScheduleAdherence(startDate, numDays, startTime, endTime, routeIds, false, null);
-
-		for (Object o : results) {
-			count++;
-			HashMap hm = (HashMap) o;
-			Double d = (Double)hm.get("scheduleAdherence");
-			if (d > lateLimit) {
-				late++;
-			} else if (d < earlyLimit) {
-				early++;
-			} else {
-				ontime++;
+
+		int[] rollupHours = ReportsConfig.isUseSchedAdhRollups() ? 
+				ReportsConfig.getRollupHours(startTime, endTime) : null;
+		if (rollupHours != null) {
+			// Use the histograms of the hourly rollups
+			List<ScheduleAdherenceRollup> rollups = readRollups(startDate,
+					numDays, rollupHours[0], rollupHours[1], "routeId",
+					routeIds, null);
+			for (ScheduleAdherenceRollup rollup : rollups) {
+				SortedMap<Integer, Integer> histogram = 
+						HistogramUtils.parse(rollup.getHistogram());
+				for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+					int d = entry.getKey();
+					int n = entry.getValue();
+					count += n;
+					if (d > lateLimit) {
+						late += n;
+					} else if (d < earlyLimit) {
+						early += n;
+					} else {
+						ontime += n;
+					}
+				}
+			}
+		} else {
+			List<Object> results = routeScheduleAdherence(startDate, numDays, startTime, endTime, routeIds, false, null);
+	
+			for (Object o : results) {
+				count++;
+				HashMap hm = (HashMap) o;
+				Double d = (Double)hm.get("scheduleAdherence");
+				if (d > lateLimit) {
+					late++;
+				} else if (d < earlyLimit) {
+					early++;
+				} else {
+					ontime++;
+				}
 			}
 		}
 		logger.info("query complete -- earlyLimit={}, lateLimit={}, early={}, ontime={}, late={}, count={}",
@@ -153,6 +184,18 @@ public class ScheduleAdherenceController {
 					ids.add(id);
 				}
 		
+		// The grouped results can be determined from the hourly rollups. 
+		// Listing the individual arrivals/departures needs the raw data.
+		if (byGroup && ReportsConfig.isUseSchedAdhRollups()) {
+			int[] rollupHours = ReportsConfig.getRollupHours(startTime, endTime);
+			if (rollupHours != null)
+				return groupScheduleAdherenceFromRollups(startDate, numDays, 
+						rollupHours[0], rollupHours[1], groupName, ids, datatype);
+			logger.info("Times of day {} to {} are not on hour boundaries "
+					+ "so can't use schedule adherence rollups", 
+					startTime, endTime);
+		}
+		
 		Date endDate = new Date(startDate.getTime() + (numDays * Time.MS_PER_DAY));
 
 		ProjectionList proj = Projections.projectionList();
@@ -187,6 +230,105 @@ public class ScheduleAdherenceController {
 
 	}
 
+	/**
+	 * Like groupScheduleAdherence() with byGroup set but uses the hourly
+	 * ScheduleAdherenceRollups instead of the ArrivalDeparture rows. The
+	 * schedule adherence is in seconds.
+	 * 
+	 * @param startDate
+	 * @param numDays
+	 * @param beginHour
+	 *            First hour of the day to use data for
+	 * @param endHour
+	 *            Use data for hours of the day before this one
+	 * @param groupName
+	 *            "routeId" or "stopId"
+	 * @param ids
+	 * @param datatype
+	 * @return list of maps containing the group id, count, and average
+	 *         schedule adherence
+	 */
+	private static List<Object> groupScheduleAdherenceFromRollups(
+			Date startDate, int numDays, int beginHour, int endHour,
+			String groupName, List<String> ids, String datatype) {
+		List<ScheduleAdherenceRollup> rollups = readRollups(startDate, 
+				numDays, beginHour, endHour, groupName, ids, datatype);
+		
+		// Combine the rollups for each group. Each value is the count and
+		// the sum of the schedule adherence.
+		Map<String, long[]> groups = new TreeMap<String, long[]>();
+		for (ScheduleAdherenceRollup rollup : rollups) {
+			String id = "stopId".equals(groupName) ? 
+					rollup.getStopId() : rollup.getRouteId();
+			long[] totals = groups.get(id);
+			if (totals == null) {
+				totals = new long[2];
+				groups.put(id, totals);
+			}
+			totals[0] += rollup.getNumArrivalsDepartures();
+			totals[1] += rollup.getSumAdherenceSecs();
+		}
+		
+		List<Object> results = new ArrayList<Object>();
+		for (Map.Entry<String, long[]> entry : groups.entrySet()) {
+			long[] totals = entry.getValue();
+			HashMap<String, Object> result = new HashMap<String, Object>();
+			result.put(groupName, entry.getKey());
+			result.put("count", totals[0]);
+			result.put("scheduleAdherence", (double) totals[1] / totals[0]);
+			results.add(result);
+		}
+		return results;
+	}
+	
+	/**
+	 * Reads the ScheduleAdherenceRollups for the service days and hours of
+	 * the day specified.
+	 * 
+	 * @param startDate
+	 * @param numDays
+	 * @param beginHour
+	 *            First hour of the day to use data for
+	 * @param endHour
+	 *            Use data for hours of the day before this one
+	 * @param groupName
+	 *            "routeId" or "stopId"
+	 * @param ids
+	 *            If there are non-blank ids then only rollups for these ids
+	 *            are read
+	 * @param datatype
+	 *            "arrival", "departure", or null for both
+	 * @return the rollups
+	 */
+	private static List<ScheduleAdherenceRollup> readRollups(Date startDate,
+			int numDays, int beginHour, int endHour, String groupName,
+			List<String> ids, String datatype) {
+		Date endDate = new Date(startDate.getTime() + (numDays * Time.MS_PER_DAY));
+		DetachedCriteria criteria = DetachedCriteria.forClass(ScheduleAdherenceRollup.class)
+				.add(Restrictions.ge("serviceDate", startDate))
+				.add(Restrictions.lt("serviceDate", endDate))
+				.add(Restrictions.ge("hourOfDay", beginHour))
+				.add(Restrictions.lt("hourOfDay", endHour));
+
+		if ("arrival".equals(datatype))
+			criteria.add(Restrictions.eq("isArrival", true));
+		else if ("departure".equals(datatype))
+			criteria.add(Restrictions.eq("isArrival", false));
+		
+		List<String> nonBlankIds = new ArrayList<String>();
+		if (ids != null)
+			for (String id : ids)
+				if (!StringUtils.isBlank(id))
+					nonBlankIds.add(id);
+		if (nonBlankIds.size() > 0)
+			criteria.add(Restrictions.in(groupName, nonBlankIds));
+
+		List<ScheduleAdherenceRollup> rollups = new ArrayList<ScheduleAdherenceRollup>();
+		for (Object o : dbify(criteria))
+			rollups.add((ScheduleAdherenceRollup) o);
+		return rollups;
+	}
+
 	 private static Date endOfDay(Date endDate) {
 		 Calendar c = Calendar.getInstance();
 		 c.setTime(endDate);
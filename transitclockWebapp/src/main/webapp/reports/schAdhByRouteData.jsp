@@ -16,6 +16,7 @@
 <%@ page language="java" contentType="text/html; charset=ISO-8859-1"
     pageEncoding="ISO-8859-1"%>
 <%@ page import="org.transitclock.reports.GenericJsonQuery" %>
+<%@ page import="org.transitclock.reports.SchedAdhRollupsQuery" %>
 <%@ page import="org.transitclock.reports.SqlUtils" %>
 <%
 try {		
@@ -28,7 +29,15 @@ String allowableLateStr = request.getParameter("allowableLate");
 if (allowableLateStr == null || allowableLateStr.isEmpty())
 	allowableLateStr = "4.0";
 String allowableLateMinutesStr = "'" + SqlUtils.convertMinutesToSecs(allowableLateStr) + " seconds'";
-    		   
+
+String agencyId = request.getParameter("a");
+String jsonString;
+if (SchedAdhRollupsQuery.canUseRollups(request)) {
+	// Use the hourly rollups instead of aggregating all the arrivals/departures
+	jsonString = SchedAdhRollupsQuery.getJsonByRoute(request,
+			SqlUtils.convertMinutesToSecs(allowableEarlyStr),
+			SqlUtils.convertMinutesToSecs(allowableLateStr));
+} else {
 String sql =
 	"SELECT " 
 	+ "     COUNT(CASE WHEN scheduledTime-time > " + allowableEarlyMinutesStr + " THEN 1 ELSE null END) as early, \n"
@@ -54,8 +63,8 @@ String sql =
 System.out.println("\nFor schedule adherence by route query sql=\n" + sql);
     		
 // Do the query and return result in JSON format    
-String agencyId = request.getParameter("a");
-String jsonString  = GenericJsonQuery.getJsonString(agencyId, sql);
+jsonString  = GenericJsonQuery.getJsonString(agencyId, sql);
+}
 response.setContentType("application/json");
 
 response.getWriter().write(jsonString);
@@ -21,6 +21,7 @@
     pageEncoding="ISO-8859-1"%>
 <%@ page import="org.transitclock.db.webstructs.WebAgency" %>
 <%@ page import="org.transitclock.reports.GenericJsonQuery" %>
+<%@ page import="org.transitclock.reports.SchedAdhRollupsQuery" %>
 <%@ page import="org.transitclock.reports.SqlUtils" %>
 <%
 try {
@@ -39,6 +40,11 @@ if (allowableLateStr == null || allowableLateStr.isEmpty())
 	allowableLateStr = "4.0";
 String allowableLateMinutesStr = "'" + SqlUtils.convertMinutesToSecs(allowableLateStr) + " seconds'";
 
+String jsonString;
+if (SchedAdhRollupsQuery.canUseRollups(request)) {
+	// Use the hourly rollups instead of aggregating all the arrivals/departures
+	jsonString = SchedAdhRollupsQuery.getJsonByTime(request);
+} else {
 // Group into timebuckets of 30 seconds
 int BUCKET_TIME = 30;
 String epochCommandPre = "EXTRACT (EPOCH FROM ";
@@ -70,7 +76,8 @@ String sql =
 System.out.println("\nFor schedule adherence by time buckets query sql=\n" + sql);
     		
 // Do the query and return result in JSON format    
-String jsonString = GenericJsonQuery.getJsonString(agencyId, sql);
+jsonString = GenericJsonQuery.getJsonString(agencyId, sql);
+}
 response.setContentType("application/json");
 response.setHeader("Access-Control-Allow-Origin", "*");
 response.getWriter().write(jsonString);
@@ -30,6 +30,9 @@ if (agencyId == null || agencyId.isEmpty()) {
   <li><a href="serverStatus.jsp?a=<%= agencyId %>"
     title="Shows how well system is running, including the AVL feed">
       Server Status</a></li>
+  <li><a href="pipelineLatency.jsp?a=<%= agencyId %>"
+    title="Shows how long each stage of processing AVL reports takes">
+      AVL Processing Latency</a></li>
   <li><a href="dbDiskSpace.jsp?a=<%= agencyId %>"
     title="Shows how much disk space is being used by the database. Currently only works for agencies where PostgreSQL database is used.">
       Database Disk Space Utilization</a></li>
@@ -0,0 +1,85 @@
+<%@page import="org.transitclock.db.webstructs.WebAgency"%>
+<%@page import="java.rmi.RemoteException"%>
+<%@page import="org.transitclock.ipc.interfaces.ServerStatusInterface"%>
+<%@page import="org.transitclock.ipc.clients.ServerStatusInterfaceFactory"%>
+<%@page import="org.transitclock.ipc.data.IpcPipelineStageLatency"%>
+<%@page import="org.transitclock.utils.Time"%>
+<%@page import="java.util.List"%>
+
+<%@ page language="java" contentType="text/html; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%>
+<!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN" "http://www.w3.org/TR/html4/loose.dtd">
+<%
+String agencyId = request.getParameter("a");
+if (agencyId == null || agencyId.isEmpty()) {
+    response.getWriter().write("You must specify agency in query string (e.g. ?a=mbta)");
+    return;
+}
+%>
+<html>
+<head>
+  <%@include file="/template/includes.jsp" %>
+
+  <style>
+  	.content {
+  		margin-left: 20%;
+  		margin-right: 20%;
+  	}
+  	table {
+  		border-collapse: collapse;
+  	}
+  	th, td {
+  		padding: 4px 10px;
+  		text-align: right;
+  		border-bottom: 1px solid #ccc;
+  	}
+  	th:first-child, td:first-child {
+  		text-align: left;
+  	}
+  </style>
+
+<meta http-equiv="Content-Type" content="text/html; charset=ISO-8859-1">
+<title>AVL Processing Latency</title>
+</head>
+<body>
+<%@include file="/template/header.jsp" %>
+<div id="title">AVL Processing Latency for <%= WebAgency.getCachedWebAgency(agencyId).getAgencyName() %></div>
+
+<div class="content">
+<%
+ServerStatusInterface serverStatusInterface =
+		ServerStatusInterfaceFactory.get(agencyId);
+try {
+  List<IpcPipelineStageLatency> latencies =
+		  serverStatusInterface.getPipelineLatencies();
+  if (!latencies.isEmpty()) {
+	%>
+	<p>Time in msec since the previous stage, for AVL reports processed since
+	<%= Time.dateTimeStr(latencies.get(0).getWindowStartTime()) %></p>
+	<table>
+	  <tr><th>Stage</th><th>Count</th><th>Mean</th><th>50%</th><th>90%</th><th>99%</th><th>Max</th></tr>
+	<%
+    for (IpcPipelineStageLatency latency : latencies) {
+	%>
+	  <tr>
+	    <td><%= latency.getDescription() %></td>
+	    <td><%= latency.getCount() %></td>
+	    <td><%= String.format("%.1f", latency.getMean() / 1000.0) %></td>
+	    <td><%= String.format("%.1f", latency.getP50() / 1000.0) %></td>
+	    <td><%= String.format("%.1f", latency.getP90() / 1000.0) %></td>
+	    <td><%= String.format("%.1f", latency.getP99() / 1000.0) %></td>
+	    <td><%= String.format("%.1f", latency.getMax() / 1000.0) %></td>
+	  </tr>
+	<%
+    }
+	%>
+	</table>
+	<%
+  }
+} catch (RemoteException e) {
+	%><%= e.getMessage() %><%
+}
+%>
+</div>
+</body>
+</html>